@@ -8,8 +8,19 @@ public class OverlapGraph {
     private final int minOverlap;
 
     public OverlapGraph(int seedSize, int minOverlap, int maxMismatches) {
-        this.lookup = new SeedLookup(seedSize);
-        if (minOverlap < seedSize) throw new IllegalArgumentException("minOverlap cannot be less than seedSize");
+        this(seedSize, 1, 1, minOverlap, maxMismatches);
+    }
+
+    /**
+     * @param seedSize kmer seed size
+     * @param minimiserWindow number of consecutive seeds from which each indexed minimiser is selected
+     * @param minChainSeeds minimum number of seed hits required to consider an overlap
+     * @param minOverlap minimum overlap length
+     * @param maxMismatches maximum number of mismatches in overlap
+     */
+    public OverlapGraph(int seedSize, int minimiserWindow, int minChainSeeds, int minOverlap, int maxMismatches) {
+        this.lookup = new SeedLookup(seedSize, minimiserWindow, minChainSeeds);
+        if (minOverlap < seedSize + minimiserWindow - 1) throw new IllegalArgumentException("minOverlap cannot be less than seedSize + minimiserWindow - 1");
         this.minOverlap = minOverlap;
         this.maxMismatches = maxMismatches;
     }
@@ -1,60 +1,401 @@
 package assfolder;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
 
+/**
+ * Minimiser-sampled kmer seed index of reads.
+ *
+ * Only the (window, k) minimisers of each read are indexed. Any two reads sharing
+ * window + k - 1 consecutive bases are guaranteed to share a minimiser so a window
+ * size of 1 indexes every kmer.
+ *
+ * Seeds are stored in parallel primitive arrays sorted by kmer. Newly added seeds are
+ * appended to a small unsorted buffer which is sorted and merged into a pending index
+ * once full. The pending index is in turn merged into the main index once it grows too
+ * large. Removed reads are tombstoned and their seeds purged once they make up the
+ * majority of the index.
+ *
+ * Seed hits are chained by read and diagonal. Since read overlaps are ungapped,
+ * co-linear seed hits lie on the same diagonal and each chain corresponds to a
+ * single candidate overlap offset. A diagonal band tolerance allows seed hits
+ * offset by small indels to be chained together, with the chain reported at the
+ * diagonal with the most seed hits.
+ *
+ * Only the seed index is tolerant of indels: the overlap graph and assembler are
+ * ungapped so long reads are not yet assembled. They remain excluded from breakend
+ * assembly by assembly.longReadReadLengthThreshold.
+ */
 public class SeedLookup {
+    private static final int MIN_PENDING_SEEDS = 4096;
+    /**
+     * Number of seeds buffered before they are merged into the pending index
+     */
+    private static final int BUFFER_SEEDS = 1024;
+    private static final int INITIAL_CAPACITY = 1024;
     private final int k;
-    private final Long2ObjectOpenHashMap<Collection<ReadOffset>> lookup = new Long2ObjectOpenHashMap<>();
+    private final int window;
+    private final int minChainSeeds;
+    private final int maxDiagonalDeviation;
+    private final SeedArray index = new SeedArray();
+    private final SeedArray pending = new SeedArray();
+    /**
+     * Recently added seeds. Only sorted by kmer when bufferSorted is set.
+     */
+    private final SeedArray buffer = new SeedArray();
+    private boolean bufferSorted = true;
+    private final SeedArray[] seedArrays = { index, pending, buffer };
+    private final Object2IntOpenHashMap<String> readId = new Object2IntOpenHashMap<>();
+    /**
+     * Indexed reads. Removed reads are null until their seeds are purged.
+     */
+    private Read[] reads = new Read[INITIAL_CAPACITY];
+    private int[] readSeedCount = new int[INITIAL_CAPACITY];
+    private int readCount = 0;
+    private long removedSeeds = 0;
 
     public SeedLookup(int k) {
+        this(k, 1, 1);
+    }
+
+    /**
+     * @param k kmer seed size
+     * @param window number of consecutive kmers from which each minimiser is selected
+     * @param minChainSeeds minimum number of seed hits supporting an overlap
+     */
+    public SeedLookup(int k, int window, int minChainSeeds) {
+        this(k, window, minChainSeeds, 0);
+    }
+
+    /**
+     * @param k kmer seed size
+     * @param window number of consecutive kmers from which each minimiser is selected
+     * @param minChainSeeds minimum number of seed hits supporting an overlap
+     * @param maxDiagonalDeviation maximum difference in diagonal between consecutive seed hits
+     * of the same chain. Zero only chains seed hits on exactly the same diagonal.
+     */
+    public SeedLookup(int k, int window, int minChainSeeds, int maxDiagonalDeviation) {
         if (k > 32) throw new IllegalArgumentException("kmer seed size must fit in 64-bit integer");
+        if (k <= 0) throw new IllegalArgumentException("kmer seed size must be positive");
+        if (window <= 0) throw new IllegalArgumentException("Minimiser window size must be positive");
+        if (minChainSeeds <= 0) throw new IllegalArgumentException("Minimum seeds per overlap must be positive");
+        if (maxDiagonalDeviation < 0) throw new IllegalArgumentException("Diagonal band tolerance cannot be negative");
         this.k = k;
+        this.window = window;
+        this.minChainSeeds = minChainSeeds;
+        this.maxDiagonalDeviation = maxDiagonalDeviation;
+        this.readId.defaultReturnValue(-1);
+    }
+
+    /**
+     * Parallel arrays of seeds sorted by kmer.
+     * Each seed encodes the read id in the high 32 bits and the read offset in the low 32 bits
+     */
+    private static class SeedArray {
+        private long[] kmer = new long[0];
+        private long[] seed = new long[0];
+        private int size = 0;
+
+        /**
+         * Appends the given seed without retaining sort order
+         */
+        private void append(long kmerValue, long seedValue) {
+            if (size == kmer.length) {
+                kmer = LongArrays.grow(kmer, size + 1);
+                seed = LongArrays.grow(seed, size + 1);
+            }
+            kmer[size] = kmerValue;
+            seed[size++] = seedValue;
+        }
+
+        private void sort() {
+            LongArrays.quickSort(kmer, seed, 0, size);
+        }
+
+        private int lowerBound(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (kmer[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Merges the given sorted seeds into this array
+         */
+        private void merge(long[] otherKmer, long[] otherSeed, int otherSize) {
+            if (otherSize == 0) return;
+            long[] newKmer = new long[size + otherSize];
+            long[] newSeed = new long[size + otherSize];
+            int i = 0, j = 0, n = 0;
+            while (i < size && j < otherSize) {
+                if (kmer[i] < otherKmer[j] || (kmer[i] == otherKmer[j] && seed[i] <= otherSeed[j])) {
+                    newKmer[n] = kmer[i];
+                    newSeed[n++] = seed[i++];
+                } else {
+                    newKmer[n] = otherKmer[j];
+                    newSeed[n++] = otherSeed[j++];
+                }
+            }
+            System.arraycopy(kmer, i, newKmer, n, size - i);
+            System.arraycopy(seed, i, newSeed, n, size - i);
+            n += size - i;
+            System.arraycopy(otherKmer, j, newKmer, n, otherSize - j);
+            System.arraycopy(otherSeed, j, newSeed, n, otherSize - j);
+            kmer = newKmer;
+            seed = newSeed;
+            size += otherSize;
+        }
+
+        /**
+         * Removes seeds of removed reads and renumbers the remaining seeds
+         */
+        private void compact(int[] newId) {
+            int n = 0;
+            for (int i = 0; i < size; i++) {
+                int id = newId[seedReadId(seed[i])];
+                if (id >= 0) {
+                    kmer[n] = kmer[i];
+                    seed[n++] = encodeSeed(id, seedOffset(seed[i]));
+                }
+            }
+            size = n;
+            if (kmer.length > 2 * size) {
+                kmer = Arrays.copyOf(kmer, size);
+                seed = Arrays.copyOf(seed, size);
+            }
+        }
+    }
+
+    private static long encodeSeed(int id, int offset) {
+        return ((long)id << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int seedReadId(long seed) {
+        return (int)(seed >>> 32);
+    }
+
+    private static int seedOffset(long seed) {
+        return (int)seed;
+    }
+
+    /**
+     * Ordering used to select minimisers. Hashing prevents poly-A kmers always being selected.
+     */
+    private static long minimiserOrder(long kmer) {
+        kmer ^= kmer >>> 33;
+        kmer *= 0xff51afd7ed558ccdL;
+        kmer ^= kmer >>> 33;
+        return kmer;
     }
 
+    /**
+     * Determines the offsets of the minimisers of the given read
+     * @return number of minimisers written to offsets
+     */
+    private int minimisers(Read read, long[] kmers, int[] offsets) {
+        int kmerCount = read.length() - k + 1;
+        if (kmerCount <= 0) return 0;
+        long[] order = new long[kmerCount];
+        for (int i = 0; i < kmerCount; i++) {
+            kmers[i] = read.getKmer(i, k);
+            order[i] = minimiserOrder(kmers[i]);
+        }
+        if (window == 1) {
+            for (int i = 0; i < kmerCount; i++) {
+                offsets[i] = i;
+            }
+            return kmerCount;
+        }
+        // monotonic queue of minimiser candidates in the current window
+        int[] queue = new int[kmerCount];
+        int head = 0;
+        int tail = 0;
+        int count = 0;
+        int lastMinimiser = -1;
+        for (int i = 0; i < kmerCount; i++) {
+            while (tail > head && order[queue[tail - 1]] > order[i]) {
+                tail--;
+            }
+            queue[tail++] = i;
+            if (queue[head] <= i - window) {
+                head++;
+            }
+            if ((i >= window - 1 || i == kmerCount - 1) && queue[head] != lastMinimiser) {
+                lastMinimiser = queue[head];
+                offsets[count++] = lastMinimiser;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds candidate overlaps between the given read and the reads in the lookup.
+     * @param read read to find overlaps of
+     * @return overlapping reads and the number of bases the overlapping read starts after the given read
+     */
     public Collection<ReadOffset> findOverlaps(Read read) {
-        Set<ReadOffset> matches = new HashSet<>();
-        for (int i = 0 ; i < read.length() - k + 1; i++) {
-            long kmer = read.getKmer(i, k);
-            Collection<ReadOffset> coll = lookup.get(kmer);
-            if (coll != null) {
-                for (ReadOffset ro : coll) {
-                    if (ro.read != read) {
-                        ReadOffset hit = new ReadOffset(ro.read, i - ro.offset);
-                        matches.add(hit);
+        if (!bufferSorted) {
+            buffer.sort();
+            bufferSorted = true;
+        }
+        int kmerCount = Math.max(0, read.length() - k + 1);
+        long[] kmers = new long[kmerCount];
+        int[] offsets = new int[kmerCount];
+        int minimiserCount = minimisers(read, kmers, offsets);
+        long[] hits = new long[Math.max(16, minimiserCount)];
+        int hitCount = 0;
+        for (int m = 0; m < minimiserCount; m++) {
+            int offset = offsets[m];
+            long kmer = kmers[offset];
+            for (SeedArray sa : seedArrays) {
+                for (int i = sa.lowerBound(kmer); i < sa.size && sa.kmer[i] == kmer; i++) {
+                    int id = seedReadId(sa.seed[i]);
+                    Read hitRead = reads[id];
+                    if (hitRead != null && hitRead != read) {
+                        if (hitCount == hits.length) {
+                            hits = LongArrays.grow(hits, hitCount + 1);
+                        }
+                        // flip sign bit so negative diagonals sort before positive diagonals
+                        int diagonal = offset - seedOffset(sa.seed[i]);
+                        hits[hitCount++] = encodeSeed(id, diagonal ^ Integer.MIN_VALUE);
                     }
                 }
             }
         }
-        return matches;
+        LongArrays.quickSort(hits, 0, hitCount);
+        List<ReadOffset> result = new ArrayList<>();
+        for (int i = 0; i < hitCount; ) {
+            int id = seedReadId(hits[i]);
+            int chainEnd = i + 1;
+            while (chainEnd < hitCount
+                    && seedReadId(hits[chainEnd]) == id
+                    && hitDiagonal(hits[chainEnd]) - hitDiagonal(hits[chainEnd - 1]) <= maxDiagonalDeviation) {
+                chainEnd++;
+            }
+            if (chainEnd - i >= minChainSeeds) {
+                result.add(new ReadOffset(reads[id], modalDiagonal(hits, i, chainEnd)));
+            }
+            i = chainEnd;
+        }
+        return result;
     }
 
-    public void add(Read read) {
-        for (int i = 0 ; i < read.length() - k + 1; i++) {
-            ReadOffset ro = new ReadOffset(read, i);
-            long kmer = read.getKmer(i, k);
-            Collection<ReadOffset> coll = lookup.get(kmer);
-            if (coll == null) {
-                coll = new ArrayList<>();
-                lookup.put(kmer, coll);
+    private static int hitDiagonal(long hit) {
+        return seedOffset(hit) ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * Diagonal with the most seed hits in the given sorted chain of hits.
+     */
+    private static int modalDiagonal(long[] hits, int start, int end) {
+        int best = hitDiagonal(hits[start]);
+        int bestCount = 0;
+        for (int i = start; i < end; ) {
+            int j = i + 1;
+            while (j < end && hits[j] == hits[i]) {
+                j++;
+            }
+            if (j - i > bestCount) {
+                best = hitDiagonal(hits[i]);
+                bestCount = j - i;
             }
-            coll.add(ro);
+            i = j;
+        }
+        return best;
+    }
+
+    public void add(Read read) {
+        if (readCount == reads.length) {
+            reads = Arrays.copyOf(reads, 2 * readCount);
+            readSeedCount = Arrays.copyOf(readSeedCount, 2 * readCount);
+        }
+        int id = readCount++;
+        int kmerCount = Math.max(0, read.length() - k + 1);
+        long[] kmers = new long[kmerCount];
+        int[] offsets = new int[kmerCount];
+        int minimiserCount = minimisers(read, kmers, offsets);
+        for (int i = 0; i < minimiserCount; i++) {
+            buffer.append(kmers[offsets[i]], encodeSeed(id, offsets[i]));
+        }
+        bufferSorted = bufferSorted && minimiserCount == 0;
+        reads[id] = read;
+        readSeedCount[id] = minimiserCount;
+        readId.put(read.uid(), id);
+        if (buffer.size >= BUFFER_SEEDS) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Sorts the buffered seeds and merges them into the pending index
+     */
+    private void flushBuffer() {
+        if (!bufferSorted) {
+            buffer.sort();
+            bufferSorted = true;
+        }
+        pending.merge(buffer.kmer, buffer.seed, buffer.size);
+        buffer.size = 0;
+        if (pending.size > Math.max(MIN_PENDING_SEEDS, index.size >>> 3)) {
+            index.merge(pending.kmer, pending.seed, pending.size);
+            pending.size = 0;
         }
     }
 
     public void remove(Read read) {
-        for (int i = 0 ; i < read.length() - k + 1; i++) {
-            long kmer = read.getKmer(i, k);
-            Collection<ReadOffset> coll = lookup.get(kmer);
-            if (coll == null) {
-                throw new NoSuchElementException("Unable to find read kmer in lookup");
-            }
-            coll.removeIf(ro -> ro.read == read);
-            if (coll.isEmpty()) {
-                lookup.remove(kmer);
+        int id = readId.getInt(read.uid());
+        if (id < 0 || reads[id] != read) {
+            throw new NoSuchElementException("Unable to find read in lookup");
+        }
+        readId.removeInt(read.uid());
+        reads[id] = null;
+        removedSeeds += readSeedCount[id];
+        if (removedSeeds > size() - removedSeeds) {
+            purgeRemovedReads();
+        }
+    }
+
+    private void purgeRemovedReads() {
+        int[] newId = new int[readCount];
+        int liveCount = 0;
+        for (int i = 0; i < readCount; i++) {
+            if (reads[i] == null) {
+                newId[i] = -1;
+            } else {
+                newId[i] = liveCount;
+                reads[liveCount] = reads[i];
+                readSeedCount[liveCount] = readSeedCount[i];
+                readId.put(reads[i].uid(), liveCount);
+                liveCount++;
             }
         }
+        Arrays.fill(reads, liveCount, readCount, null);
+        readCount = liveCount;
+        // renumbering preserves relative read id order so seeds remain sorted
+        index.compact(newId);
+        pending.compact(newId);
+        buffer.compact(newId);
+        removedSeeds = 0;
+    }
+
+    /**
+     * Number of seeds in the index, including seeds of removed reads not yet purged
+     */
+    public long size() {
+        return (long)index.size + pending.size + buffer.size;
     }
 
     /**
@@ -63,14 +404,8 @@ public class SeedLookup {
      * @return
      */
     public Read getRead(Read read) {
-        long kmer = read.getKmer(0, k);
-        Collection<ReadOffset> coll = lookup.get(kmer);
-        if (coll == null) return null;
-        for (ReadOffset ro : coll) {
-            if (ro.read.uid().equals(read.uid())) {
-                return ro.read;
-            }
-        }
-        return null;
+        int id = readId.getInt(read.uid());
+        if (id < 0) return null;
+        return reads[id];
     }
 }
@@ -1,5 +1,7 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.alignment.BwaAligner;
+import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
 import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
 import au.edu.wehi.idsv.debruijn.positional.PositionalAssembler;
@@ -11,7 +13,9 @@ import au.edu.wehi.idsv.util.DebugSpammingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.visualisation.AssemblyTelemetry;
 import com.google.common.base.Stopwatch;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.util.concurrent.MoreExecutors;
 import gridss.SoftClipsToSplitReads;
 import gridss.cmdline.CommandLineProgramHelper;
@@ -20,10 +24,13 @@ import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeIOException;
+import org.broadinstitute.hellbender.utils.bwa.BwaMemIndex;
+import scambler.StringGraphAssembler;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -42,6 +49,14 @@ import java.util.stream.IntStream;
  */
 public class AssemblyEvidenceSource extends SAMEvidenceSource {
 	private static final Log log = Log.getInstance(AssemblyEvidenceSource.class);
+	/**
+	 * Configuration sections that affect assembly output
+	 */
+	public static final String[] ASSEMBLY_CONFIGURATION_SECTIONS = ObjectArrays.concat(EVIDENCE_CONFIGURATION_SECTIONS, "assembly");
+	/**
+	 * Number of maximum length contigs to batch together for in-process realignment
+	 */
+	private static final int CONTIG_REALIGNMENT_BATCH_SIZE = 1024;
 	public static final String INPUT_CATEGORY_SAM_HEADER_PREFIX = "gridss_input_category=";
 	private final List<SAMEvidenceSource> source;
 	private int cachedMaxSourceFragSize = -1;
@@ -52,6 +67,7 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 	private SAMFileHeader header;
 	protected List<String> assembledCategories;
 	private int[] assemblyOrdinalToProcessingCategoryLookup;
+	private BwaMemIndex contigRealignmentIndex;
 	/**
 	 * Generates assembly evidence based on the given evidence
 	 * @param evidence evidence for creating assembly
@@ -90,22 +106,43 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		}
 		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
 		List<File> assembledChunk = new ArrayList<>();
-		List<Future<Void>> tasks = new ArrayList<>();
+		List<Callable<Void>> tasks = new ArrayList<>();
+		List<File> inputs = source.stream().map(ses -> ses.getEvidenceFile()).collect(Collectors.toList());
+		List<QueryInterval[]> toAssemble = new ArrayList<>();
 		for (int i = 0; i < chunks.size(); i++) {
 			if (i % jobNodes == jobNodeIndex) {
 				QueryInterval[] chunk = chunks.get(i);
 				File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
 				int chunkNumber = i;
 				assembledChunk.add(f);
-				if (!f.exists()) {
-					tasks.add(threadpool.submit(() -> {
+				IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+				String parameters = IntermediateFileManifest.parameterHash(getContext().getConfig().getParameterHash(ASSEMBLY_CONFIGURATION_SECTIONS), chunk);
+				if (!manifest.isComplete(f, parameters, inputs)) {
+					toAssemble.add(getExpanded(chunk));
+					int taskNumber = tasks.size();
+					tasks.add(() -> {
+						if (taskNumber + 1 < toAssemble.size()) {
+							getContext().getReference().prefetch(toAssemble.get(taskNumber + 1));
+						}
+						Stopwatch timer = Stopwatch.createStarted();
 						assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
+						manifest.record(f, "assembleBreakends", parameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
 						return null;
-					}));
+					});
 				}
 			}
 		}
-		runTasks(tasks);
+		// each chunk is read once per assembly direction
+		source.stream().forEach(ses -> ses.prepareChunks(toAssemble, BreakendDirection.values().length));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (Callable<Void> task : tasks) {
+				futures.add(threadpool.submit(task));
+			}
+			runTasks(futures);
+		} finally {
+			source.stream().forEach(ses -> ses.releaseChunks());
+		}
 		if (telemetry != null) {
 			telemetry.close();
 			telemetry = null;
@@ -187,18 +224,31 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		Stopwatch timer = Stopwatch.createStarted();
 		File filteredout = FileSystemContext.getWorkingFileFor(output, "filtered.");
 		File tmpout = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.");
+		// Accumulate regions locally to the chunk so assembly threads don't contend on the shared region sets
+		IntervalBed chunkExcludedRegions = new IntervalBed(getContext().getLinear());
+		IntervalBed chunkSafetyRegions = new IntervalBed(getContext().getLinear());
+		IntervalBed chunkDownsampledRegions = new IntervalBed(getContext().getLinear());
+		BwaStreamingAligner contigAligner = null;
 		try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(getHeader(), false, tmpout)) {
+			StreamingSplitReadRealigner realigner = null;
+			if (getContext().getAssemblyParameters().realignInProcess) {
+				contigAligner = new BwaStreamingAligner(new BwaAligner(getContigRealignmentIndex(), getContext().getDictionary(), 1), CONTIG_REALIGNMENT_BATCH_SIZE * getMaxAssemblyLength());
+				realigner = createContigRealigner(contigAligner);
+			}
 			if (getContext().getAssemblyParameters().writeFiltered) {
 				try (SAMFileWriter filteredWriter = new SAMFileWriterFactory().makeSAMOrBAMWriter(getHeader(), false, filteredout)) {
 					for (BreakendDirection direction : BreakendDirection.values()) {
-						assembleChunk(writer, filteredWriter, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions);
+						assembleChunk(writer, filteredWriter, realigner, chunkNumber, qi, direction, assemblyNameGenerator, chunkExcludedRegions, chunkSafetyRegions, chunkDownsampledRegions);
 					}
 				}
 			} else {
 				for (BreakendDirection direction : BreakendDirection.values()) {
-					assembleChunk(writer, null, chunkNumber, qi, direction, assemblyNameGenerator, excludedRegions, safetyRegions, downsampledRegions);
+					assembleChunk(writer, null, realigner, chunkNumber, qi, direction, assemblyNameGenerator, chunkExcludedRegions, chunkSafetyRegions, chunkDownsampledRegions);
 				}
 			}
+			excludedRegions.addAll(chunkExcludedRegions);
+			safetyRegions.addAll(chunkSafetyRegions);
+			downsampledRegions.addAll(chunkDownsampledRegions);
 		} catch (Exception e) {
 			log.error(e, "Error assembling ", chuckName);
 			if (getContext().getConfig().terminateOnFirstError) {
@@ -206,6 +256,9 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			}
 			throw e;
 		} finally {
+			if (contigAligner != null) {
+				contigAligner.close();
+			}
 			timer.stop();
 			log.info(String.format("Completed assembly on %s in %ds (%s)", chuckName, timer.elapsed(TimeUnit.SECONDS), timer.toString()));
 		}
@@ -214,11 +267,6 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			tmpout.delete();
 			filteredout.delete();
 		}
-		if (gridss.Defaults.DEFENSIVE_GC) {
-			log.info("Requesting defensive GC to ensure OS file handles are closed");
-			System.gc();
-			System.runFinalization();
-		}
 	}
 
 	private QueryInterval[] getExpanded(QueryInterval[] intervals) {
@@ -229,32 +277,75 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 				(int)(2 * getMaxConcordantFragmentSize() * getContext().getConfig().getAssembly().maxExpectedBreakendLengthMultiple) + 1);
 		return expanded;
 	}
-	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator,
-							   IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) {
+	/**
+	 * Split read identification of contigs. Matches the split read identification
+	 * performed on the assembly file by {@link #ensureExtracted()}.
+	 */
+	private StreamingSplitReadRealigner createContigRealigner(BwaStreamingAligner aligner) {
+		StreamingSplitReadRealigner realigner = new StreamingSplitReadRealigner(getContext(), aligner, getContext().getFileSystemContext().getMaxBufferedRecordsPerFile());
+		getSplitReadProgram().configureRealigner(realigner);
+		realigner.setWorkerThreads(1);
+		return realigner;
+	}
+	private synchronized BwaMemIndex getContigRealignmentIndex() {
+		if (contigRealignmentIndex == null) {
+			// index is shared by the contig aligners of all assembly threads
+			contigRealignmentIndex = BwaAligner.getBwaIndexFor(getContext().getReferenceFile());
+			BwaAligner.ensureMatchingReferences(contigRealignmentIndex, getContext().getDictionary());
+		}
+		return contigRealignmentIndex;
+	}
+	private Iterator<SAMRecord> createAssembler(int chunkNumber, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator, Iterator<DirectedEvidence> it,
+			IntervalBed excludedRegions, IntervalBed safetyRegions) {
+		AssemblyConfiguration ap = getContext().getConfig().getAssembly();
+		switch (ap.algorithm) {
+			case StringGraph:
+				return new StringGraphAssembler(getContext(), this, assemblyNameGenerator, it, direction, ap.stringGraph.minOverlap, ap.stringGraph.maxMismatches);
+			case Positional:
+			default:
+				PositionalAssembler positionalAssembler = new PositionalAssembler(getContext(), this, assemblyNameGenerator, it, direction, excludedRegions, safetyRegions);
+				if (telemetry != null) {
+					positionalAssembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
+				}
+				return positionalAssembler;
+		}
+	}
+	private void assembleChunk(SAMFileWriter writer, SAMFileWriter filteredWriter, StreamingSplitReadRealigner realigner, int chunkNumber, QueryInterval[] intervals, BreakendDirection direction, AssemblyIdGenerator assemblyNameGenerator,
+							   IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) throws IOException {
 		QueryInterval[] expanded = getExpanded(intervals);
 		try (CloseableIterator<DirectedEvidence> input = mergedIterator(source, expanded, EvidenceSortOrder.SAMRecordStartPosition)) {
 			Iterator<DirectedEvidence> throttledIt = throttled(input, downsampledRegions);
 			Iterator<DirectedEvidence> errorCorrectedIt = errorCorrected(throttledIt);
-			PositionalAssembler positionalAssembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, errorCorrectedIt, direction, excludedRegions, safetyRegions);
-			if (telemetry != null) {
-				positionalAssembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
-			}
-			Iterator<SAMRecord> assembler = positionalAssembler;
+			Iterator<SAMRecord> assembler = createAssembler(chunkNumber, direction, assemblyNameGenerator, errorCorrectedIt, excludedRegions, safetyRegions);
 			if (Defaults.SANITY_CHECK_DUMP_ITERATORS) {
 				assembler = Iterators.peekingIterator(new DebugSpammingIterator<>(assembler, "AssemblyEvidenceSource.assembler"));
 			}
-			while (assembler.hasNext()) {
-				SAMRecord asm = assembler.next();
-				asm = transformAssembly(asm); // transform before chunk bounds checking as the position may have moved
-				if (QueryIntervalUtil.overlaps(intervals, asm.getReferenceIndex(), asm.getAlignmentStart())) {
-					// only output assemblies that start within our chunk
-					if (shouldFilterAssembly(asm)) {
-						if (filteredWriter != null) {
-							filteredWriter.addAlignment(asm);
+			Iterator<SAMRecord> assemblerIt = assembler;
+			Iterator<SAMRecord> contigs = new AbstractIterator<SAMRecord>() {
+				@Override
+				protected SAMRecord computeNext() {
+					while (assemblerIt.hasNext()) {
+						SAMRecord asm = assemblerIt.next();
+						asm = transformAssembly(asm); // transform before chunk bounds checking as the position may have moved
+						if (QueryIntervalUtil.overlaps(intervals, asm.getReferenceIndex(), asm.getAlignmentStart())) {
+							// only output assemblies that start within our chunk
+							if (!shouldFilterAssembly(asm)) {
+								return asm;
+							}
+							if (filteredWriter != null) {
+								filteredWriter.addAlignment(asm);
+							}
 						}
-					} else {
-						writer.addAlignment(asm);
 					}
+					return endOfData();
+				}
+			};
+			if (realigner != null) {
+				// realigned contigs may have moved so the output is sorted once the chunk is complete
+				realigner.process(contigs, writer, writer);
+			} else {
+				while (contigs.hasNext()) {
+					writer.addAlignment(contigs.next());
 				}
 			}
 		}
@@ -263,22 +354,36 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 	public synchronized void ensureExtracted() throws IOException {
 		ensureMetrics();
 		File svFile = getContext().getFileSystemContext().getSVBam(getFile());
-		File withsplitreadsFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.withsplitreads.");
 		ensureMetrics();
 		if (!svFile.exists()) {
-			log.info("Identifying split reads for " + getFile().getAbsolutePath());
-			SoftClipsToSplitReads program = new SoftClipsToSplitReads();
-			program.setReference(getProcessContext().getReference());
-			program.setFileSystemContext(getProcessContext().getFileSystemContext());
-			CommandLineProgramHelper cmd = new CommandLineProgramHelper(program);
-			cmd.addArg("WORKER_THREADS", getProcessContext().getWorkerThreadCount());
-			cmd.addArg("INPUT", getFile().getPath());
-			cmd.addArg("OUTPUT", svFile.getPath());
-			cmd.addArg("READJUST_PRIMARY_ALIGNMENT_POSITION", "true");
-			cmd.addArg("REALIGN_ENTIRE_READ=", getContext().getConfig().getAssembly().realignContigs);
-			execute(cmd);
-		}
-		SAMFileUtil.sort(getContext().getFileSystemContext(), withsplitreadsFile, svFile, SortOrder.coordinate);
+			if (getContext().getAssemblyParameters().realignInProcess) {
+				// split reads were identified as the contigs were assembled
+				SAMFileUtil.sort(getContext().getFileSystemContext(), getFile(), svFile, SortOrder.coordinate);
+			} else {
+				log.info("Identifying split reads for " + getFile().getAbsolutePath());
+				SoftClipsToSplitReads program = getSplitReadProgram();
+				program.setReference(getProcessContext().getReference());
+				program.setFileSystemContext(getProcessContext().getFileSystemContext());
+				CommandLineProgramHelper cmd = new CommandLineProgramHelper(program);
+				cmd.addArg("WORKER_THREADS", getProcessContext().getWorkerThreadCount());
+				cmd.addArg("INPUT", getFile().getPath());
+				cmd.addArg("OUTPUT", svFile.getPath());
+				cmd.addArg("ALIGNER_STREAMING", "true");
+				cmd.addArg("COORDINATE_SORT_OUTPUT", "true");
+				cmd.addArg("READJUST_PRIMARY_ALIGNMENT_POSITION", "true");
+				cmd.addArg("REALIGN_ENTIRE_READ=", getContext().getConfig().getAssembly().realignContigs);
+				execute(cmd);
+			}
+		}
+	}
+	/**
+	 * Split read identification parameters for assembly contigs
+	 */
+	private SoftClipsToSplitReads getSplitReadProgram() {
+		SoftClipsToSplitReads program = new SoftClipsToSplitReads();
+		program.READJUST_PRIMARY_ALIGNMENT_POSITION = true;
+		program.REALIGN_ENTIRE_READ = getContext().getConfig().getAssembly().realignContigs;
+		return program;
 	}
 	@Override
 	public boolean shouldFilter(SAMRecord r) {
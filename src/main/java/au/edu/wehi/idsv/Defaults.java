@@ -15,6 +15,9 @@ public class Defaults {
 	public static final boolean NO_LIBGKL;
 	public static final boolean ASYNC_CACHE_REFERENCE;
 	public static final boolean CACHE_REFERENCE;
+	public static final boolean PAGED_REFERENCE;
+	public static final int PAGED_REFERENCE_PAGE_SIZE;
+	public static final long PAGED_REFERENCE_MAX_CACHED_BASES;
 	public static final boolean ATTEMPT_ASSEMBLY_RECOVERY;
 	public static final boolean USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES;
     public static final boolean EXPORT_INPROCESS_ALIGNMENTS;
@@ -32,6 +35,9 @@ public class Defaults {
 		NO_LIBGKL = Boolean.valueOf(System.getProperty("gkljni.disable", "true"));
 		ASYNC_CACHE_REFERENCE = !Boolean.valueOf(System.getProperty("reference.loading.sync", "false"));
 		CACHE_REFERENCE = !Boolean.valueOf(System.getProperty("reference.cache", "true"));
+		PAGED_REFERENCE = Boolean.valueOf(System.getProperty("reference.paged", "false"));
+		PAGED_REFERENCE_PAGE_SIZE = Integer.parseInt(System.getProperty("reference.paged.pageSize", "1048576"));
+		PAGED_REFERENCE_MAX_CACHED_BASES = Long.parseLong(System.getProperty("reference.paged.maxCachedBases", "1073741824"));
 		ATTEMPT_ASSEMBLY_RECOVERY = Boolean.valueOf(System.getProperty("assembly.recover", "true"));
 		USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES = Boolean.valueOf(System.getProperty("assembly.optimised_data_structures", "true"));
 		EXPORT_INPROCESS_ALIGNMENTS = Boolean.valueOf(System.getProperty("bwa.export", "false"));
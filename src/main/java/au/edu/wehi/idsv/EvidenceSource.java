@@ -1,10 +1,15 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.configuration.GridssConfiguration;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 
 import java.io.File;
 
 public abstract class EvidenceSource {
+	/**
+	 * Configuration sections that affect the evidence generated from an evidence file
+	 */
+	public static final String[] EVIDENCE_CONFIGURATION_SECTIONS = { GridssConfiguration.TOP_LEVEL_SECTION, "softclip", "scoring" };
 	public abstract int getMaxConcordantFragmentSize();
 	public abstract int getMinConcordantFragmentSize();
 	public abstract int getMaxReadLength();
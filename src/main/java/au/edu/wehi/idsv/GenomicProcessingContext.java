@@ -1,8 +1,10 @@
 package au.edu.wehi.idsv;
 
 import au.edu.wehi.idsv.bed.IntervalBed;
+import au.edu.wehi.idsv.picard.PagedReferenceSequenceFile;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
+import au.edu.wehi.idsv.sam.SamReaderPool;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.vcf.GridssVcfConstants;
 import com.google.common.collect.Lists;
@@ -45,6 +47,7 @@ public class GenomicProcessingContext implements Closeable {
 	private IntervalBed blacklist;
 	private boolean filterDuplicates = true;
 	private int workerThreads = 1;
+	private SamReaderPool readerPool;
 	/**
 	 * Create a new genomic processing context
 	 * @param fileSystemContext file system context
@@ -59,7 +62,7 @@ public class GenomicProcessingContext implements Closeable {
 		}
 		if (reference == null) {
 			this.reference = LoadSynchronizedReference(referenceFile);
-			if (Defaults.ASYNC_CACHE_REFERENCE) {
+			if (Defaults.ASYNC_CACHE_REFERENCE && !Defaults.PAGED_REFERENCE) {
 				BackgroundCacheReference(referenceFile);
 			}
 		} else {
@@ -96,6 +99,11 @@ public class GenomicProcessingContext implements Closeable {
 	protected ReferenceLookup LoadSynchronizedReference(File referenceFile) {
 		try {
 			ReferenceSequenceFile underlying = new IndexedFastaSequenceFile(referenceFile);
+			if (Defaults.PAGED_REFERENCE) {
+				// pages are loaded on demand so the reference does not need to fit in memory
+				int maxPages = (int)Math.max(1, Math.min(Integer.MAX_VALUE, Defaults.PAGED_REFERENCE_MAX_CACHED_BASES / Defaults.PAGED_REFERENCE_PAGE_SIZE));
+				return new PagedReferenceSequenceFile(underlying, Defaults.PAGED_REFERENCE_PAGE_SIZE, maxPages);
+			}
 			if (referenceFile.length() > Runtime.getRuntime().maxMemory()) {
 				log.error("Caching reference fasta in memory would require more than 50% of the memory allocated to the JVM. Allocate more heap memory to the JVM..");
 				throw new RuntimeException("Not enough memory to cache reference fasta.");
@@ -138,7 +146,17 @@ public class GenomicProcessingContext implements Closeable {
 	 * @return  htsjdk reader
 	 */
 	public SamReader getSamReader(File file) {
-		return getSamReaderFactory().open(file);
+		return getSamReaderPool().open(file);
+	}
+
+	/**
+	 * Gets the pool of readers leased by {@link #getSamReader(File)}
+	 */
+	public synchronized SamReaderPool getSamReaderPool() {
+		if (readerPool == null) {
+			readerPool = new SamReaderPool(getSamReaderFactory(), gridss.Defaults.SAM_READER_POOL_SIZE, gridss.Defaults.SAM_READER_POOL_IDLE_MILLISECONDS);
+		}
+		return readerPool;
 	}
 
 	public SamReaderFactory getSamReaderFactory() {
@@ -272,6 +290,9 @@ public class GenomicProcessingContext implements Closeable {
 	public void close() throws IOException {
 		log.debug("close() called");
 		if (reference != null) reference.close();
+		synchronized (this) {
+			if (readerPool != null) readerPool.close();
+		}
 	}
 
 	public boolean isFilterDuplicates() {
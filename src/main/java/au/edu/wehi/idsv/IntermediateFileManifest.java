@@ -0,0 +1,334 @@
+package au.edu.wehi.idsv;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hashing;
+import htsjdk.samtools.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Records how each intermediate file in a working directory was generated.
+ *
+ * Each entry records the program that produced the intermediate file, the inputs it
+ * was generated from, a hash of the generation parameters, the size and CRC32 of the
+ * file, and how long the file took to generate.
+ *
+ * An intermediate file is only reused if it matches its manifest entry. This ensures that
+ * truncated intermediate files from killed jobs, and files generated from different inputs
+ * or parameters are regenerated.
+ *
+ * Entries are appended to the manifest with later entries for a file replacing earlier ones.
+ * Processes sharing a working directory coordinate manifest access by locking a sidecar lock file.
+ *
+ * The modification time of each file is recorded alongside its checksum. The checksum is
+ * only recalculated when the modification time of the file no longer matches the manifest,
+ * so GRIDSS steps running in separate processes do not each reread every intermediate file.
+ * A file whose checksum still matches is re-recorded with its new modification time.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class IntermediateFileManifest {
+	private static final Log log = Log.getInstance(IntermediateFileManifest.class);
+	public static final String MANIFEST_FILENAME = "gridss.manifest.tsv";
+	private static final String HEADER = "#file\tproducer\tparameters\tinputs\tsize\tcrc32\telapsed_ms\tlast_modified_ns";
+	private static final long UNKNOWN_LAST_MODIFIED = -1;
+	private static final String LOCK_SUFFIX = ".lock";
+	private static final int CHECKSUM_BUFFER_SIZE = 1 << 16;
+	private static final Map<File, IntermediateFileManifest> manifests = new ConcurrentHashMap<>();
+	private static final AtomicLong totalReused = new AtomicLong();
+	private static final AtomicLong totalSavedMs = new AtomicLong();
+	/**
+	 * Files already counted as reused by this process
+	 */
+	private static final Set<String> reported = ConcurrentHashMap.newKeySet();
+	private final File manifestFile;
+	private final File lockFile;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private static class Entry {
+		private final String file;
+		private final String producer;
+		private final String parameters;
+		private final String inputs;
+		private final long size;
+		private final long crc32;
+		private final long elapsedMs;
+		private final long lastModified;
+		private Entry(String file, String producer, String parameters, String inputs, long size, long crc32, long elapsedMs, long lastModified) {
+			this.file = file;
+			this.producer = producer;
+			this.parameters = parameters;
+			this.inputs = inputs;
+			this.size = size;
+			this.crc32 = crc32;
+			this.elapsedMs = elapsedMs;
+			this.lastModified = lastModified;
+		}
+		private static Entry parse(String line) {
+			List<String> fields = Splitter.on('\t').splitToList(line);
+			// entries written before the modification time was recorded have 7 fields
+			if (fields.size() != 7 && fields.size() != 8) return null;
+			try {
+				return new Entry(fields.get(0), fields.get(1), fields.get(2), fields.get(3),
+						Long.parseLong(fields.get(4)), Long.parseLong(fields.get(5), 16), Long.parseLong(fields.get(6)),
+						fields.size() == 8 ? Long.parseLong(fields.get(7)) : UNKNOWN_LAST_MODIFIED);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		private Entry withLastModified(long lastModified) {
+			return new Entry(file, producer, parameters, inputs, size, crc32, elapsedMs, lastModified);
+		}
+		@Override
+		public String toString() {
+			return Joiner.on('\t').join(file, producer, parameters, inputs, size, Long.toHexString(crc32), elapsedMs, lastModified);
+		}
+	}
+	private IntermediateFileManifest(File directory) {
+		this.manifestFile = new File(directory, MANIFEST_FILENAME);
+		this.lockFile = new File(directory, MANIFEST_FILENAME + LOCK_SUFFIX);
+		if (manifestFile.exists()) {
+			mergeFromDisk();
+		}
+	}
+	/**
+	 * Gets the manifest for the working directory containing the given file
+	 */
+	public static IntermediateFileManifest forFile(File file) {
+		File dir = file.getAbsoluteFile().getParentFile();
+		return manifests.computeIfAbsent(dir, IntermediateFileManifest::new);
+	}
+	/**
+	 * Hashes the given generation parameters
+	 */
+	public static String parameterHash(Object... parameters) {
+		return Hashing.murmur3_128().hashString(Arrays.deepToString(parameters), StandardCharsets.UTF_8).toString();
+	}
+	private static Map<String, Entry> read(File manifestFile) {
+		Map<String, Entry> result = new LinkedHashMap<>();
+		if (!manifestFile.exists()) return result;
+		try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("#") || line.isEmpty()) continue;
+				Entry e = Entry.parse(line);
+				if (e == null) {
+					log.warn("Ignoring malformed manifest entry in ", manifestFile, ": ", line);
+				} else {
+					result.put(e.file, e);
+				}
+			}
+		} catch (IOException e) {
+			log.warn(e, "Unable to read ", manifestFile, ". Intermediate files will be regenerated.");
+		}
+		return result;
+	}
+	private static String key(File file) {
+		return file.getName();
+	}
+	private static String describeInputs(List<File> inputs) {
+		if (inputs == null || inputs.isEmpty()) return ".";
+		List<String> list = new ArrayList<>(inputs.size());
+		for (File f : inputs) {
+			list.add(f == null ? "." : f.getAbsolutePath() + ":" + f.length() + ":" + f.lastModified());
+		}
+		return Joiner.on(',').join(list);
+	}
+	private static long lastModified(File file) throws IOException {
+		return Files.getLastModifiedTime(file.toPath()).to(TimeUnit.NANOSECONDS);
+	}
+	/**
+	 * Calculates the CRC32 of the given file
+	 */
+	public static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+		try (InputStream in = new FileInputStream(file)) {
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				crc.update(buffer, 0, n);
+			}
+		}
+		return crc.getValue();
+	}
+	/**
+	 * Records that the given intermediate file has been successfully generated.
+	 * @param file intermediate file
+	 * @param producer program or stage that produced the file
+	 * @param parameters hash of the parameters used to generate the file
+	 * @param inputs files the intermediate was generated from
+	 * @param elapsedMs time taken to generate the file
+	 */
+	public void record(File file, String producer, String parameters, List<File> inputs, long elapsedMs) throws IOException {
+		Entry e = new Entry(key(file), producer, parameters, describeInputs(inputs), file.length(), checksum(file), elapsedMs, lastModified(file));
+		record(e);
+		reported.remove(file.getAbsolutePath());
+	}
+	private synchronized void record(Entry e) throws IOException {
+		try (FileChannel lock = lock()) {
+			append(e);
+		}
+		entries.put(e.file, e);
+	}
+	/**
+	 * Locks the manifest against access by other processes sharing this working directory.
+	 * Callers must hold the lock on this object as the lock is held on behalf of the whole JVM.
+	 * @return lock file channel. The lock is released when the channel is closed.
+	 */
+	private FileChannel lock() throws IOException {
+		FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			channel.lock();
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+		return channel;
+	}
+	private void append(Entry e) throws IOException {
+		boolean writeHeader = !manifestFile.exists() || manifestFile.length() == 0;
+		try (FileChannel channel = FileChannel.open(manifestFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+			if (writeHeader) {
+				writer.write(HEADER);
+				writer.write('\n');
+			}
+			writer.write(e.toString());
+			writer.write('\n');
+			writer.flush();
+		}
+	}
+	/**
+	 * Loads entries written by other processes sharing this working directory.
+	 * Callers must hold the lock on this object.
+	 */
+	private void mergeFromDisk() {
+		Map<String, Entry> disk;
+		try (FileChannel lock = lock()) {
+			disk = read(manifestFile);
+		} catch (IOException e) {
+			log.warn(e, "Unable to lock ", lockFile, ". Intermediate files will be regenerated.");
+			return;
+		}
+		entries.putAll(disk);
+	}
+	/**
+	 * Determines whether the given intermediate file can be reused.
+	 * @return true if the file exists and matches its manifest entry.
+	 * Intermediate files without a manifest entry are not considered complete.
+	 */
+	public boolean isComplete(File file, String parameters, List<File> inputs) {
+		return verify(file, parameters, inputs, true);
+	}
+	/**
+	 * Determines whether the given intermediate file can be reused.
+	 * Intermediate files without a manifest entry are assumed to have been generated
+	 * externally and are reused if they exist.
+	 * @return true if the file exists and does not conflict with its manifest entry.
+	 */
+	public boolean isReusable(File file, String parameters, List<File> inputs) {
+		return verify(file, parameters, inputs, false);
+	}
+	/**
+	 * Determines whether the given file is consistent with its manifest entry.
+	 * @return false if the file is missing, or differs from its manifest entry.
+	 */
+	public boolean isConsistent(File file) {
+		return verify(file, null, null, false);
+	}
+	private boolean verify(File file, String parameters, List<File> inputs, boolean requireEntry) {
+		if (!file.exists()) return false;
+		Entry e;
+		synchronized (this) {
+			e = entries.get(key(file));
+			if (e == null) {
+				mergeFromDisk();
+				e = entries.get(key(file));
+			}
+		}
+		if (e == null) {
+			if (requireEntry) {
+				log.info("Regenerating ", file, " as it is not in ", manifestFile);
+			}
+			return !requireEntry;
+		}
+		if (parameters != null && !parameters.equals(e.parameters)) {
+			log.info("Regenerating ", file, " as it was generated with different parameters.");
+			return false;
+		}
+		if (inputs != null && !describeInputs(inputs).equals(e.inputs)) {
+			log.info("Regenerating ", file, " as its inputs have changed.");
+			return false;
+		}
+		if (file.length() != e.size) {
+			log.warn("Regenerating ", file, " as it is ", file.length(), " bytes but ", e.size, " bytes were written.");
+			return false;
+		}
+		try {
+			long lastModified = lastModified(file);
+			if (lastModified != e.lastModified) {
+				if (checksum(file) != e.crc32) {
+					log.warn("Regenerating ", file, " as its checksum does not match.");
+					return false;
+				}
+				// file has been touched or copied but is unchanged
+				synchronized (this) {
+					if (entries.get(e.file) == e) {
+						record(e.withLastModified(lastModified));
+					}
+				}
+			}
+		} catch (IOException ex) {
+			log.warn(ex, "Regenerating ", file, " as it could not be read.");
+			return false;
+		}
+		if (reported.add(file.getAbsolutePath())) {
+			long reused = totalReused.incrementAndGet();
+			long savedMs = totalSavedMs.addAndGet(e.elapsedMs);
+			log.info(String.format("Reusing %s generated by %s (saves %ds). %d intermediate files reused saving %ds in total.",
+					file, e.producer, e.elapsedMs / 1000, reused, savedMs / 1000));
+		}
+		return true;
+	}
+	/**
+	 * Number of intermediate files reused instead of regenerated
+	 */
+	public static long getReusedCount() {
+		return totalReused.get();
+	}
+	/**
+	 * Total generation time of the intermediate files reused
+	 */
+	public static long getRecomputationSavedMs() {
+		return totalSavedMs.get();
+	}
+	/**
+	 * Intermediate files currently recorded in this manifest
+	 */
+	public synchronized List<String> getFiles() {
+		return Collections.unmodifiableList(new ArrayList<>(entries.keySet()));
+	}
+}
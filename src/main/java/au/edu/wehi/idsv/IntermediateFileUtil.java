@@ -32,6 +32,9 @@ public abstract class IntermediateFileUtil {
 			//log.debug("Missing intermediate ", file);
 			return false;
 		}
+		if (!IntermediateFileManifest.forFile(file).isConsistent(file)) {
+			return false;
+		}
 		if (!gridss.Defaults.IGNORE_FILE_TIMESTAMPS && source != null && source.exists() && file.lastModified() < source.lastModified() - TIMESTAMP_MS_ALLOWABLE_ERROR) {
 			log.info(source, " has a more recent timestamp (",
 					getLogDateFormat().format(new Date(source.lastModified())),") than ",
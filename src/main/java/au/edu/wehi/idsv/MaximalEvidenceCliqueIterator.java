@@ -1,22 +1,27 @@
 package au.edu.wehi.idsv;
 
-import au.edu.wehi.idsv.graph.RectangleGraphMaximalCliqueIterator;
+import au.edu.wehi.idsv.graph.RectangleGraphMaximalCliqueCalculator;
 import au.edu.wehi.idsv.graph.RectangleGraphNode;
-import au.edu.wehi.idsv.graph.RectangleGraphNodeMergingIterator;
+import au.edu.wehi.idsv.graph.RectangleGraphNodeStore;
+import au.edu.wehi.idsv.graph.RectangleGraphNodeWindowedSorter;
 import au.edu.wehi.idsv.graph.ScalingHelper;
 import au.edu.wehi.idsv.util.MathUtil;
-import au.edu.wehi.idsv.util.WindowedSortingIterator;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import au.edu.wehi.idsv.visualisation.TrackedState;
-import com.google.common.base.Function;
 import com.google.common.collect.AbstractIterator;
 import htsjdk.samtools.util.Log;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Queue;
 /**
  * Maximal clique summary evidence iterator 
+ * 
+ * Evidence is converted directly to vertices in a columnar {@link RectangleGraphNodeStore}
+ * and sorted, merged and passed to the clique calculator by handle.
+ * 
  * @author Daniel Cameron
  *
  */
@@ -27,52 +32,54 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 	private VariantContextDirectedBreakpoint lastHigh = null;
 	private final BreakendDirection targetLowDir;
 	private final BreakendDirection targetHighDir;
-	private final RectangleGraphMaximalCliqueIterator calc;
+	private final RectangleGraphNodeStore store = new RectangleGraphNodeStore();
+	private final RectangleGraphMaximalCliqueCalculator calc = new RectangleGraphMaximalCliqueCalculator(store);
+	// make sure nodes to be merged are adjacent in the stream
+	private final RectangleGraphNodeWindowedSorter sorter = new RectangleGraphNodeWindowedSorter(store, 1);
+	private final Queue<RectangleGraphNode> cliques = new ArrayDeque<>();
+	private final Iterator<DirectedEvidence> evidenceIt;
+	private boolean calcComplete = false;
 	private final ProcessingContext context;
 	private final VariantIdGenerator idGenerator;
 	public MaximalEvidenceCliqueIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidenceIt, BreakendDirection lowDir, BreakendDirection highDir, VariantIdGenerator idGenerator) {
 		this.context = processContext;
-		this.calc = new RectangleGraphMaximalCliqueIterator(
-						// collapse evidence at the same location to a single node
-						new RectangleGraphNodeMergingIterator(RectangleGraphNode.ByStartXYEndXY,
-							// make sure nodes to be merged are adjacent in the stream
-							new GraphNodeWindowedSortingIterator(context, 1, 
-								// convert evidence breakpoints to GraphNodes
-								new EvidenceToGraphNodeIterator(evidenceIt))));
+		this.evidenceIt = evidenceIt;
 		this.targetLowDir = lowDir;
 		this.targetHighDir = highDir;
 		this.idGenerator = idGenerator;
 	}
-
-	private class GraphNodeWindowedSortingIterator extends WindowedSortingIterator<RectangleGraphNode> {
-		public GraphNodeWindowedSortingIterator(final GenomicProcessingContext processContext, final int windowSize, final Iterator<RectangleGraphNode> it) {
-			super(it, new Function<RectangleGraphNode, Long>() {
-				public Long apply(RectangleGraphNode arg) {
-					return arg.startX;
-				}
-			}, windowSize, RectangleGraphNode.ByStartXYEndXY);
+	/**
+	 * Advances the clique calculation until at least one clique is called or all evidence has been processed
+	 */
+	private void ensureCliques() {
+		while (cliques.isEmpty() && evidenceIt.hasNext()) {
+			DirectedEvidence evidence = evidenceIt.next();
+			int node = toGraphNode(evidence);
+			if (node >= 0) {
+				sorter.add(node);
+				processSorted();
+			}
 		}
-	}
-	private class EvidenceToGraphNodeIterator extends AbstractIterator<RectangleGraphNode> {
-		private final Iterator<DirectedEvidence> it;
-		public EvidenceToGraphNodeIterator(Iterator<DirectedEvidence> it) {
-			this.it = it;
+		if (cliques.isEmpty() && !calcComplete) {
+			sorter.complete();
+			processSorted();
+			cliques.addAll(calc.complete());
+			calcComplete = true;
 		}
-		@Override
-		protected RectangleGraphNode computeNext() {
-			while (it.hasNext()) {
-				DirectedEvidence evidence = it.next();
-				RectangleGraphNode node = toGraphNode(evidence);
-				if (node != null) {
-					return node;
-				}
-			}
-			return endOfData();
+	}
+	private void processSorted() {
+		while (sorter.hasNext()) {
+			// nodes at the same location are collapsed to a single node by the sorter
+			cliques.addAll(calc.next(sorter.next()));
 		}
 	}
-	private RectangleGraphNode toGraphNode(DirectedEvidence e) {
+	/**
+	 * Converts evidence breakpoints to graph node
+	 * @return handle of graph node in store, -1 if the evidence is not part of this graph
+	 */
+	private int toGraphNode(DirectedEvidence e) {
 		BreakendSummary loc = e.getBreakendSummary();
-		if (!(loc instanceof BreakpointSummary)) return null;
+		if (!(loc instanceof BreakpointSummary)) return -1;
 		BreakpointSummary bp = (BreakpointSummary)loc;
 		if (!bp.isValid(context.getDictionary())) {
 			String msg = String.format("Evidence %s has invalid breakpoint %s", e.getEvidenceID(), bp);
@@ -88,22 +95,21 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 		float weight = ((DirectedBreakpoint)e).getBreakpointQual();
 		long scaledWeight = ScalingHelper.toScaledWeight(weight);
 		boolean isExact = e.isBreakendExact();
-		if (scaledWeight <= 0) return null;
-		RectangleGraphNode node = new RectangleGraphNode(startX, endX, startY, endY, scaledWeight, isExact ? scaledWeight : 0);
 		// Must have positive phred score  
+		if (scaledWeight <= 0) return -1;
 		if (startX > startY) {
 			// only take the lower half of the evidence since both sides of all breakpoints
 			// have evidence
 			// SC -> RemoteRealignedSoftClipEvidence
 			// DP -> other half of the pair
 			// Ass -> RemoteRealignedAssemblyEvidence
-			return null;
+			return -1;
 			//node = node.flipAxis();
 			//lowDir = bp.direction2;
 			//highDir = bp.direction;
 		}
-		if (lowDir != targetLowDir || highDir != targetHighDir) return null;
-		return node;
+		if (lowDir != targetLowDir || highDir != targetHighDir) return -1;
+		return store.add(startX, endX, startY, endY, scaledWeight, isExact ? scaledWeight : 0);
 	}
 	private VariantContextDirectedBreakpoint toVariant(String event, RectangleGraphNode node, BreakpointSummary breakpoint, boolean isHighBreakend) {
 		IdsvVariantContextBuilder builder = new IdsvVariantContextBuilder(context);
@@ -152,8 +158,9 @@ public class MaximalEvidenceCliqueIterator extends AbstractIterator<VariantConte
 			lastHigh = null;
 			return result;
 		}
-		if (calc.hasNext()) {
-			RectangleGraphNode node = calc.next();
+		ensureCliques();
+		if (!cliques.isEmpty()) {
+			RectangleGraphNode node = cliques.poll();
 			BreakpointSummary breakpoint = toBreakpointSummary(node);
 			String id = idGenerator.generate(breakpoint);
 			VariantContextDirectedBreakpoint result = toVariant(id, node, breakpoint, false); 
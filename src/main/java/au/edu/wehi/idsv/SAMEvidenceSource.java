@@ -5,11 +5,13 @@ import au.edu.wehi.idsv.configuration.GridssConfiguration;
 import au.edu.wehi.idsv.configuration.SoftClipConfiguration;
 import au.edu.wehi.idsv.metrics.IdsvSamFileMetrics;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
+import au.edu.wehi.idsv.sam.ChunkedBamReader;
 import au.edu.wehi.idsv.sam.CigarUtil;
 import au.edu.wehi.idsv.sam.SAMFileUtil;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.*;
 import au.edu.wehi.idsv.validation.OrderAssertingIterator;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -23,11 +25,17 @@ import htsjdk.samtools.*;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -43,6 +51,8 @@ public class SAMEvidenceSource extends EvidenceSource {
 	private final Double rpcConcordantPercentage;
 	private IdsvSamFileMetrics metrics;
 	private ReadPairConcordanceCalculator rpcc;
+	private ChunkedBamReader chunkedReader = null;
+	private Map<List<QueryInterval>, Integer> chunkedReaderLookup = null;
 	public enum EvidenceSortOrder {
 		SAMRecordStartPosition,
 		EvidenceStartPosition
@@ -140,16 +150,28 @@ public class SAMEvidenceSource extends EvidenceSource {
 		File querysortedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.querysorted.");
 		File taggedFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.tagged.");
 		File withsplitreadsFile = FileSystemContext.getWorkingFileFor(svFile, "gridss.tmp.splitreads.");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(svFile);
+		// Each stage is keyed only on the settings its output depends on so
+		// changing unrelated settings does not force the SV BAM to be regenerated
+		String extractParameters = IntermediateFileManifest.parameterHash(
+				getContext().getConfig().getParameterHash("softclip.minLength"),
+				rpcMinFragmentSize, rpcMaxFragmentSize, rpcConcordantPercentage);
+		String splitReadParameters = IntermediateFileManifest.parameterHash(extractParameters,
+				getContext().getConfig().getParameterHash("softclip.realignSplitReads"));
+		List<File> inputs = ImmutableList.of(getFile());
 		ensureMetrics();
 		// Regenerate from from the intermediate file furtherest through the pipeline
 		// extract -> query sort -> tag -> split read -> back to coordinate sorted
 		// We want to tag before generating split reads so all splits are guaranteed to
 		// have the same tags
-		if (!svFile.exists()) {
-			if (!withsplitreadsFile.exists()) {
-				if (!taggedFile.exists()) {
-					if (!querysortedFile.exists()) {
-						if (!extractedFile.exists()) {
+		// SV BAMs without a manifest entry were generated by the GRIDSS pipeline scripts
+		// so are reused as is.
+		if (!manifest.isReusable(svFile, splitReadParameters, inputs)) {
+			Stopwatch timer = Stopwatch.createStarted();
+			if (!manifest.isComplete(withsplitreadsFile, splitReadParameters, inputs)) {
+				if (!manifest.isComplete(taggedFile, extractParameters, inputs)) {
+					if (!manifest.isComplete(querysortedFile, extractParameters, inputs)) {
+						if (!manifest.isComplete(extractedFile, extractParameters, inputs)) {
 							log.info("Extracting SV reads from " + getFile().getAbsolutePath());
 							File in = getFile(SortOrder.queryname);
 							if (in == null || !in.exists()) {
@@ -168,8 +190,12 @@ public class SAMEvidenceSource extends EvidenceSource {
 							if (rpcMaxFragmentSize != null) cmd.addArg("READ_PAIR_CONCORDANCE_MAX_FRAGMENT_SIZE", rpcMaxFragmentSize);
 							if (rpcConcordantPercentage != null) cmd.addArg("READ_PAIR_CONCORDANT_PERCENT", rpcConcordantPercentage);
 							execute(cmd);
+							manifest.record(extractedFile, "ExtractSVReads", extractParameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
 						}
+						// remove any unverified output so the sort is not skipped
+						FileHelper.delete(querysortedFile, true);
 						SAMFileUtil.sort(getContext().getFileSystemContext(), extractedFile, querysortedFile, SortOrder.queryname);
+						manifest.record(querysortedFile, "SortSam", extractParameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
 						if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 							FileHelper.delete(extractedFile, true);
 						}
@@ -179,6 +205,7 @@ public class SAMEvidenceSource extends EvidenceSource {
 					cmd.addArg("INPUT", querysortedFile.getPath());
 					cmd.addArg("OUTPUT", taggedFile.getPath());
 					execute(cmd);
+					manifest.record(taggedFile, "ComputeSamTags", extractParameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
 					if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 						FileHelper.delete(querysortedFile, true);
 					}
@@ -189,6 +216,10 @@ public class SAMEvidenceSource extends EvidenceSource {
 				cmd.addArg("WORKER_THREADS", getProcessContext().getWorkerThreadCount());
 				cmd.addArg("INPUT", taggedFile.getPath());
 				cmd.addArg("OUTPUT", withsplitreadsFile.getPath());
+				// stream records through the aligner and coordinate sort in-process
+				// so the output does not need to be sorted again
+				cmd.addArg("ALIGNER_STREAMING", "true");
+				cmd.addArg("COORDINATE_SORT_OUTPUT", "true");
 				cmd.addArg("REALIGN_EXISTING_SPLIT_READS", Boolean.toString(getContext().getConfig().getSoftClip().realignSplitReads));
 						// realignment.* not soft-clip
 						//"MIN_CLIP_LENGTH=" + getContext().getConfig().
@@ -196,14 +227,13 @@ public class SAMEvidenceSource extends EvidenceSource {
 				program.setReference(getProcessContext().getReference());
 				program.setFileSystemContext(getProcessContext().getFileSystemContext());
 				execute(cmd);
+				manifest.record(withsplitreadsFile, "SoftClipsToSplitReads", splitReadParameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
 				if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 					FileHelper.delete(taggedFile, true);
 				}
 			}
-			SAMFileUtil.sort(getContext().getFileSystemContext(), withsplitreadsFile, svFile, SortOrder.coordinate);
-			if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-				FileHelper.delete(withsplitreadsFile, true);
-			}
+			FileHelper.move(withsplitreadsFile, svFile, true);
+			manifest.record(svFile, "ensureExtracted", splitReadParameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
 		}
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 			FileHelper.delete(extractedFile, true);
@@ -212,14 +242,72 @@ public class SAMEvidenceSource extends EvidenceSource {
 			FileHelper.delete(withsplitreadsFile, true);
 		}
 	}
-	public CloseableIterator<DirectedEvidence> iterator(final QueryInterval[] intervals, EvidenceSortOrder eso) {
-		SamReader reader = getReader();
+	/**
+	 * Gets the intervals containing the SAM records required to find all evidence overlapping the given intervals
+	 */
+	private QueryInterval[] getQueryIntervals(QueryInterval[] intervals) {
 		// expand query bounds as the alignment for a discordant read pair could fall before or after the breakend interval we are extracting
 		QueryInterval[] expandedIntervals = QueryIntervalUtil.padIntervals(getContext().getDictionary(), intervals, getMaxConcordantFragmentSize() + 1);
 		// ignore blacklisted regions
 		IntervalBed queryInterval = new IntervalBed(getContext().getLinear(), expandedIntervals);
 		queryInterval.remove(getBlacklistedRegions());
-		CloseableIterator it = tryOpenReader(reader, queryInterval.asQueryInterval());
+		return queryInterval.asQueryInterval();
+	}
+	/**
+	 * Pre-indexes the evidence file for iteration over the given chunks.
+	 * 
+	 * Adjacent chunks share the SAM records in the padding around their boundary. Once prepared,
+	 * iteration over exactly these chunk intervals reads the shared records from the file
+	 * only once, instead of once per chunk.
+	 * 
+	 * @param chunks intervals of each chunk that will be iterated over
+	 * @param iterationsPerChunk number of times each chunk will be iterated over
+	 */
+	public synchronized void prepareChunks(List<QueryInterval[]> chunks, int iterationsPerChunk) {
+		releaseChunks();
+		if (getEvidenceFile() == null || !getEvidenceFile().exists()) return;
+		try (SamReader reader = getReader()) {
+			if (!ChunkedBamReader.isSupported(reader)) {
+				log.debug("Not pre-indexing chunks of " + getEvidenceFile() + " as it is not an indexed BAM file.");
+				return;
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		Map<List<QueryInterval>, Integer> lookup = new HashMap<>();
+		List<QueryInterval[]> queries = new ArrayList<>();
+		for (QueryInterval[] chunk : chunks) {
+			if (!lookup.containsKey(Arrays.asList(chunk))) {
+				lookup.put(Arrays.asList(chunk), queries.size());
+				queries.add(getQueryIntervals(chunk));
+			}
+		}
+		chunkedReader = new ChunkedBamReader(this::getReader, queries, iterationsPerChunk);
+		chunkedReaderLookup = lookup;
+	}
+	/**
+	 * Releases the resources held for iteration over the chunks passed to {@link #prepareChunks(List, int)}
+	 */
+	public synchronized void releaseChunks() {
+		if (chunkedReader != null) {
+			chunkedReader.close();
+		}
+		chunkedReader = null;
+		chunkedReaderLookup = null;
+	}
+	private synchronized CloseableIterator<SAMRecord> chunkedIterator(QueryInterval[] intervals) {
+		if (chunkedReader == null) return null;
+		Integer query = chunkedReaderLookup.get(Arrays.asList(intervals));
+		if (query == null) return null;
+		return chunkedReader.iterator(query);
+	}
+	public CloseableIterator<DirectedEvidence> iterator(final QueryInterval[] intervals, EvidenceSortOrder eso) {
+		SamReader reader = null;
+		CloseableIterator<SAMRecord> it = chunkedIterator(intervals);
+		if (it == null) {
+			reader = getReader();
+			it = reader.queryOverlapping(getQueryIntervals(intervals));
+		}
 		if (Defaults.SANITY_CHECK_DUMP_ITERATORS) {
 			it = new AutoClosingIterator<>(new DebugSpammingIterator<>(it, "SAMEvidenceSource.iterator().rawiterator"));
 		}
@@ -230,30 +318,6 @@ public class SAMEvidenceSource extends EvidenceSource {
 		}
 		return new AutoClosingIterator<>(eit, reader, it);
 	}
-	/**
-	 * Attempts to open a new iterator.
-	 * 
-	 * As htsjdk performing memory mapping internally, many open/close cycles can results in an exhaustion
-	 * of file handles. 
-	 * 
-	 * @param reader
-	 * @param intervals
-	 * @return
-	 */
-	private SAMRecordIterator tryOpenReader(SamReader reader, QueryInterval[] intervals) {
-		SAMRecordIterator it = null;
-		try {
-			it = reader.queryOverlapping(intervals);
-		} catch (Exception e) {
-			log.debug("Attempting to recover from query failure: ", e);
-			System.gc();
-			System.runFinalization();
-			System.gc();
-			it = reader.queryOverlapping(intervals);
-			log.debug("Recovery successful");
-		}
-		return it;
-	}
 	public CloseableIterator<DirectedEvidence> iterator(EvidenceSortOrder eso) {
 		SamReader reader = getReader();
 		SAMRecordIterator it = reader.iterator();
@@ -265,10 +329,16 @@ public class SAMEvidenceSource extends EvidenceSource {
 		return new AutoClosingIterator<>(eit, reader, it);
 	}
 	protected SamReader getReader() {
-		File svFile = getSVFile();
-		SamReader reader = getProcessContext().getSamReader(svFile.exists() ? svFile : getFile());
+		SamReader reader = getProcessContext().getSamReader(getEvidenceFile());
 		return reader;
 	}
+	/**
+	 * Gets the file evidence is read from
+	 */
+	public File getEvidenceFile() {
+		File svFile = getSVFile();
+		return svFile != null && svFile.exists() ? svFile : getFile();
+	}
 
 	public File getSVFile() {
 		if (getFile() == null) {
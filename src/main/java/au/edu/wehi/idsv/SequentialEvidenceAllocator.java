@@ -1,20 +1,15 @@
 package au.edu.wehi.idsv;
 
-import au.edu.wehi.idsv.util.RangeUtil;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import au.edu.wehi.idsv.visualisation.TrackedBuffer;
 import com.google.common.collect.*;
 import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.util.IntervalTree;
-import htsjdk.samtools.util.IntervalTree.Node;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
 import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * Adds evidence supporting to each variant call. Both the variant calls and
@@ -37,7 +32,11 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 	private final OverlapLookup breakendLookup;
 	private final ArrayDeque<VariantEvidenceSupport> variantBuffer = new ArrayDeque<VariantEvidenceSupport>();
 	private final Map<String, VariantEvidenceSupport> bufferedVariantId = new HashMap<String, VariantEvidenceSupport>();
-	private final SetMultimap<String, VariantEvidenceSupport> assemblyAllocationLookup = HashMultimap.create();
+	/**
+	 * Variant calls that evidence from each assembly has been assigned to
+	 */
+	private final Map<String, List<VariantEvidenceSupport>> assemblyAllocationLookup = new HashMap<>();
+	private final List<VariantEvidenceSupport> overlapBuffer = new ArrayList<>();
 	public class VariantEvidenceSupport {
 		private final String id;
 		private final String mateid;
@@ -46,6 +45,10 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		//public final long endLocation;
 		private final BreakendSummary location;
 		private final float score;
+		/**
+		 * Buffered call with the partner breakend ID
+		 */
+		private VariantEvidenceSupport mate;
 		public final List<DirectedEvidence> support = new ArrayList<>();
 		public final VariantContextDirectedEvidence variant;
 		private VariantEvidenceSupport(VariantContextDirectedEvidence call) {
@@ -134,6 +137,15 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		variantBuffer.add(av);
 		if (StringUtils.isNotBlank(av.id)) {
 			bufferedVariantId.put(av.id, av);
+			if (av.mateid != null) {
+				VariantEvidenceSupport mate = bufferedVariantId.get(av.mateid);
+				if (mate != null) {
+					av.mate = mate;
+					if (av.id.equals(mate.mateid)) {
+						mate.mate = av;
+					}
+				}
+			}
 		}
 		if (variant instanceof VariantContextDirectedBreakpoint) {
 			breakpointLookup.add(av);
@@ -179,6 +191,11 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		variant = variantBuffer.poll();
 		if (StringUtils.isNotBlank(variant.id)) {
 			bufferedVariantId.remove(variant.id);
+			VariantEvidenceSupport mate = variant.mate != null ? variant.mate : bufferedVariantId.get(variant.mateid);
+			if (mate != null && mate.mate == variant) {
+				mate.mate = null;
+			}
+			variant.mate = null;
 		}
 		if (variant.location instanceof BreakpointSummary) {
 			breakpointLookup.remove(variant);
@@ -187,13 +204,34 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		}
 		for (DirectedEvidence ass : variant.support) {
 			if (AssemblyAttributes.isAssembly(ass)) {
-				if (!assemblyAllocationLookup.remove(ass.getAssociatedAssemblyName(), variant) && assignEvidenceToSingleBreakpoint) {
+				if (!removeAssemblyAllocation(ass.getAssociatedAssemblyName(), variant) && assignEvidenceToSingleBreakpoint) {
 					log.debug("Sanity failure: failed to remove assembly from lookup. Multiple evidence from single assembly assigned to this variant?");
 				}
 			}
 		}
 		return variant;
 	}
+	private void addAssemblyAllocation(String assemblyName, VariantEvidenceSupport variant) {
+		List<VariantEvidenceSupport> list = assemblyAllocationLookup.computeIfAbsent(assemblyName, k -> new ArrayList<>(2));
+		for (VariantEvidenceSupport ves : list) {
+			if (ves == variant) return;
+		}
+		list.add(variant);
+	}
+	private boolean removeAssemblyAllocation(String assemblyName, VariantEvidenceSupport variant) {
+		List<VariantEvidenceSupport> list = assemblyAllocationLookup.get(assemblyName);
+		if (list == null) return false;
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i) == variant) {
+				list.remove(i);
+				if (list.isEmpty()) {
+					assemblyAllocationLookup.remove(assemblyName);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
 	private void processEvidenceBefore(PeekingIterator<? extends DirectedEvidence> it, long position) {
 		while (it.hasNext() && context.getLinear().getStartLinearCoordinate(it.peek().getBreakendSummary()) - context.getVariantCallingParameters().breakendMargin <= position) {
 			assignEvidence(it.next());
@@ -227,7 +265,7 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 				assignedTo = assignToBestBreakend(bs, evidence);
 			}
 			if (assignedTo != null) {
-				assemblyAllocationLookup.put(evidence.getAssociatedAssemblyName(), assignedTo);
+				addAssemblyAllocation(evidence.getAssociatedAssemblyName(), assignedTo);
 			}
 		} else {
 			if (evidence instanceof DirectedBreakpoint) {
@@ -260,7 +298,7 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 	private VariantEvidenceSupport assignToBestBreakpoint(BreakendSummary bs, DirectedEvidence evidence) {
 		VariantEvidenceSupport best = breakpointLookup.findBestOverlapping(bs);
 		if (best != null) {
-			VariantEvidenceSupport mate = bufferedVariantId.get(best.mateid);
+			VariantEvidenceSupport mate = best.mate;
 			if (mate != null && mate.location.overlaps(bs) && allocateToHighBreakend(evidence)) {
 				// special case: matches both sides of the breakpoint 
 				mate.attributeEvidence(evidence);
@@ -278,15 +316,16 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		return best;
 	}
 	private void assignToAll(BreakendSummary bs, DirectedEvidence evidence) {
-		Iterator<VariantEvidenceSupport> it = breakpointLookup.findAllOverlapping(bs);
+		overlapBuffer.clear();
+		breakpointLookup.findAllOverlapping(bs, overlapBuffer);
 		if (!(evidence instanceof DirectedBreakpoint)) {
-			it = Iterators.concat(it, breakendLookup.findAllOverlapping(bs));
+			breakendLookup.findAllOverlapping(bs, overlapBuffer);
 		}
-		while (it.hasNext()) {
-			VariantEvidenceSupport v = it.next();
+		for (VariantEvidenceSupport v : overlapBuffer) {
 			assert(v.location.overlaps(bs));
 			v.attributeEvidence(evidence);
 		}
+		overlapBuffer.clear();
 	}
 	/**
 	 * Determines which breakend to allocate evidence that overlaps both sides of the breakend
@@ -342,60 +381,205 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 	private static abstract class OverlapLookup {
 		public abstract void add(VariantEvidenceSupport ves);
 		public abstract void remove(VariantEvidenceSupport ves);
-		public abstract Iterator<VariantEvidenceSupport> findAllOverlapping(BreakendSummary breakend);
+		/**
+		 * Adds all variant calls overlapping the given breakend to the given list
+		 */
+		public abstract void findAllOverlapping(BreakendSummary breakend, List<VariantEvidenceSupport> out);
 		public abstract VariantEvidenceSupport findBestOverlapping(BreakendSummary breakend);
-		protected void add(IntervalTree<List<VariantEvidenceSupport>> lookup, int start, int end, VariantEvidenceSupport ves) {
-			Node<List<VariantEvidenceSupport>> node = lookup.find(start, end);
-			if (node != null) {
-				node.getValue().add(ves);
+		/**
+		 * Gets the index of the call buffer lookup for this reference contig and direction
+		 */
+		protected int getIndex(int referenceIndex, BreakendDirection dir) {
+			return 2 * referenceIndex + (dir == BreakendDirection.Forward ? 0 : 1);
+		}
+		/**
+		 * Creates a call buffer for each reference contig and direction
+		 */
+		protected CallBuffer[] createByReferenceIndexDirectionLookup(int referenceSequenceCount) {
+			CallBuffer[] lookup = new CallBuffer[referenceSequenceCount * 2];
+			for (int i = 0; i < lookup.length; i++) {
+				lookup[i] = new CallBuffer();
+			}
+			return lookup;
+		}
+	}
+	private static boolean isBetter(VariantEvidenceSupport v, VariantEvidenceSupport best) {
+		if (best == null || v.score > best.score) return true;
+		if (v.score < best.score) return false;
+		return ByScoreAscPositionDesc.compare(v, best) > 0;
+	}
+	/**
+	 * Buffer of variant calls sorted by interval start position.
+	 * 
+	 * Calls are held in parallel primitive arrays over a sliding window [head, tail).
+	 * As calls are added and removed in approximately positional order, insertions
+	 * are close to the tail and removals are close to the head. Removed calls are
+	 * left as tombstones until they reach either end of the window.
+	 * 
+	 * The maximum interval width of the buffered calls bounds how far before
+	 * the query start position overlapping calls can start.
+	 */
+	private static class CallBuffer {
+		private int[] start = new int[16];
+		private int[] end = new int[16];
+		private VariantEvidenceSupport[] calls = new VariantEvidenceSupport[16];
+		private int head = 0;
+		private int tail = 0;
+		private int liveCount = 0;
+		private int maxWidth = 0;
+		private int maxWidthCount = 0;
+		private boolean maxWidthStale = false;
+		public void add(int intervalStart, int intervalEnd, VariantEvidenceSupport ves) {
+			ensureCapacity();
+			// insert after any calls with the same start position
+			int pos = tail;
+			while (pos > head && start[pos - 1] > intervalStart) {
+				pos--;
+			}
+			if (pos < tail) {
+				pos = upperBound(intervalStart, head, pos);
+				System.arraycopy(start, pos, start, pos + 1, tail - pos);
+				System.arraycopy(end, pos, end, pos + 1, tail - pos);
+				System.arraycopy(calls, pos, calls, pos + 1, tail - pos);
+			}
+			start[pos] = intervalStart;
+			end[pos] = intervalEnd;
+			calls[pos] = ves;
+			tail++;
+			liveCount++;
+			int width = intervalEnd - intervalStart;
+			if (!maxWidthStale) {
+				if (width > maxWidth) {
+					maxWidth = width;
+					maxWidthCount = 1;
+				} else if (width == maxWidth) {
+					maxWidthCount++;
+				}
+			}
+		}
+		public void remove(int intervalStart, int intervalEnd, VariantEvidenceSupport ves) {
+			int i = lowerBound(intervalStart, head, tail);
+			while (i < tail && start[i] == intervalStart && calls[i] != ves) {
+				i++;
+			}
+			if (i >= tail || calls[i] != ves) {
+				String msg = String.format("Attempting to remove %s which does not exist on interval (%d, %d)", ves.location, intervalStart, intervalEnd);
+				throw new IllegalStateException(msg);
+			}
+			calls[i] = null;
+			liveCount--;
+			if (!maxWidthStale && intervalEnd - intervalStart == maxWidth) {
+				maxWidthCount--;
+				maxWidthStale = maxWidthCount == 0;
+			}
+			if (liveCount == 0) {
+				head = 0;
+				tail = 0;
+				maxWidth = 0;
+				maxWidthCount = 0;
+				maxWidthStale = false;
 			} else {
-				ArrayList<VariantEvidenceSupport> list = new ArrayList<>(2);
-				list.add(ves);
-				lookup.put(start, end, list);
+				while (calls[head] == null) head++;
+				while (calls[tail - 1] == null) tail--;
 			}
 		}
-		protected void remove(IntervalTree<List<VariantEvidenceSupport>> lookup, int start, int end, VariantEvidenceSupport ves) {
-			Node<List<VariantEvidenceSupport>> node = lookup.find(start, end);
-			if (node != null) {
-				List<VariantEvidenceSupport> list = node.getValue();
-				if (!list.remove(ves)) {
-					String msg = String.format("Attempting to remove %s which does not exist on interval (%d, %d)", ves.location, start, end);
-					throw new IllegalStateException(msg);
+		private void ensureCapacity() {
+			if (tail < calls.length) return;
+			// compact
+			int j = 0;
+			for (int i = head; i < tail; i++) {
+				if (calls[i] != null) {
+					start[j] = start[i];
+					end[j] = end[i];
+					calls[j] = calls[i];
+					j++;
 				}
-				node.getValue().remove(ves);
-				if (node.getValue().isEmpty()) {
-					lookup.remove(start, end);
+			}
+			Arrays.fill(calls, j, tail, null);
+			head = 0;
+			tail = j;
+			if (tail > calls.length / 2) {
+				int size = calls.length * 2;
+				start = Arrays.copyOf(start, size);
+				end = Arrays.copyOf(end, size);
+				calls = Arrays.copyOf(calls, size);
+			}
+		}
+		private int getMaxWidth() {
+			if (maxWidthStale) {
+				maxWidth = 0;
+				maxWidthCount = 0;
+				for (int i = head; i < tail; i++) {
+					if (calls[i] != null) {
+						int width = end[i] - start[i];
+						if (width > maxWidth) {
+							maxWidth = width;
+							maxWidthCount = 1;
+						} else if (width == maxWidth) {
+							maxWidthCount++;
+						}
+					}
 				}
-			} else {
-				String msg = String.format("Attempting to remove %s from non-existant interval (%d, %d)", ves.location, start, end);
-				throw new IllegalStateException(msg);
+				maxWidthStale = false;
 			}
+			return maxWidth;
 		}
 		/**
-		 * Gets the index of the IntervalTree lookup for this reference contig and direction  
+		 * First index in [from, to) with a start position of at least the given position
 		 */
-		protected int getIndex(int referenceIndex, BreakendDirection dir) {
-			return 2 * referenceIndex + (dir == BreakendDirection.Forward ? 0 : 1);
+		private int lowerBound(long position, int from, int to) {
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if (start[mid] < position) {
+					from = mid + 1;
+				} else {
+					to = mid;
+				}
+			}
+			return from;
+		}
+		/**
+		 * First index in [from, to) with a start position after the given position
+		 */
+		private int upperBound(long position, int from, int to) {
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if (start[mid] <= position) {
+					from = mid + 1;
+				} else {
+					to = mid;
+				}
+			}
+			return from;
+		}
+		private int firstCandidate(int queryStart) {
+			if (liveCount == 0) return tail;
+			return lowerBound((long)queryStart - getMaxWidth(), head, tail);
 		}
 		/**
-		 * Creates an IntervalTree lookup for each reference contig and direction 
+		 * Adds all calls overlapping [queryStart, queryEnd] whose location overlaps the given breakend
 		 */
-		protected List<IntervalTree<List<VariantEvidenceSupport>>> createByReferenceIndexDirectionLookup(int referenceSequenceCount) {
-			return IntStream.range(0, referenceSequenceCount * 2)
-					.mapToObj(i -> new IntervalTree<List<VariantEvidenceSupport>>())
-					.collect(Collectors.toList());
+		public void findAllOverlapping(int queryStart, int queryEnd, BreakendSummary breakend, List<VariantEvidenceSupport> out) {
+			for (int i = firstCandidate(queryStart); i < tail && start[i] <= queryEnd; i++) {
+				VariantEvidenceSupport v = calls[i];
+				if (v != null && end[i] >= queryStart && v.location.overlaps(breakend)) {
+					out.add(v);
+				}
+			}
 		}
-		protected VariantEvidenceSupport findBestOverlapping(BreakendSummary breakend, Iterator<VariantEvidenceSupport> it) {
+		public VariantEvidenceSupport findBestOverlapping(int queryStart, int queryEnd, BreakendSummary breakend) {
 			VariantEvidenceSupport best = null;
-			while (it.hasNext()) {
-				VariantEvidenceSupport v = it.next();
-				assert(v.location.overlaps(breakend));
-				if (best == null || ByScoreAscPositionDesc.compare(v, best) > 0) { 
+			for (int i = firstCandidate(queryStart); i < tail && start[i] <= queryEnd; i++) {
+				VariantEvidenceSupport v = calls[i];
+				if (v != null && end[i] >= queryStart && v.location.overlaps(breakend) && isBetter(v, best)) {
 					best = v;
 				}
 			}
 			return best;
 		}
+		public int size() {
+			return liveCount;
+		}
 	}
 	/**
 	 * Finds all variant calls overlapping the given evidence 
@@ -403,113 +587,59 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 	 *
 	 */
 	private static class LocalOverlapLookup extends OverlapLookup {
-		List<IntervalTree<List<VariantEvidenceSupport>>> localLookup;
+		private final CallBuffer[] localLookup;
 		public LocalOverlapLookup(int referenceSequenceCount) {
 			localLookup = createByReferenceIndexDirectionLookup(referenceSequenceCount);
 		}
-		public void add(VariantEvidenceSupport ves)
-		{
-			add(localLookup.get(getIndex(ves.location.referenceIndex, ves.location.direction)), ves.location.start, ves.location.end, ves);
+		public void add(VariantEvidenceSupport ves) {
+			localLookup[getIndex(ves.location.referenceIndex, ves.location.direction)].add(ves.location.start, ves.location.end, ves);
 		}
-		public void remove(VariantEvidenceSupport ves)
-		{
-			remove(localLookup.get(getIndex(ves.location.referenceIndex, ves.location.direction)), ves.location.start, ves.location.end, ves);
+		public void remove(VariantEvidenceSupport ves) {
+			localLookup[getIndex(ves.location.referenceIndex, ves.location.direction)].remove(ves.location.start, ves.location.end, ves);
 		}
-		public Iterator<VariantEvidenceSupport> findAllOverlapping(BreakendSummary breakend) {
-			IntervalTree<List<VariantEvidenceSupport>> tree = localLookup.get(getIndex(breakend.referenceIndex, breakend.direction));
-			Iterator<Node<List<VariantEvidenceSupport>>> nodeit = tree.overlappers(breakend.start, breakend.end);
-			return new VariantEvidenceSupportNodeListIterator(nodeit, breakend);
+		public void findAllOverlapping(BreakendSummary breakend, List<VariantEvidenceSupport> out) {
+			localLookup[getIndex(breakend.referenceIndex, breakend.direction)].findAllOverlapping(breakend.start, breakend.end, breakend, out);
 		}
 		public VariantEvidenceSupport findBestOverlapping(BreakendSummary breakend) {
-			Iterator<VariantEvidenceSupport> it = findAllOverlapping(breakend);
-			return findBestOverlapping(breakend, it);
-		}
-	}
-	private static class VariantEvidenceSupportNodeListIterator extends AbstractIterator<VariantEvidenceSupport> {
-		private final Iterator<Node<List<VariantEvidenceSupport>>> nodeIt;
-		private final BreakendSummary breakend;
-		private Iterator<VariantEvidenceSupport> listIt = Collections.emptyIterator();
-		public VariantEvidenceSupportNodeListIterator(Iterator<Node<List<VariantEvidenceSupport>>> nodeIt, BreakendSummary breakend) {
-			this.nodeIt = nodeIt;
-			this.breakend = breakend;
-		}
-		@Override
-		protected VariantEvidenceSupport computeNext() {
-			while (nodeIt.hasNext() || listIt.hasNext()) {
-				// advance through current list
-				while (listIt.hasNext()) {
-					VariantEvidenceSupport ves = listIt.next();
-					if (ves.location.overlaps(breakend)) {
-						return ves;
-					}
-				}
-				if (nodeIt.hasNext()) {
-					listIt = nodeIt.next().getValue().iterator();
-				}
-			}
-			return endOfData();
+			return localLookup[getIndex(breakend.referenceIndex, breakend.direction)].findBestOverlapping(breakend.start, breakend.end, breakend);
 		}
 	}
 	/**
-	 * Finds the best overlapping variant call using a 1D interval tree on the remote breakpoint
+	 * Finds the best overlapping variant call using a lookup on the remote breakpoint
 	 * This should have better performance as, for repetitive sequence, the remote breakends
 	 * are distributed across all repeats, but the local breakends all map to the same location
 	 * (since we are doing a sequential traversal).
 	 */
 	private static class RemoteOverlapLookup extends OverlapLookup {
-		List<IntervalTree<List<VariantEvidenceSupport>>> remoteLookup;
-		List<RangeMap<Integer, VariantEvidenceSupport>> bestLocal;
+		private final CallBuffer[] remoteLookup;
+		private final LocalOverlapLookup localLookup;
 		public RemoteOverlapLookup(int referenceSequenceCount) {
 			this.remoteLookup = createByReferenceIndexDirectionLookup(referenceSequenceCount);
-			this.bestLocal = IntStream.range(0, referenceSequenceCount * 2)
-					.mapToObj(i -> TreeRangeMap.<Integer,VariantEvidenceSupport>create())
-					.collect(Collectors.toList());
+			this.localLookup = new LocalOverlapLookup(referenceSequenceCount);
 		}
 		public void add(VariantEvidenceSupport ves) {
 			assert(ves.location instanceof BreakpointSummary);
 			BreakpointSummary location = (BreakpointSummary)ves.location;
-			add(remoteLookup.get(getIndex(location.referenceIndex2, location.direction2)), location.start2, location.end2, ves);
-			// need to add over the intervals in which we are the best
-			RangeMap<Integer, VariantEvidenceSupport> rm = bestLocal.get(getIndex(location.referenceIndex, location.direction));
-			RangeUtil.addWhereBest(rm, Range.closedOpen(location.start, location.end + 1), ves, ByScoreAscPositionDesc);
+			remoteLookup[getIndex(location.referenceIndex2, location.direction2)].add(location.start2, location.end2, ves);
+			localLookup.add(ves);
 		}
 		public void remove(VariantEvidenceSupport ves) {
 			assert(ves.location instanceof BreakpointSummary);
 			BreakpointSummary location = (BreakpointSummary)ves.location;
-			remove(remoteLookup.get(getIndex(location.referenceIndex2, location.direction2)), location.start2, location.end2, ves);
-			// we can remove all intervals before our end position as to be removed,
-			// we need to have already added all the potential support for any variant
-			// before our end position
-			RangeMap<Integer, VariantEvidenceSupport> rm = bestLocal.get(getIndex(location.referenceIndex, location.direction));
-			rm.remove(Range.lessThan(location.end + 1));
+			remoteLookup[getIndex(location.referenceIndex2, location.direction2)].remove(location.start2, location.end2, ves);
+			localLookup.remove(ves);
 		}
 		@Override
-		public Iterator<VariantEvidenceSupport> findAllOverlapping(BreakendSummary breakend) {
+		public void findAllOverlapping(BreakendSummary breakend, List<VariantEvidenceSupport> out) {
 			throw new NotImplementedException("RemoteOverlapLookup requires unique greedy evidence assignment");
 		}
-		public VariantEvidenceSupport findBestOverlapping(BreakpointSummary breakend) {
-			IntervalTree<List<VariantEvidenceSupport>> tree = remoteLookup.get(getIndex(breakend.referenceIndex2, breakend.direction2));
-			Iterator<Node<List<VariantEvidenceSupport>>> nodeit = tree.overlappers(breakend.start2, breakend.end2);
-			Iterator<VariantEvidenceSupport> it = new VariantEvidenceSupportNodeListIterator(nodeit, breakend);
-			return findBestOverlapping(breakend, it);
-		}
 		@Override
 		public VariantEvidenceSupport findBestOverlapping(BreakendSummary breakend) {
 			if (breakend instanceof BreakpointSummary) {
-				return findBestOverlapping((BreakpointSummary)breakend);
+				BreakpointSummary bp = (BreakpointSummary)breakend;
+				return remoteLookup[getIndex(bp.referenceIndex2, bp.direction2)].findBestOverlapping(bp.start2, bp.end2, bp);
 			}
-			// lookup bestLocal
-			RangeMap<Integer, VariantEvidenceSupport> rm = bestLocal.get(getIndex(breakend.referenceIndex, breakend.direction));
-			rm = rm.subRangeMap(Range.closedOpen(breakend.start, breakend.end + 1));
-			float bestScore = -1;
-			VariantEvidenceSupport best = null;
-			for (VariantEvidenceSupport entry : rm.asMapOfRanges().values()) {
-				if (entry.score > bestScore) {
-					bestScore =  entry.score;
-					best = entry;
-				}
-			}
-			return best;
+			return localLookup.findBestOverlapping(breakend);
 		}
 	}
 }
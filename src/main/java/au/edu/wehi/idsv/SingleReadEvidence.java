@@ -37,6 +37,7 @@ public abstract class SingleReadEvidence implements DirectedEvidence {
 	private boolean unableToCalculateHomology = false;
 	private String associatedAssemblyName;
 	private int assemblyOffset = Integer.MIN_VALUE;
+	private ChimericAlignment localAlignment;
 
 	public static List<SingleReadEvidence> createEvidence(SAMEvidenceSource source, int minIndelSize, SAMRecord record) {
 		if (record.getReadUnmappedFlag()) return Collections.emptyList();
@@ -497,7 +498,16 @@ public abstract class SingleReadEvidence implements DirectedEvidence {
 	 * @return
 	 */
 	public int getLocalChimericAlignmentReadOffset() {
-		return new ChimericAlignment(record).getFirstAlignedBaseReadOffset();
+		return getLocalChimericAlignment().getFirstAlignedBaseReadOffset();
+	}
+	/**
+	 * Alignment of the read this evidence was generated from
+	 */
+	public ChimericAlignment getLocalChimericAlignment() {
+		if (localAlignment == null) {
+			localAlignment = new ChimericAlignment(record);
+		}
+		return localAlignment;
 	}
 
 	@Override
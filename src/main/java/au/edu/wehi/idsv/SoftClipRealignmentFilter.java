@@ -0,0 +1,233 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import au.edu.wehi.idsv.util.SequenceUtil;
+import gridss.analysis.SoftClipRealignmentFilterMetrics;
+import htsjdk.samtools.fastq.FastqRecord;
+import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
+import it.unimi.dsi.fastutil.ints.IntSortedSet;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Identifies soft clips that are not worth realigning.
+ *
+ * Soft clips consisting of ambiguous bases, low entropy sequence, adapter sequence,
+ * or short tandem repeats will not produce a useful split read alignment
+ * and can be excluded before they are sent to the aligner.
+ *
+ * Short tandem repeats are identified by looking up the minimisers of the soft clip
+ * in an index of all kmers of all repeat units up to a given length.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SoftClipRealignmentFilter {
+	public static final int DEFAULT_K = 12;
+	public static final int DEFAULT_MINIMISER_WINDOW = 6;
+	public static final int DEFAULT_MAX_REPEAT_UNIT_LENGTH = 3;
+	/**
+	 * Number of bases of microhomology allowed between the anchor and the adapter sequence
+	 */
+	private static final int MAX_ADAPTER_MICROHOMOLOGY_LENGTH = 6;
+	/**
+	 * Minimum number of adapter bases to match. Soft clips starting with a prefix of an adapter
+	 * at least this long are considered adapter read-through as the read may end before the
+	 * full adapter sequence is reached.
+	 */
+	private static final int MIN_ADAPTER_MATCH_LENGTH = 8;
+	public enum Classification {
+		PASS,
+		AMBIGUOUS,
+		LOW_ENTROPY,
+		ADAPTER,
+		LOW_COMPLEXITY,
+	}
+	private final int k;
+	private final int window;
+	private final double minEntropy;
+	private final double maxAmbiguousBaseFraction;
+	private final double maxLowComplexityMinimiserFraction;
+	/**
+	 * Encoded adapter sequence prefixes with any microhomology bases removed.
+	 * A sentinel bit is placed before the first base so sequences of different lengths do not collide.
+	 */
+	private final LongOpenHashSet adapterPrefixes = new LongOpenHashSet();
+	private final int[] adapterPrefixLengths;
+	private final LongOpenHashSet lowComplexityKmers = new LongOpenHashSet();
+	private final LongAdder[] counts = new LongAdder[Classification.values().length];
+	/**
+	 * @param adapters adapter sequences. Soft clips starting with adapter sequence are considered
+	 * to be caused by read-through into the adapter.
+	 * @param minEntropy minimum Shannon entropy (in bits) of soft clip
+	 * @param maxAmbiguousBaseFraction maximum portion of ambiguous bases
+	 * @param maxLowComplexityMinimiserFraction maximum portion of minimisers found in short tandem repeats
+	 */
+	public SoftClipRealignmentFilter(String[] adapters, double minEntropy, double maxAmbiguousBaseFraction, double maxLowComplexityMinimiserFraction) {
+		this(adapters, minEntropy, maxAmbiguousBaseFraction, maxLowComplexityMinimiserFraction, DEFAULT_K, DEFAULT_MINIMISER_WINDOW, DEFAULT_MAX_REPEAT_UNIT_LENGTH);
+	}
+	public SoftClipRealignmentFilter(String[] adapters, double minEntropy, double maxAmbiguousBaseFraction, double maxLowComplexityMinimiserFraction, int k, int window, int maxRepeatUnitLength) {
+		if (adapters == null) adapters = new String[0];
+		if (k <= 0 || k >= KmerEncodingHelper.MAX_K) throw new IllegalArgumentException("Invalid kmer size");
+		if (window <= 0) throw new IllegalArgumentException("Minimiser window size must be positive");
+		this.k = k;
+		this.window = window;
+		this.minEntropy = minEntropy;
+		this.maxAmbiguousBaseFraction = maxAmbiguousBaseFraction;
+		this.maxLowComplexityMinimiserFraction = maxLowComplexityMinimiserFraction;
+		IntSortedSet lengths = new IntRBTreeSet();
+		for (String adapter : adapters) {
+			byte[] bases = adapter.getBytes(StandardCharsets.US_ASCII);
+			if (bases.length > KmerEncodingHelper.MAX_K - 1) {
+				bases = Arrays.copyOf(bases, KmerEncodingHelper.MAX_K - 1);
+			}
+			for (int offset = 0; offset <= MAX_ADAPTER_MICROHOMOLOGY_LENGTH && bases.length - offset >= MIN_ADAPTER_MATCH_LENGTH; offset++) {
+				for (int length = MIN_ADAPTER_MATCH_LENGTH; length <= bases.length - offset; length++) {
+					adapterPrefixes.add(encodeWithSentinel(bases, offset, length));
+					lengths.add(length);
+				}
+			}
+		}
+		this.adapterPrefixLengths = lengths.toIntArray();
+		for (int unitLength = 1; unitLength <= maxRepeatUnitLength; unitLength++) {
+			for (int unit = 0; unit < 1 << (2 * unitLength); unit++) {
+				byte[] repeat = new byte[k + unitLength];
+				for (int i = 0; i < repeat.length; i++) {
+					int offset = unitLength - 1 - i % unitLength;
+					repeat[i] = KmerEncodingHelper.encodedToPicardBase((unit >> (2 * offset)) & 3);
+				}
+				addKmers(lowComplexityKmers, repeat);
+			}
+		}
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = new LongAdder();
+		}
+	}
+	private void addKmers(LongOpenHashSet set, byte[] bases) {
+		for (int i = 0; i + k <= bases.length; i++) {
+			set.add(canonical(encode(bases, i, k)));
+		}
+	}
+	private static long encode(byte[] bases, int offset, int length) {
+		long kmer = 0;
+		for (int i = 0; i < length; i++) {
+			kmer = (kmer << 2) | KmerEncodingHelper.picardBaseToEncoded(bases[offset + i]);
+		}
+		return kmer;
+	}
+	private static long encodeWithSentinel(byte[] bases, int offset, int length) {
+		return (1L << (2 * length)) | encode(bases, offset, length);
+	}
+	private long canonical(long kmer) {
+		return Math.min(kmer, KmerEncodingHelper.reverseComplement(k, kmer));
+	}
+	/**
+	 * Ordering used to select minimisers. Hashing prevents poly-A kmers always being selected.
+	 */
+	private static long minimiserOrder(long kmer) {
+		kmer ^= kmer >>> 33;
+		kmer *= 0xff51afd7ed558ccdL;
+		kmer ^= kmer >>> 33;
+		return kmer;
+	}
+	/**
+	 * Determines whether the given soft clip should be realigned.
+	 * @param fq soft clipped bases in read orientation
+	 * @return true if the soft clip should be sent to the aligner
+	 */
+	public boolean shouldRealign(FastqRecord fq) {
+		Classification c = classify(fq.getReadBases());
+		counts[c.ordinal()].increment();
+		return c == Classification.PASS;
+	}
+	public Classification classify(byte[] bases) {
+		int length = bases.length;
+		if (length == 0) return Classification.AMBIGUOUS;
+		int ambiguous = 0;
+		for (int i = 0; i < length; i++) {
+			if (KmerEncodingHelper.isAmbiguous(bases[i])) {
+				ambiguous++;
+			}
+		}
+		if (ambiguous > maxAmbiguousBaseFraction * length) return Classification.AMBIGUOUS;
+		if (SequenceUtil.shannonEntropy(bases, 0, length) < minEntropy) return Classification.LOW_ENTROPY;
+		if (isAdapter(bases)) return Classification.ADAPTER;
+		if (length < k) return Classification.PASS;
+		long[] kmers = new long[length - k + 1];
+		// kmers not containing any ambiguous bases
+		boolean[] valid = new boolean[kmers.length];
+		long mask = (1L << (2 * k)) - 1;
+		long kmer = 0;
+		int lastAmbiguous = -1;
+		for (int i = 0; i < length; i++) {
+			if (KmerEncodingHelper.isAmbiguous(bases[i])) {
+				lastAmbiguous = i;
+			}
+			kmer = ((kmer << 2) | KmerEncodingHelper.picardBaseToEncoded(bases[i])) & mask;
+			int start = i - k + 1;
+			if (start >= 0) {
+				kmers[start] = kmer;
+				valid[start] = lastAmbiguous < start;
+			}
+		}
+		int minimisers = 0;
+		int lowComplexity = 0;
+		int lastMinimiser = -1;
+		int windows = Math.max(1, kmers.length - window + 1);
+		for (int windowStart = 0; windowStart < windows; windowStart++) {
+			int windowEnd = Math.min(kmers.length, windowStart + window);
+			int best = -1;
+			long bestOrder = 0;
+			for (int i = windowStart; i < windowEnd; i++) {
+				if (!valid[i]) continue;
+				long order = minimiserOrder(canonical(kmers[i]));
+				if (best == -1 || order < bestOrder) {
+					best = i;
+					bestOrder = order;
+				}
+			}
+			if (best != -1 && best != lastMinimiser) {
+				lastMinimiser = best;
+				minimisers++;
+				if (lowComplexityKmers.contains(canonical(kmers[best]))) {
+					lowComplexity++;
+				}
+			}
+		}
+		if (minimisers > 0 && lowComplexity > maxLowComplexityMinimiserFraction * minimisers) {
+			return Classification.LOW_COMPLEXITY;
+		}
+		return Classification.PASS;
+	}
+	/**
+	 * Adapter read-through starts immediately after the anchored bases.
+	 * Since soft clips are in read orientation, adapter sequence will be at the start of the soft clip.
+	 * The shortest matching prefix is sufficient since all longer adapter prefixes also start with it.
+	 */
+	private boolean isAdapter(byte[] bases) {
+		for (int length : adapterPrefixLengths) {
+			if (length > bases.length) break;
+			boolean ambiguous = false;
+			for (int i = 0; i < length && !ambiguous; i++) {
+				ambiguous = KmerEncodingHelper.isAmbiguous(bases[i]);
+			}
+			if (!ambiguous && adapterPrefixes.contains(encodeWithSentinel(bases, 0, length))) {
+				return true;
+			}
+		}
+		return false;
+	}
+	public SoftClipRealignmentFilterMetrics getMetrics() {
+		SoftClipRealignmentFilterMetrics metrics = new SoftClipRealignmentFilterMetrics();
+		metrics.PASSED = counts[Classification.PASS.ordinal()].sum();
+		metrics.AMBIGUOUS = counts[Classification.AMBIGUOUS.ordinal()].sum();
+		metrics.LOW_ENTROPY = counts[Classification.LOW_ENTROPY.ordinal()].sum();
+		metrics.ADAPTER = counts[Classification.ADAPTER.ordinal()].sum();
+		metrics.LOW_COMPLEXITY = counts[Classification.LOW_COMPLEXITY.ordinal()].sum();
+		metrics.SOFT_CLIPS = metrics.PASSED + metrics.AMBIGUOUS + metrics.LOW_ENTROPY + metrics.ADAPTER + metrics.LOW_COMPLEXITY;
+		return metrics;
+	}
+}
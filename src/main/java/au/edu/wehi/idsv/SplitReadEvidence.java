@@ -136,9 +136,9 @@ public class SplitReadEvidence extends SingleReadEvidence implements DirectedBre
 		}
 		int softClipLength = getBreakendSequence().length;
 		if (getSAMRecord().getSupplementaryAlignmentFlag()) {
-			ChimericAlignment caThis = new ChimericAlignment(getSAMRecord());
+			ChimericAlignment caThis = getLocalChimericAlignment();
 			// The first record should be the primary
-			ChimericAlignment caPrimary = ChimericAlignment.getChimericAlignments(getSAMRecord().getStringAttribute(SAMTag.SA.name())).get(0);
+			ChimericAlignment caPrimary = ChimericAlignment.getChimericAlignments(getSAMRecord()).get(0);
 			ChimericAlignment osaPrimary = caPrimary;
 			String osa = (String)getSAMRecord().getTransientAttribute("OSA");
 			if (osa != null) {
@@ -193,7 +193,7 @@ public class SplitReadEvidence extends SingleReadEvidence implements DirectedBre
 		remote.setReadUnmappedFlag(false);
 		remote.setReadNegativeStrandFlag(remoteAlignment.isNegativeStrand);
 		remote.setCigar(remoteAlignment.cigar);
-		remote.setAttribute(SAMTag.SA.name(), new ChimericAlignment(this.getSAMRecord()).toString());
+		remote.setAttribute(SAMTag.SA.name(), getLocalChimericAlignment().toString());
 		SplitReadEvidence remoteEvidence = SplitReadEvidence.create(source, remote).get(0);
 		return source.getContext().getEvidenceIDGenerator().getEvidenceID(remoteEvidence);
 	}
@@ -221,7 +221,7 @@ public class SplitReadEvidence extends SingleReadEvidence implements DirectedBre
 			anchorHomLen = remoteHomLen;
 			remoteHomLen = tmp;
 		}
-		ChimericAlignment localAlignment = new ChimericAlignment(getSAMRecord()); 
+		ChimericAlignment localAlignment = getLocalChimericAlignment();
 		int localBases = localAlignment.getLastAlignedBaseReadOffset() - localAlignment.getFirstAlignedBaseReadOffset() + 1;
 		int remoteBases = remoteAlignment.getLastAlignedBaseReadOffset() - remoteAlignment.getFirstAlignedBaseReadOffset() + 1;
 		return anchorHomLen >= localBases || remoteHomLen >= remoteBases;
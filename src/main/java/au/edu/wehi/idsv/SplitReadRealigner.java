@@ -27,6 +27,7 @@ public abstract class SplitReadRealigner {
     private boolean processSecondaryAlignments = false;
     private boolean adjustPrimary = false;
     private boolean writeOA = true;
+    private SoftClipRealignmentFilter realignmentFilter = null;
 
     public SplitReadRealigner(ReferenceLookup reference) {
         this.reference = reference;
@@ -118,6 +119,7 @@ public abstract class SplitReadRealigner {
         for (FastqRecord fqr : SplitReadHelper.getSplitReadRealignments(r, isRecursiveRealignment, getEvidenceIdentifierGenerator(), fallBackBaseQuality)) {
             if (fqr.getReadLength() < getMinSoftClipLength()) continue;
             if (averageBaseQuality(fqr) < getMinSoftClipQuality()) continue;
+            if (realignmentFilter != null && !realignmentFilter.shouldRealign(fqr)) continue;
             list.add(fqr);
         }
         return list;
@@ -210,6 +212,18 @@ public abstract class SplitReadRealigner {
         this.eidgen = eidgen;
     }
 
+    public SoftClipRealignmentFilter getRealignmentFilter() {
+        return realignmentFilter;
+    }
+
+    /**
+     * Filter used to exclude soft clips that are not worth realigning.
+     * Filtered soft clips are not sent to the aligner.
+     */
+    public void setRealignmentFilter(SoftClipRealignmentFilter realignmentFilter) {
+        this.realignmentFilter = realignmentFilter;
+    }
+
     public boolean isWriteOATag() {
         return writeOA;
     }
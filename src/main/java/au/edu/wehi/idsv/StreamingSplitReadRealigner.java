@@ -18,6 +18,7 @@ public class StreamingSplitReadRealigner extends SplitReadRealigner {
     private final StreamingAligner aligner;
     private final GenomicProcessingContext pc;
     private final int maxBufferedRecords;
+    private boolean coordinateSortOutput = false;
 
     public StreamingSplitReadRealigner(GenomicProcessingContext pc, StreamingAligner aligner, int maxBufferedRecords) {
         super(pc.getReference());
@@ -127,12 +128,20 @@ public class StreamingSplitReadRealigner extends SplitReadRealigner {
                 .referenceSequence(pc.getReferenceFile());
         try (SamReader reader = readerFactory.open(input)) {
             boolean unsortedRecordsOutputToSameFile = outputModified == null || output.equals(outputModified);
+            boolean sortOutput = unsortedRecordsOutputToSameFile && isCoordinateSortOutput();
             SAMFileHeader outputHeader = reader.getFileHeader().clone();
-            if (unsortedRecordsOutputToSameFile) {
+            if (sortOutput) {
+                outputHeader.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+                // htsjdk spills sorted runs of MAX_RECORDS_IN_RAM records to TMP_DIR
+                // and merges them when the writer is closed.
+                writerFactory
+                        .setMaxRecordsInRam(pc.getFileSystemContext().getMaxBufferedRecordsPerFile())
+                        .setTempDirectory(pc.getFileSystemContext().getTemporaryDirectory());
+            } else if (unsortedRecordsOutputToSameFile) {
                 outputHeader.setSortOrder(SAMFileHeader.SortOrder.unsorted);
             }
             SAMFileWriter modifiedWriter = null;
-            try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(outputHeader, true, output)) {
+            try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(outputHeader, !sortOutput, output)) {
                 if (unsortedRecordsOutputToSameFile) {
                     modifiedWriter = writer;
                 } else {
@@ -144,11 +153,33 @@ public class StreamingSplitReadRealigner extends SplitReadRealigner {
                     process(bufferedIt, writer, modifiedWriter);
                 }
             } finally {
-                CloserUtil.close(modifiedWriter);
+                if (!unsortedRecordsOutputToSameFile) {
+                    CloserUtil.close(modifiedWriter);
+                }
             }
         }
     }
 
+    public boolean isCoordinateSortOutput() {
+        return coordinateSortOutput;
+    }
+
+    /**
+     * Writes all records to a single coordinate sorted output file.
+     * Records are sorted in a bounded-memory buffer that spills sorted runs to the
+     * temporary directory and are merged when the output is closed.
+     * This removes the need for a separate sort of the unordered records.
+     * Only applicable when no separate output file for unordered records is specified.
+     *
+     * Peak memory usage is the sort buffer of MAX_RECORDS_IN_RAM records plus the
+     * records awaiting realignment. The aligner is flushed whenever maxBufferedRecords
+     * alignments are outstanding so at most maxBufferedRecords input records are
+     * awaiting realignment at any time.
+     */
+    public void setCoordinateSortOutput(boolean coordinateSortOutput) {
+        this.coordinateSortOutput = coordinateSortOutput;
+    }
+
     private class SplitReadRealignmentInfo {
         @Override
         public int hashCode() {
@@ -78,10 +78,16 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 	}
 	public VariantCallIterator(AggregateEvidenceSource source, QueryInterval[] interval, int intervalNumber) {
 		this(source.getContext(),
-				source.iterator(QueryIntervalUtil.padIntervals(source.getContext().getDictionary(), interval, source.getMaxConcordantFragmentSize() + 1)),
-				QueryIntervalUtil.padIntervals(source.getContext().getDictionary(), interval, source.getMaxConcordantFragmentSize() + 1),
+				source.iterator(getEvidenceIntervals(source, interval)),
+				getEvidenceIntervals(source, interval),
 				intervalNumber);
 	}
+	/**
+	 * Gets the intervals of the evidence required to call variants in the given interval
+	 */
+	public static QueryInterval[] getEvidenceIntervals(AggregateEvidenceSource source, QueryInterval[] interval) {
+		return QueryIntervalUtil.padIntervals(source.getContext().getDictionary(), interval, source.getMaxConcordantFragmentSize() + 1);
+	}
 	public class AsyncDirectionalIterator<T extends VariantContextDirectedEvidence> implements TrackedState, Closeable {
 		private Iterator<T> it;
 		private StateTracker currentTracker = null;
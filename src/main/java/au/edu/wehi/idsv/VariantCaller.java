@@ -3,6 +3,9 @@ package au.edu.wehi.idsv;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.vcf.VcfFileUtil;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.Log;
@@ -12,8 +15,10 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -23,6 +28,10 @@ import java.util.concurrent.Future;
  */
 public class VariantCaller {
 	private static final Log log = Log.getInstance(VariantCaller.class);
+	/**
+	 * Configuration sections that affect variant calls
+	 */
+	public static final String[] VARIANT_CALLING_CONFIGURATION_SECTIONS = ObjectArrays.concat(AssemblyEvidenceSource.ASSEMBLY_CONFIGURATION_SECTIONS, "variantcalling");
 	private final ProcessingContext processContext;
 	private final List<SAMEvidenceSource> samEvidence;
 	private final List<AssemblyEvidenceSource> assemblyEvidence;
@@ -44,18 +53,44 @@ public class VariantCaller {
 		AggregateEvidenceSource es = new AggregateEvidenceSource(processContext, samEvidence, assemblyEvidence, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
 		List<QueryInterval[]> chunks = processContext.getReference().getIntervals(processContext.getConfig().chunkSize, processContext.getConfig().chunkSequenceChangePenalty);
 		List<File> calledChunk = new ArrayList<>();
-		List<Future<Void>> tasks = new ArrayList<>();
-		
+		List<Callable<Void>> tasks = new ArrayList<>();
+		List<QueryInterval[]> toCall = new ArrayList<>();
+		List<File> inputs = new ArrayList<>();
+		samEvidence.stream().forEach(ses -> inputs.add(ses.getEvidenceFile()));
+		assemblyEvidence.stream().forEach(aes -> inputs.add(aes.getEvidenceFile()));
 		for (int i = 0; i < chunks.size(); i++) {
 			QueryInterval[] chunk = chunks.get(i);
 			File f = processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i);
 			int chunkNumber = i;
 			calledChunk.add(f);
-			if (!f.exists()) {
-				tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunk); return null; }));
+			IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+			String parameters = IntermediateFileManifest.parameterHash(processContext.getConfig().getParameterHash(VARIANT_CALLING_CONFIGURATION_SECTIONS), chunk);
+			if (!manifest.isComplete(f, parameters, inputs)) {
+				toCall.add(VariantCallIterator.getEvidenceIntervals(es, chunk));
+				int taskNumber = tasks.size();
+				tasks.add(() -> {
+					if (taskNumber + 1 < toCall.size()) {
+						processContext.getReference().prefetch(toCall.get(taskNumber + 1));
+					}
+					Stopwatch timer = Stopwatch.createStarted();
+					callChunk(f, es, chunkNumber, chunk);
+					manifest.record(f, "callBreakends", parameters, inputs, timer.elapsed(TimeUnit.MILLISECONDS));
+					return null;
+				});
+			}
+		}
+		List<SAMEvidenceSource> chunkedSources = new ArrayList<>();
+		Iterables.addAll(chunkedSources, Iterables.concat(samEvidence, assemblyEvidence));
+		chunkedSources.forEach(ses -> ses.prepareChunks(toCall, 1));
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (Callable<Void> task : tasks) {
+				futures.add(threadpool.submit(task));
 			}
+			runTasks(futures);
+		} finally {
+			chunkedSources.forEach(ses -> ses.releaseChunks());
 		}
-		runTasks(tasks);
 		
 		log.info("Merging identified breakpoints");
 		File mergedOut = FileSystemContext.getWorkingFileFor(vcf, "gridss.merged.");
@@ -115,11 +150,6 @@ public class VariantCaller {
 				throw new RuntimeException(e);
 			}
 			log.info("Complete ", msg);
-			if (gridss.Defaults.DEFENSIVE_GC) {
-				log.info("Requesting defensive GC to ensure OS file handles are closed");
-				System.gc();
-				System.runFinalization();
-			}
 		} catch (OutOfMemoryError oom) {
 			log.error(oom);
 			System.exit(1);
@@ -2,11 +2,13 @@ package au.edu.wehi.idsv;
 
 import au.edu.wehi.idsv.repeatmasker.RepeatMaskerBEDCodec;
 import au.edu.wehi.idsv.repeatmasker.RepeatMaskerFeature;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerStore;
 import au.edu.wehi.idsv.sam.ChimericAlignment;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
 import htsjdk.samtools.util.IntervalTree;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.annotation.Strand;
 import htsjdk.tribble.bed.BEDFeature;
@@ -14,6 +16,7 @@ import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
@@ -21,9 +24,10 @@ import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-public class VariantContextRepeatMaskerAnnotator implements Function<VariantContext, VariantContext> {
+public class VariantContextRepeatMaskerAnnotator implements Function<VariantContext, VariantContext>, Closeable {
     private static final Log log = Log.getInstance(VariantContextRepeatMaskerAnnotator.class);
     private Map<String, IntervalTree<RepeatMaskerFeature>> lookup;
+    private RepeatMaskerStore store;
 
     private class RepeatMaskerHit {
         public final RepeatMaskerFeature rme;
@@ -37,6 +41,7 @@ public class VariantContextRepeatMaskerAnnotator implements Function<VariantCont
     }
 
     public Collection<String> getRepeatMaskerContigs() {
+        if (store != null) return store.getContigs();
         return lookup.keySet();
     }
 
@@ -59,8 +64,16 @@ public class VariantContextRepeatMaskerAnnotator implements Function<VariantCont
         return lookup;
     }
 
-    public VariantContextRepeatMaskerAnnotator(File repeatMaskerBed) throws IOException {
-        this.lookup = createLookup(repeatMaskerBed);
+    /**
+     * @param repeatMasker RepeatMasker store, or bedops rmsk2bed RepeatMasker BED file.
+     * RepeatMasker stores are queried on demand whereas BED files are loaded into memory.
+     */
+    public VariantContextRepeatMaskerAnnotator(File repeatMasker) throws IOException {
+        if (RepeatMaskerStore.isStore(repeatMasker)) {
+            this.store = new RepeatMaskerStore(repeatMasker);
+        } else {
+            this.lookup = createLookup(repeatMasker);
+        }
     }
 
     private Stream<RepeatMaskerHit> getHits(String s) {
@@ -68,6 +81,14 @@ public class VariantContextRepeatMaskerAnnotator implements Function<VariantCont
         String chr = aln.rname;
         int start = aln.pos;
         int end = aln.pos + aln.cigar.getReferenceLength() - 1;
+        if (store != null) {
+            try {
+                return store.query(chr, start, end).stream()
+                        .map(f -> new RepeatMaskerHit(f, start, end, aln.isNegativeStrand));
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
         IntervalTree<RepeatMaskerFeature> tree = lookup.get(chr);
         if (tree == null) return Stream.empty();
         return StreamSupport.stream(Spliterators.spliteratorUnknownSize(tree.overlappers(start, end), 0), false)
@@ -109,10 +130,16 @@ public class VariantContextRepeatMaskerAnnotator implements Function<VariantCont
             }
         } catch (IndexOutOfBoundsException ioobe) {
             log.error("Malformed BEALN field for " + variantContext.getID() + ". Ignoring.");
-        } catch (NumberFormatException nfe) {
+        } catch (IllegalArgumentException iae) {
             log.error("Malformed BEALN field for " + variantContext.getID() + ". Ignoring.");
         }
         return variantContext;
     }
+    @Override
+    public void close() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
     public static final Comparator<RepeatMaskerHit> ByOverlapDesc = Comparator.comparingDouble(hit -> -hit.overlap);
 }
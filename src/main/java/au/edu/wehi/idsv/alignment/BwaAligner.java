@@ -37,6 +37,39 @@ public class BwaAligner implements Closeable {
         return this.aligner;
     }
 
+    /**
+     * Describes the bwa version and effective bwa mem options of this aligner.
+     * Options that do not change the reported alignments (such as the thread count) are omitted.
+     * @return bwa version and mem options
+     */
+    public String getSettings() {
+        return String.format("bwa %s mem -k %d -w %d -d %d -r %s -y %d -c %d -D %s -W %d -m %d -A %d -B %d -O %d,%d -E %d,%d -L %d,%d -U %d -T %d -K %d -F %d -h %d,%d",
+                BwaMemIndex.getBWAVersion(),
+                aligner.getMinSeedLengthOption(),
+                aligner.getBandwidthOption(),
+                aligner.getZDropOption(),
+                aligner.getSplitFactorOption(),
+                aligner.getMaxMemIntvOption(),
+                aligner.getMaxSeedOccurencesOption(),
+                aligner.getDropRatioOption(),
+                aligner.getMinChainWeightOption(),
+                aligner.getMaxChainExtendOption(),
+                aligner.getMatchScoreOption(),
+                aligner.getMismatchPenaltyOption(),
+                aligner.getDGapOpenPenaltyOption(),
+                aligner.getIGapOpenPenaltyOption(),
+                aligner.getDGapExtendPenaltyOption(),
+                aligner.getIGapExtendPenaltyOption(),
+                aligner.getClip5PenaltyOption(),
+                aligner.getClip3PenaltyOption(),
+                aligner.getUnpairedPenaltyOption(),
+                aligner.getOutputScoreThresholdOption(),
+                aligner.getChunkSizeOption(),
+                aligner.getFlagOption(),
+                aligner.getMaxXAHitsOption(),
+                aligner.getMaxXAHitsAltOption());
+    }
+
     /***
      * Ensure java.io.tmpdir actually exists before attempting
      */
@@ -49,7 +82,15 @@ public class BwaAligner implements Closeable {
         }
     }
     public BwaAligner(File reference, SAMSequenceDictionary dict, int threads) {
-        this.index = getBwaIndexFor(reference);
+        this(getBwaIndexFor(reference), dict, threads);
+    }
+
+    /**
+     * Creates an aligner using an already loaded index.
+     * Multiple aligners can share the same index.
+     */
+    public BwaAligner(BwaMemIndex index, SAMSequenceDictionary dict, int threads) {
+        this.index = index;
         this.dict = dict;
         this.header = getMinimalHeader(dict);
         this.aligner = new BwaMemAligner(this.index);
@@ -64,8 +64,17 @@ public class BwaStreamingAligner implements StreamingAligner {
      *                          Actual invocations to bwa will be with a buffer half this size.
      */
     public BwaStreamingAligner(File reference, SAMSequenceDictionary dict, int threads, int bufferSizeInBases) {
+        this(new BwaAligner(reference, dict, threads), bufferSizeInBases);
+    }
+
+    /**
+     *
+     * @param aligner bwa aligner
+     * @param bufferSizeInBases number of base pairs of sequence to buffer.
+     */
+    public BwaStreamingAligner(BwaAligner aligner, int bufferSizeInBases) {
         this.bwaInputBuffer = new LinkedBlockingDeque<>();
-        this.aligner = new BwaAligner(reference, dict, threads);
+        this.aligner = aligner;
         this.bufferSizeInBytes = bufferSizeInBases / 2 + 1;
     }
 
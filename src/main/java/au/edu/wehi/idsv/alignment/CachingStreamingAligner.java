@@ -0,0 +1,97 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Streaming aligner that consults a {@link RealignmentCache} before sending
+ * sequences to the underlying aligner.
+ *
+ * Only the primary alignment is cached. Cache hits return only the primary alignment record.
+ */
+public class CachingStreamingAligner implements StreamingAligner {
+    private final StreamingAligner aligner;
+    private final RealignmentCache cache;
+    private final Queue<SAMRecord> cachedAlignments = new ArrayDeque<>();
+    /**
+     * Bases sent to the underlying aligner, keyed by read name
+     */
+    private final Map<String, byte[]> outstanding = new HashMap<>();
+
+    public CachingStreamingAligner(StreamingAligner aligner, RealignmentCache cache) {
+        this.aligner = aligner;
+        this.cache = cache;
+    }
+
+    @Override
+    public void asyncAlign(FastqRecord fq) throws IOException {
+        byte[] bases = fq.getReadBases();
+        SAMRecord cached = cache.get(bases);
+        if (cached != null) {
+            cachedAlignments.add(createAlignment(fq, cached));
+        } else {
+            outstanding.put(fq.getReadName(), bases);
+            aligner.asyncAlign(fq);
+        }
+    }
+
+    private static SAMRecord createAlignment(FastqRecord fq, SAMRecord cached) {
+        SAMRecord r = SAMRecordUtil.createSAMRecord(cached.getHeader(), fq, !cached.getReadUnmappedFlag() && cached.getReadNegativeStrandFlag());
+        r.setFlags(cached.getFlags());
+        r.setReferenceIndex(cached.getReferenceIndex());
+        r.setAlignmentStart(cached.getAlignmentStart());
+        r.setCigar(cached.getCigar());
+        r.setMappingQuality(cached.getMappingQuality());
+        for (SAMRecord.SAMTagAndValue tv : cached.getAttributes()) {
+            r.setAttribute(tv.tag, tv.value);
+        }
+        return r;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        aligner.flush();
+    }
+
+    @Override
+    public int processedAlignmentRecords() {
+        return cachedAlignments.size() + aligner.processedAlignmentRecords();
+    }
+
+    @Override
+    public int outstandingAlignmentRecord() {
+        return aligner.outstandingAlignmentRecord();
+    }
+
+    @Override
+    public SAMRecord getAlignment() {
+        if (!cachedAlignments.isEmpty()) {
+            return cachedAlignments.poll();
+        }
+        SAMRecord r = aligner.getAlignment();
+        if (!r.getSupplementaryAlignmentFlag() && !r.isSecondaryAlignment()) {
+            byte[] bases = outstanding.remove(r.getReadName());
+            if (bases != null) {
+                try {
+                    cache.put(bases, r);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        return r;
+    }
+
+    @Override
+    public void close() throws IOException {
+        aligner.close();
+        cache.close();
+    }
+}
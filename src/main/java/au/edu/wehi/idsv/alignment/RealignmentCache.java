@@ -0,0 +1,293 @@
+package au.edu.wehi.idsv.alignment;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SequenceUtil;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+
+import java.io.*;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Persistent cache of sequence alignments keyed by the aligned bases.
+ *
+ * Alignments are held in an append-only file indexed in-memory by a 64-bit hash of
+ * the bases, reference genome fingerprint and aligner settings. Recently used
+ * alignments are held in an in-memory LRU cache in front of the file.
+ *
+ * The in-memory index holds at most maxIndexedAlignments entries. Once the index is
+ * full, new alignments are no longer persisted and alignments beyond the limit in
+ * an existing cache file are not used. Appends are buffered and written to the
+ * file when the buffer fills, before any buffered alignment is read back, and on close.
+ *
+ * Only a single process can write to a cache file at any given time. If the file
+ * is already locked by another process, the cache is opened read-only and new
+ * alignments are not persisted.
+ */
+public class RealignmentCache implements Closeable {
+    private static final Log log = Log.getInstance(RealignmentCache.class);
+    private static final byte[] MAGIC = "GRIDSSRC".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int ENTRY_HEADER_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int APPEND_BUFFER_SIZE = 1 << 16;
+    /**
+     * Default maximum number of alignments in the in-memory index.
+     * Each indexed alignment requires approximately 32 bytes of heap.
+     */
+    public static final int DEFAULT_MAX_INDEXED_ALIGNMENTS = 1 << 22;
+    private final File file;
+    private final SAMFileHeader header;
+    private final byte[] namespace;
+    private final RandomAccessFile raf;
+    private final FileLock lock;
+    private final Long2LongOpenHashMap offsetLookup = new Long2LongOpenHashMap();
+    private final int maxIndexedAlignments;
+    private final BAMRecordCodec codec;
+    private final ByteArrayOutputStream encodeBuffer = new ByteArrayOutputStream();
+    private DataOutputStream append = null;
+    /**
+     * Offset in the file of the first alignment still held in the append buffer
+     */
+    private long flushedLength;
+    private long appendOffset;
+    private final Map<String, SAMRecord> lru;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param file cache file. Created if it does not exist
+     * @param dict reference genome sequence dictionary
+     * @param alignerSettings aligner name and any settings that change the alignments reported by the aligner
+     * @param maxCachedInMemory maximum number of alignments to hold in memory
+     */
+    public RealignmentCache(File file, SAMSequenceDictionary dict, String alignerSettings, int maxCachedInMemory) throws IOException {
+        this(file, dict, alignerSettings, maxCachedInMemory, DEFAULT_MAX_INDEXED_ALIGNMENTS);
+    }
+
+    /**
+     * @param file cache file. Created if it does not exist
+     * @param dict reference genome sequence dictionary
+     * @param alignerSettings aligner name and any settings that change the alignments reported by the aligner
+     * @param maxCachedInMemory maximum number of alignments to hold in memory
+     * @param maxIndexedAlignments maximum number of persisted alignments to index
+     */
+    public RealignmentCache(File file, SAMSequenceDictionary dict, String alignerSettings, int maxCachedInMemory, int maxIndexedAlignments) throws IOException {
+        this.file = file;
+        this.header = new SAMFileHeader(dict);
+        this.codec = new BAMRecordCodec(header);
+        this.codec.setOutputStream(encodeBuffer);
+        this.maxIndexedAlignments = maxIndexedAlignments;
+        this.namespace = (getReferenceFingerprint(dict) + "\t" + alignerSettings).getBytes(StandardCharsets.UTF_8);
+        this.lru = new LinkedHashMap<String, SAMRecord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SAMRecord> eldest) {
+                return size() > maxCachedInMemory;
+            }
+        };
+        this.offsetLookup.defaultReturnValue(-1);
+        this.raf = new RandomAccessFile(file, "rw");
+        FileLock fl;
+        try {
+            fl = raf.getChannel().tryLock();
+        } catch (OverlappingFileLockException e) {
+            fl = null;
+        }
+        this.lock = fl;
+        if (lock == null) {
+            log.warn(String.format("Realignment cache %s is in use by another process. New alignments will not be persisted.", file));
+        }
+        if (raf.length() == 0) {
+            if (lock != null) {
+                raf.write(MAGIC);
+                raf.writeInt(VERSION);
+            }
+        } else {
+            loadIndex();
+        }
+        this.appendOffset = raf.length();
+        this.flushedLength = appendOffset;
+        if (lock != null) {
+            this.append = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), APPEND_BUFFER_SIZE));
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        raf.seek(0);
+        raf.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic) || raf.readInt() != VERSION) {
+            throw new IOException(String.format("%s is not a GRIDSS realignment cache file.", file));
+        }
+        long offset = raf.getFilePointer();
+        long length = raf.length();
+        long unindexed = 0;
+        while (offset + ENTRY_HEADER_SIZE <= length) {
+            raf.seek(offset);
+            long key = raf.readLong();
+            int size = raf.readInt();
+            if (offset + ENTRY_HEADER_SIZE + size > length) {
+                break;
+            }
+            if (offsetLookup.size() < maxIndexedAlignments) {
+                offsetLookup.putIfAbsent(key, offset);
+            } else {
+                unindexed++;
+            }
+            offset += ENTRY_HEADER_SIZE + size;
+        }
+        if (unindexed > 0) {
+            log.warn(String.format("Realignment cache %s exceeds the in-memory index limit of %d alignments. Ignoring %d cached alignments.", file, maxIndexedAlignments, unindexed));
+        }
+        if (offset != length) {
+            log.warn(String.format("Ignoring truncated record at end of realignment cache %s", file));
+            if (lock != null) {
+                raf.setLength(offset);
+            }
+        }
+        log.info(String.format("Loaded index of %d cached alignments from %s", offsetLookup.size(), file));
+    }
+
+    /**
+     * Fingerprint of the reference genome. Sequence MD5s are used when present in the dictionary.
+     */
+    public static String getReferenceFingerprint(SAMSequenceDictionary dict) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (SAMSequenceRecord seq : dict.getSequences()) {
+            hasher.putString(seq.getSequenceName(), StandardCharsets.UTF_8);
+            hasher.putInt(seq.getSequenceLength());
+            if (seq.getMd5() != null) {
+                hasher.putString(seq.getMd5(), StandardCharsets.UTF_8);
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    private long getKey(byte[] bases) {
+        return Hashing.murmur3_128().newHasher()
+                .putBytes(namespace)
+                .putBytes(bases)
+                .hash()
+                .asLong();
+    }
+
+    /**
+     * Gets the cached alignment of the given bases.
+     * @param bases read bases
+     * @return cached primary alignment, null if the bases are not present in the cache.
+     * The returned record should not be modified.
+     */
+    public SAMRecord get(byte[] bases) throws IOException {
+        String lruKey = new String(bases, StandardCharsets.US_ASCII);
+        SAMRecord r = lru.get(lruKey);
+        if (r == null) {
+            long offset = offsetLookup.get(getKey(bases));
+            if (offset >= 0) {
+                r = read(offset);
+                if (!Arrays.equals(bases, getAlignedBases(r))) {
+                    // hash collision
+                    r = null;
+                } else {
+                    lru.put(lruKey, r);
+                }
+            }
+        }
+        if (r == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return r;
+    }
+
+    /**
+     * Adds the given alignment to the cache.
+     * Alignments with a key already persisted in the cache file are not written again.
+     * This includes repeated sequences sent to the aligner again before their first
+     * alignment was cached, and the rare hash collision of different sequences.
+     * @param bases aligned bases in the orientation they were sent to the aligner
+     * @param alignment primary alignment reported by the aligner
+     */
+    public void put(byte[] bases, SAMRecord alignment) throws IOException {
+        // callers are free to modify the alignment record after it has been cached
+        lru.put(new String(bases, StandardCharsets.US_ASCII), alignment.deepCopy());
+        if (append == null) return;
+        long key = getKey(bases);
+        if (offsetLookup.containsKey(key)) return;
+        if (offsetLookup.size() >= maxIndexedAlignments) {
+            log.warn(String.format("Realignment cache %s has reached the in-memory index limit of %d alignments. New alignments will not be persisted.", file, maxIndexedAlignments));
+            flush();
+            append.close();
+            append = null;
+            return;
+        }
+        encodeBuffer.reset();
+        codec.encode(alignment);
+        append.writeLong(key);
+        append.writeInt(encodeBuffer.size());
+        encodeBuffer.writeTo(append);
+        offsetLookup.put(key, appendOffset);
+        appendOffset += ENTRY_HEADER_SIZE + encodeBuffer.size();
+    }
+
+    private void flush() throws IOException {
+        if (append != null && flushedLength < appendOffset) {
+            append.flush();
+            flushedLength = appendOffset;
+        }
+    }
+
+    private SAMRecord read(long offset) throws IOException {
+        if (offset >= flushedLength) {
+            flush();
+        }
+        raf.seek(offset + Long.BYTES);
+        byte[] buffer = new byte[raf.readInt()];
+        raf.readFully(buffer);
+        BAMRecordCodec codec = new BAMRecordCodec(header);
+        codec.setInputStream(new ByteArrayInputStream(buffer));
+        return codec.decode();
+    }
+
+    private static byte[] getAlignedBases(SAMRecord r) {
+        byte[] bases = r.getReadBases().clone();
+        if (!r.getReadUnmappedFlag() && r.getReadNegativeStrandFlag()) {
+            SequenceUtil.reverseComplement(bases);
+        }
+        return bases;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.info(String.format("Realignment cache %s: %d hits, %d misses", file, hits, misses));
+        try {
+            if (append != null) {
+                append.close();
+                append = null;
+            }
+        } finally {
+            if (lock != null) {
+                lock.release();
+            }
+            raf.close();
+        }
+    }
+}
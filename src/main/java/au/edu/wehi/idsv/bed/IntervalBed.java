@@ -1,6 +1,7 @@
 package au.edu.wehi.idsv.bed;
 
 import au.edu.wehi.idsv.LinearGenomicCoordinate;
+import com.google.common.collect.BoundType;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
@@ -27,6 +28,10 @@ public class IntervalBed {
 	private static final Log log = Log.getInstance(IntervalBed.class);
 	private final LinearGenomicCoordinate linear;
 	private final RangeSet<Long> intervals;
+	/**
+	 * Immutable lookup snapshot of intervals. Rebuilt on first lookup after the intervals have changed.
+	 */
+	private volatile IntervalIndex index = null;
 	public int size() {
 		return intervals.asRanges().size();
 	}
@@ -80,9 +85,23 @@ public class IntervalBed {
 	}
 	public synchronized void addInterval(int referenceIndex, int start, int end) {
 		addInterval(linear, intervals, referenceIndex, start, end);
+		index = null;
 	}
 	public synchronized void addInterval(QueryInterval qi) {
 		addInterval(linear, intervals, qi.referenceIndex, qi.start, qi.end);
+		index = null;
+	}
+	/**
+	 * Adds all intervals in the given set.
+	 * This allows intervals to be accumulated by each thread separately and merged once complete.
+	 * @param toAdd intervals to add
+	 */
+	public void addAll(IntervalBed toAdd) {
+		RangeSet<Long> rs = toAdd.asRangeSet();
+		synchronized (this) {
+			intervals.addAll(rs);
+			index = null;
+		}
 	}
 	/**
 	 * Determines whether any of the intervals overlap the given interval
@@ -95,8 +114,17 @@ public class IntervalBed {
 		return overlaps(linear.getLinearCoordinate(referenceIndex, start), linear.getLinearCoordinate(referenceIndex, end));
 	}
 	public boolean overlaps(long start, long end) {
-		Range<Long> r = Range.closedOpen(start, end + 1);
-		return overlaps(r);
+		IntervalIndex current = index;
+		if (current == null) {
+			current = getIndex();
+		}
+		return current.overlaps(start, end + 1);
+	}
+	private synchronized IntervalIndex getIndex() {
+		if (index == null) {
+			index = new IntervalIndex(intervals);
+		}
+		return index;
 	}
 	public boolean overlaps(Range<Long> interval) {
 		if (interval == null) {
@@ -109,7 +137,11 @@ public class IntervalBed {
 	 * @param toRemove intervals to remove
 	 */
 	public void remove(IntervalBed toRemove) {
-		intervals.removeAll(toRemove.intervals.asRanges());
+		RangeSet<Long> rs = toRemove.asRangeSet();
+		synchronized (this) {
+			intervals.removeAll(rs);
+			index = null;
+		}
 	}
 	public void write(File bed, String name) throws IOException {
 		try (BufferedWriter writer = Files.newBufferedWriter(bed.toPath(), StandardCharsets.US_ASCII)) {
@@ -159,7 +191,45 @@ public class IntervalBed {
 		end = Math.min(linear.getDictionary().getSequence(referenceIndex).getSequenceLength() + 1, end + endBases);
 		return Range.closedOpen(linear.getLinearCoordinate(referenceIndex, start), linear.getLinearCoordinate(referenceIndex, end));
 	}
-	public RangeSet<Long> asRangeSet() {
+	public synchronized RangeSet<Long> asRangeSet() {
 		return TreeRangeSet.create(intervals);
 	}
+	/**
+	 * Sorted array of disjoint half-open intervals supporting binary search overlap queries.
+	 */
+	private static class IntervalIndex {
+		private final long[] start;
+		private final long[] end;
+		public IntervalIndex(RangeSet<Long> rs) {
+			int n = rs.asRanges().size();
+			this.start = new long[n];
+			this.end = new long[n];
+			int i = 0;
+			for (Range<Long> r : rs.asRanges()) {
+				// TreeRangeSet coalesces connected ranges so the intervals are disjoint and sorted by both start and end
+				start[i] = r.lowerBoundType() == BoundType.CLOSED ? r.lowerEndpoint() : r.lowerEndpoint() + 1;
+				end[i] = r.upperBoundType() == BoundType.OPEN ? r.upperEndpoint() : r.upperEndpoint() + 1;
+				i++;
+			}
+		}
+		/**
+		 * Determines whether any interval overlaps [queryStart, queryEnd)
+		 */
+		public boolean overlaps(long queryStart, long queryEnd) {
+			// find last interval starting before the query end
+			int lo = 0;
+			int hi = start.length - 1;
+			int last = -1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if (start[mid] < queryEnd) {
+					last = mid;
+					lo = mid + 1;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			return last >= 0 && end[last] > queryStart;
+		}
+	}
 }
@@ -0,0 +1,275 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BedMergingCounter;
+import au.edu.wehi.idsv.BedpeMergingCounter;
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import com.google.common.util.concurrent.Futures;
+import htsjdk.samtools.util.CloseableIterator;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import org.apache.commons.math3.util.Pair;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * In-memory panel of normals lookup.
+ *
+ * PON calls are indexed by the chromosome of their lower breakend. Within each chromosome, calls are
+ * partitioned by breakend direction and, for breakpoints, the partner chromosome and direction.
+ * Each partition stores the breakend intervals in parallel primitive arrays sorted by start position.
+ * A bounding box of both breakend intervals is stored for each block of calls so blocks
+ * can be skipped without inspecting the individual calls.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PanelOfNormalsIndex {
+	private static final int BLOCK_BITS = 5;
+	private final List<Future<ChromosomeIndex>> chromosomes;
+	private PanelOfNormalsIndex(List<Future<ChromosomeIndex>> chromosomes) {
+		this.chromosomes = chromosomes;
+	}
+	/**
+	 * Loads the given PON store. Each chromosome is loaded as a separate task on the given thread pool.
+	 * Lookups block until the chromosome being queried has been loaded.
+	 *
+	 * Overlapping and adjacent calls are merged as they are when exporting the store to BEDPE and BED.
+	 */
+	public static PanelOfNormalsIndex load(PonStore store, int sequenceCount, ExecutorService threadpool) {
+		List<Future<ChromosomeIndex>> chromosomes = new ArrayList<>(sequenceCount);
+		for (int i = 0; i < sequenceCount; i++) {
+			int referenceIndex = i;
+			chromosomes.add(threadpool.submit(() -> loadChromosome(store, referenceIndex)));
+		}
+		return new PanelOfNormalsIndex(chromosomes);
+	}
+	private static ChromosomeIndex loadChromosome(PonStore store, int referenceIndex) throws IOException {
+		ChromosomeIndex.Builder builder = new ChromosomeIndex.Builder();
+		BedpeMergingCounter pe = new BedpeMergingCounter();
+		BedMergingCounter se = new BedMergingCounter(true);
+		try (CloseableIterator<Pair<BreakendSummary, Integer>> it = store.query(referenceIndex, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+			while (it.hasNext()) {
+				Pair<BreakendSummary, Integer> record = it.next();
+				if (record.getFirst() instanceof BreakpointSummary) {
+					for (Pair<BreakpointSummary, Integer> merged : pe.process((BreakpointSummary)record.getFirst(), record.getSecond())) {
+						builder.add(merged.getFirst(), merged.getSecond());
+					}
+				} else {
+					for (Pair<BreakendSummary, Integer> merged : se.process(record)) {
+						builder.add(merged.getFirst(), merged.getSecond());
+					}
+				}
+			}
+		}
+		for (Pair<BreakpointSummary, Integer> merged : pe.finish()) {
+			builder.add(merged.getFirst(), merged.getSecond());
+		}
+		for (Pair<BreakendSummary, Integer> merged : se.finish()) {
+			builder.add(merged.getFirst(), merged.getSecond());
+		}
+		return builder.build();
+	}
+	/**
+	 * Creates an index directly from the given PON calls. Calls are indexed as is without any merging.
+	 */
+	public static PanelOfNormalsIndex create(Iterator<Pair<BreakendSummary, Integer>> it, int sequenceCount) {
+		List<ChromosomeIndex.Builder> builders = new ArrayList<>(sequenceCount);
+		for (int i = 0; i < sequenceCount; i++) {
+			builders.add(new ChromosomeIndex.Builder());
+		}
+		while (it.hasNext()) {
+			Pair<BreakendSummary, Integer> record = it.next();
+			BreakendSummary be = lowBreakend(record.getFirst());
+			builders.get(be.referenceIndex).add(be, record.getSecond());
+		}
+		List<Future<ChromosomeIndex>> chromosomes = new ArrayList<>(sequenceCount);
+		for (ChromosomeIndex.Builder builder : builders) {
+			chromosomes.add(Futures.immediateFuture(builder.build()));
+		}
+		return new PanelOfNormalsIndex(chromosomes);
+	}
+	private static BreakendSummary lowBreakend(BreakendSummary be) {
+		if (be instanceof BreakpointSummary && ((BreakpointSummary)be).isHighBreakend()) {
+			return ((BreakpointSummary)be).remoteBreakpoint();
+		}
+		return be;
+	}
+	/**
+	 * Gets the PON count of the given breakend or breakpoint.
+	 * Breakpoints are only matched against PON breakpoints, and breakends only against PON breakends.
+	 * @param be breakend or breakpoint to lookup
+	 * @param margin number of bases the PON calls are allowed to be away from the given call
+	 * @return largest count of all PON calls overlapping the given call. 0 if no PON calls overlap the given call.
+	 */
+	public int count(BreakendSummary be, int margin) {
+		be = lowBreakend(be);
+		if (be.referenceIndex < 0 || be.referenceIndex >= chromosomes.size()) return 0;
+		ChromosomeIndex index;
+		try {
+			index = chromosomes.get(be.referenceIndex).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return index.count(be, margin);
+	}
+	private static class ChromosomeIndex {
+		private final Partition[] breakends;
+		private final Int2ObjectOpenHashMap<Partition> breakpoints;
+		private ChromosomeIndex(Partition[] breakends, Int2ObjectOpenHashMap<Partition> breakpoints) {
+			this.breakends = breakends;
+			this.breakpoints = breakpoints;
+		}
+		public int count(BreakendSummary be, int margin) {
+			if (be instanceof BreakpointSummary) {
+				BreakpointSummary bp = (BreakpointSummary)be;
+				Partition p = breakpoints.get(breakpointPartition(bp));
+				if (p == null) return 0;
+				return p.count(bp.start - margin, bp.end + margin, bp.start2 - margin, bp.end2 + margin);
+			}
+			Partition p = breakends[be.direction.ordinal()];
+			if (p == null) return 0;
+			return p.count(be.start - margin, be.end + margin, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+		private static int breakpointPartition(BreakpointSummary bp) {
+			return (bp.referenceIndex2 << 2) | (bp.direction.ordinal() << 1) | bp.direction2.ordinal();
+		}
+		private static class Builder {
+			private final Partition.Builder[] breakends = new Partition.Builder[BreakendDirection.values().length];
+			private final Int2ObjectOpenHashMap<Partition.Builder> breakpoints = new Int2ObjectOpenHashMap<>();
+			public void add(BreakendSummary be, int count) {
+				if (be instanceof BreakpointSummary) {
+					BreakpointSummary bp = (BreakpointSummary)be;
+					breakpoints.computeIfAbsent(breakpointPartition(bp), k -> new Partition.Builder()).add(bp.start, bp.end, bp.start2, bp.end2, count);
+				} else {
+					int i = be.direction.ordinal();
+					if (breakends[i] == null) {
+						breakends[i] = new Partition.Builder();
+					}
+					breakends[i].add(be.start, be.end, Integer.MIN_VALUE, Integer.MAX_VALUE, count);
+				}
+			}
+			public ChromosomeIndex build() {
+				Partition[] be = new Partition[breakends.length];
+				for (int i = 0; i < be.length; i++) {
+					be[i] = breakends[i] == null ? null : breakends[i].build();
+				}
+				Int2ObjectOpenHashMap<Partition> bp = new Int2ObjectOpenHashMap<>(breakpoints.size());
+				for (Int2ObjectOpenHashMap.Entry<Partition.Builder> entry : breakpoints.int2ObjectEntrySet()) {
+					bp.put(entry.getIntKey(), entry.getValue().build());
+				}
+				return new ChromosomeIndex(be, bp);
+			}
+		}
+	}
+	/**
+	 * Two-dimensional interval lookup. Intervals are sorted by the start of the first dimension.
+	 */
+	private static class Partition {
+		private final int[] start;
+		private final int[] end;
+		private final int[] start2;
+		private final int[] end2;
+		private final int[] count;
+		private final int maxWidth;
+		// per block bounds
+		private final int[] blockMaxEnd;
+		private final int[] blockMinStart2;
+		private final int[] blockMaxEnd2;
+		private Partition(int[] start, int[] end, int[] start2, int[] end2, int[] count) {
+			this.start = start;
+			this.end = end;
+			this.start2 = start2;
+			this.end2 = end2;
+			this.count = count;
+			int width = 0;
+			int blocks = (start.length + (1 << BLOCK_BITS) - 1) >> BLOCK_BITS;
+			this.blockMaxEnd = new int[blocks];
+			this.blockMinStart2 = new int[blocks];
+			this.blockMaxEnd2 = new int[blocks];
+			Arrays.fill(blockMaxEnd, Integer.MIN_VALUE);
+			Arrays.fill(blockMinStart2, Integer.MAX_VALUE);
+			Arrays.fill(blockMaxEnd2, Integer.MIN_VALUE);
+			for (int i = 0; i < start.length; i++) {
+				width = Math.max(width, end[i] - start[i]);
+				int b = i >> BLOCK_BITS;
+				blockMaxEnd[b] = Math.max(blockMaxEnd[b], end[i]);
+				blockMinStart2[b] = Math.min(blockMinStart2[b], start2[i]);
+				blockMaxEnd2[b] = Math.max(blockMaxEnd2[b], end2[i]);
+			}
+			this.maxWidth = width;
+		}
+		public int count(int queryStart, int queryEnd, int queryStart2, int queryEnd2) {
+			int best = 0;
+			int i = firstStartAtOrAfter((long)queryStart - maxWidth);
+			while (i < start.length && start[i] <= queryEnd) {
+				int b = i >> BLOCK_BITS;
+				if ((i & ((1 << BLOCK_BITS) - 1)) == 0 && (blockMaxEnd[b] < queryStart || blockMinStart2[b] > queryEnd2 || blockMaxEnd2[b] < queryStart2)) {
+					i += 1 << BLOCK_BITS;
+					continue;
+				}
+				if (end[i] >= queryStart && start2[i] <= queryEnd2 && end2[i] >= queryStart2) {
+					best = Math.max(best, count[i]);
+				}
+				i++;
+			}
+			return best;
+		}
+		private int firstStartAtOrAfter(long position) {
+			int lo = 0;
+			int hi = start.length;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (start[mid] < position) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+		private static class Builder {
+			private final IntArrayList start = new IntArrayList();
+			private final IntArrayList end = new IntArrayList();
+			private final IntArrayList start2 = new IntArrayList();
+			private final IntArrayList end2 = new IntArrayList();
+			private final IntArrayList count = new IntArrayList();
+			public void add(int start, int end, int start2, int end2, int count) {
+				this.start.add(start);
+				this.end.add(end);
+				this.start2.add(start2);
+				this.end2.add(end2);
+				this.count.add(count);
+			}
+			public Partition build() {
+				int n = start.size();
+				int[] order = new int[n];
+				for (int i = 0; i < n; i++) {
+					order[i] = i;
+				}
+				int[] s = start.elements();
+				IntArrays.mergeSort(order, (a, b) -> Integer.compare(s[a], s[b]));
+				return new Partition(permute(start, order), permute(end, order), permute(start2, order), permute(end2, order), permute(count, order));
+			}
+			private static int[] permute(IntArrayList list, int[] order) {
+				int[] result = new int[order.length];
+				for (int i = 0; i < order.length; i++) {
+					result[i] = list.getInt(order[i]);
+				}
+				return result;
+			}
+		}
+	}
+}
@@ -0,0 +1,464 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.util.DeterministicIterators;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Ordering;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import org.apache.commons.math3.util.Pair;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Sorted, block-indexed binary panel of normals store.
+ *
+ * Records are breakend and breakpoint calls with the number of normals supporting the call,
+ * sorted by breakend start then end position. Only the lower breakend of each breakpoint is stored.
+ * Records are written in independently compressed blocks with a block index stored at the end of the file.
+ *
+ * File layout:
+ * - magic, version, sequence dictionary names
+ * - compressed record blocks
+ * - block index: file offset, compressed size, uncompressed size, record count, first reference index and start position of each block
+ * - maximum first breakend width
+ * - block index file offset, magic
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PonStore implements Closeable {
+	private static final int MAGIC = 0x4E4F5047; // GPON
+	private static final int VERSION = 1;
+	private static final int RECORD_BREAKEND = 0;
+	private static final int RECORD_BREAKPOINT = 1;
+	/**
+	 * Number of records in each compressed block
+	 */
+	public static final int DEFAULT_BLOCK_RECORDS = 4096;
+	public static final Ordering<Pair<BreakendSummary, Integer>> ByBreakendStartEnd = BreakendSummary.ByStartEnd.onResultOf(p -> p.getFirst());
+	private final File file;
+	private final FileChannel channel;
+	private final List<String> sequenceNames;
+	private final long[] blockOffset;
+	private final int[] blockCompressedSize;
+	private final int[] blockSize;
+	private final int[] blockRecords;
+	private final int[] blockReferenceIndex;
+	private final int[] blockStart;
+	private final int maxWidth;
+	private final long recordCount;
+	/**
+	 * Opens the given PON store
+	 * @param file PON store file
+	 * @param dictionary expected sequence dictionary. Can be null.
+	 */
+	public PonStore(File file, SAMSequenceDictionary dictionary) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			ByteBuffer footer = read(channel.size() - 12, 12);
+			long indexOffset = footer.getLong();
+			if (footer.getInt() != MAGIC) {
+				throw new IOException(String.format("%s is not a GRIDSS PON store.", file));
+			}
+			DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (header.readInt() != MAGIC) {
+					throw new IOException(String.format("%s is not a GRIDSS PON store.", file));
+				}
+				int version = header.readInt();
+				if (version != VERSION) {
+					throw new IOException(String.format("%s has unsupported PON store version %d.", file, version));
+				}
+				int sequenceCount = header.readInt();
+				sequenceNames = new ArrayList<>(sequenceCount);
+				for (int i = 0; i < sequenceCount; i++) {
+					sequenceNames.add(header.readUTF());
+				}
+			} finally {
+				header.close();
+			}
+			if (dictionary != null) {
+				ensureDictionaryMatches(file, sequenceNames, dictionary);
+			}
+			ByteBuffer index = read(indexOffset, (int)(channel.size() - 12 - indexOffset));
+			int blockCount = index.getInt();
+			blockOffset = new long[blockCount];
+			blockCompressedSize = new int[blockCount];
+			blockSize = new int[blockCount];
+			blockRecords = new int[blockCount];
+			blockReferenceIndex = new int[blockCount];
+			blockStart = new int[blockCount];
+			long count = 0;
+			for (int i = 0; i < blockCount; i++) {
+				blockOffset[i] = index.getLong();
+				blockCompressedSize[i] = index.getInt();
+				blockSize[i] = index.getInt();
+				blockRecords[i] = index.getInt();
+				blockReferenceIndex[i] = index.getInt();
+				blockStart[i] = index.getInt();
+				count += blockRecords[i];
+			}
+			maxWidth = index.getInt();
+			recordCount = count;
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	private static void ensureDictionaryMatches(File file, List<String> sequenceNames, SAMSequenceDictionary dictionary) throws IOException {
+		List<String> expected = new ArrayList<>();
+		for (SAMSequenceRecord seq : dictionary.getSequences()) {
+			expected.add(seq.getSequenceName());
+		}
+		if (!expected.equals(sequenceNames)) {
+			throw new IOException(String.format("%s was generated using a different reference genome.", file));
+		}
+	}
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException(String.format("Unexpected end of file reading %s", file));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	public File getFile() {
+		return file;
+	}
+	public long getRecordCount() {
+		return recordCount;
+	}
+	/**
+	 * Iterates over all records in the store
+	 */
+	public CloseableIterator<Pair<BreakendSummary, Integer>> iterator() {
+		return new BlockIterator(0, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+	/**
+	 * Iterates over all records whose (first) breakend overlaps the given interval
+	 */
+	public CloseableIterator<Pair<BreakendSummary, Integer>> query(int referenceIndex, int start, int end) {
+		// first block that could contain a record with a start position at or after start - maxWidth
+		int block = 0;
+		int lo = 0;
+		int hi = blockOffset.length - 1;
+		long queryStart = (long)start - maxWidth;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			if (blockReferenceIndex[mid] < referenceIndex || (blockReferenceIndex[mid] == referenceIndex && blockStart[mid] < queryStart)) {
+				block = mid;
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return new BlockIterator(block, referenceIndex, start, end);
+	}
+	private class BlockIterator extends AbstractIterator<Pair<BreakendSummary, Integer>> implements CloseableIterator<Pair<BreakendSummary, Integer>> {
+		private final int referenceIndex;
+		private final int start;
+		private final int end;
+		private final Inflater inflater = new Inflater();
+		private int nextBlock;
+		private DataInputStream current = null;
+		private int currentRemaining = 0;
+		private boolean closed = false;
+		/**
+		 * @param referenceIndex reference index to filter to. Integer.MIN_VALUE to return all records.
+		 */
+		private BlockIterator(int firstBlock, int referenceIndex, int start, int end) {
+			this.nextBlock = firstBlock;
+			this.referenceIndex = referenceIndex;
+			this.start = start;
+			this.end = end;
+		}
+		@Override
+		protected Pair<BreakendSummary, Integer> computeNext() {
+			try {
+				while (!closed) {
+					while (currentRemaining == 0) {
+						if (nextBlock >= blockOffset.length || (referenceIndex != Integer.MIN_VALUE && isAfterQuery(blockReferenceIndex[nextBlock], blockStart[nextBlock]))) {
+							close();
+							return endOfData();
+						}
+						current = loadBlock(nextBlock);
+						currentRemaining = blockRecords[nextBlock];
+						nextBlock++;
+					}
+					currentRemaining--;
+					Pair<BreakendSummary, Integer> record = readRecord(current);
+					if (referenceIndex == Integer.MIN_VALUE) {
+						return record;
+					}
+					BreakendSummary be = record.getFirst();
+					if (isAfterQuery(be.referenceIndex, be.start)) {
+						close();
+						return endOfData();
+					}
+					if (be.referenceIndex == referenceIndex && be.end >= start) {
+						return record;
+					}
+				}
+				return endOfData();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		private boolean isAfterQuery(int recordReferenceIndex, int recordStart) {
+			return recordReferenceIndex > referenceIndex || (recordReferenceIndex == referenceIndex && recordStart > end);
+		}
+		private DataInputStream loadBlock(int block) throws IOException {
+			ByteBuffer compressed = read(blockOffset[block], blockCompressedSize[block]);
+			byte[] data = new byte[blockSize[block]];
+			inflater.reset();
+			inflater.setInput(compressed.array(), 0, blockCompressedSize[block]);
+			try {
+				int n = 0;
+				while (n < data.length && !inflater.finished()) {
+					n += inflater.inflate(data, n, data.length - n);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(String.format("Corrupt block %d in %s", block, file), e);
+			}
+			return new DataInputStream(new ByteArrayInputStream(data));
+		}
+		@Override
+		public void close() {
+			if (!closed) {
+				closed = true;
+				inflater.end();
+			}
+		}
+	}
+	private static Pair<BreakendSummary, Integer> readRecord(DataInputStream in) throws IOException {
+		int type = in.readByte();
+		int referenceIndex = in.readInt();
+		BreakendDirection direction = in.readBoolean() ? BreakendDirection.Forward : BreakendDirection.Backward;
+		int nominal = in.readInt();
+		int start = in.readInt();
+		int end = in.readInt();
+		BreakendSummary be;
+		if (type == RECORD_BREAKPOINT) {
+			int referenceIndex2 = in.readInt();
+			BreakendDirection direction2 = in.readBoolean() ? BreakendDirection.Forward : BreakendDirection.Backward;
+			int nominal2 = in.readInt();
+			int start2 = in.readInt();
+			int end2 = in.readInt();
+			be = new BreakpointSummary(referenceIndex, direction, nominal, start, end, referenceIndex2, direction2, nominal2, start2, end2);
+		} else {
+			be = new BreakendSummary(referenceIndex, direction, nominal, start, end);
+		}
+		int count = in.readInt();
+		return Pair.create(be, count);
+	}
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	/**
+	 * Writes records to a PON store.
+	 * Records must be added in breakend start/end order.
+	 * Consecutive identical calls are combined.
+	 */
+	public static class Writer implements Closeable {
+		private final File file;
+		private final DataOutputStream out;
+		private final int recordsPerBlock;
+		private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+		private final DataOutputStream block = new DataOutputStream(blockBytes);
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+		private final DataOutputStream indexOut = new DataOutputStream(index);
+		private byte[] compressBuffer = new byte[1 << 16];
+		private long position;
+		private int blockCount = 0;
+		private int blockRecords = 0;
+		private int maxWidth = 0;
+		private BreakendSummary pending = null;
+		private int pendingCount = 0;
+		public Writer(File file, SAMSequenceDictionary dictionary) throws IOException {
+			this(file, dictionary, DEFAULT_BLOCK_RECORDS);
+		}
+		public Writer(File file, SAMSequenceDictionary dictionary, int recordsPerBlock) throws IOException {
+			this.file = file;
+			this.recordsPerBlock = recordsPerBlock;
+			ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+			DataOutputStream header = new DataOutputStream(headerBytes);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeInt(dictionary.size());
+			for (SAMSequenceRecord seq : dictionary.getSequences()) {
+				header.writeUTF(seq.getSequenceName());
+			}
+			header.flush();
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			headerBytes.writeTo(out);
+			position = headerBytes.size();
+		}
+		public void add(Pair<BreakendSummary, Integer> record) throws IOException {
+			add(record.getFirst(), record.getSecond());
+		}
+		public void add(BreakendSummary be, int count) throws IOException {
+			if (be instanceof BreakpointSummary && ((BreakpointSummary)be).isHighBreakend()) {
+				// PON breakpoints are indexed by the lower breakend
+				return;
+			}
+			if (pending != null) {
+				if (BreakendSummary.ByStartEnd.compare(pending, be) > 0) {
+					throw new IllegalArgumentException(String.format("PON records not sorted: %s added after %s", be, pending));
+				}
+				if (pending.getClass() == be.getClass() && pending.nominal == be.nominal && pending.equals(be)
+						&& (!(be instanceof BreakpointSummary) || ((BreakpointSummary)pending).nominal2 == ((BreakpointSummary)be).nominal2)) {
+					pendingCount += count;
+					return;
+				}
+				writeRecord(pending, pendingCount);
+			}
+			pending = be;
+			pendingCount = count;
+		}
+		private void writeRecord(BreakendSummary be, int count) throws IOException {
+			if (blockRecords == 0) {
+				indexOut.writeLong(position);
+				indexOut.writeInt(0); // placeholder for compressed size
+				indexOut.writeInt(0); // placeholder for uncompressed size
+				indexOut.writeInt(0); // placeholder for record count
+				indexOut.writeInt(be.referenceIndex);
+				indexOut.writeInt(be.start);
+			}
+			maxWidth = Math.max(maxWidth, be.end - be.start + 1);
+			block.writeByte(be instanceof BreakpointSummary ? RECORD_BREAKPOINT : RECORD_BREAKEND);
+			block.writeInt(be.referenceIndex);
+			block.writeBoolean(be.direction == BreakendDirection.Forward);
+			block.writeInt(be.nominal);
+			block.writeInt(be.start);
+			block.writeInt(be.end);
+			if (be instanceof BreakpointSummary) {
+				BreakpointSummary bp = (BreakpointSummary)be;
+				block.writeInt(bp.referenceIndex2);
+				block.writeBoolean(bp.direction2 == BreakendDirection.Forward);
+				block.writeInt(bp.nominal2);
+				block.writeInt(bp.start2);
+				block.writeInt(bp.end2);
+			}
+			block.writeInt(count);
+			blockRecords++;
+			if (blockRecords >= recordsPerBlock) {
+				flushBlock();
+			}
+		}
+		private void flushBlock() throws IOException {
+			if (blockRecords == 0) return;
+			block.flush();
+			byte[] data = blockBytes.toByteArray();
+			deflater.reset();
+			deflater.setInput(data);
+			deflater.finish();
+			int compressedSize = 0;
+			while (!deflater.finished()) {
+				if (compressedSize == compressBuffer.length) {
+					compressBuffer = Arrays.copyOf(compressBuffer, 2 * compressBuffer.length);
+				}
+				compressedSize += deflater.deflate(compressBuffer, compressedSize, compressBuffer.length - compressedSize);
+			}
+			out.write(compressBuffer, 0, compressedSize);
+			position += compressedSize;
+			// back fill index placeholders
+			byte[] indexBytes = index.toByteArray();
+			ByteBuffer.wrap(indexBytes, indexBytes.length - 20, 12)
+				.putInt(compressedSize)
+				.putInt(data.length)
+				.putInt(blockRecords);
+			index.reset();
+			index.write(indexBytes);
+			blockBytes.reset();
+			blockRecords = 0;
+			blockCount++;
+		}
+		@Override
+		public void close() throws IOException {
+			try {
+				if (pending != null) {
+					writeRecord(pending, pendingCount);
+					pending = null;
+				}
+				flushBlock();
+				indexOut.flush();
+				long indexOffset = position;
+				out.writeInt(blockCount);
+				index.writeTo(out);
+				out.writeInt(maxWidth);
+				out.writeLong(indexOffset);
+				out.writeInt(MAGIC);
+				out.close();
+			} finally {
+				deflater.end();
+			}
+		}
+		public File getFile() {
+			return file;
+		}
+	}
+	/**
+	 * Writes the given sorted records to a new PON store
+	 */
+	public static void write(File file, SAMSequenceDictionary dictionary, Iterator<Pair<BreakendSummary, Integer>> it) throws IOException {
+		try (Writer writer = new Writer(file, dictionary)) {
+			while (it.hasNext()) {
+				writer.add(it.next());
+			}
+		}
+	}
+	/**
+	 * Merges the given PON stores into a new store
+	 * @param output output store
+	 * @param dictionary sequence dictionary
+	 * @param input stores to merge
+	 * @param additionalRecords additional sorted records to merge into the store. Can be null.
+	 */
+	public static void merge(File output, SAMSequenceDictionary dictionary, List<File> input, Iterator<Pair<BreakendSummary, Integer>> additionalRecords) throws IOException {
+		List<PonStore> stores = new ArrayList<>();
+		List<CloseableIterator<Pair<BreakendSummary, Integer>>> its = new ArrayList<>();
+		try {
+			for (File f : input) {
+				PonStore store = new PonStore(f, dictionary);
+				stores.add(store);
+				its.add(store.iterator());
+			}
+			List<Iterator<Pair<BreakendSummary, Integer>>> toMerge = new ArrayList<>(its);
+			if (additionalRecords != null) {
+				toMerge.add(additionalRecords);
+			}
+			write(output, dictionary, DeterministicIterators.mergeSorted(toMerge, ByBreakendStartEnd));
+		} finally {
+			for (CloseableIterator<Pair<BreakendSummary, Integer>> it : its) {
+				CloserUtil.close(it);
+			}
+			for (PonStore store : stores) {
+				CloserUtil.close(store);
+			}
+		}
+	}
+	@Override
+	public String toString() {
+		return String.format("%s (%d records in %d blocks)", file, recordCount, blockOffset.length);
+	}
+}
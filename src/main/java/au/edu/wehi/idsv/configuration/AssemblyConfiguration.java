@@ -10,6 +10,17 @@ public class AssemblyConfiguration {
 		errorCorrection = new ErrorCorrectionConfiguration(config);
 		downsampling = new DownsamplingConfiguration(config);
 		positional = new PositionalAssemblyConfiguration(config);
+		stringGraph = new StringGraphAssemblyConfiguration(config);
+		switch (config.getString("algorithm")) {
+			case "Positional":
+				algorithm = AssemblyAlgorithm.Positional;
+				break;
+			case "StringGraph":
+				algorithm = AssemblyAlgorithm.StringGraph;
+				break;
+			default:
+				throw new IllegalArgumentException(String.format("Unrecognised assembly algorithm \"%s\"", config.getString("algorithm")));
+		}
 		k = config.getInt("k");
 		minReads = config.getInt("minReads");
 		includePairAnchors = config.getBoolean("includePairAnchors");
@@ -19,6 +30,7 @@ public class AssemblyConfiguration {
 		removeMisassembledPartialContigsDuringAssembly = config.getBoolean("removeMisassembledPartialContigsDuringAssembly");
 		maxExpectedBreakendLengthMultiple = config.getFloat("maxExpectedBreakendLengthMultiple");
 		realignContigs = config.getBoolean("realignContigs");
+		realignInProcess = config.getBoolean("realignInProcess");
 		contigNamePrefix = config.getString("contigNamePrefix");
 		recoverAfterError = config.getBoolean("recoverAfterError");
 		longReadReadLengthThreshold = config.getInt("longReadReadLengthThreshold");
@@ -27,6 +39,23 @@ public class AssemblyConfiguration {
 	public ErrorCorrectionConfiguration errorCorrection;
 	public DownsamplingConfiguration downsampling;
 	public PositionalAssemblyConfiguration positional;
+	public StringGraphAssemblyConfiguration stringGraph;
+	public enum AssemblyAlgorithm {
+		/**
+		 * Positional de Bruijn graph assembly
+		 */
+		Positional,
+		/**
+		 * Read overlap string graph assembly.
+		 * Excluded regions, safety mode, telemetry and the assembly memory budget
+		 * are specific to positional assembly and are not applied.
+		 */
+		StringGraph,
+	}
+	/**
+	 * Breakend assembly algorithm used for each assembly chunk
+	 */
+	public AssemblyAlgorithm algorithm;
 	/**
 	 * De Bruijn graph kmer size
 	 */
@@ -76,6 +105,12 @@ public class AssemblyConfiguration {
 	 * Realign entire contig. Contigs that do not map back to their originating location are ignored.
 	 */
 	public boolean realignContigs;
+	/**
+	 * Identify split read alignments of contigs using an in-process bwa aligner
+	 * as contigs are assembled instead of performing a separate split read
+	 * identification pass over the assembly file. Requires a bwa index image of the reference.
+	 */
+	public boolean realignInProcess;
 	/**
 	 * SAM rread name prefix of assembly contigs.
 	 */
@@ -1,6 +1,7 @@
 package au.edu.wehi.idsv.configuration;
 
 import au.edu.wehi.idsv.AdapterHelper;
+import au.edu.wehi.idsv.IntermediateFileManifest;
 import com.google.common.collect.Lists;
 import htsjdk.samtools.util.Log;
 import org.apache.commons.configuration.CompositeConfiguration;
@@ -10,6 +11,9 @@ import org.apache.commons.configuration.PropertiesConfiguration;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Configuration settings container for gridss
@@ -77,6 +81,14 @@ public class GridssConfiguration {
 	 * Use a hashed evidenceID to save space and prevent read names exceeding the 254 character limit imposed by BAM 
 	 */
 	public boolean hashEvidenceID;
+	/**
+	 * Configuration settings in key=value form, sorted by key
+	 */
+	private final List<String> settings;
+	/**
+	 * Configuration section containing the top-level settings not belonging to any named section
+	 */
+	public static final String TOP_LEVEL_SECTION = "";
 	public AssemblyConfiguration getAssembly() {
 		return assembly;
 	}
@@ -125,6 +137,32 @@ public class GridssConfiguration {
 		useReadGroupSampleNameCategoryLabel = config.getBoolean("useReadGroupSampleNameCategoryLabel");
 		hashEvidenceID = config.getBoolean("hashEvidenceID");
 		sourceConfigurationFile = null;
+		settings = new ArrayList<>();
+		for (String key : Lists.newArrayList(config.getKeys())) {
+			settings.add(key + "=" + String.join(",", config.getStringArray(key)));
+		}
+		Collections.sort(settings);
+	}
+	/**
+	 * Gets a hash of the configuration settings an intermediate file depends on.
+	 * Intermediate files generated using different settings are regenerated, so only
+	 * the settings that affect the file contents should be included.
+	 * @param sections setting keys or key prefixes to include. A prefix matches all
+	 * settings in that section (e.g. "softclip" matches "softclip.minLength").
+	 * {@link #TOP_LEVEL_SECTION} matches settings not in any section.
+	 */
+	public String getParameterHash(String... sections) {
+		List<String> included = new ArrayList<>();
+		for (String setting : settings) {
+			String key = setting.substring(0, setting.indexOf('='));
+			for (String section : sections) {
+				if (section.equals(TOP_LEVEL_SECTION) ? !key.contains(".") : key.equals(section) || key.startsWith(section + ".")) {
+					included.add(setting);
+					break;
+				}
+			}
+		}
+		return IntermediateFileManifest.parameterHash(included);
 	}
 	public static Configuration LoadConfiguration(File configuration) throws ConfigurationException {
 		CompositeConfiguration config = new CompositeConfiguration();
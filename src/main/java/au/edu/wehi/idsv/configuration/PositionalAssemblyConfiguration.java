@@ -15,6 +15,10 @@ public class PositionalAssemblyConfiguration {
 		forceFullMemoizationRecalculationAt = config.getFloat("forceFullMemoizationRecalculationAt");
 		safetyModePathCountThreshold = config.getInt("safetyModePathCountThreshold");
 		safetyModeContigsToCall = config.getInt("safetyModeContigsToCall");
+		pipelined = config.getBoolean("pipelined");
+		pipelineBuffers = config.getInt("pipelineBuffers");
+		pipelineBatchSize = config.getInt("pipelineBatchSize");
+		maximumMemoryUsage = config.getLong("maximumMemoryUsage");
 		if (retainWidthMultiple < 1) {
 			throw new IllegalArgumentException("retainWidthMultiple must be at least 1");
 		}
@@ -24,6 +28,15 @@ public class PositionalAssemblyConfiguration {
 		if (maximumNodeDensity <= 0) {
 			throw new IllegalArgumentException("maximumNodeDensity must be positive");
 		}
+		if (pipelineBuffers < 1) {
+			throw new IllegalArgumentException("pipelineBuffers must be positive");
+		}
+		if (pipelineBatchSize < 1) {
+			throw new IllegalArgumentException("pipelineBatchSize must be positive");
+		}
+		if (maximumMemoryUsage < 0) {
+			throw new IllegalArgumentException("maximumMemoryUsage must be non-negative");
+		}
 	}
 	/**
 	 * Maximum length of a single path node. Leaves longer that this length will not be collapsed.
@@ -76,4 +89,24 @@ public class PositionalAssemblyConfiguration {
 	 * Number of memoized paths to enter safety mode
 	 */
 	public final int safetyModePathCountThreshold;
-}
\ No newline at end of file
+	/**
+	 * Runs kmer decomposition and kmer aggregation on their own threads, connected to the
+	 * assembler by bounded queues. This allows graph construction to overlap graph traversal.
+	 */
+	public boolean pipelined;
+	/**
+	 * Number of batches buffered between pipelined assembly stages
+	 */
+	public int pipelineBuffers;
+	/**
+	 * Number of graph nodes in each batch passed between pipelined assembly stages
+	 */
+	public int pipelineBatchSize;
+	/**
+	 * Maximum estimated memory usage (in bytes) of the assembly data structures of a single assembly task.
+	 * When exceeded, evidence in the loaded region is first downsampled. If the budget is exceeded
+	 * again in the same region, assembly of that region is skipped and the region excluded.
+	 * A value of 0 disables the memory budget.
+	 */
+	public long maximumMemoryUsage;
+}
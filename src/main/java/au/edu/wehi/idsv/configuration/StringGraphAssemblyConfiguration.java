@@ -0,0 +1,27 @@
+package au.edu.wehi.idsv.configuration;
+
+import org.apache.commons.configuration.Configuration;
+
+public class StringGraphAssemblyConfiguration {
+	public static final String CONFIGURATION_PREFIX = "stringGraph";
+
+	public StringGraphAssemblyConfiguration(Configuration config) {
+		config = config.subset(CONFIGURATION_PREFIX);
+		minOverlap = config.getInt("minOverlap");
+		maxMismatches = config.getInt("maxMismatches");
+		if (minOverlap <= 0) {
+			throw new IllegalArgumentException("minOverlap must be positive");
+		}
+		if (maxMismatches < 0) {
+			throw new IllegalArgumentException("maxMismatches must be non-negative");
+		}
+	}
+	/**
+	 * Minimum number of bases of overlap between reads
+	 */
+	public int minOverlap;
+	/**
+	 * Maximum number of base mismatches in a read overlap
+	 */
+	public int maxMismatches;
+}
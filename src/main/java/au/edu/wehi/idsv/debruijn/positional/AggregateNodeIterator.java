@@ -10,6 +10,7 @@ import com.google.common.collect.PeekingIterator;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongHeapPriorityQueue;
 
 import java.util.Iterator;
 import java.util.PriorityQueue;
@@ -22,7 +23,7 @@ import java.util.Queue;
  *
  */
 public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
-	private final PeekingIterator<? extends KmerNode> underlying;
+	private final SupportCursor underlying;
 	private Queue<ImmutableKmerNode> outputSortBuffer = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeByFirstStartPriorityQueue<>(16) : new PriorityQueue<ImmutableKmerNode>(1024, KmerNodeUtil.ByFirstStart);
 	private Long2ObjectOpenHashMap<KmerNodeAggregator> byKmer = new Long2ObjectOpenHashMap<KmerNodeAggregator>();
 	private Queue<KmerNodeAggregatorSnapshot> byEnd = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeAggregatorSnapshotByEndPriorityQueue(16) : new PriorityQueue<KmerNodeAggregatorSnapshot>(1024, BySnapshotEnd);
@@ -30,7 +31,67 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 	private int inputPosition = Integer.MIN_VALUE;
 	private long consumed = 0;
 	public AggregateNodeIterator(Iterator<? extends KmerNode> it) {
-		this.underlying = Iterators.peekingIterator(it);
+		this(new SupportCursor(new KmerNodeBlockIterator(it)));
+	}
+	private AggregateNodeIterator(SupportCursor underlying) {
+		this.underlying = underlying;
+	}
+	/**
+	 * Aggregates columnar kmer support without materialising each kmer as a node
+	 * @param it support blocks in ascending start position order
+	 */
+	public static AggregateNodeIterator fromSupportBlocks(Iterator<KmerSupportBlock> it) {
+		return new AggregateNodeIterator(new SupportCursor(it));
+	}
+	/**
+	 * Position within a sequence of support blocks
+	 */
+	private static class SupportCursor {
+		private final Iterator<KmerSupportBlock> it;
+		private KmerSupportBlock block = null;
+		private int offset = 0;
+		public SupportCursor(Iterator<KmerSupportBlock> it) {
+			this.it = it;
+		}
+		public boolean hasNext() {
+			while (block == null || offset >= block.size()) {
+				if (!it.hasNext()) {
+					block = null;
+					return false;
+				}
+				block = it.next();
+				offset = 0;
+			}
+			return true;
+		}
+		/**
+		 * Start position of the next kmer support
+		 */
+		public int peekStart() {
+			return block.start(offset);
+		}
+	}
+	/**
+	 * Packs each run of KmerNodes starting at the same position into a block
+	 */
+	private static class KmerNodeBlockIterator implements Iterator<KmerSupportBlock> {
+		private final PeekingIterator<? extends KmerNode> it;
+		public KmerNodeBlockIterator(Iterator<? extends KmerNode> it) {
+			this.it = Iterators.peekingIterator(it);
+		}
+		@Override
+		public boolean hasNext() {
+			return it.hasNext();
+		}
+		@Override
+		public KmerSupportBlock next() {
+			KmerSupportBlock block = new KmerSupportBlock(4);
+			int start = it.peek().firstStart();
+			while (it.hasNext() && it.peek().firstStart() == start) {
+				block.add(it.next());
+			}
+			return block;
+		}
 	}
 	@Override
 	public boolean hasNext() {
@@ -52,7 +113,7 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		// we can emit whenever there are no unprocessed or incomplete intervals
 		// before our current interval
 		while (underlying.hasNext() && (outputSortBuffer.isEmpty() || outputSortBuffer.peek().firstStart() >= earliestPossibleStartOfNodeBeingAggregated())) {
-			inputPosition = underlying.peek().firstStart(); 
+			inputPosition = underlying.peekStart();
 			process();
 			flush();
 		}
@@ -69,17 +130,18 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		return inputPosition - maxWidth;
 	}
 	private void process() {
-		while (underlying.hasNext() && underlying.peek().firstStart() <= inputPosition) {
-			KmerNode n = underlying.next();
+		while (underlying.hasNext() && underlying.peekStart() <= inputPosition) {
+			KmerSupportBlock block = underlying.block;
+			int i = underlying.offset++;
 			consumed++;
-			assert(n.firstStart() == inputPosition || inputPosition == Integer.MAX_VALUE); // input should be sorted by start position
-			long kmer = n.firstKmer();
+			assert(block.start(i) == inputPosition || inputPosition == Integer.MAX_VALUE); // input should be sorted by start position
+			long kmer = block.kmer(i);
 			KmerNodeAggregator ag = byKmer.get(kmer);
 			if (ag == null) {
 				ag = new KmerNodeAggregator(kmer);
 				byKmer.put(kmer, ag);
 			}
-			ag.add(n);
+			ag.add(block.start(i), block.end(i), block.weight(i), block.isReference(i));
 			byEnd.add(ag.new KmerNodeAggregatorSnapshot());
 		}
 	}
@@ -135,8 +197,9 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		public boolean isEmpty() { return active.isEmpty(); }
 		/**
 		 * KmerNodes in the currently active aggregation interval
+		 * packed as end position, weight and reference flag and ordered by end position
 		 */
-		private PriorityQueue<KmerNode> active = new PriorityQueue<KmerNode>(8, KmerNodeUtil.ByLastEnd);
+		private LongHeapPriorityQueue active = new LongHeapPriorityQueue(8);
 		/**
 		 * Start position of currently active aggregation interval
 		 */
@@ -157,36 +220,38 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 		private final long kmer;
 		public int end() {
 			if (active.isEmpty()) return Integer.MAX_VALUE;
-			return active.peek().firstEnd();
+			return activeEnd(active.firstLong());
 		}
 		public void add(KmerNode node) {
 			assert(node.firstKmer() == kmer);
-			assert(node.firstStart() >= start);
-			maxWidth = Math.max(maxWidth, node.width());
-			advanceTo(node.firstStart() - 1);
-			if (weight > 0 && start < node.firstStart()) {
-				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, node.firstStart() - 1, referenceCount > 0, weight));
+			add(node.firstStart(), node.firstEnd(), node.weight(), node.isReference());
+		}
+		public void add(int nodeStart, int nodeEnd, int nodeWeight, boolean nodeIsReference) {
+			assert(nodeStart >= start);
+			maxWidth = Math.max(maxWidth, nodeEnd - nodeStart + 1);
+			advanceTo(nodeStart - 1);
+			if (weight > 0 && start < nodeStart) {
+				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, nodeStart - 1, referenceCount > 0, weight));
 			}
-			start = node.firstStart();
-			if (node.isReference()) {
+			start = nodeStart;
+			if (nodeIsReference) {
 				referenceCount++;
 			}
-			weight += node.weight();
-			active.add(node);
+			weight += nodeWeight;
+			active.enqueue(packActive(nodeEnd, nodeWeight, nodeIsReference));
 		}
 		/**
 		 * Process up to and including the given position
 		 * @param position final processing position
 		 */
 		public void advanceTo(int position) {
-			while (!active.isEmpty() && active.peek().firstEnd() <= position) {
-				int end = active.peek().firstEnd();
+			while (!active.isEmpty() && activeEnd(active.firstLong()) <= position) {
+				int end = activeEnd(active.firstLong());
 				outputSortBuffer.add(new ImmutableKmerNode(kmer, start, end, referenceCount > 0, weight));
-				while (!active.isEmpty() && active.peek().firstEnd() == end) {
-					KmerNode endingHere = active.poll();
-					assert(endingHere.firstKmer() == kmer);
-					weight -= endingHere.weight();
-					if (endingHere.isReference()) {
+				while (!active.isEmpty() && activeEnd(active.firstLong()) == end) {
+					long endingHere = active.dequeueLong();
+					weight -= activeWeight(endingHere);
+					if (activeIsReference(endingHere)) {
 						referenceCount--;
 					}
 				}
@@ -198,6 +263,19 @@ public class AggregateNodeIterator implements PeekingIterator<KmerNode> {
 			return Longs.compare(kmer, right.kmer);
 		}
 	}
+	private static long packActive(int end, int weight, boolean isReference) {
+		assert(weight > 0 && weight <= Integer.MAX_VALUE >> 1);
+		return ((long)end << 32) | ((weight << 1) | (isReference ? 1 : 0));
+	}
+	private static int activeEnd(long packed) {
+		return (int)(packed >> 32);
+	}
+	private static int activeWeight(long packed) {
+		return (int)packed >>> 1;
+	}
+	private static boolean activeIsReference(long packed) {
+		return (packed & 1) != 0;
+	}
 	@Override
 	public void remove() {
 		throw new UnsupportedOperationException();
@@ -0,0 +1,20 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import com.google.common.collect.Range;
+
+/**
+ * Estimated memory usage of the assembly data structures has exceeded
+ * the memory budget whilst the given region was loaded
+ */
+public class AssemblyMemoryBudgetExceededException extends AssemblyThresholdReachedException {
+    private final long estimatedMemoryUsage;
+
+    public AssemblyMemoryBudgetExceededException(Range<Integer> range, long estimatedMemoryUsage) {
+        super(range);
+        this.estimatedMemoryUsage = estimatedMemoryUsage;
+    }
+
+    public long getEstimatedMemoryUsage() {
+        return estimatedMemoryUsage;
+    }
+}
@@ -15,6 +15,7 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static au.edu.wehi.idsv.Defaults.SANITY_CHECK_EVIDENCE_TRACKER;
 
@@ -28,9 +29,13 @@ import static au.edu.wehi.idsv.Defaults.SANITY_CHECK_EVIDENCE_TRACKER;
 public class EvidenceTracker {
 	private static final Log log = Log.getInstance(EvidenceTracker.class);
 	//public static EvidenceTracker TEMP_HACK_CURRENT_TRACKER = null;
-	private final Long2ObjectOpenHashMap<LinkedList<KmerSupportNode>> lookup = new Long2ObjectOpenHashMap<>();
+	private final Long2ObjectOpenHashMap<KmerSupportList> lookup = new Long2ObjectOpenHashMap<>();
 	private final Object2ObjectOpenHashMap<String, List<KmerEvidence>> id = new Object2ObjectOpenHashMap<>();
 	private long evidenceTotal = 0;
+	/**
+	 * Number of kmer support entries across all lookup lists
+	 */
+	private long supportCount = 0;
 	private PrintWriter debugFile = null;
 	/**
 	 * Tracks evidence emitted from the given iterator
@@ -55,14 +60,32 @@ public class EvidenceTracker {
 	 * @param support
 	 */
 	public KmerSupportNode track(KmerSupportNode support) {
-		long kmer = support.lastKmer();
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
+		track(support.evidence(), support.offset());
+		return support;
+	}
+	/**
+	 * Tracks all support in the given block
+	 * @param support
+	 */
+	public void track(KmerSupportBlock support) {
+		for (int i = 0; i < support.size(); i++) {
+			track(support.evidence(i), support.offset(i));
+		}
+	}
+	/**
+	 * Tracks the support of the given kmer of the given evidence
+	 * @param ke evidence
+	 * @param offset kmer offset
+	 */
+	public void track(KmerEvidence ke, int offset) {
+		long kmer = ke.kmer(offset);
+		KmerSupportList list = lookup.get(kmer);
 		if (list == null) {
-			list = new LinkedList<KmerSupportNode>();
+			list = new KmerSupportList();
 			lookup.put(kmer, list);
 		}
-		list.add(support);
-		KmerEvidence ke = support.evidence();
+		list.add(ke, offset);
+		supportCount++;
 		String evidenceId = ke.evidence().getEvidenceID();
 		List<KmerEvidence> idvalue = id.get(evidenceId);
 		if (idvalue == null) {
@@ -77,7 +100,6 @@ public class EvidenceTracker {
 		if (!idvalue.contains(ke)) {
 			idvalue.add(ke);
 		}
-		return support;
 	}
 	/**
 	 * Stops tracking all nodes associated with all of the given evidence
@@ -112,9 +134,8 @@ public class EvidenceTracker {
 		removeSet.addAll(trackedKmerEvidenceForEvidence);
 		for (KmerEvidence e : trackedKmerEvidenceForEvidence) {
 			for (int i = 0; i < e.length(); i++) {
-				KmerSupportNode node = e.node(i);
-				if (node != null) {
-					kmersInSet.add(node.firstKmer());
+				if (e.hasKmer(i)) {
+					kmersInSet.add(e.kmer(i));
 				}
 			}
 		}
@@ -124,16 +145,17 @@ public class EvidenceTracker {
 	 * @param evidence
 	 */
 	private void remove(long kmer, Collection<KmerEvidence> evidence) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
+		KmerSupportList list = lookup.get(kmer);
 		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (evidence.contains(n.evidence())) {
-					it.remove();
+			int retained = 0;
+			for (int i = 0; i < list.size; i++) {
+				if (!evidence.contains(list.evidence[i])) {
+					list.set(retained++, list.evidence[i], list.offset[i]);
 				}
 			}
-			if (list.size() == 0) {
+			supportCount -= list.size - retained;
+			list.truncate(retained);
+			if (list.size == 0) {
 				lookup.remove(kmer);
 			}
 		}
@@ -182,19 +204,22 @@ public class EvidenceTracker {
 	 * @param end
 	 */
 	private void toCollection(Collection<KmerEvidence> collection, long kmer, int start, int end, boolean remove) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
+		KmerSupportList list = lookup.get(kmer);
 		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (IntervalUtil.overlapsClosed(start, end, n.lastStart(), n.lastEnd())) {
+			int retained = 0;
+			for (int i = 0; i < list.size; i++) {
+				KmerEvidence e = list.evidence[i];
+				int offset = list.offset[i];
+				if (IntervalUtil.overlapsClosed(start, end, e.startPosition() + offset, e.endPosition() + offset)) {
+					collection.add(e);
 					if (remove) {
-						it.remove();
+						continue;
 					}
-					KmerEvidence e = n.evidence();
-					collection.add(e);
 				}
+				list.set(retained++, e, offset);
 			}
+			supportCount -= list.size - retained;
+			list.truncate(retained);
 		}
 	}
 	public boolean matchesExpected(KmerPathSubnode pn) {
@@ -210,10 +235,12 @@ public class EvidenceTracker {
 	public boolean matchesExpected(int expectedWidthWeight, LongArrayList kmers, int start, int end) {
 		int evidenceWeight = 0;
 		for (long kmer : kmers) {
-			LinkedList<KmerSupportNode> list = lookup.get(kmer);
+			KmerSupportList list = lookup.get(kmer);
 			if (list != null) {
-				for (KmerSupportNode n : list) {
-					evidenceWeight += n.weight() * IntervalUtil.overlapsWidthClosed(start, end, n.lastStart(), n.lastEnd());
+				for (int i = 0; i < list.size; i++) {
+					KmerEvidence e = list.evidence[i];
+					int offset = list.offset[i];
+					evidenceWeight += e.weight(offset) * IntervalUtil.overlapsWidthClosed(start, end, e.startPosition() + offset, e.endPosition() + offset);
 				}
 			}
 		}
@@ -225,6 +252,40 @@ public class EvidenceTracker {
 	}
 
 
+	/**
+	 * Support for a single kmer stored as parallel evidence and kmer offset arrays
+	 */
+	private static final class KmerSupportList {
+		private KmerEvidence[] evidence = new KmerEvidence[2];
+		private int[] offset = new int[2];
+		private int size = 0;
+		public void add(KmerEvidence e, int kmerOffset) {
+			if (size == evidence.length) {
+				evidence = Arrays.copyOf(evidence, 2 * size);
+				offset = Arrays.copyOf(offset, 2 * size);
+			}
+			set(size++, e, kmerOffset);
+		}
+		public void set(int i, KmerEvidence e, int kmerOffset) {
+			evidence[i] = e;
+			offset[i] = kmerOffset;
+		}
+		public void truncate(int newSize) {
+			Arrays.fill(evidence, newSize, size, null);
+			size = newSize;
+		}
+		public boolean contains(KmerEvidence e, int kmerOffset) {
+			for (int i = 0; i < size; i++) {
+				if (offset[i] == kmerOffset && evidence[i].equals(e)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		public Stream<KmerEvidence> evidence() {
+			return Arrays.stream(evidence, 0, size);
+		}
+	}
 	public class PathNodeAssertionInterceptor implements Iterator<KmerPathNode> {
 		private final Iterator<KmerPathNode> underlying;
 		private final String id;
@@ -266,6 +327,15 @@ public class EvidenceTracker {
 	public Set<KmerEvidence> getTrackedEvidence() {
 		return id.values().stream().flatMap(x -> x.stream()).collect(Collectors.toSet());
 	}
+	/**
+	 * Estimated memory usage of the tracked evidence and kmer lookup
+	 * @return estimated size in bytes
+	 */
+	public long estimatedMemoryUsage() {
+		return lookup.size() * MemoryUsageEstimates.BYTES_PER_TRACKED_KMER
+				+ supportCount * MemoryUsageEstimates.BYTES_PER_TRACKED_KMER_SUPPORT
+				+ id.size() * MemoryUsageEstimates.BYTES_PER_TRACKED_EVIDENCE;
+	}
 	public long tracking_evidenceTotal() {
 		return evidenceTotal;
 	}
@@ -276,16 +346,16 @@ public class EvidenceTracker {
 		return lookup.size();
 	}
 	public int tracking_supportNodeCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).sum();
+		return lookup.values().stream().mapToInt(x -> x.size).sum();
 	}
 	public int tracking_maxKmerSupportNodesCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).max().orElse(0);
+		return lookup.values().stream().mapToInt(x -> x.size).max().orElse(0);
 	}
 	public void sanityCheck() {
 		Set<String> lookupEid = lookup.values()
 				.stream()
-				.flatMap(ll -> ll.stream())
-				.map(ksn -> ksn.evidence().evidence().getEvidenceID())
+				.flatMap(ll -> ll.evidence())
+				.map(ke -> ke.evidence().getEvidenceID())
 				.collect(Collectors.toSet());
 		Set<String> idEid = id.keySet().stream().collect(Collectors.toSet());
 		Set<String> missingInLookup = new HashSet<>(idEid);
@@ -294,17 +364,15 @@ public class EvidenceTracker {
 		missingInLookup.removeAll(lookupEid);
 		Set<KmerEvidence> kes = lookup.values()
 				.stream()
-				.flatMap(ll -> ll.stream())
-				.map(ksn -> ksn.evidence())
+				.flatMap(ll -> ll.evidence())
 				.collect(Collectors.toSet());
 		List<KmerSupportNode> missingKsn = new ArrayList<>();
 		for (KmerEvidence ke : kes) {
 			for (int i = 0; i < ke.length(); i++) {
-				KmerSupportNode ksn = ke.node(i);
-				if (ksn != null) {
-					LinkedList<KmerSupportNode> list = lookup.get(ksn.firstKmer());
-					if (!list.contains(ksn)) {
-						missingKsn.add(ksn);
+				if (ke.hasKmer(i)) {
+					KmerSupportList list = lookup.get(ke.kmer(i));
+					if (list == null || !list.contains(ke, i)) {
+						missingKsn.add(ke.node(i));
 					}
 				}
 			}
@@ -47,11 +47,18 @@ public class KmerEvidence extends PackedKmerList {
 	private final boolean isReadPairAnchorRead;
 	private Integer hashCode = null;
 	public KmerSupportNode node(int offset) {
-		if (ambiguous != null && ambiguous.get(offset)) {
+		if (!hasKmer(offset)) {
 			return null;
 		}
 		return new KmerSupportNode(this, offset);
 	}
+	/**
+	 * Determines whether the kmer at the given offset contributes support
+	 * @return false if the kmer at the given offset is ambiguous, true otherwise
+	 */
+	public boolean hasKmer(int offset) {
+		return ambiguous == null || !ambiguous.get(offset);
+	}
 	public float evidenceQuality() { return score; }
 	public DirectedEvidence evidence() { return evidence; }
 	/**
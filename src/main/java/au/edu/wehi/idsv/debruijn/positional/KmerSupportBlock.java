@@ -0,0 +1,166 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import java.util.Arrays;
+
+/**
+ * Columnar block of kmer support.
+ *
+ * Each entry is the contribution of a single kmer of a single piece of evidence
+ * and is stored across parallel primitive arrays instead of as a {@link KmerSupportNode}.
+ * Entries without an evidence handle can be used to represent arbitrary {@link KmerNode}s.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class KmerSupportBlock {
+	private static final int INITIAL_CAPACITY = 64;
+	private long[] kmer;
+	private int[] start;
+	private int[] end;
+	private int[] weight;
+	private boolean[] reference;
+	private KmerEvidence[] evidence;
+	private int[] offset;
+	private int size = 0;
+	public KmerSupportBlock() {
+		this(INITIAL_CAPACITY);
+	}
+	public KmerSupportBlock(int initialCapacity) {
+		initialCapacity = Math.max(1, initialCapacity);
+		kmer = new long[initialCapacity];
+		start = new int[initialCapacity];
+		end = new int[initialCapacity];
+		weight = new int[initialCapacity];
+		reference = new boolean[initialCapacity];
+		evidence = new KmerEvidence[initialCapacity];
+		offset = new int[initialCapacity];
+	}
+	private void ensureCapacity(int capacity) {
+		if (capacity > kmer.length) {
+			int newCapacity = Math.max(capacity, 2 * kmer.length);
+			kmer = Arrays.copyOf(kmer, newCapacity);
+			start = Arrays.copyOf(start, newCapacity);
+			end = Arrays.copyOf(end, newCapacity);
+			weight = Arrays.copyOf(weight, newCapacity);
+			reference = Arrays.copyOf(reference, newCapacity);
+			evidence = Arrays.copyOf(evidence, newCapacity);
+			offset = Arrays.copyOf(offset, newCapacity);
+		}
+	}
+	/**
+	 * Adds the support of the kmer at the given offset of the given evidence
+	 */
+	public void add(KmerEvidence e, int kmerOffset) {
+		add(e.kmer(kmerOffset), e.startPosition() + kmerOffset, e.endPosition() + kmerOffset, e.weight(kmerOffset), e.isAnchored(kmerOffset), e, kmerOffset);
+	}
+	public void add(KmerNode node) {
+		if (node instanceof KmerSupportNode) {
+			KmerSupportNode sn = (KmerSupportNode)node;
+			add(sn.evidence(), sn.offset());
+		} else {
+			add(node.firstKmer(), node.firstStart(), node.firstEnd(), node.weight(), node.isReference(), null, 0);
+		}
+	}
+	private void add(long kmer, int start, int end, int weight, boolean reference, KmerEvidence evidence, int offset) {
+		ensureCapacity(size + 1);
+		this.kmer[size] = kmer;
+		this.start[size] = start;
+		this.end[size] = end;
+		this.weight[size] = weight;
+		this.reference[size] = reference;
+		this.evidence[size] = evidence;
+		this.offset[size] = offset;
+		size++;
+	}
+	/**
+	 * Appends the given entries of the given block to this block
+	 * @param from first entry to append
+	 * @param to entry after the last entry to append
+	 */
+	public void addAll(KmerSupportBlock block, int from, int to) {
+		int count = to - from;
+		ensureCapacity(size + count);
+		System.arraycopy(block.kmer, from, kmer, size, count);
+		System.arraycopy(block.start, from, start, size, count);
+		System.arraycopy(block.end, from, end, size, count);
+		System.arraycopy(block.weight, from, weight, size, count);
+		System.arraycopy(block.reference, from, reference, size, count);
+		System.arraycopy(block.evidence, from, evidence, size, count);
+		System.arraycopy(block.offset, from, offset, size, count);
+		size += count;
+	}
+	/**
+	 * Stable sorts the block entries by start position.
+	 * The relative order of entries starting at the same position is retained.
+	 */
+	public void sortByStart() {
+		boolean sorted = true;
+		int minStart = Integer.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			sorted &= i == 0 || start[i - 1] <= start[i];
+			minStart = Math.min(minStart, start[i]);
+		}
+		if (sorted) return;
+		// pack relative start position and entry index into a single primitive sort key
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long)(start[i] - minStart) << 32) | i;
+		}
+		Arrays.sort(keys);
+		long[] sortedKmer = new long[kmer.length];
+		int[] sortedStart = new int[start.length];
+		int[] sortedEnd = new int[end.length];
+		int[] sortedWeight = new int[weight.length];
+		boolean[] sortedReference = new boolean[reference.length];
+		KmerEvidence[] sortedEvidence = new KmerEvidence[evidence.length];
+		int[] sortedOffset = new int[offset.length];
+		for (int i = 0; i < size; i++) {
+			int j = (int)keys[i];
+			sortedKmer[i] = kmer[j];
+			sortedStart[i] = start[j];
+			sortedEnd[i] = end[j];
+			sortedWeight[i] = weight[j];
+			sortedReference[i] = reference[j];
+			sortedEvidence[i] = evidence[j];
+			sortedOffset[i] = offset[j];
+		}
+		kmer = sortedKmer;
+		start = sortedStart;
+		end = sortedEnd;
+		weight = sortedWeight;
+		reference = sortedReference;
+		evidence = sortedEvidence;
+		offset = sortedOffset;
+	}
+	public void clear() {
+		Arrays.fill(evidence, 0, size, null);
+		size = 0;
+	}
+	public int size() { return size; }
+	public boolean isEmpty() { return size == 0; }
+	public long kmer(int i) { return kmer[i]; }
+	public int start(int i) { return start[i]; }
+	public int end(int i) { return end[i]; }
+	public int weight(int i) { return weight[i]; }
+	public boolean isReference(int i) { return reference[i]; }
+	/**
+	 * Evidence handle of the given entry
+	 * @return evidence contributing the given entry, null if the entry is not associated with any evidence
+	 */
+	public KmerEvidence evidence(int i) { return evidence[i]; }
+	public int offset(int i) { return offset[i]; }
+	/**
+	 * Materialises the given entry as a kmer node
+	 */
+	public KmerNode node(int i) {
+		if (evidence[i] != null) {
+			return new KmerSupportNode(evidence[i], offset[i]);
+		}
+		return new ImmutableKmerNode(kmer[i], start[i], end[i], reference[i], weight[i]);
+	}
+	@Override
+	public String toString() {
+		if (size == 0) return "[]";
+		return String.format("[%d-%d] %d kmers", start[0], start[size - 1], size);
+	}
+}
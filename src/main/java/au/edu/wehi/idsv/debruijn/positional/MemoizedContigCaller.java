@@ -375,6 +375,14 @@ public class MemoizedContigCaller extends ContigCaller {
 	public int memoizedNodeCount() {
 		return frontier.memoizedNodeCount();
 	}
+	/**
+	 * Estimated memory usage of the memoization and frontier
+	 * @return estimated size in bytes
+	 */
+	public long estimatedMemoryUsage() {
+		return memoizedNodeCount() * MemoryUsageEstimates.BYTES_PER_MEMOIZED_NODE
+				+ frontierByPathStart.size() * MemoryUsageEstimates.BYTES_PER_FRONTIER_NODE;
+	}
 	@Override
 	public int tracking_frontierSize() {
 		return frontier.tracking_frontierSize();
@@ -0,0 +1,51 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+/**
+ * Approximate heap usage of the positional assembly data structures.
+ *
+ * These are deliberately coarse per-entry estimates (64-bit JVM, compressed oops)
+ * that include the owning collection overhead. They allow the memory usage of an
+ * assembly task to be bounded without walking the object graph.
+ *
+ * NonReferenceContigAssemblerTest.estimated_memory_usage_should_track_heap_usage
+ * checks the total estimate is within a factor of 2 of the measured heap usage
+ * (0.98-1.14 for dense soft clip assembly).
+ *
+ * @author Daniel Cameron
+ *
+ */
+final class MemoryUsageEstimates {
+	private MemoryUsageEstimates() { }
+	/**
+	 * Evidence tracker kmer lookup entry and its support list
+	 */
+	static final long BYTES_PER_TRACKED_KMER = 96;
+	/**
+	 * Evidence tracker support list entry
+	 */
+	static final long BYTES_PER_TRACKED_KMER_SUPPORT = 12;
+	/**
+	 * Tracked evidence including the underlying read
+	 */
+	static final long BYTES_PER_TRACKED_EVIDENCE = 1024;
+	/**
+	 * Assembly graph path node excluding per-kmer storage
+	 */
+	static final long BYTES_PER_GRAPH_NODE = 256;
+	/**
+	 * Per-kmer storage of assembly graph path nodes including the kmer lookup
+	 */
+	static final long BYTES_PER_GRAPH_KMER = 64;
+	/**
+	 * Memoized traversal node
+	 */
+	static final long BYTES_PER_MEMOIZED_NODE = 128;
+	/**
+	 * Traversal node on the memoization frontier
+	 */
+	static final long BYTES_PER_FRONTIER_NODE = 96;
+	/**
+	 * Buffered kmer support node
+	 */
+	static final long BYTES_PER_SUPPORT_NODE = 40;
+}
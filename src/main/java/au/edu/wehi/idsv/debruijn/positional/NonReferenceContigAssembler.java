@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -98,6 +99,9 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	private PositionalDeBruijnGraphTracker exportTracker = null;
 	private AssemblyChunkTelemetry telemetry = null;
 	private Set<KmerEvidence> untrackedEvidenceStillBeingProcessed = null;
+	private long graphKmerCount = 0;
+	private long memoryBudget = 0;
+	private LongSupplier upstreamMemoryUsage = () -> 0;
 	public int getReferenceIndex() { return referenceIndex; }
 
 	private int retainWidth() {
@@ -443,6 +447,15 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 			toFlush.add(range);
 			throw new AssemblyThresholdReachedException(range);
 		}
+		if (memoryBudget > 0) {
+			long memoryUsage = estimatedMemoryUsage();
+			if (memoryUsage > memoryBudget) {
+				int loadedStart = graphByPosition.isEmpty() ? lastNextPosition : Math.min(lastNextPosition, graphByPosition.first().firstStart());
+				Range<Integer> range = Range.closed(loadedStart, Math.max(loadedStart, lastUnderlyingStartPosition));
+				log.debug(String.format("Estimated memory usage of %d bytes at %s:%d-%d exceeds budget of %d bytes.", memoryUsage, contigName, range.lowerEndpoint(), range.upperEndpoint(), memoryBudget));
+				throw new AssemblyMemoryBudgetExceededException(range, memoryUsage);
+			}
+		}
 		if (getTelemetry() != null) {
 			long currentTime = System.nanoTime();
 			getTelemetry().loadGraph(referenceIndex, lastNextPosition, nextPosition(), count, filtered, currentTime - telemetryLastloadGraphs);
@@ -905,6 +918,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	private void addToGraph(KmerPathNode node) {
 		boolean added = graphByPosition.add(node);
 		assert(added);
+		graphKmerCount += node.length();
 		if (!node.isReference()) {
 			nonReferenceGraphByPosition.add(node);
 		}
@@ -924,6 +938,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		boolean removed = graphByPosition.remove(node);
 		nonReferenceGraphByPosition.remove(node);
 		assert(removed);
+		graphKmerCount -= node.length();
 		for (int i = 0; i < node.length(); i++) {
 			removeFromGraph(new KmerPathNodeKmerNode(node, i));
 		}
@@ -1204,6 +1219,29 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		return subset;
 	}
 
+	/**
+	 * Sets the maximum estimated memory usage of this assembler.
+	 * {@link AssemblyMemoryBudgetExceededException} is thrown when loading
+	 * graph nodes would exceed this budget.
+	 * @param memoryBudget memory budget in bytes. 0 disables the budget.
+	 * @param upstreamMemoryUsage estimated memory usage of the upstream graph construction iterators
+	 */
+	public void setMemoryBudget(long memoryBudget, LongSupplier upstreamMemoryUsage) {
+		this.memoryBudget = memoryBudget;
+		this.upstreamMemoryUsage = upstreamMemoryUsage;
+	}
+	/**
+	 * Estimated memory usage of the assembly graph, evidence tracker, memoization
+	 * and upstream graph construction iterators.
+	 * @return estimated size in bytes
+	 */
+	public long estimatedMemoryUsage() {
+		return graphByPosition.size() * MemoryUsageEstimates.BYTES_PER_GRAPH_NODE
+				+ graphKmerCount * MemoryUsageEstimates.BYTES_PER_GRAPH_KMER
+				+ bestContigCaller.estimatedMemoryUsage()
+				+ evidenceTracker.estimatedMemoryUsage()
+				+ upstreamMemoryUsage.getAsLong();
+	}
 	public int tracking_activeNodes() {
 		return graphByPosition.size();
 	}
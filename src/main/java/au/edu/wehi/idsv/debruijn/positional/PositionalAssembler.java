@@ -37,11 +37,20 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 	private final BreakendDirection direction;
 	private NonReferenceContigAssembler currentAssembler = null;
 	private String currentContig = "";
+	private int currentReferenceIndex = -1;
 	private AssemblyChunkTelemetry telemetry = null;
 	private final IntervalBed excludedRegions;
 	private final IntervalBed safetyRegions;
 	private EvidenceTracker evidenceTracker = null;
 	private boolean contigGeneratedSinceException = false;
+	/**
+	 * Regions downsampled due to the assembly memory budget being exceeded
+	 */
+	private IntervalBed memoryBudgetDownsampledRegions = null;
+	/**
+	 * Background pipeline stages of the current assembler, ordered from upstream to downstream
+	 */
+	private final List<AsyncBufferedIterator<?>> pipelineStages = new ArrayList<>();
 	public PositionalAssembler(ProcessingContext context, AssemblyEvidenceSource source, AssemblyIdGenerator assemblyNameGenerator, Iterator<DirectedEvidence> backingIterator, BreakendDirection direction, IntervalBed excludedRegions, IntervalBed safetyRegions) {
 		this.context = context;
 		this.source = source;
@@ -79,6 +88,7 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 		}
 	}
 	private void closeCurrentAssembler() {
+		closePipelineStages();
 		if (evidenceTracker != null) {
 			evidenceTracker.closeDebugFileOutput();
 		}
@@ -91,7 +101,28 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 		}
 		currentAssembler = null;
 	}
+	/**
+	 * Stops all background pipeline stages.
+	 * Stages must be stopped before the evidence tracker is inspected for recovery
+	 * as stages could otherwise still be loading evidence.
+	 */
+	private void closePipelineStages() {
+		for (int i = pipelineStages.size() - 1; i >= 0; i--) {
+			pipelineStages.get(i).close();
+		}
+		pipelineStages.clear();
+	}
+	private <T> PeekingIterator<T> pipelineStage(Iterator<T> it, String stageName, int referenceIndex, int firstPosition) {
+		return pipelineStage(it, stageName, referenceIndex, firstPosition, context.getAssemblyParameters().positional.pipelineBatchSize);
+	}
+	private <T> PeekingIterator<T> pipelineStage(Iterator<T> it, String stageName, int referenceIndex, int firstPosition, int batchSize) {
+		String name = String.format("PositionalAssembler-%s:%d-%s-%s", context.getDictionary().getSequence(referenceIndex).getSequenceName(), firstPosition, direction, stageName);
+		AsyncBufferedIterator<T> stage = new AsyncBufferedIterator<>(it, name, context.getAssemblyParameters().positional.pipelineBuffers, batchSize);
+		pipelineStages.add(stage);
+		return stage;
+	}
 	private Set<DirectedEvidence> getEvidenceInCurrentAssembler() {
+		closePipelineStages();
 		Set<DirectedEvidence> reloadRecoverySet = new HashSet<>();
 		if (currentAssembler != null) {
 			Set<KmerEvidence> ske = evidenceTracker.getTrackedEvidence();
@@ -105,6 +136,34 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 	private void ensureAssembler(boolean attemptRecovery, Set<DirectedEvidence> preload) {
 		try {
 			ensureAssembler(preload);
+		} catch (AssemblyMemoryBudgetExceededException mbee) {
+			Set<DirectedEvidence> reloadRecoverySet = getEvidenceInCurrentAssembler();
+			Range<Integer> range = mbee.getRange();
+			if (memoryBudgetDownsampledRegions == null) {
+				memoryBudgetDownsampledRegions = new IntervalBed(context.getLinear());
+			}
+			Set<DirectedEvidence> recoverySet;
+			if (memoryBudgetDownsampledRegions.overlaps(currentReferenceIndex, range.lowerEndpoint(), range.upperEndpoint())) {
+				// downsampling was insufficient: give up on the region
+				log.warn(String.format("Estimated assembly memory usage of %dMB exceeds budget after downsampling. Excluding %s:%d-%d from assembly.",
+						mbee.getEstimatedMemoryUsage() >> 20, currentContig, range.lowerEndpoint(), range.upperEndpoint()));
+				if (excludedRegions != null) {
+					excludedRegions.addInterval(currentReferenceIndex, range.lowerEndpoint(), range.upperEndpoint());
+				}
+				recoverySet = reloadRecoverySet.stream()
+						.filter(de -> !overlaps(de, range))
+						.collect(Collectors.toSet());
+				if (recoverySet.size() == reloadRecoverySet.size()) {
+					recoverySet = downsampleEvidenceInRegion(reloadRecoverySet, range);
+				}
+			} else {
+				log.info(String.format("Estimated assembly memory usage of %dMB exceeds budget. Downsampling %s:%d-%d.",
+						mbee.getEstimatedMemoryUsage() >> 20, currentContig, range.lowerEndpoint(), range.upperEndpoint()));
+				memoryBudgetDownsampledRegions.addInterval(currentReferenceIndex, range.lowerEndpoint(), range.upperEndpoint());
+				recoverySet = downsampleEvidenceInRegion(reloadRecoverySet, range);
+			}
+			closeCurrentAssembler();
+			ensureAssembler(true, recoverySet);
 		} catch (AssemblyThresholdReachedException atre) {
 			Set<DirectedEvidence> reloadRecoverySet = getEvidenceInCurrentAssembler();
 			// really aggressive error correction of every read might simplify our assembly graph
@@ -170,19 +229,8 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 		float rpRate = context.getAssemblyParameters().downsampling.densityDownsampleRateDiscordantReads;
 		Random rng = new Random(range.lowerEndpoint());
 		Set<DirectedEvidence> downsampledPreload = preload.stream().filter(de -> {
-			float downsampleThreshold = scRate;
-			boolean overlapsRanges = IntervalUtil.overlapsClosed(
-					range.lowerEndpoint(), range.upperEndpoint(),
-					de.getUnderlyingSAMRecord().getUnclippedStart(), de.getUnderlyingSAMRecord().getUnclippedEnd());
-			if (de instanceof NonReferenceReadPair) {
-				downsampleThreshold = rpRate;
-				NonReferenceReadPair nrrp = (NonReferenceReadPair) de;
-				KmerEvidence ke = KmerEvidence.create(context.getAssemblyParameters().k, nrrp);
-				overlapsRanges |= IntervalUtil.overlapsClosed(
-						range.lowerEndpoint(), range.upperEndpoint(),
-						ke.startPosition(), ke.endPosition());
-			}
-			return !overlapsRanges | rng.nextFloat() < downsampleThreshold;
+			float downsampleThreshold = de instanceof NonReferenceReadPair ? rpRate : scRate;
+			return !overlaps(de, range) | rng.nextFloat() < downsampleThreshold;
 		}).collect(Collectors.toSet());
 		if (downsampledPreload.size() == preload.size()) {
 			log.warn(String.format("Forcing downsampling around %s:%d-%d since probabilistic downsampling failed.", currentContig, range.lowerEndpoint(), range.upperEndpoint()));
@@ -196,6 +244,23 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 	}
 
 
+	/**
+	 * Determines whether the given evidence could contribute kmers to the given region
+	 */
+	private boolean overlaps(DirectedEvidence de, Range<Integer> range) {
+		boolean overlapsRanges = IntervalUtil.overlapsClosed(
+				range.lowerEndpoint(), range.upperEndpoint(),
+				de.getUnderlyingSAMRecord().getUnclippedStart(), de.getUnderlyingSAMRecord().getUnclippedEnd());
+		if (de instanceof NonReferenceReadPair) {
+			NonReferenceReadPair nrrp = (NonReferenceReadPair) de;
+			KmerEvidence ke = KmerEvidence.create(context.getAssemblyParameters().k, nrrp);
+			overlapsRanges |= IntervalUtil.overlapsClosed(
+					range.lowerEndpoint(), range.upperEndpoint(),
+					ke.startPosition(), ke.endPosition());
+		}
+		return overlapsRanges;
+	}
+
 	private static AtomicInteger errorPackagesCreated = new AtomicInteger(0);
 	private File packageMinimalAssemblyErrorReproductionData(Set<DirectedEvidence> evidenceInCurrentAssembler) throws IOException {
 		FileSystemContext fsc = context.getFileSystemContext();
@@ -315,9 +380,12 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 		int referenceIndex = inputIterator.peek().getBreakendSummary().referenceIndex;
 		int firstPosition = inputIterator.peek().getBreakendSummary().start;
 		currentContig = context.getDictionary().getSequence(referenceIndex).getSequenceName();
+		currentReferenceIndex = referenceIndex;
 		PeekingIterator<DirectedEvidence> evidenceIt = new ReferenceIndexIterator(inputIterator, referenceIndex);
-		evidenceTracker = new EvidenceTracker();
 		VisualisationConfiguration vis = context.getConfig().getVisualisation();
+		// assembly progress tracking inspects the internal state of each stage
+		boolean pipelined = ap.positional.pipelined && !vis.assemblyProgress;
+		evidenceTracker = pipelined ? new SynchronizedEvidenceTracker() : new EvidenceTracker();
 		if (vis.evidenceTracker) {
 			String filename = String.format("evidenceTracker-%s_%d-%s.csv", context.getDictionary().getSequence(referenceIndex).getSequenceName(), firstPosition, direction);
 			filename = FilenameUtil.stripInvalidFilenameCharacters(filename);
@@ -328,15 +396,26 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 			evidenceIt = Iterators.peekingIterator(new DebugSpammingIterator<>(it, "PositionalAssembler.evidenceIt"));
 		}
 		SupportNodeIterator supportIt_raw = new SupportNodeIterator(k, evidenceIt, Math.max(2 * source.getMaxReadLength(), source.getMaxConcordantFragmentSize()), evidenceTracker, ap.includePairAnchors, ap.pairAnchorMismatchIgnoreEndBases);
-		PeekingIterator<KmerSupportNode> supportIt = supportIt_raw;
+		AggregateNodeIterator agIt_raw;
 		if (Defaults.SANITY_CHECK_DUMP_ITERATORS) {
-			supportIt = Iterators.peekingIterator(new DebugSpammingIterator<>(supportIt, "PositionalAssembler.SupportNodeIterator"));
+			agIt_raw = new AggregateNodeIterator(new DebugSpammingIterator<>(supportIt_raw, "PositionalAssembler.SupportNodeIterator"));
+		} else {
+			// kmer support is passed between stages in columnar blocks
+			Iterator<KmerSupportBlock> supportIt = supportIt_raw.blockIterator();
+			if (pipelined) {
+				supportIt = pipelineStage(supportIt, "SupportNodeIterator", referenceIndex, firstPosition, 1);
+			}
+			agIt_raw = AggregateNodeIterator.fromSupportBlocks(supportIt);
 		}
-		AggregateNodeIterator agIt_raw = new AggregateNodeIterator(supportIt);
 		PeekingIterator<KmerNode> agIt = agIt_raw;
 		if (Defaults.SANITY_CHECK_DUMP_ITERATORS) {
 			agIt = Iterators.peekingIterator(new DebugSpammingIterator<>(agIt, "PositionalAssembler.AggregateNodeIterator"));
 		}
+		if (pipelined) {
+			// KmerPathNode edges are updated by both the PathNodeIterator and the assembler
+			// so path node construction is performed on the assembler thread
+			agIt = pipelineStage(agIt, "AggregateNodeIterator", referenceIndex, firstPosition);
+		}
 		Iterator<KmerNode> knIt = agIt;
 		if (Defaults.SANITY_CHECK_ASSEMBLY_GRAPH) {
 			knIt = evidenceTracker.new AggregateNodeAssertionInterceptor(knIt);
@@ -364,6 +443,7 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 			}
 		}
 		currentAssembler.setTelemetry(getTelemetry());
+		currentAssembler.setMemoryBudget(ap.positional.maximumMemoryUsage, supportIt_raw::estimatedMemoryUsage);
 		return currentAssembler;
 	}
 	public AssemblyChunkTelemetry getTelemetry() {
@@ -1,10 +1,8 @@
 package au.edu.wehi.idsv.debruijn.positional;
 
-import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.DirectedEvidence;
 import au.edu.wehi.idsv.NonReferenceReadPair;
 import au.edu.wehi.idsv.SingleReadEvidence;
-import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerNodeByFirstStartPriorityQueue;
 import au.edu.wehi.idsv.util.MessageThrottler;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
@@ -37,12 +35,28 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	 */
 	private final int emitOffset;
 	private final int maxSupportStartPositionOffset;
-	private final Queue<KmerSupportNode> buffer = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeByFirstStartPriorityQueue<>(16) : new PriorityQueue<>(1024, KmerNodeUtil.ByFirstStart);
+	/**
+	 * Number of bits of genomic position covered by each emitted support block
+	 */
+	private static final int POSITION_BLOCK_BITS = 6;
+	/**
+	 * Support not yet emitted. Each block contains the kmers starting within
+	 * 2^POSITION_BLOCK_BITS genomic positions in the order they were added.
+	 */
+	private final ArrayDeque<KmerSupportBlock> buffer = new ArrayDeque<>();
+	private int firstBufferBlockIndex;
+	private int bufferSize = 0;
+	private final KmerSupportBlock evidenceSupport = new KmerSupportBlock();
 	private final EvidenceTracker tracker;
 	private final int disallowMismatch;
 	private int inputPosition = Integer.MIN_VALUE;
 	private int firstReferenceIndex;
-	private int lastPosition = Integer.MIN_VALUE;
+	/**
+	 * All kmers starting before this position have been emitted
+	 */
+	private int emittedPosition = Integer.MIN_VALUE;
+	private KmerSupportBlock currentBlock = null;
+	private int currentBlockOffset = 0;
 	private long consumed = 0;
 	/**
 	 * Iterator that converts evidence to kmer nodes 
@@ -105,15 +119,9 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 		if (e == null) {
 			return;
 		}
-		List<KmerSupportNode> supportNodes = new ArrayList<KmerSupportNode>(e.length() + (e2 == null ? 0 : e2.length()));
-		boolean hasNonReference = addSupport(supportNodes, de, e);
-		addSupport(supportNodes, de, e2);
-		if (Defaults.SANITY_CHECK_ASSEMBLY_GRAPH && supportNodes.size() > 0) {
-			int start = supportNodes.stream().mapToInt(n -> n.firstStart()).min().orElse(0);
-			int end = supportNodes.stream().mapToInt(n -> n.lastEnd()).max().orElse(Integer.MAX_VALUE);
-			if (end - start > maxSupportStartPositionOffset) {
-			}
-		}
+		evidenceSupport.clear();
+		boolean hasNonReference = addSupport(evidenceSupport, de, e);
+		addSupport(evidenceSupport, de, e2);
 		if (hasNonReference) {
 			// only add evidence that provides support for an SV
 			// If we have no non-reference kmers then we might
@@ -121,28 +129,27 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 			// never remove it from the graph
 			// SC or RPs with no non-reference kmers can occur when
 			// an ambiguous base case exist in the soft clip/mate  
-			buffer.addAll(supportNodes);
+			addToBuffer(evidenceSupport);
 			if (tracker != null) {
-				for (KmerSupportNode sn : supportNodes) {
-					tracker.track(sn);
-				}
+				tracker.track(evidenceSupport);
 			}
 		} else {
 			log.debug("Ref anchor");
 		}
+		evidenceSupport.clear();
 		if (SANITY_CHECK_EVIDENCE_TRACKER) {
 			tracker.sanityCheck();
 		}
 	}
-	private boolean addSupport(List<KmerSupportNode> supportNodes, DirectedEvidence de, KmerEvidence e) {
+	private boolean addSupport(KmerSupportBlock supportNodes, DirectedEvidence de, KmerEvidence e) {
 		boolean hasNonReference = false;
 		if (e != null) {
 			for (int i = 0; i < e.length(); i++) {
-				KmerSupportNode support = e.node(i); 
-				if (support != null) {
+				if (e.hasKmer(i)) {
+					int supportStart = e.startPosition() + i;
 					// make sure that we are actually able to resort into kmer order
-					boolean isOutOfOrder = support.firstStart() < lastPosition;
-					boolean kmerToFarFromEvidence = support.firstStart() < de.getBreakendSummary().start - maxSupportStartPositionOffset;
+					boolean isOutOfOrder = supportStart < emittedPosition;
+					boolean kmerToFarFromEvidence = supportStart < de.getBreakendSummary().start - maxSupportStartPositionOffset;
 					if (isOutOfOrder || kmerToFarFromEvidence) {
 						SAMRecord read = null;
 						if (de instanceof SingleReadEvidence) {
@@ -163,57 +170,146 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 											+ " Kmer support starts at %d which is more than %d before the breakpoint start position at %s",
 									de.getEvidenceID(),
 									readString,
-									support.firstStart(), maxSupportStartPositionOffset, de.getBreakendSummary());
+									supportStart, maxSupportStartPositionOffset, de.getBreakendSummary());
 						} else {
-							msg = String.format("Error: kmer out of order for evidence %s. Kmer at position %d after emitting kmer at %d",
+							msg = String.format("Error: kmer out of order for evidence %s. Kmer at position %d after emitting kmers up to %d",
 									de.getEvidenceID(),
-									support.firstStart(),
-									lastPosition);
+									supportStart,
+									emittedPosition - 1);
 						}
 						log.error(msg);
 						// Try to continue
 						//throw new RuntimeException(msg);
-					} else if (support.weight() <= 0) {
-						String msg = String.format("Invalid support weight of %d for evidence %s", support.weight(), de.getEvidenceID());
+					} else if (e.weight(i) <= 0) {
+						String msg = String.format("Invalid support weight of %d for evidence %s", e.weight(i), de.getEvidenceID());
 						log.error(msg);
 						throw new RuntimeException(msg);
 					} else {
-						assert(support.weight() > 0);
-						supportNodes.add(support);
-						hasNonReference |= !support.isReference();
+						supportNodes.add(e, i);
+						hasNonReference |= !e.isAnchored(i);
 					}
 				}
 			}
 		}
 		return hasNonReference;
 	}
+	/**
+	 * Adds the given support to the position block buffer
+	 * @param support support sorted by start position
+	 */
+	private void addToBuffer(KmerSupportBlock support) {
+		int i = 0;
+		while (i < support.size()) {
+			int blockIndex = support.start(i) >> POSITION_BLOCK_BITS;
+			int j = i + 1;
+			while (j < support.size() && support.start(j) >> POSITION_BLOCK_BITS == blockIndex) {
+				j++;
+			}
+			getBufferBlock(blockIndex).addAll(support, i, j);
+			bufferSize += j - i;
+			i = j;
+		}
+	}
+	private KmerSupportBlock getBufferBlock(int blockIndex) {
+		if (buffer.isEmpty()) {
+			firstBufferBlockIndex = blockIndex;
+		}
+		while (blockIndex < firstBufferBlockIndex) {
+			buffer.addFirst(new KmerSupportBlock());
+			firstBufferBlockIndex--;
+		}
+		while (blockIndex >= firstBufferBlockIndex + buffer.size()) {
+			buffer.addLast(new KmerSupportBlock());
+		}
+		if (blockIndex == firstBufferBlockIndex + buffer.size() - 1) {
+			return buffer.peekLast();
+		}
+		Iterator<KmerSupportBlock> it = buffer.iterator();
+		for (int i = firstBufferBlockIndex; i < blockIndex; i++) {
+			it.next();
+		}
+		return it.next();
+	}
+	/**
+	 * Determines whether no more kmers can be added to the first buffered block
+	 */
+	private boolean isFirstBufferBlockComplete() {
+		long lastBlockPosition = (((long)firstBufferBlockIndex + 1) << POSITION_BLOCK_BITS) - 1;
+		return !buffer.isEmpty() && lastBlockPosition <= (long)inputPosition - emitOffset;
+	}
+	/**
+	 * Ensures the next block of support has been loaded
+	 * @return true if there is any remaining support, false otherwise
+	 */
+	private boolean ensureBlock() {
+		while (currentBlock == null || currentBlockOffset >= currentBlock.size()) {
+			currentBlock = null;
+			currentBlockOffset = 0;
+			while (underlying.hasNext() && !isFirstBufferBlockComplete()) {
+				inputPosition = underlying.peek().getUnderlyingSAMRecord().getAlignmentStart();
+				advance();
+			}
+			if (!underlying.hasNext()) {
+				inputPosition = Integer.MAX_VALUE;
+				advance();
+			}
+			if (buffer.isEmpty()) {
+				return false;
+			}
+			KmerSupportBlock block = buffer.poll();
+			firstBufferBlockIndex++;
+			emittedPosition = firstBufferBlockIndex << POSITION_BLOCK_BITS;
+			bufferSize -= block.size();
+			if (!block.isEmpty()) {
+				block.sortByStart();
+				currentBlock = block;
+			}
+		}
+		return true;
+	}
 	@Override
 	public boolean hasNext() {
-		ensureBuffer();
-		return !buffer.isEmpty();
+		return ensureBlock();
 	}
 	@Override
 	public KmerSupportNode next() {
-		ensureBuffer();
-		KmerSupportNode node = buffer.poll();
-		assert(node.lastStart() >= lastPosition);
-		lastPosition = node.lastStart();
+		if (!ensureBlock()) throw new NoSuchElementException();
+		KmerSupportNode node = (KmerSupportNode)currentBlock.node(currentBlockOffset);
+		currentBlockOffset++;
 		return node;
 	}
 	@Override
 	public KmerSupportNode peek() {
-		ensureBuffer();
-		return buffer.peek();
+		if (!ensureBlock()) throw new NoSuchElementException();
+		return (KmerSupportNode)currentBlock.node(currentBlockOffset);
 	}
-	private void ensureBuffer() {
-		while (underlying.hasNext() && (buffer.isEmpty() || buffer.peek().lastStart() > inputPosition - emitOffset)) {
-			inputPosition = underlying.peek().getUnderlyingSAMRecord().getAlignmentStart();
-			advance();
-		}
-		if (!underlying.hasNext()) {
-			inputPosition = Integer.MAX_VALUE;
-			advance();
-		}
+	/**
+	 * Columnar view of the support emitted by this iterator.
+	 * Each block contains the support starting within a range of genomic positions
+	 * sorted by start position. Blocks are not reused once emitted.
+	 *
+	 * The block and node views share the same underlying position and
+	 * should not be interleaved. 
+	 */
+	public Iterator<KmerSupportBlock> blockIterator() {
+		return new Iterator<KmerSupportBlock>() {
+			@Override
+			public boolean hasNext() {
+				return ensureBlock();
+			}
+			@Override
+			public KmerSupportBlock next() {
+				if (!ensureBlock()) throw new NoSuchElementException();
+				KmerSupportBlock block = currentBlock;
+				if (currentBlockOffset > 0) {
+					block = new KmerSupportBlock(currentBlock.size() - currentBlockOffset);
+					block.addAll(currentBlock, currentBlockOffset, currentBlock.size());
+				}
+				currentBlock = null;
+				currentBlockOffset = 0;
+				return block;
+			}
+		};
 	}
 	private void advance() {
 		while (underlying.hasNext() && underlying.peek().getUnderlyingSAMRecord().getAlignmentStart() <= inputPosition) {
@@ -227,8 +323,15 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	public void remove() {
 		throw new UnsupportedOperationException();
 	}
+	/**
+	 * Estimated memory usage of the buffered support nodes
+	 * @return estimated size in bytes
+	 */
+	public long estimatedMemoryUsage() {
+		return tracking_processedSize() * MemoryUsageEstimates.BYTES_PER_SUPPORT_NODE;
+	}
 	public int tracking_processedSize() {
-		return buffer.size();
+		return bufferSize + (currentBlock == null ? 0 : currentBlock.size() - currentBlockOffset);
 	}
 	public int tracking_inputPosition() {
 		return inputPosition;
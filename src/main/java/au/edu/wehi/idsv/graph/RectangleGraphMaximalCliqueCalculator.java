@@ -3,11 +3,13 @@ package au.edu.wehi.idsv.graph;
 import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.visualisation.TrackedState;
 import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.PriorityQueue;
 
 /**
  * Calculates all maximal cliques of a rectangle graph
@@ -24,29 +26,56 @@ import java.util.PriorityQueue;
  * A note on maximum independent sets in rectangle intersection graphs, Information Processing Letters, Volume 89, Issue 1, 16 January 2004, Pages 19-23
  * GREEDY MAXIMUM-CLIQUE DECOMPOSITIONS http://faculty.tru.ca/smcguinness/greedymaxclique.pdf (we want to decompose by removing vertices, not edges) 
  * 
+ * Active vertices are held in a {@link RectangleGraphNodeStore} and referenced by handle.
+ * Vertices added by handle are owned by the calculator and released from the store
+ * once the scanline has passed their end.
+ * 
  * @author Daniel Cameron
  */
 public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
-	private RectangleGraphNode lastNode = null;
+	private final RectangleGraphNodeStore store;
+	private long lastStartX = Long.MIN_VALUE;
+	private long lastStartY = Long.MIN_VALUE;
 	private List<RectangleGraphNode> outBuffer;
-	private final PriorityQueue<RectangleGraphNode> activeEndingX = new PriorityQueue<RectangleGraphNode>(11, RectangleGraphNode.ByEndXStartYEndY); // sorted by endX
+	private final NodeHeap activeEndingX; // sorted by endX
 	//private final RangeMap<GraphNode> activeScanlineEvidence;
 	/**
 	 * Contains GraphNodes of which the start Y has been processed but the end Y has not yet been encountered
 	 */
-	private final PriorityQueue<RectangleGraphNode> activeScanlineEndingY = new PriorityQueue<RectangleGraphNode>(11, RectangleGraphNode.ByEndY); // sorted by endX
+	private final NodeHeap activeScanlineEndingY; // sorted by endY
+	private final IntArrayList endingCurrentScanline = new IntArrayList();
 	private final ScanlineInterval activeScanlineStart;
 	private ScanlineInterval activeScanlineCurrentPosition;
 	private long activeScanlineActiveWeight = 0;
 	private long activeScanlineActiveExactWeight = 0;
 	private long scanlineX = Long.MIN_VALUE;
 	public RectangleGraphMaximalCliqueCalculator() {
+		this(new RectangleGraphNodeStore());
+	}
+	/**
+	 * @param store vertex store shared with the caller
+	 */
+	public RectangleGraphMaximalCliqueCalculator(RectangleGraphNodeStore store) {
+		this.store = store;
+		this.activeEndingX = new NodeHeap(store.ByEndXStartYEndY);
+		this.activeScanlineEndingY = new NodeHeap(store.ByEndY);
 		this.activeScanlineStart = new ScanlineInterval(Long.MIN_VALUE, Long.MAX_VALUE, 0, 0, 0, 0,
 				new ScanlineInterval(Long.MAX_VALUE - 1, Long.MAX_VALUE, 0, 0, 0, 0, null));
 		this.activeScanlineCurrentPosition = activeScanlineStart;
 		assert(sanityCheckScanlineComplete());
 	}
 
+	/**
+	 * Heap of vertex handles
+	 */
+	private static class NodeHeap extends IntHeapPriorityQueue {
+		private NodeHeap(IntComparator c) {
+			super(11, c);
+		}
+		private int get(int i) {
+			return heap[i];
+		}
+	}
 	/**
 	 * Scanline interval of the rectangle graph.
 	 * Scanline coordinates use half-open intervals.
@@ -151,22 +180,33 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 	 * @return
 	 */
 	public List<RectangleGraphNode> next(RectangleGraphNode node) {
-		assert(node.startX <= node.endX);
-		assert(node.startY <= node.endY);
-		assert(node.weight > 0);
-		assert(node.exactWeight >= 0);
-		assert(node.weight >= node.exactWeight);
-		assert(node.startX >= scanlineX);
-		assert(lastNode == null || RectangleGraphNode.ByStartXY.compare(lastNode, node) <= 0);
-		lastNode = node;
-		if (node.startX != scanlineX) {
+		return next(store.add(node));
+	}
+	/**
+	 * Advances to the next position
+	 * @param node handle of vertex in the store. The calculator takes ownership of the vertex.
+	 * @return maximal cliques called
+	 */
+	public List<RectangleGraphNode> next(int node) {
+		long startX = store.startX(node);
+		long startY = store.startY(node);
+		assert(startX <= store.endX(node));
+		assert(startY <= store.endY(node));
+		assert(store.weight(node) > 0);
+		assert(store.exactWeight(node) >= 0);
+		assert(store.weight(node) >= store.exactWeight(node));
+		assert(startX >= scanlineX);
+		assert(startX > lastStartX || (startX == lastStartX && startY >= lastStartY));
+		lastStartX = startX;
+		lastStartY = startY;
+		if (startX != scanlineX) {
 			scanlineCompleteProcessing(1);
 			// advance scanline
-			processEndXBefore(node.startX);
-			scanlineX = node.startX;
+			processEndXBefore(startX);
+			scanlineX = startX;
 		}
 		incorporateInCurrentScanline(node, 1);
-		activeEndingX.add(node);
+		activeEndingX.enqueue(node);
 		return getCalledCliques();
 	}
 	private void mergeIntervals() {
@@ -231,9 +271,10 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 			}
 		}
 		long weight = 0;
-		for (RectangleGraphNode n : activeScanlineEndingY) {
-			assert(n.startY <= activeScanlineCurrentPosition.getStartY());
-			weight += n.weight;
+		for (int i = 0; i < activeScanlineEndingY.size(); i++) {
+			int n = activeScanlineEndingY.get(i);
+			assert(store.startY(n) <= activeScanlineCurrentPosition.getStartY());
+			weight += store.weight(n);
 		}
 		assert(activeScanlineActiveWeight == weight);
 		return true;
@@ -246,22 +287,21 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 	 * @Param multiplier 1 indicates we are incorporating the start of the given GraphNode to the current scanline 
 	 * 0 indicates we are incorporating the end of the given GraphNode to the current scanline
 	 */
-	private void incorporateInCurrentScanline(RectangleGraphNode node, int multiplier) {
+	private void incorporateInCurrentScanline(int node, int multiplier) {
 		assert(multiplier == -1 || multiplier == 1);
-		assert(scanlineX == (multiplier == 1 ? node.startX : node.endX));
-		long y = node.startY;
+		assert(scanlineX == (multiplier == 1 ? store.startX(node) : store.endX(node)));
+		long y = store.startY(node);
 		assert(activeScanlineCurrentPosition.startY <= y);
 		scanlineProcessYEndBefore(y, multiplier);
 		if (activeScanlineCurrentPosition.getStartY() != y) {
 			activeScanlineCurrentPosition.splitAt(y);
 			scanlineProcessYEndBefore(y, multiplier);
 		}
-		activeScanlineActiveWeight += node.weight;
-		activeScanlineActiveExactWeight += node.exactWeight;
+		activeScanlineActiveWeight += store.weight(node);
+		activeScanlineActiveExactWeight += store.exactWeight(node);
 		activeScanlineCurrentPosition.startHere += multiplier;
-		activeScanlineEndingY.add(node);
+		activeScanlineEndingY.enqueue(node);
 		assert(activeScanlineCurrentPosition.getStartY() == y);
-		assert(activeScanlineEndingY.contains(node));
 		assert(sanityCheckScanlineActive());
 	}
 	/**
@@ -272,17 +312,17 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 	 */
 	private void scanlineProcessYEndBefore(long endYBefore, int multiplier) {
 		assert(multiplier == -1 || multiplier == 1);
-		while (!activeScanlineEndingY.isEmpty() && activeScanlineEndingY.peek().endY < endYBefore) {
-			RectangleGraphNode node = activeScanlineEndingY.poll();
-			long endYexclusive = node.endY + 1;
+		while (!activeScanlineEndingY.isEmpty() && store.endY(activeScanlineEndingY.firstInt()) < endYBefore) {
+			int node = activeScanlineEndingY.dequeueInt();
+			long endYexclusive = store.endY(node) + 1;
 			int yendCount = 1;
-			long yendWeight = node.weight;
-			long yendExactWeight = node.exactWeight;
-			while (!activeScanlineEndingY.isEmpty() && activeScanlineEndingY.peek().endY + 1 == endYexclusive) {
-				node = activeScanlineEndingY.poll();
+			long yendWeight = store.weight(node);
+			long yendExactWeight = store.exactWeight(node);
+			while (!activeScanlineEndingY.isEmpty() && store.endY(activeScanlineEndingY.firstInt()) + 1 == endYexclusive) {
+				node = activeScanlineEndingY.dequeueInt();
 				yendCount++;
-				yendWeight += node.weight;
-				yendExactWeight += node.exactWeight;
+				yendWeight += store.weight(node);
+				yendExactWeight += store.exactWeight(node);
 			}
 			advanceScanlineToIntervalContaining(endYexclusive - 1, multiplier);
 			if (activeScanlineCurrentPosition.getEndY() > endYexclusive) {
@@ -326,16 +366,16 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 	 * Calls maximum cliques
 	 * @param endingCurrentScanline nodes ending here. Maximum cliques will always occur within one of these intervals
 	 */
-	private void callMaximumCliques(List<RectangleGraphNode> endingCurrentScanline) {
+	private void callMaximumCliques(IntArrayList endingCurrentScanline) {
 		ScanlineInterval interval = activeScanlineStart;
 		int index = 0;
 		while (index < endingCurrentScanline.size()) {
-			long startY = endingCurrentScanline.get(index).startY;
-			long endYexclusive = endingCurrentScanline.get(index).endY + 1;
+			long startY = store.startY(endingCurrentScanline.getInt(index));
+			long endYexclusive = store.endY(endingCurrentScanline.getInt(index)) + 1;
 			index++;
-			while (index < endingCurrentScanline.size() && endingCurrentScanline.get(index).startY <= endYexclusive) {
+			while (index < endingCurrentScanline.size() && store.startY(endingCurrentScanline.getInt(index)) <= endYexclusive) {
 				// expand the current calling interval due to overlap
-				endYexclusive = Math.max(endYexclusive, endingCurrentScanline.get(index).endY + 1);
+				endYexclusive = Math.max(endYexclusive, store.endY(endingCurrentScanline.getInt(index)) + 1);
 				index++;
 			}
 			// advance to interval
@@ -370,22 +410,25 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 	}
 	private void processEndXBefore(long endBeforeX) {
 		outBuffer = new ArrayList<RectangleGraphNode>();
-		while (!activeEndingX.isEmpty() && activeEndingX.peek().endX < endBeforeX) {
-			scanlineX = activeEndingX.peek().endX;
+		while (!activeEndingX.isEmpty() && store.endX(activeEndingX.firstInt()) < endBeforeX) {
+			scanlineX = store.endX(activeEndingX.firstInt());
 			processEndingXOnCurrentScanline();
 		}
 	}
 	private void processEndingXOnCurrentScanline() {
 		assert(activeScanlineEndingY.isEmpty());
-		List<RectangleGraphNode> endingCurrentScanline = new ArrayList<RectangleGraphNode>();
-		while (!activeEndingX.isEmpty() && activeEndingX.peek().endX == scanlineX) {
-			endingCurrentScanline.add(activeEndingX.poll());
+		endingCurrentScanline.clear();
+		while (!activeEndingX.isEmpty() && store.endX(activeEndingX.firstInt()) == scanlineX) {
+			endingCurrentScanline.add(activeEndingX.dequeueInt());
 		}
 		callMaximumCliques(endingCurrentScanline);
-		for (RectangleGraphNode g : endingCurrentScanline) {
-			incorporateInCurrentScanline(g, -1);
+		for (int i = 0; i < endingCurrentScanline.size(); i++) {
+			incorporateInCurrentScanline(endingCurrentScanline.getInt(i), -1);
 		}
 		scanlineCompleteProcessing(-1);
+		for (int i = 0; i < endingCurrentScanline.size(); i++) {
+			store.release(endingCurrentScanline.getInt(i));
+		}
 	}
 	public List<RectangleGraphNode> complete() {
 		scanlineCompleteProcessing(1);
@@ -0,0 +1,150 @@
+package au.edu.wehi.idsv.graph;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+import java.util.Arrays;
+
+/**
+ * Columnar store of weighted rectangle graph vertices.
+ *
+ * Vertices are referenced by int handle instead of by {@link RectangleGraphNode} object.
+ * Handles of released vertices are reused by subsequently added vertices.
+ * Start and end positions are both inclusive
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class RectangleGraphNodeStore {
+	private long[] startX;
+	private long[] endX;
+	private long[] startY;
+	private long[] endY;
+	private long[] weight;
+	private long[] exactWeight;
+	private final IntArrayList free = new IntArrayList();
+	/**
+	 * Number of handles ever allocated
+	 */
+	private int allocated = 0;
+	public RectangleGraphNodeStore() {
+		this(64);
+	}
+	public RectangleGraphNodeStore(int initialCapacity) {
+		initialCapacity = Math.max(initialCapacity, 1);
+		startX = new long[initialCapacity];
+		endX = new long[initialCapacity];
+		startY = new long[initialCapacity];
+		endY = new long[initialCapacity];
+		weight = new long[initialCapacity];
+		exactWeight = new long[initialCapacity];
+	}
+	private void ensureCapacity(int capacity) {
+		if (capacity <= startX.length) return;
+		int newCapacity = Math.max(capacity, 2 * startX.length);
+		startX = Arrays.copyOf(startX, newCapacity);
+		endX = Arrays.copyOf(endX, newCapacity);
+		startY = Arrays.copyOf(startY, newCapacity);
+		endY = Arrays.copyOf(endY, newCapacity);
+		weight = Arrays.copyOf(weight, newCapacity);
+		exactWeight = Arrays.copyOf(exactWeight, newCapacity);
+	}
+	/**
+	 * Adds a vertex to the store
+	 * @return handle of the vertex
+	 */
+	public int add(long startX, long endX, long startY, long endY, long weight, long exactWeight) {
+		assert(weight > 0);
+		assert(weight >= exactWeight);
+		assert(exactWeight >= 0);
+		int node;
+		if (free.isEmpty()) {
+			node = allocated++;
+			ensureCapacity(allocated);
+		} else {
+			node = free.popInt();
+		}
+		this.startX[node] = startX;
+		this.endX[node] = endX;
+		this.startY[node] = startY;
+		this.endY[node] = endY;
+		this.weight[node] = weight;
+		this.exactWeight[node] = exactWeight;
+		return node;
+	}
+	public int add(RectangleGraphNode node) {
+		return add(node.startX, node.endX, node.startY, node.endY, node.weight, node.exactWeight);
+	}
+	/**
+	 * Releases the given vertex. The handle can be reused by subsequently added vertices.
+	 */
+	public void release(int node) {
+		free.add(node);
+	}
+	/**
+	 * Number of vertices currently in the store
+	 */
+	public int size() {
+		return allocated - free.size();
+	}
+	public long startX(int node) {
+		return startX[node];
+	}
+	public long endX(int node) {
+		return endX[node];
+	}
+	public long startY(int node) {
+		return startY[node];
+	}
+	public long endY(int node) {
+		return endY[node];
+	}
+	public long weight(int node) {
+		return weight[node];
+	}
+	public long exactWeight(int node) {
+		return exactWeight[node];
+	}
+	/**
+	 * Adds the weight of the given vertex to the target vertex
+	 */
+	public void addWeight(int target, int node) {
+		weight[target] += weight[node];
+		exactWeight[target] += exactWeight[node];
+	}
+	public boolean isSameCoordinate(int a, int b) {
+		return startX[a] == startX[b] &&
+				endX[a] == endX[b] &&
+				startY[a] == startY[b] &&
+				endY[a] == endY[b];
+	}
+	public RectangleGraphNode toNode(int node) {
+		return new RectangleGraphNode(startX[node], endX[node], startY[node], endY[node], weight[node], exactWeight[node]);
+	}
+	public String toString(int node) {
+		return String.format("(x=[%d, %d], y=[%d, %d], %d, exact=%d)", startX[node], endX[node], startY[node], endY[node], weight[node], exactWeight[node]);
+	}
+	/**
+	 * Handle ordering matching {@link RectangleGraphNode#ByStartXYEndXY}
+	 */
+	public final IntComparator ByStartXYEndXY = (a, b) -> {
+		int result = Long.compare(startX[a], startX[b]);
+		if (result == 0) result = Long.compare(startY[a], startY[b]);
+		if (result == 0) result = Long.compare(endX[a], endX[b]);
+		if (result == 0) result = Long.compare(endY[a], endY[b]);
+		return result;
+	};
+	/**
+	 * Handle ordering matching {@link RectangleGraphNode#ByEndXStartYEndY}
+	 */
+	public final IntComparator ByEndXStartYEndY = (a, b) -> {
+		int result = Long.compare(endX[a], endX[b]);
+		if (result == 0) result = Long.compare(startY[a], startY[b]);
+		if (result == 0) result = Long.compare(endY[a], endY[b]);
+		return result;
+	};
+	/**
+	 * Handle ordering matching {@link RectangleGraphNode#ByEndY}
+	 */
+	public final IntComparator ByEndY = (a, b) -> Long.compare(endY[a], endY[b]);
+}
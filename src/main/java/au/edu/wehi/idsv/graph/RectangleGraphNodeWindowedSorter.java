@@ -0,0 +1,79 @@
+package au.edu.wehi.idsv.graph;
+
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
+
+/**
+ * Sorts a mostly-sorted sequence of rectangle graph vertex handles by {@link RectangleGraphNode#ByStartXYEndXY}
+ * and merges vertices with the same coordinates.
+ *
+ * Vertices cannot be out of order by more than the window size in the x dimension.
+ *
+ * Handle equivalent of sorting with a {@link au.edu.wehi.idsv.util.WindowedSortingIterator}
+ * followed by merging with a {@link RectangleGraphNodeMergingIterator}.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class RectangleGraphNodeWindowedSorter {
+	private final RectangleGraphNodeStore store;
+	private final long windowSize;
+	private final IntHeapPriorityQueue buffer;
+	private long lastAddedStartX = Long.MIN_VALUE;
+	private long lastEmittedStartX = Long.MIN_VALUE;
+	private long lastEmittedStartY = Long.MIN_VALUE;
+	private boolean complete = false;
+	public RectangleGraphNodeWindowedSorter(RectangleGraphNodeStore store, long windowSize) {
+		this.store = store;
+		this.windowSize = windowSize;
+		this.buffer = new IntHeapPriorityQueue(32, store.ByStartXYEndXY);
+	}
+	/**
+	 * Adds the given vertex
+	 * @param node vertex handle
+	 */
+	public void add(int node) {
+		if (complete) throw new IllegalStateException("Cannot add vertices once input is complete");
+		buffer.enqueue(node);
+		lastAddedStartX = store.startX(node);
+	}
+	/**
+	 * Indicates that no further vertices will be added
+	 */
+	public void complete() {
+		complete = true;
+	}
+	/**
+	 * Determines whether the next vertex in sort order can be emitted
+	 */
+	public boolean hasNext() {
+		return !buffer.isEmpty() && (complete || store.startX(buffer.firstInt()) + windowSize < lastAddedStartX);
+	}
+	/**
+	 * Returns the next vertex in sort order. Vertices with the same coordinates are merged.
+	 * Ownership of the returned vertex is transferred to the caller.
+	 * @return vertex handle
+	 */
+	public int next() {
+		assert(hasNext());
+		int node = buffer.dequeueInt();
+		while (!buffer.isEmpty() && store.isSameCoordinate(node, buffer.firstInt())) {
+			int merged = buffer.dequeueInt();
+			store.addWeight(node, merged);
+			store.release(merged);
+		}
+		long startX = store.startX(node);
+		long startY = store.startY(node);
+		if (startX < lastEmittedStartX || (startX == lastEmittedStartX && startY < lastEmittedStartY)) {
+			throw new IllegalStateException(String.format("Unable to sort output with window size of %d. %s emitted out of order", windowSize, store.toString(node)));
+		}
+		lastEmittedStartX = startX;
+		lastEmittedStartY = startY;
+		return node;
+	}
+	/**
+	 * Number of buffered vertices
+	 */
+	public int size() {
+		return buffer.size();
+	}
+}
@@ -134,9 +134,67 @@ public class IdsvSamFileMetrics {
 	 * @return phred-scaled likelihood of a fragment as or more extreme
 	 */
 	public double getReadPairPhred(int fragmentSize) {
-		return MathUtil.prToPhred(readPairFoldedCumulativeDistribution(fragmentSize));
+		return getReadPairPhredLookup().getPhred(fragmentSize);
 	}
 	public double readPairFoldedCumulativeDistribution(int fragmentSize) {
+		return getReadPairPhredLookup().getProbability(fragmentSize);
+	}
+	/**
+	 * Maximum fragment size range to materialise into dense lookup tables
+	 */
+	private static final int MAX_READ_PAIR_LOOKUP_SIZE = 1 << 20;
+	private volatile ReadPairPhredLookup readPairPhredLookup = null;
+	private ReadPairPhredLookup getReadPairPhredLookup() {
+		ReadPairPhredLookup lookup = readPairPhredLookup;
+		if (lookup == null) {
+			// lookup construction is deterministic so racing threads will construct equivalent tables
+			lookup = new ReadPairPhredLookup();
+			readPairPhredLookup = lookup;
+		}
+		return lookup;
+	}
+	/**
+	 * Immutable dense lookup of read pair scores over the observed fragment size range.
+	 */
+	private class ReadPairPhredLookup {
+		private final int firstFragmentSize;
+		private final double[] probability;
+		private final double[] phred;
+		private final double outsideProbability;
+		private final double outsidePhred;
+		public ReadPairPhredLookup() {
+			outsideProbability = calcReadPairFoldedCumulativeDistribution(0);
+			outsidePhred = MathUtil.prToPhred(outsideProbability);
+			int lower = Math.max(1, insertDistribution.getSupportLowerBound());
+			int upper = insertDistribution.getSupportUpperBound();
+			if (upper < lower || (long)upper - lower >= MAX_READ_PAIR_LOOKUP_SIZE) {
+				firstFragmentSize = 0;
+				probability = null;
+				phred = null;
+			} else {
+				firstFragmentSize = lower;
+				probability = new double[upper - lower + 1];
+				phred = new double[probability.length];
+				for (int i = 0; i < probability.length; i++) {
+					probability[i] = calcReadPairFoldedCumulativeDistribution(firstFragmentSize + i);
+					phred[i] = MathUtil.prToPhred(probability[i]);
+				}
+			}
+		}
+		public double getProbability(int fragmentSize) {
+			if (probability == null) return calcReadPairFoldedCumulativeDistribution(fragmentSize);
+			int offset = fragmentSize - firstFragmentSize;
+			if (offset < 0 || offset >= probability.length) return outsideProbability;
+			return probability[offset];
+		}
+		public double getPhred(int fragmentSize) {
+			if (phred == null) return MathUtil.prToPhred(calcReadPairFoldedCumulativeDistribution(fragmentSize));
+			int offset = fragmentSize - firstFragmentSize;
+			if (offset < 0 || offset >= phred.length) return outsidePhred;
+			return phred[offset];
+		}
+	}
+	private double calcReadPairFoldedCumulativeDistribution(int fragmentSize) {
 		double pairsFromFragmentDistribution = 0;
 		if (fragmentSize > 0) {
 			if (fragmentSize >= insertDistribution.getSupportLowerBound() && fragmentSize <= insertDistribution.getSupportUpperBound()) {
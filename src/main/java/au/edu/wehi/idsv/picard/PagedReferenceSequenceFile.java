@@ -0,0 +1,234 @@
+package au.edu.wehi.idsv.picard;
+
+import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Demand-loads fixed-size pages of the reference genome to enable efficient random lookup
+ * without loading the entire reference into memory.
+ *
+ * Pages are loaded on first access and evicted in least recently used order once more than
+ * the maximum number of pages are loaded. Pages of upcoming regions can be loaded in the
+ * background by {@link #prefetch(QueryInterval[])}.
+ *
+ * {@link #getBase(int, int)} does not lock when the page containing the base is already loaded.
+ *
+ * Ambiguous bases are returned as N and all bases are returned in upper case.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PagedReferenceSequenceFile implements ReferenceSequenceFile, ReferenceLookup {
+	private static final Log log = Log.getInstance(PagedReferenceSequenceFile.class);
+	private final ReferenceSequenceFile underlying;
+	private final int pageBits;
+	private final int pageMask;
+	private final int maxPages;
+	/**
+	 * Loaded pages of each contig
+	 */
+	private final AtomicReferenceArray<Page>[] pages;
+	/**
+	 * Loaded pages in load order. Only accessed when holding the lock on this object.
+	 */
+	private final List<Page> loaded = new ArrayList<>();
+	/**
+	 * Access clock used for least recently used page eviction.
+	 * This is advanced whenever a page is loaded so pages accessed since the last
+	 * page load are indistinguishable, but this keeps page access lock-free.
+	 */
+	private volatile long clock = 0;
+	private ExecutorService prefetchExecutor = null;
+	private static class Page {
+		private final int referenceIndex;
+		private final int index;
+		private final byte[] bases;
+		private volatile long lastAccess;
+		private Page(int referenceIndex, int index, byte[] bases, long lastAccess) {
+			this.referenceIndex = referenceIndex;
+			this.index = index;
+			this.bases = bases;
+			this.lastAccess = lastAccess;
+		}
+	}
+	/**
+	 * @param underlying reference genome. Only accessed when holding the lock on this object.
+	 * @param pageSize number of bases in each page. Rounded up to a power of 2.
+	 * @param maxPages maximum number of pages to retain
+	 */
+	@SuppressWarnings("unchecked")
+	public PagedReferenceSequenceFile(ReferenceSequenceFile underlying, int pageSize, int maxPages) {
+		if (underlying.getSequenceDictionary() == null) {
+			throw new IllegalArgumentException("Reference genome does not have an index. Create using `samtools faidx`.");
+		}
+		if (pageSize < 1) throw new IllegalArgumentException("pageSize must be positive");
+		if (maxPages < 1) throw new IllegalArgumentException("maxPages must be positive");
+		this.underlying = underlying;
+		this.pageBits = 32 - Integer.numberOfLeadingZeros(pageSize - 1);
+		this.pageMask = (1 << pageBits) - 1;
+		this.maxPages = maxPages;
+		List<SAMSequenceRecord> sequences = underlying.getSequenceDictionary().getSequences();
+		this.pages = new AtomicReferenceArray[sequences.size()];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = new AtomicReferenceArray<>(((sequences.get(i).getSequenceLength() - 1) >> pageBits) + 1);
+		}
+	}
+	public int getPageSize() {
+		return 1 << pageBits;
+	}
+	/**
+	 * Number of pages currently loaded
+	 */
+	public synchronized int getLoadedPageCount() {
+		return loaded.size();
+	}
+	@Override
+	public byte getBase(int referenceIndex, int position) {
+		int offset = position - 1;
+		return getPage(referenceIndex, offset >> pageBits).bases[offset & pageMask];
+	}
+	private Page getPage(int referenceIndex, int pageIndex) {
+		Page page = pages[referenceIndex].get(pageIndex);
+		if (page == null) {
+			page = load(referenceIndex, pageIndex);
+		}
+		long now = clock;
+		if (page.lastAccess != now) {
+			page.lastAccess = now;
+		}
+		return page;
+	}
+	private synchronized Page load(int referenceIndex, int pageIndex) {
+		Page page = pages[referenceIndex].get(pageIndex);
+		if (page != null) {
+			// already loaded by another thread while we were waiting to enter
+			// this synchronized block
+			return page;
+		}
+		SAMSequenceRecord ssr = underlying.getSequenceDictionary().getSequence(referenceIndex);
+		long start = ((long)pageIndex << pageBits) + 1;
+		long end = Math.min(start + pageMask, ssr.getSequenceLength());
+		byte[] bases = underlying.getSubsequenceAt(ssr.getSequenceName(), start, end).getBases();
+		for (int i = 0; i < bases.length; i++) {
+			bases[i] = KmerEncodingHelper.isAmbiguous(bases[i]) ? (byte)'N' : (byte)Character.toUpperCase(bases[i]);
+		}
+		while (loaded.size() >= maxPages) {
+			evictLeastRecentlyUsed();
+		}
+		page = new Page(referenceIndex, pageIndex, bases, ++clock);
+		loaded.add(page);
+		pages[referenceIndex].set(pageIndex, page);
+		return page;
+	}
+	private void evictLeastRecentlyUsed() {
+		int lru = 0;
+		for (int i = 1; i < loaded.size(); i++) {
+			if (loaded.get(i).lastAccess < loaded.get(lru).lastAccess) {
+				lru = i;
+			}
+		}
+		// swap remove since load order is not required
+		Page page = loaded.get(lru);
+		loaded.set(lru, loaded.get(loaded.size() - 1));
+		loaded.remove(loaded.size() - 1);
+		// threads already holding the page can continue to use it
+		pages[page.referenceIndex].set(page.index, null);
+	}
+	/**
+	 * Loads the pages overlapping the given intervals in the background
+	 * @param intervals intervals to load
+	 */
+	@Override
+	public synchronized void prefetch(QueryInterval[] intervals) {
+		if (prefetchExecutor == null) {
+			prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("PrefetchReference").build());
+		}
+		prefetchExecutor.submit(() -> {
+			try {
+				for (QueryInterval qi : intervals) {
+					int length = underlying.getSequenceDictionary().getSequence(qi.referenceIndex).getSequenceLength();
+					int firstPage = (Math.max(1, qi.start) - 1) >> pageBits;
+					int lastPage = (Math.min(length, qi.end) - 1) >> pageBits;
+					for (int i = firstPage; i <= lastPage; i++) {
+						getPage(qi.referenceIndex, i);
+					}
+				}
+			} catch (Exception e) {
+				log.debug(e, "Reference prefetch failed.");
+			}
+		});
+	}
+	@Override
+	public SAMSequenceDictionary getSequenceDictionary() {
+		return underlying.getSequenceDictionary();
+	}
+	@Override
+	public synchronized ReferenceSequence nextSequence() {
+		return underlying.nextSequence();
+	}
+	@Override
+	public synchronized void reset() {
+		underlying.reset();
+	}
+	@Override
+	public boolean isIndexed() {
+		return underlying.isIndexed();
+	}
+	@Override
+	public ReferenceSequence getSequence(String contig) {
+		SAMSequenceRecord ssr = getSequenceRecord(contig);
+		return getSubsequenceAt(ssr, 1, ssr.getSequenceLength());
+	}
+	@Override
+	public ReferenceSequence getSubsequenceAt(String contig, long start, long stop) {
+		return getSubsequenceAt(getSequenceRecord(contig), start, stop);
+	}
+	private SAMSequenceRecord getSequenceRecord(String contig) {
+		SAMSequenceRecord ssr = underlying.getSequenceDictionary().getSequence(contig);
+		if (ssr == null) {
+			throw new IllegalArgumentException("Unknown contig " + contig);
+		}
+		return ssr;
+	}
+	private ReferenceSequence getSubsequenceAt(SAMSequenceRecord ssr, long start, long stop) {
+		if (start > stop + 1) {
+			throw new IllegalArgumentException("start after stop");
+		}
+		if (start < 1 || stop > ssr.getSequenceLength()) {
+			throw new IllegalArgumentException("subsequence out of contig bounds");
+		}
+		byte[] target = new byte[(int)(stop - start + 1)];
+		int offset = (int)start - 1;
+		int written = 0;
+		while (written < target.length) {
+			Page page = getPage(ssr.getSequenceIndex(), offset >> pageBits);
+			int pageOffset = offset & pageMask;
+			int length = Math.min(target.length - written, page.bases.length - pageOffset);
+			System.arraycopy(page.bases, pageOffset, target, written, length);
+			written += length;
+			offset += length;
+		}
+		return new ReferenceSequence(ssr.getSequenceName(), ssr.getSequenceIndex(), target);
+	}
+	@Override
+	public synchronized void close() throws IOException {
+		if (prefetchExecutor != null) {
+			prefetchExecutor.shutdownNow();
+			prefetchExecutor = null;
+		}
+		underlying.close();
+	}
+}
@@ -8,6 +8,13 @@ import java.util.List;
 
 public interface ReferenceLookup extends ReferenceSequenceFile {
 	public byte getBase(int referenceIndex, int position);
+	/**
+	 * Indicates that the given intervals will be accessed soon.
+	 * Implementations that lazily load the reference can use this to start loading in the background.
+	 * @param intervals intervals that will be accessed
+	 */
+	default void prefetch(QueryInterval[] intervals) {
+	}
 	/**
 	 * Gets a list of intervals generated by splitting each contig
 	 * into intervals of the given size
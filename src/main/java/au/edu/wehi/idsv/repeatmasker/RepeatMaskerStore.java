@@ -0,0 +1,526 @@
+package au.edu.wehi.idsv.repeatmasker;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
+import htsjdk.tribble.annotation.Strand;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Sorted, block-compressed and indexed RepeatMasker annotation store.
+ *
+ * Only the fields required for variant annotation are retained: contig, start, end,
+ * strand, score, repeat type and repeat class. Repeat type and class are stored
+ * once in a label table and referenced by index from each record.
+ *
+ * File layout:
+ * - magic, version
+ * - compressed record blocks. Records are sorted by start position within each contig.
+ * - index: contig names, label table, and the file offset, compressed size, uncompressed size,
+ *   record count, contig and first start position of each block.
+ * - maximum feature width
+ * - index file offset, magic
+ *
+ * Blocks are loaded on demand as regions are queried and a bounded number of decoded blocks are cached.
+ */
+public class RepeatMaskerStore implements Closeable {
+    private static final int MAGIC = 0x524D5354;
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 8 + 4;
+    public static final int DEFAULT_BLOCK_RECORDS = 4096;
+    public static final int DEFAULT_CACHED_BLOCKS = 64;
+    private static final byte STRAND_NONE = 0;
+    private static final byte STRAND_POSITIVE = 1;
+    private static final byte STRAND_NEGATIVE = 2;
+    private final File file;
+    private final FileChannel channel;
+    private final List<String> contigs;
+    private final Map<String, Integer> contigLookup = new HashMap<>();
+    private final String[] repeatType;
+    private final String[] repeatClass;
+    private final long[] blockOffset;
+    private final int[] blockCompressedSize;
+    private final int[] blockSize;
+    private final int[] blockRecords;
+    private final int[] blockContig;
+    private final int[] blockStart;
+    private final int maxWidth;
+    private final Map<Integer, Block> cache;
+
+    public RepeatMaskerStore(File file) throws IOException {
+        this(file, DEFAULT_CACHED_BLOCKS);
+    }
+
+    public RepeatMaskerStore(File file, int cachedBlocks) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.cache = new LinkedHashMap<Integer, Block>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Block> eldest) {
+                return size() > cachedBlocks;
+            }
+        };
+        try {
+            long length = channel.size();
+            if (length < 8 + TRAILER_SIZE) {
+                throw new IOException(String.format("%s is not a RepeatMasker store", file));
+            }
+            ByteBuffer header = read(0, 8);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(String.format("%s is not a RepeatMasker store", file));
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("%s: unsupported RepeatMasker store version %d", file, version));
+            }
+            ByteBuffer trailer = read(length - TRAILER_SIZE, TRAILER_SIZE);
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC) {
+                throw new IOException(String.format("%s is truncated", file));
+            }
+            ByteBuffer indexBytes = read(indexOffset, (int)(length - TRAILER_SIZE - indexOffset));
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexBytes.array()));
+            int contigCount = in.readInt();
+            List<String> contigList = new ArrayList<>(contigCount);
+            for (int i = 0; i < contigCount; i++) {
+                String contig = in.readUTF();
+                contigList.add(contig);
+                contigLookup.put(contig, i);
+            }
+            this.contigs = Collections.unmodifiableList(contigList);
+            int labelCount = in.readInt();
+            repeatType = new String[labelCount];
+            repeatClass = new String[labelCount];
+            for (int i = 0; i < labelCount; i++) {
+                repeatType[i] = in.readBoolean() ? in.readUTF() : null;
+                repeatClass[i] = in.readBoolean() ? in.readUTF() : null;
+            }
+            int blockCount = in.readInt();
+            blockOffset = new long[blockCount];
+            blockCompressedSize = new int[blockCount];
+            blockSize = new int[blockCount];
+            blockRecords = new int[blockCount];
+            blockContig = new int[blockCount];
+            blockStart = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                blockOffset[i] = in.readLong();
+                blockCompressedSize[i] = in.readInt();
+                blockSize[i] = in.readInt();
+                blockRecords[i] = in.readInt();
+                blockContig[i] = in.readInt();
+                blockStart[i] = in.readInt();
+            }
+            maxWidth = in.readInt();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Determines whether the given file is a RepeatMasker store
+     */
+    public static boolean isStore(File file) {
+        if (!file.isFile() || file.length() < 4) return false;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(String.format("Unexpected end of file reading %s", file));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Contigs containing at least one RepeatMasker annotation
+     */
+    public List<String> getContigs() {
+        return contigs;
+    }
+
+    /**
+     * Returns all features overlapping the given closed interval
+     * @param contig contig
+     * @param start 1-based start position
+     * @param end 1-based end position (inclusive)
+     * @return overlapping features ordered by start position
+     */
+    public List<RepeatMaskerFeature> query(String contig, int start, int end) throws IOException {
+        Integer contigIndex = contigLookup.get(contig);
+        if (contigIndex == null) return Collections.emptyList();
+        List<RepeatMaskerFeature> result = new ArrayList<>();
+        long queryStart = (long)start - maxWidth;
+        for (int b = firstBlock(contigIndex, queryStart); b < blockOffset.length && blockContig[b] == contigIndex && blockStart[b] <= end; b++) {
+            Block block = getBlock(b);
+            for (int i = block.firstStartAtOrAfter(queryStart); i < block.start.length && block.start[i] <= end; i++) {
+                if (block.end[i] >= start) {
+                    result.add(block.feature(contig, i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Finds the last block of the contig starting before the query position.
+     * Features overlapping the query can start in this block.
+     */
+    private int firstBlock(int contigIndex, long queryStart) {
+        int lo = 0;
+        int hi = blockOffset.length;
+        // first block of the contig
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockContig[mid] < contigIndex) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int first = lo;
+        hi = blockOffset.length;
+        // first block starting at or after the query
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blockContig[mid] == contigIndex && blockStart[mid] < queryStart) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return Math.max(first, lo - 1);
+    }
+
+    private synchronized Block getBlock(int block) throws IOException {
+        Block b = cache.get(block);
+        if (b == null) {
+            b = loadBlock(block);
+            cache.put(block, b);
+        }
+        return b;
+    }
+
+    private Block loadBlock(int block) throws IOException {
+        ByteBuffer compressed = read(blockOffset[block], blockCompressedSize[block]);
+        byte[] data = new byte[blockSize[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array(), 0, blockCompressedSize[block]);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                n += inflater.inflate(data, n, data.length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(String.format("Corrupt block %d in %s", block, file), e);
+        } finally {
+            inflater.end();
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int records = blockRecords[block];
+        Block b = new Block(records);
+        int position = 0;
+        for (int i = 0; i < records; i++) {
+            position += in.readInt();
+            b.start[i] = position;
+            b.end[i] = position + in.readInt();
+            b.strand[i] = in.readByte();
+            b.score[i] = in.readFloat();
+            b.label[i] = in.readInt();
+        }
+        return b;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private class Block {
+        private final int[] start;
+        private final int[] end;
+        private final byte[] strand;
+        private final float[] score;
+        private final int[] label;
+
+        private Block(int records) {
+            start = new int[records];
+            end = new int[records];
+            strand = new byte[records];
+            score = new float[records];
+            label = new int[records];
+        }
+
+        private int firstStartAtOrAfter(long position) {
+            int lo = 0;
+            int hi = start.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start[mid] < position) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private RepeatMaskerFeature feature(String contig, int i) {
+            RepeatMaskerFeature f = new RepeatMaskerFeature();
+            f.setContig(contig);
+            f.setStart(start[i]);
+            f.setEnd(end[i]);
+            f.setStrand(toStrand(strand[i]));
+            f.setScore(score[i]);
+            f.setRepeatType(repeatType[label[i]]);
+            f.setRepeatClass(repeatClass[label[i]]);
+            return f;
+        }
+    }
+
+    private static byte fromStrand(Strand strand) {
+        if (strand == Strand.POSITIVE) return STRAND_POSITIVE;
+        if (strand == Strand.NEGATIVE) return STRAND_NEGATIVE;
+        return STRAND_NONE;
+    }
+
+    private static Strand toStrand(byte strand) {
+        switch (strand) {
+            case STRAND_POSITIVE: return Strand.POSITIVE;
+            case STRAND_NEGATIVE: return Strand.NEGATIVE;
+            default: return Strand.NONE;
+        }
+    }
+
+    /**
+     * Writes a RepeatMasker store.
+     * Features must be grouped by contig and sorted by start position within each contig.
+     */
+    public static class Writer implements Closeable {
+        private final File file;
+        private final OutputStream out;
+        private final int recordsPerBlock;
+        private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+        private final DataOutputStream block = new DataOutputStream(blockBytes);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private final List<String> contigs = new ArrayList<>();
+        private final Set<String> completedContigs = new HashSet<>();
+        private final Map<List<String>, Integer> labels = new LinkedHashMap<>();
+        private long offset = 0;
+        private int blockCount = 0;
+        private int blockRecordCount = 0;
+        private int blockFirstStart;
+        private int blockContig;
+        private int currentContig = -1;
+        private int lastStart;
+        private int maxWidth = 0;
+
+        public Writer(File file) throws IOException {
+            this(file, DEFAULT_BLOCK_RECORDS);
+        }
+
+        public Writer(File file, int recordsPerBlock) throws IOException {
+            this.file = file;
+            this.recordsPerBlock = Math.max(1, recordsPerBlock);
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            offset = 8;
+        }
+
+        public void add(RepeatMaskerFeature f) throws IOException {
+            add(f.getContig(), f.getStart(), f.getEnd(), f.getStrand(), f.getScore(), f.getRepeatType(), f.getRepeatClass());
+        }
+
+        public void add(String contig, int start, int end, Strand strand, float score, String repeatType, String repeatClass) throws IOException {
+            if (currentContig < 0 || !contigs.get(currentContig).equals(contig)) {
+                if (!completedContigs.add(contig)) {
+                    throw new IllegalArgumentException(String.format("RepeatMasker features for %s are not grouped by contig.", contig));
+                }
+                flushBlock();
+                contigs.add(contig);
+                currentContig = contigs.size() - 1;
+                lastStart = Integer.MIN_VALUE;
+            }
+            if (start < lastStart) {
+                throw new IllegalArgumentException(String.format("RepeatMasker features are not sorted. %s:%d found after %s:%d", contig, start, contig, lastStart));
+            }
+            if (blockRecordCount >= recordsPerBlock) {
+                flushBlock();
+            }
+            if (blockRecordCount == 0) {
+                blockFirstStart = start;
+                blockContig = currentContig;
+                lastStart = start;
+            }
+            block.writeInt(start - (blockRecordCount == 0 ? 0 : lastStart));
+            block.writeInt(end - start);
+            block.writeByte(fromStrand(strand));
+            block.writeFloat(score);
+            block.writeInt(label(repeatType, repeatClass));
+            blockRecordCount++;
+            lastStart = start;
+            maxWidth = Math.max(maxWidth, end - start);
+        }
+
+        private int label(String repeatType, String repeatClass) {
+            return labels.computeIfAbsent(Arrays.asList(repeatType, repeatClass), k -> labels.size());
+        }
+
+        private void flushBlock() throws IOException {
+            if (blockRecordCount == 0) return;
+            block.flush();
+            byte[] raw = blockBytes.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, raw.length + raw.length / 16 + 64)];
+            int compressedSize = 0;
+            while (!deflater.finished()) {
+                if (compressedSize == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                compressedSize += deflater.deflate(buffer, compressedSize, buffer.length - compressedSize);
+            }
+            out.write(buffer, 0, compressedSize);
+            indexOut.writeLong(offset);
+            indexOut.writeInt(compressedSize);
+            indexOut.writeInt(raw.length);
+            indexOut.writeInt(blockRecordCount);
+            indexOut.writeInt(blockContig);
+            indexOut.writeInt(blockFirstStart);
+            offset += compressedSize;
+            blockCount++;
+            blockRecordCount = 0;
+            blockBytes.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBlock();
+                DataOutputStream dos = new DataOutputStream(out);
+                long indexOffset = offset;
+                dos.writeInt(contigs.size());
+                for (String contig : contigs) {
+                    dos.writeUTF(contig);
+                }
+                dos.writeInt(labels.size());
+                for (List<String> label : labels.keySet()) {
+                    writeNullableUTF(dos, label.get(0));
+                    writeNullableUTF(dos, label.get(1));
+                }
+                dos.writeInt(blockCount);
+                indexOut.flush();
+                index.writeTo(dos);
+                dos.writeInt(maxWidth);
+                dos.writeLong(indexOffset);
+                dos.writeInt(MAGIC);
+                dos.flush();
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+
+        private static void writeNullableUTF(DataOutputStream dos, String s) throws IOException {
+            dos.writeBoolean(s != null);
+            if (s != null) {
+                dos.writeUTF(s);
+            }
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * Converts a RepeatMasker annotation file to a RepeatMasker store.
+     * The input does not need to be sorted.
+     * @param input RepeatMasker annotations
+     * @param codec codec used to parse the input. Codec features must be {@link RepeatMaskerFeature}s.
+     * @param output store to write
+     * @return number of features written
+     */
+    public static <F extends Feature, S> long convert(File input, FeatureCodec<F, S> codec, File output) throws IOException {
+        Map<String, FeatureList> lookup = new LinkedHashMap<>();
+        try (AbstractFeatureReader<F, S> reader = AbstractFeatureReader.getFeatureReader(input.getPath(), codec, false)) {
+            try (CloseableIterator<F> it = reader.iterator()) {
+                while (it.hasNext()) {
+                    RepeatMaskerFeature f = (RepeatMaskerFeature)it.next();
+                    lookup.computeIfAbsent(f.getContig(), k -> new FeatureList()).add(f);
+                }
+            }
+        }
+        long count = 0;
+        try (Writer writer = new Writer(output)) {
+            for (Map.Entry<String, FeatureList> entry : lookup.entrySet()) {
+                count += entry.getValue().write(entry.getKey(), writer);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Compact in-memory feature list used for sorting features during conversion
+     */
+    private static class FeatureList {
+        private final IntArrayList start = new IntArrayList();
+        private final IntArrayList end = new IntArrayList();
+        private final IntArrayList strand = new IntArrayList();
+        private final FloatArrayList score = new FloatArrayList();
+        private final List<String> repeatType = new ArrayList<>();
+        private final List<String> repeatClass = new ArrayList<>();
+
+        private void add(RepeatMaskerFeature f) {
+            start.add(f.getStart());
+            end.add(f.getEnd());
+            strand.add(fromStrand(f.getStrand()));
+            score.add(f.getScore());
+            repeatType.add(f.getRepeatType());
+            repeatClass.add(f.getRepeatClass());
+        }
+
+        private int write(String contig, Writer writer) throws IOException {
+            int n = start.size();
+            int[] order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            int[] s = start.elements();
+            IntArrays.mergeSort(order, (a, b) -> Integer.compare(s[a], s[b]));
+            for (int i : order) {
+                writer.add(contig, start.getInt(i), end.getInt(i), toStrand((byte)strand.getInt(i)), score.getFloat(i), repeatType.get(i), repeatClass.get(i));
+            }
+            return n;
+        }
+    }
+}
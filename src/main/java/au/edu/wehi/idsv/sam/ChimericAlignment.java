@@ -8,7 +8,6 @@ import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
 import com.google.common.primitives.Ints;
 import htsjdk.samtools.*;
-import joptsimple.internal.Strings;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.ArrayList;
@@ -21,10 +20,17 @@ import java.util.List;
  * list: (rname,pos,strand,CIGAR,mapQ,NM ;)+. Each element in the list represents a
  * part of the chimeric alignment. Conventionally, at a supplementary line, the first element
  * points to the primary line.
+ *
+ * SA and BEALN strings are tokenised in place without regular expressions. Parsed SA tags
+ * are cached on the SAMRecord so each SA tag is only parsed once.
  * @author Daniel Cameron
  *
  */
 public class ChimericAlignment {
+	/**
+	 * SAMRecord transient attribute key of the cached parsed SA tag
+	 */
+	private static final String TRANSIENT_ATTRIBUTE_PARSED_SA = "ChimericAlignment.SA";
 	public final String rname;
 	public final int pos;
 	public final boolean isNegativeStrand;
@@ -74,24 +80,146 @@ public class ChimericAlignment {
 		this.nm = nmParsed;
 	}
 	public ChimericAlignment(String str) {
-		this(str, ",");
+		this(str, 0, str.length());
+	}
+	/**
+	 * Parses the comma separated alignment in the given substring
+	 * @param str string containing alignment
+	 * @param start start offset of alignment
+	 * @param end end offset of alignment (exclusive)
+	 */
+	private ChimericAlignment(String str, int start, int end) {
+		while (start < end && isPadding(str.charAt(start))) start++;
+		while (end > start && isPadding(str.charAt(end - 1))) end--;
+		int rnameEnd = fieldEnd(str, start, end, ',');
+		int posEnd = fieldEnd(str, rnameEnd + 1, end, ',');
+		int strandEnd = fieldEnd(str, posEnd + 1, end, ',');
+		int cigarEnd = fieldEnd(str, strandEnd + 1, end, ',');
+		if (cigarEnd > end) {
+			throw new IllegalArgumentException(String.format("Malformed alignment \"%s\"", str.substring(start, end)));
+		}
+		int mapqEnd = fieldEnd(str, cigarEnd + 1, end, ',');
+		int nmEnd = fieldEnd(str, mapqEnd + 1, end, ',');
+		this.rname = str.substring(start, rnameEnd);
+		this.pos = parseInt(str, rnameEnd + 1, posEnd);
+		this.isNegativeStrand = strandEnd == posEnd + 2 && str.charAt(posEnd + 1) == '-';
+		this.cigar = TextCigarCodec.decode(str.substring(strandEnd + 1, cigarEnd));
+		this.mapq = mapqEnd > cigarEnd + 1 && mapqEnd <= end ? parseInt(str, cigarEnd + 1, mapqEnd) : SAMRecord.UNKNOWN_MAPPING_QUALITY;
+		Integer nmParsed = null;
+		if (nmEnd > mapqEnd + 1 && nmEnd <= end) {
+			try {
+				nmParsed = parseInt(str, mapqEnd + 1, nmEnd);
+			} catch (NumberFormatException nfe) {
+				// swallow and fall back to null
+			}
+		}
+		this.nm = nmParsed;
+	}
+	private static boolean isPadding(char c) {
+		return c == ';' || Character.isWhitespace(c);
+	}
+	/**
+	 * Finds the end of the field starting at the given offset
+	 * @return offset of the next separator, end if this is the last field, or a position after end if there is no such field 
+	 */
+	private static int fieldEnd(String str, int start, int end, char separator) {
+		if (start > end) return end + 1;
+		int i = str.indexOf(separator, start);
+		return i < 0 || i > end ? end : i;
+	}
+	/**
+	 * Parses a base 10 integer without allocating a substring
+	 */
+	private static int parseInt(String str, int start, int end) {
+		if (start >= end) {
+			throw new NumberFormatException("Missing integer value");
+		}
+		boolean negative = false;
+		int i = start;
+		char c = str.charAt(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+			if (i == end) {
+				throw new NumberFormatException(String.format("For input string: \"%s\"", str.substring(start, end)));
+			}
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			int digit = str.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException(String.format("For input string: \"%s\"", str.substring(start, end)));
+			}
+			value = value * 10 + digit;
+			if (value > (long)Integer.MAX_VALUE + 1) {
+				throw new NumberFormatException(String.format("For input string: \"%s\"", str.substring(start, end)));
+			}
+		}
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE) {
+			throw new NumberFormatException(String.format("For input string: \"%s\"", str.substring(start, end)));
+		}
+		return (int)value;
 	}
 	public static List<ChimericAlignment> getChimericAlignments(String sa, String separatorRegex) {
+		if (";".equals(separatorRegex)) return getChimericAlignments(sa);
 		if (StringUtils.isEmpty(sa)) return Collections.emptyList();
 		List<ChimericAlignment> list = new ArrayList<ChimericAlignment>();
 		String[] splits = sa.split(separatorRegex);
 		for (String s : splits) {
-			if (!StringUtils.isEmpty(sa)) {
+			if (!StringUtils.isBlank(s)) {
 				list.add(new ChimericAlignment(s));
 			}
 		}
 		return list;
 	}
 	public static List<ChimericAlignment> getChimericAlignments(String sa) {
-		return getChimericAlignments(sa, ";");
+		if (StringUtils.isEmpty(sa)) return Collections.emptyList();
+		List<ChimericAlignment> list = new ArrayList<ChimericAlignment>(4);
+		int start = 0;
+		while (start < sa.length()) {
+			int end = sa.indexOf(';', start);
+			if (end < 0) end = sa.length();
+			if (!isBlank(sa, start, end)) {
+				list.add(new ChimericAlignment(sa, start, end));
+			}
+			start = end + 1;
+		}
+		return list;
 	}
+	private static boolean isBlank(String str, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (!Character.isWhitespace(str.charAt(i))) return false;
+		}
+		return true;
+	}
+	/**
+	 * Parsed SA tag cached on a SAMRecord
+	 */
+	private static class ParsedSA {
+		private final String sa;
+		private final List<ChimericAlignment> alignments;
+		private ParsedSA(String sa, List<ChimericAlignment> alignments) {
+			this.sa = sa;
+			this.alignments = alignments;
+		}
+	}
+	/**
+	 * Gets the alignments in the SA tag of the given record.
+	 * The parsed SA tag is cached on the record and is reparsed only if the SA tag is changed.
+	 * @return alignments in the SA tag. The returned list can be modified by the caller.
+	 */
 	public static List<ChimericAlignment> getChimericAlignments(SAMRecord r) {
-		return getChimericAlignments(r.getStringAttribute(SAMTag.SA.name()));
+		String sa = r.getStringAttribute(SAMTag.SA.name());
+		if (sa == null) return new ArrayList<>(0);
+		Object cached = r.getTransientAttribute(TRANSIENT_ATTRIBUTE_PARSED_SA);
+		// Identity comparison is sufficient since a changed SA tag will be a different string
+		if (cached instanceof ParsedSA && ((ParsedSA)cached).sa == sa) {
+			return new ArrayList<>(((ParsedSA)cached).alignments);
+		}
+		List<ChimericAlignment> list = getChimericAlignments(sa);
+		r.setTransientAttribute(TRANSIENT_ATTRIBUTE_PARSED_SA, new ParsedSA(sa, list));
+		return new ArrayList<>(list);
 	}
 
 	/**
@@ -124,17 +252,26 @@ public class ChimericAlignment {
 		return rs;
 	}
 
+	/**
+	 * Parses a BEALN alignment of the form chr:start|strand|cigar|mapq.
+	 * Chromosome names can contain ':'. Strand and mapq can be empty.
+	 */
 	public static ChimericAlignment parseBEALNAlignment(String bealn) {
-		String[] parts = bealn.split("[|]");
-		String chrpos = parts[0];
-		String chr = chrpos.substring(0, chrpos.lastIndexOf(':'));
-		int start = Integer.parseInt(chrpos.substring(chr.length() + 1));
+		int end = bealn.length();
+		int chrposEnd = fieldEnd(bealn, 0, end, '|');
+		int strandEnd = fieldEnd(bealn, chrposEnd + 1, end, '|');
+		int cigarEnd = fieldEnd(bealn, strandEnd + 1, end, '|');
+		int mapqEnd = fieldEnd(bealn, cigarEnd + 1, end, '|');
+		int colon = bealn.lastIndexOf(':', chrposEnd - 1);
+		if (colon < 0 || cigarEnd > end) {
+			throw new IllegalArgumentException(String.format("Malformed BEALN alignment \"%s\"", bealn));
+		}
 		return new ChimericAlignment(
-				chr,
-				start,
-				parts[1].equals("-"),
-				TextCigarCodec.decode(parts[2]),
-				(parts.length < 4 || Strings.isNullOrEmpty(parts[3])) ? SAMRecord.UNKNOWN_MAPPING_QUALITY : Integer.parseInt(parts[3]));
+				bealn.substring(0, colon),
+				parseInt(bealn, colon + 1, chrposEnd),
+				strandEnd == chrposEnd + 2 && bealn.charAt(chrposEnd + 1) == '-',
+				TextCigarCodec.decode(bealn.substring(strandEnd + 1, cigarEnd)),
+				mapqEnd > cigarEnd + 1 && mapqEnd <= end ? parseInt(bealn, cigarEnd + 1, mapqEnd) : SAMRecord.UNKNOWN_MAPPING_QUALITY);
 	}
 
 	private BreakendSummary startBreakend(SAMSequenceDictionary dict) {
@@ -174,7 +311,16 @@ public class ChimericAlignment {
 	}
 	@Override
 	public String toString() {
-		return String.format("%s,%d,%s,%s,%d,%s", rname, pos, isNegativeStrand ? "-" : "+", cigar, mapq, nm == null ? "" : nm.toString());
+		StringBuilder sb = new StringBuilder();
+		sb.append(rname).append(',')
+			.append(pos).append(',')
+			.append(isNegativeStrand ? '-' : '+').append(',')
+			.append(cigar).append(',')
+			.append(mapq).append(',');
+		if (nm != null) {
+			sb.append(nm.intValue());
+		}
+		return sb.toString();
 	}
 	@Override
 	public int hashCode() {
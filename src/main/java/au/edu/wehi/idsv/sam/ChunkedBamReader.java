@@ -0,0 +1,316 @@
+package au.edu.wehi.idsv.sam;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrays;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Reads a fixed set of interval queries from a coordinate sorted, indexed BAM file.
+ *
+ * The virtual file offset span of every query is looked up in the BAM index once and
+ * the spans are split into pieces at every span boundary. Since every record starts at
+ * a unique virtual file offset, the pieces partition the records exactly.
+ * Pieces only read by a single query are streamed directly from the file.
+ * Pieces shared between queries (typically the padding either side of the boundary
+ * between adjacent chunks) are decoded once and cached until every query sharing
+ * that piece has consumed it.
+ *
+ * A reader is obtained from the reader supplier for each query iteration and closed once
+ * the iteration is complete. Suppliers backed by a {@link SamReaderPool} reuse readers
+ * across queries.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class ChunkedBamReader implements Closeable {
+	private final Supplier<SamReader> readerFactory;
+	private final QueryInterval[][] queries;
+	private final List<List<Piece>> queryPieces;
+	private boolean closed = false;
+	private static class Piece {
+		protected final long start;
+		protected final long end;
+		private Piece(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+		public boolean isShared() {
+			return false;
+		}
+	}
+	private static class SharedPiece extends Piece {
+		/**
+		 * Number of remaining query iterations expected to consume this piece
+		 */
+		private int remaining;
+		private List<SAMRecord> records = null;
+		private SharedPiece(long start, long end) {
+			super(start, end);
+		}
+		@Override
+		public boolean isShared() {
+			return true;
+		}
+		/**
+		 * Gets the records in this piece.
+		 * @return records in this piece, null if this piece is no longer cached
+		 */
+		private synchronized List<SAMRecord> take(SamReader reader) {
+			if (remaining <= 0) return null;
+			if (records == null) {
+				records = new ArrayList<>();
+				try (SAMRecordIterator it = reader.indexing().iterator(new BAMFileSpan(new Chunk(start, end)))) {
+					while (it.hasNext()) {
+						records.add(it.next());
+					}
+				}
+			}
+			remaining--;
+			if (remaining == 0) {
+				// last consumer takes ownership of the cached records
+				List<SAMRecord> result = records;
+				records = null;
+				return result;
+			}
+			// records are mutated during evidence transformation and lazily decoded
+			// so each consumer requires its own copy
+			List<SAMRecord> result = new ArrayList<>(records.size());
+			for (SAMRecord r : records) {
+				result.add(r.deepCopy());
+			}
+			return result;
+		}
+		private synchronized void release() {
+			remaining = 0;
+			records = null;
+		}
+	}
+	/**
+	 * @param readerFactory reader supplier
+	 * @param queries intervals of each query. Intervals must be sorted and non-overlapping.
+	 * @param iterationsPerQuery number of times each query will be iterated over. Pieces shared between
+	 * queries are cached until they have been iterated over this many times by each query.
+	 */
+	public ChunkedBamReader(Supplier<SamReader> readerFactory, List<QueryInterval[]> queries, int iterationsPerQuery) {
+		this.readerFactory = readerFactory;
+		this.queries = queries.toArray(new QueryInterval[0][]);
+		long[][] spans = new long[this.queries.length][];
+		try (SamReader reader = readerFactory.get()) {
+			if (!isSupported(reader)) {
+				throw new IllegalArgumentException("Chunked reading requires a coordinate sorted and indexed BAM file.");
+			}
+			BAMIndex index = reader.indexing().getIndex();
+			for (int i = 0; i < spans.length; i++) {
+				spans[i] = getSpan(index, this.queries[i]);
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		this.queryPieces = split(spans, iterationsPerQuery);
+	}
+	public static boolean isSupported(SamReader reader) {
+		return reader.type() == SamReader.Type.BAM_TYPE && reader.hasIndex();
+	}
+	/**
+	 * Gets the virtual file offset span of the given intervals
+	 * @return start and end offset of each disjoint span chunk
+	 */
+	private static long[] getSpan(BAMIndex index, QueryInterval[] intervals) {
+		List<Chunk> chunks = new ArrayList<>();
+		for (QueryInterval qi : intervals) {
+			BAMFileSpan span = index.getSpanOverlapping(qi.referenceIndex, qi.start, qi.end);
+			if (span != null) {
+				chunks.addAll(span.getChunks());
+			}
+		}
+		Collections.sort(chunks);
+		LongArrayList result = new LongArrayList(2 * chunks.size());
+		for (Chunk c : chunks) {
+			int last = result.size() - 1;
+			if (!result.isEmpty() && c.getChunkStart() <= result.getLong(last)) {
+				result.set(last, Math.max(result.getLong(last), c.getChunkEnd()));
+			} else {
+				result.add(c.getChunkStart());
+				result.add(c.getChunkEnd());
+			}
+		}
+		return result.toLongArray();
+	}
+	/**
+	 * Splits the query spans into pieces at every span boundary
+	 */
+	private static List<List<Piece>> split(long[][] spans, int iterationsPerQuery) {
+		long[] boundaries = Arrays.stream(spans).flatMapToLong(Arrays::stream).toArray();
+		LongArrays.quickSort(boundaries);
+		int n = 0;
+		for (int i = 0; i < boundaries.length; i++) {
+			if (n == 0 || boundaries[n - 1] != boundaries[i]) {
+				boundaries[n++] = boundaries[i];
+			}
+		}
+		boundaries = Arrays.copyOf(boundaries, n);
+		// number of queries reading each elementary segment between consecutive boundaries
+		int[] queryCount = new int[Math.max(0, n - 1)];
+		for (long[] span : spans) {
+			for (int i = 0; i < span.length; i += 2) {
+				for (int s = Arrays.binarySearch(boundaries, span[i]); boundaries[s] < span[i + 1]; s++) {
+					queryCount[s]++;
+				}
+			}
+		}
+		SharedPiece[] shared = new SharedPiece[queryCount.length];
+		List<List<Piece>> result = new ArrayList<>(spans.length);
+		for (long[] span : spans) {
+			List<Piece> pieces = new ArrayList<>();
+			for (int i = 0; i < span.length; i += 2) {
+				long exclusiveStart = -1;
+				for (int s = Arrays.binarySearch(boundaries, span[i]); boundaries[s] < span[i + 1]; s++) {
+					if (queryCount[s] == 1) {
+						if (exclusiveStart == -1) {
+							exclusiveStart = boundaries[s];
+						}
+					} else {
+						if (exclusiveStart != -1) {
+							pieces.add(new Piece(exclusiveStart, boundaries[s]));
+							exclusiveStart = -1;
+						}
+						if (shared[s] == null) {
+							shared[s] = new SharedPiece(boundaries[s], boundaries[s + 1]);
+							shared[s].remaining = queryCount[s] * iterationsPerQuery;
+						}
+						pieces.add(shared[s]);
+					}
+				}
+				if (exclusiveStart != -1) {
+					pieces.add(new Piece(exclusiveStart, span[i + 1]));
+				}
+			}
+			result.add(pieces);
+		}
+		return result;
+	}
+	public int size() {
+		return queries.length;
+	}
+	/**
+	 * Iterates over the records overlapping the given query in coordinate order.
+	 * @param query index of query
+	 */
+	public CloseableIterator<SAMRecord> iterator(int query) {
+		return new QueryIterator(query);
+	}
+	/**
+	 * Releases the cached shared records. Iteration is not possible once closed.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (List<Piece> pieces : queryPieces) {
+			for (Piece piece : pieces) {
+				if (piece.isShared()) {
+					((SharedPiece)piece).release();
+				}
+			}
+		}
+	}
+	private synchronized void ensureOpen() {
+		if (closed) throw new IllegalStateException("Reader closed");
+	}
+	private class QueryIterator implements CloseableIterator<SAMRecord> {
+		private final QueryInterval[] intervals;
+		private final List<Piece> pieces;
+		private SamReader reader;
+		private int nextPiece = 0;
+		private SAMRecordIterator open = null;
+		private Iterator<SAMRecord> current = Collections.emptyIterator();
+		private SAMRecord next = null;
+		private QueryIterator(int query) {
+			this.intervals = queries[query];
+			this.pieces = queryPieces.get(query);
+			ensureOpen();
+			this.reader = readerFactory.get();
+		}
+		private boolean overlaps(SAMRecord r) {
+			int referenceIndex = r.getReferenceIndex();
+			int start = r.getAlignmentStart();
+			int end = r.getReadUnmappedFlag() ? start : Math.max(start, r.getAlignmentEnd());
+			for (QueryInterval qi : intervals) {
+				if (qi.referenceIndex == referenceIndex && start <= qi.end && end >= qi.start) {
+					return true;
+				}
+			}
+			return false;
+		}
+		private void closeOpenIterator() {
+			if (open != null) {
+				open.close();
+				open = null;
+			}
+		}
+		private void ensureNext() {
+			while (next == null && reader != null) {
+				if (current.hasNext()) {
+					SAMRecord r = current.next();
+					if (overlaps(r)) {
+						next = r;
+					}
+				} else {
+					closeOpenIterator();
+					if (nextPiece >= pieces.size()) {
+						close();
+						return;
+					}
+					Piece piece = pieces.get(nextPiece++);
+					List<SAMRecord> cached = piece.isShared() ? ((SharedPiece)piece).take(reader) : null;
+					if (cached != null) {
+						current = cached.iterator();
+					} else {
+						open = reader.indexing().iterator(new BAMFileSpan(new Chunk(piece.start, piece.end)));
+						current = open;
+					}
+				}
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			ensureNext();
+			return next != null;
+		}
+		@Override
+		public SAMRecord next() {
+			ensureNext();
+			if (next == null) throw new NoSuchElementException();
+			SAMRecord r = next;
+			next = null;
+			return r;
+		}
+		@Override
+		public void close() {
+			closeOpenIterator();
+			current = Collections.emptyIterator();
+			if (reader != null) {
+				CloserUtil.close(reader);
+				reader = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,441 @@
+package au.edu.wehi.idsv.sam;
+
+import au.edu.wehi.idsv.util.AsyncBufferedIterator;
+import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * External SAM record sorter.
+ *
+ * Each record is given a fixed-width primitive sort key consistent with the sort order
+ * of the comparator. Records are only compared using the full comparator when
+ * their keys are equal.
+ *
+ * In-memory batches are sorted in parallel and spilled to compressed temporary run files
+ * on a background thread whilst the next batch is being filled. Runs are merged with each run
+ * decoded on its own background thread. When there are more runs than can be merged at once,
+ * consecutive runs are first merged into intermediate runs to bound the number of open files
+ * and decoding threads.
+ *
+ * Records with equal sort order are returned in the order in which they were added.
+ */
+public class ParallelSamSorter implements Closeable {
+	private static final Log log = Log.getInstance(ParallelSamSorter.class);
+	private static final int RUN_BUFFER_SIZE = 65536;
+	private static final int MERGE_ASYNC_BUFFERS = 2;
+	private static final int MERGE_ASYNC_BUFFER_SIZE = 256;
+	/**
+	 * Maximum number of runs merged at once
+	 */
+	public static final int DEFAULT_MAX_RUNS_PER_MERGE = 64;
+	private final SAMFileHeader header;
+	private final SortKey sortKey;
+	private final Comparator<Entry> entryComparator;
+	private final File tempDir;
+	private final int maxRecordsPerBatch;
+	private final int maxRunsPerMerge;
+	private final List<File> runs = new ArrayList<>();
+	private final ExecutorService spillThread;
+	private Future<?> outstandingSpill = null;
+	private Entry[] batch;
+	private int batchSize = 0;
+	private boolean doneAdding = false;
+	private final List<CloseableIterator<SAMRecord>> openIterators = new ArrayList<>();
+	/**
+	 * @param header SAM header of records to be sorted
+	 * @param comparator sort order
+	 * @param maxRecordsInRam maximum number of records to hold in memory. Half is used for the batch
+	 * being filled and half for the batch being spilled to disk.
+	 * @param tempDir directory to write temporary runs to
+	 */
+	public ParallelSamSorter(SAMFileHeader header, SAMRecordComparator comparator, int maxRecordsInRam, File tempDir) {
+		this(header, comparator, maxRecordsInRam, tempDir, DEFAULT_MAX_RUNS_PER_MERGE);
+	}
+	/**
+	 * @param maxRunsPerMerge maximum number of runs to merge at once. This bounds the number of
+	 * temporary files open, and the number of background decoding threads.
+	 */
+	public ParallelSamSorter(SAMFileHeader header, SAMRecordComparator comparator, int maxRecordsInRam, File tempDir, int maxRunsPerMerge) {
+		if (maxRunsPerMerge < 2) throw new IllegalArgumentException("maxRunsPerMerge must be at least 2");
+		this.header = header;
+		this.sortKey = SortKey.create(comparator);
+		this.entryComparator = (a, b) -> {
+			int cmp = Long.compareUnsigned(a.key1, b.key1);
+			if (cmp != 0) return cmp;
+			cmp = Long.compareUnsigned(a.key2, b.key2);
+			if (cmp != 0) return cmp;
+			return comparator.compare(a.record, b.record);
+		};
+		this.tempDir = tempDir;
+		this.maxRecordsPerBatch = Math.max(1, maxRecordsInRam / 2);
+		this.maxRunsPerMerge = maxRunsPerMerge;
+		this.batch = new Entry[Math.min(maxRecordsPerBatch, 1024)];
+		this.spillThread = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ParallelSamSorter-spill-%d").build());
+	}
+	private static class Entry {
+		private final long key1;
+		private final long key2;
+		private final SAMRecord record;
+		private Entry(SortKey sortKey, SAMRecord record) {
+			this.key1 = sortKey.key1(record);
+			this.key2 = sortKey.key2(record);
+			this.record = record;
+		}
+	}
+	/**
+	 * Primitive sort keys. A key ordering (as unsigned longs) must be consistent with the full comparator.
+	 */
+	private enum SortKey {
+		/**
+		 * @see SAMRecordCoordinateComparator: reference index (unmapped last), start position, strand, read name
+		 */
+		Coordinate {
+			@Override
+			long key1(SAMRecord r) {
+				int referenceIndex = r.getReferenceIndex();
+				if (referenceIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+					// alignment start is ignored for unmapped reads
+					return ((long)Integer.MAX_VALUE) << 32;
+				}
+				return (((long)referenceIndex) << 32) | (r.getAlignmentStart() & 0xFFFFFFFFL);
+			}
+			@Override
+			long key2(SAMRecord r) {
+				String name = r.getReadName();
+				return (r.getReadNegativeStrandFlag() ? 1L << 63 : 0) |
+						((long)charAt(name, 0) << 47) |
+						((long)charAt(name, 1) << 31) |
+						((long)charAt(name, 2) << 15);
+			}
+		},
+		/**
+		 * @see SAMRecordQueryNameComparator: read name
+		 */
+		QueryName {
+			@Override
+			long key1(SAMRecord r) {
+				return nameKey(r.getReadName(), 0);
+			}
+			@Override
+			long key2(SAMRecord r) {
+				return nameKey(r.getReadName(), 4);
+			}
+		},
+		/**
+		 * No primitive sort key: all records are compared with the full comparator.
+		 */
+		None {
+			@Override
+			long key1(SAMRecord r) {
+				return 0;
+			}
+			@Override
+			long key2(SAMRecord r) {
+				return 0;
+			}
+		};
+		abstract long key1(SAMRecord r);
+		abstract long key2(SAMRecord r);
+		private static long charAt(String s, int offset) {
+			if (s == null || offset >= s.length()) return 0;
+			return s.charAt(offset);
+		}
+		private static long nameKey(String s, int offset) {
+			return (charAt(s, offset) << 48) |
+					(charAt(s, offset + 1) << 32) |
+					(charAt(s, offset + 2) << 16) |
+					charAt(s, offset + 3);
+		}
+		public static SortKey create(SAMRecordComparator comparator) {
+			if (comparator != null && comparator.getClass() == SAMRecordCoordinateComparator.class) return Coordinate;
+			if (comparator != null && comparator.getClass() == SAMRecordQueryNameComparator.class) return QueryName;
+			return None;
+		}
+	}
+	public void add(SAMRecord record) {
+		if (doneAdding) throw new IllegalStateException("Cannot add records after iteration has started");
+		if (batchSize == batch.length) {
+			if (batchSize >= maxRecordsPerBatch) {
+				spill();
+			} else {
+				batch = Arrays.copyOf(batch, Math.min(maxRecordsPerBatch, batch.length * 2));
+			}
+		}
+		batch[batchSize++] = new Entry(sortKey, record);
+	}
+	private void spill() {
+		waitForSpill();
+		Entry[] toSpill = batch;
+		int toSpillSize = batchSize;
+		batch = new Entry[batch.length];
+		batchSize = 0;
+		File run;
+		try {
+			run = File.createTempFile("gridss.sort.", ".run", tempDir);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		runs.add(run);
+		outstandingSpill = spillThread.submit(() -> {
+			Arrays.parallelSort(toSpill, 0, toSpillSize, entryComparator);
+			writeRun(run, toSpill, toSpillSize);
+			return null;
+		});
+	}
+	private void waitForSpill() {
+		if (outstandingSpill != null) {
+			try {
+				outstandingSpill.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeIOException("Error writing sort run", e.getCause());
+			}
+			outstandingSpill = null;
+		}
+	}
+	private void writeRun(File run, Entry[] entries, int size) throws IOException {
+		writeRun(run, new InMemoryIterator(entries, size));
+	}
+	private void writeRun(File run, Iterator<SAMRecord> records) throws IOException {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (OutputStream os = new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(run), deflater, RUN_BUFFER_SIZE), RUN_BUFFER_SIZE)) {
+			BAMRecordCodec codec = new BAMRecordCodec(header);
+			codec.setOutputStream(os, run.getName());
+			while (records.hasNext()) {
+				codec.encode(records.next());
+			}
+		} finally {
+			deflater.end();
+		}
+	}
+	/**
+	 * Merges consecutive runs until the remaining runs and the in-memory batch can be merged at once.
+	 * Only consecutive runs are merged together so records with equal sort order retain the order in
+	 * which they were added.
+	 */
+	private void cascadeMerge() throws IOException {
+		while (runs.size() + 1 > maxRunsPerMerge) {
+			log.debug(String.format("Merging %d sorted runs into intermediate runs", runs.size()));
+			List<File> current = new ArrayList<>(runs);
+			List<File> merged = new ArrayList<>();
+			for (int i = 0; i < current.size(); i += maxRunsPerMerge) {
+				List<File> group = current.subList(i, Math.min(current.size(), i + maxRunsPerMerge));
+				if (group.size() == 1) {
+					merged.add(group.get(0));
+					continue;
+				}
+				File run = File.createTempFile("gridss.sort.", ".run", tempDir);
+				// track for cleanup
+				runs.add(run);
+				merged.add(run);
+				List<PeekingIterator<SAMRecord>> sources = new ArrayList<>(group.size());
+				try (MergingIterator it = new MergingIterator(sources)) {
+					for (File f : group) {
+						AsyncBufferedIterator<SAMRecord> runIt = readRun(f);
+						openIterators.add(runIt);
+						sources.add(runIt);
+					}
+					it.init();
+					writeRun(run, it);
+				}
+				for (File f : group) {
+					FileHelper.delete(f, true);
+					runs.remove(f);
+				}
+			}
+			runs.clear();
+			runs.addAll(merged);
+		}
+	}
+	private AsyncBufferedIterator<SAMRecord> readRun(File run) throws IOException {
+		Inflater inflater = new Inflater();
+		InputStream is = new BufferedInputStream(new InflaterInputStream(new FileInputStream(run), inflater, RUN_BUFFER_SIZE), RUN_BUFFER_SIZE);
+		BAMRecordCodec codec = new BAMRecordCodec(header);
+		codec.setInputStream(is, run.getName());
+		Iterator<SAMRecord> it = new AbstractIterator<SAMRecord>() {
+			@Override
+			protected SAMRecord computeNext() {
+				SAMRecord r = codec.decode();
+				if (r == null) {
+					CloserUtil.close(is);
+					inflater.end();
+					return endOfData();
+				}
+				return r;
+			}
+		};
+		return new AsyncBufferedIterator<SAMRecord>(it, "ParallelSamSorter-" + run.getName(), MERGE_ASYNC_BUFFERS, MERGE_ASYNC_BUFFER_SIZE) {
+			@Override
+			public void close() {
+				super.close();
+				CloserUtil.close(is);
+				inflater.end();
+			}
+		};
+	}
+	/**
+	 * Returns the records in sorted order. No records can be added once iteration has started.
+	 */
+	public CloseableIterator<SAMRecord> iterator() {
+		doneAdding = true;
+		waitForSpill();
+		Arrays.parallelSort(batch, 0, batchSize, entryComparator);
+		Entry[] inMemory = batch;
+		int inMemorySize = batchSize;
+		batch = new Entry[0];
+		batchSize = 0;
+		if (runs.isEmpty()) {
+			return new InMemoryIterator(inMemory, inMemorySize);
+		}
+		List<PeekingIterator<SAMRecord>> sources = new ArrayList<>(runs.size() + 1);
+		try {
+			cascadeMerge();
+			log.debug(String.format("Merging %d sorted runs", runs.size() + 1));
+			for (File run : runs) {
+				AsyncBufferedIterator<SAMRecord> it = readRun(run);
+				openIterators.add(it);
+				sources.add(it);
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		sources.add(new InMemoryIterator(inMemory, inMemorySize));
+		MergingIterator it = new MergingIterator(sources);
+		it.init();
+		return it;
+	}
+	private static class InMemoryIterator implements CloseableIterator<SAMRecord>, PeekingIterator<SAMRecord> {
+		private final Entry[] entries;
+		private final int size;
+		private int offset = 0;
+		private InMemoryIterator(Entry[] entries, int size) {
+			this.entries = entries;
+			this.size = size;
+		}
+		@Override
+		public boolean hasNext() {
+			return offset < size;
+		}
+		@Override
+		public SAMRecord peek() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return entries[offset].record;
+		}
+		@Override
+		public SAMRecord next() {
+			SAMRecord r = peek();
+			entries[offset++] = null;
+			return r;
+		}
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		@Override
+		public void close() {
+		}
+	}
+	/**
+	 * k-way merge of sorted runs. Ties are broken by run order to retain the order in which records were added.
+	 */
+	private class MergingIterator implements CloseableIterator<SAMRecord> {
+		private final List<PeekingIterator<SAMRecord>> sources;
+		private final PriorityQueue<RunHead> queue;
+		private MergingIterator(List<PeekingIterator<SAMRecord>> sources) {
+			this.sources = sources;
+			this.queue = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+				int cmp = entryComparator.compare(a.entry, b.entry);
+				if (cmp != 0) return cmp;
+				return Integer.compare(a.run, b.run);
+			});
+		}
+		/**
+		 * Reads the first record of each run
+		 */
+		private void init() {
+			for (int i = 0; i < sources.size(); i++) {
+				advance(i);
+			}
+		}
+		private void advance(int run) {
+			PeekingIterator<SAMRecord> it = sources.get(run);
+			if (it.hasNext()) {
+				queue.add(new RunHead(run, new Entry(sortKey, it.next())));
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+		@Override
+		public SAMRecord next() {
+			RunHead head = queue.poll();
+			if (head == null) throw new NoSuchElementException();
+			advance(head.run);
+			return head.entry.record;
+		}
+		@Override
+		public void close() {
+			ParallelSamSorter.this.closeIterators();
+		}
+	}
+	private static class RunHead {
+		private final int run;
+		private final Entry entry;
+		private RunHead(int run, Entry entry) {
+			this.run = run;
+			this.entry = entry;
+		}
+	}
+	private void closeIterators() {
+		for (CloseableIterator<SAMRecord> it : openIterators) {
+			CloserUtil.close(it);
+		}
+		openIterators.clear();
+	}
+	/**
+	 * Deletes all temporary files
+	 */
+	public void cleanup() {
+		closeIterators();
+		if (outstandingSpill != null) {
+			outstandingSpill.cancel(true);
+			outstandingSpill = null;
+		}
+		spillThread.shutdownNow();
+		for (File run : runs) {
+			try {
+				FileHelper.delete(run, true);
+			} catch (IOException e) {
+				log.warn(e, "Unable to delete temporary sort file " + run);
+			}
+		}
+		runs.clear();
+		batch = new Entry[0];
+		batchSize = 0;
+	}
+	@Override
+	public void close() {
+		cleanup();
+	}
+}
@@ -114,7 +114,7 @@ public class SAMFileUtil {
 					break;
 			}
 			log.info("Sorting " + unsorted);
-			SortingCollection<SAMRecord> collection = null;
+			ParallelSamSorter sorter = null;
 			if (tmpFile != output && tmpFile.exists()) {
 				FileHelper.delete(tmpFile, true);
 			}
@@ -127,21 +127,19 @@ public class SAMFileUtil {
 						header = headerCallback.apply(header);
 					}
 					try (CloseableIterator<SAMRecord> rit = reader.iterator()) {
-						collection = SortingCollection.newInstance(
-								SAMRecord.class,
-								new BAMRecordCodec(header),
+						sorter = new ParallelSamSorter(
+								header,
 								sortComparator,
 								fsc.getMaxBufferedRecordsPerFile(),
-								fsc.getTemporaryDirectory().toPath());
+								fsc.getTemporaryDirectory());
 						while (rit.hasNext()) {
-							collection.add(rit.next());
+							sorter.add(rit.next());
 						}
 					}
 				}
-				collection.doneAdding();
 				try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpFile)) {
 					writer.setProgressLogger(new ProgressLogger(log, 10000000));
-					try (CloseableIterator<SAMRecord> wit = collection.iterator()) {
+					try (CloseableIterator<SAMRecord> wit = sorter.iterator()) {
 						@SuppressWarnings("resource") // bad eclipse warning 
 						Iterator<SAMRecord> it = wit;
 				    	if (Defaults.SANITY_CHECK_ITERATORS) {
@@ -152,13 +150,13 @@ public class SAMFileUtil {
 						}
 					}
 				}
-				collection.cleanup();
-				collection = null;
+				sorter.cleanup();
+				sorter = null;
 				if (tmpFile != output) {
 					FileHelper.move(tmpFile, output, true);
 				}
 			} finally {
-				if (collection != null) collection.cleanup();
+				if (sorter != null) sorter.cleanup();
 				if (tmpFile != output & tmpFile.exists()) {
 					FileHelper.delete(tmpFile, true);
 				}
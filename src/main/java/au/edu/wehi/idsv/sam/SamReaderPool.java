@@ -0,0 +1,402 @@
+package au.edu.wehi.idsv.sam;
+
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BrowseableBAMIndex;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSpan;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamFiles;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Pool of reusable BAM readers keyed by file.
+ *
+ * Readers are leased by {@link #open(File)} and returned to the pool when the lease is closed.
+ * Reusing a reader saves reopening the file and rereading its header. Index files are read
+ * without memory mapping and all readers of the same index file share a single parsed index
+ * in which the bins of each reference sequence are parsed once and retained until the memory
+ * is needed elsewhere. Iterators opened through a lease are closed when the lease is closed
+ * so a returned reader never has iteration in progress.
+ *
+ * Idle readers are closed once they have been idle for longer than the idle timeout,
+ * once more than the maximum number of idle readers are pooled, or when the underlying
+ * file or its index changes. Files deleted or replaced through {@link au.edu.wehi.idsv.util.FileHelper}
+ * have their idle readers closed immediately by {@link #evictFromAllPools(File)} so deleted files
+ * are not held open.
+ *
+ * Only BAM files are pooled. Readers of other file types are closed when the lease is closed.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class SamReaderPool implements Closeable {
+	private static final Log log = Log.getInstance(SamReaderPool.class);
+	private static final Set<SamReaderPool> pools = Collections.newSetFromMap(new WeakHashMap<>());
+	private final SamReaderFactory factory;
+	private final int maxIdleReaders;
+	private final long maxIdleNanos;
+	private final Map<File, ArrayDeque<PooledReader>> idle = new HashMap<>();
+	private int idleCount = 0;
+	private boolean closed = false;
+	private static class PooledReader {
+		private final SamReader reader;
+		private final File file;
+		private final FileSignature signature;
+		private long lastUsed;
+		private Thread lastThread;
+		private PooledReader(SamReader reader, File file, FileSignature signature) {
+			this.reader = reader;
+			this.file = file;
+			this.signature = signature;
+		}
+	}
+	/**
+	 * Identity of the file content and its index
+	 */
+	private static class FileSignature {
+		private final Object fileKey;
+		private final long size;
+		private final FileTime lastModified;
+		private final FileSignature index;
+		private FileSignature(File file, boolean includeIndex) throws IOException {
+			BasicFileAttributes attr = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			this.fileKey = attr.fileKey();
+			this.size = attr.size();
+			this.lastModified = attr.lastModifiedTime();
+			File indexFile = includeIndex ? SamFiles.findIndex(file) : null;
+			this.index = indexFile != null && indexFile.exists() ? new FileSignature(indexFile, false) : null;
+		}
+		private static FileSignature of(File file) {
+			try {
+				return new FileSignature(file, true);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FileSignature)) return false;
+			FileSignature other = (FileSignature)obj;
+			return Objects.equals(fileKey, other.fileKey)
+					&& size == other.size
+					&& Objects.equals(lastModified, other.lastModified)
+					&& Objects.equals(index, other.index);
+		}
+		@Override
+		public int hashCode() {
+			return Objects.hash(fileKey, size, lastModified, index);
+		}
+	}
+	/**
+	 * @param factory reader factory
+	 * @param maxIdleReaders maximum number of idle readers to retain across all files
+	 * @param maxIdleMillis idle readers unused for longer than this are closed
+	 */
+	public SamReaderPool(SamReaderFactory factory, int maxIdleReaders, long maxIdleMillis) {
+		this.factory = factory
+				.enable(SamReaderFactory.Option.CACHE_FILE_BASED_INDEXES)
+				.enable(SamReaderFactory.Option.DONT_MEMORY_MAP_INDEX);
+		this.maxIdleReaders = maxIdleReaders;
+		this.maxIdleNanos = maxIdleMillis * 1000000L;
+		synchronized (pools) {
+			pools.add(this);
+		}
+	}
+	/**
+	 * Leases a reader for the given file. The reader is returned to the pool when closed.
+	 */
+	public SamReader open(File file) {
+		File key = file.getAbsoluteFile();
+		FileSignature signature = FileSignature.of(key);
+		if (signature == null) {
+			evict(key);
+		}
+		PooledReader pr = signature == null ? null : take(key, signature);
+		if (pr == null) {
+			pr = new PooledReader(factory.open(file), key, signature);
+		}
+		return new Lease(pr);
+	}
+	private synchronized PooledReader take(File file, FileSignature signature) {
+		evictExpired(System.nanoTime());
+		ArrayDeque<PooledReader> readers = idle.get(file);
+		if (readers == null) return null;
+		PooledReader result = null;
+		for (Iterator<PooledReader> it = readers.iterator(); it.hasNext(); ) {
+			PooledReader pr = it.next();
+			if (!signature.equals(pr.signature)) {
+				// file has been rewritten since this reader was opened
+				it.remove();
+				idleCount--;
+				CloserUtil.close(pr.reader);
+			} else if (pr.lastThread == Thread.currentThread() || result == null) {
+				result = pr;
+			}
+		}
+		if (result != null) {
+			readers.remove(result);
+			idleCount--;
+		}
+		if (readers.isEmpty()) {
+			idle.remove(file);
+		}
+		return result;
+	}
+	private synchronized void release(PooledReader pr) {
+		if (closed || maxIdleReaders <= 0 || pr.signature == null || pr.reader.type() != SamReader.Type.BAM_TYPE) {
+			CloserUtil.close(pr.reader);
+			return;
+		}
+		pr.lastUsed = System.nanoTime();
+		pr.lastThread = Thread.currentThread();
+		idle.computeIfAbsent(pr.file, f -> new ArrayDeque<>()).addFirst(pr);
+		idleCount++;
+		evictExpired(pr.lastUsed);
+		while (idleCount > maxIdleReaders) {
+			evictLeastRecentlyUsed();
+		}
+	}
+	private void evictExpired(long now) {
+		if (idleCount == 0) return;
+		for (Iterator<ArrayDeque<PooledReader>> it = idle.values().iterator(); it.hasNext(); ) {
+			ArrayDeque<PooledReader> readers = it.next();
+			while (!readers.isEmpty() && now - readers.peekLast().lastUsed > maxIdleNanos) {
+				CloserUtil.close(readers.pollLast().reader);
+				idleCount--;
+			}
+			if (readers.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+	private void evictLeastRecentlyUsed() {
+		ArrayDeque<PooledReader> lru = null;
+		for (ArrayDeque<PooledReader> readers : idle.values()) {
+			if (lru == null || readers.peekLast().lastUsed < lru.peekLast().lastUsed) {
+				lru = readers;
+			}
+		}
+		PooledReader pr = lru.pollLast();
+		idleCount--;
+		if (lru.isEmpty()) {
+			idle.remove(pr.file);
+		}
+		CloserUtil.close(pr.reader);
+	}
+	/**
+	 * Closes all idle readers of the given file.
+	 * Readers currently leased are closed when their lease is closed.
+	 */
+	public synchronized void evict(File file) {
+		ArrayDeque<PooledReader> readers = idle.remove(file.getAbsoluteFile());
+		if (readers == null) return;
+		for (PooledReader pr : readers) {
+			CloserUtil.close(pr.reader);
+		}
+		idleCount -= readers.size();
+	}
+	/**
+	 * Closes the idle readers of the given file in every open pool.
+	 * Called before a file is deleted or replaced.
+	 */
+	public static void evictFromAllPools(File file) {
+		List<SamReaderPool> snapshot;
+		synchronized (pools) {
+			snapshot = new ArrayList<>(pools);
+		}
+		for (SamReaderPool pool : snapshot) {
+			pool.evict(file);
+		}
+	}
+	/**
+	 * Closes all idle readers
+	 */
+	public synchronized void evictAll() {
+		for (ArrayDeque<PooledReader> readers : idle.values()) {
+			for (PooledReader pr : readers) {
+				CloserUtil.close(pr.reader);
+			}
+		}
+		idle.clear();
+		idleCount = 0;
+	}
+	public synchronized int getIdleCount() {
+		return idleCount;
+	}
+	/**
+	 * Closes all idle readers. Readers currently leased are closed when their lease is closed.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		evictAll();
+		synchronized (pools) {
+			pools.remove(this);
+		}
+	}
+	/**
+	 * Reader lease. Tracks the iterators opened by the lease holder.
+	 */
+	private class Lease implements SamReader {
+		private final List<LeaseIterator> open = new ArrayList<>();
+		private PooledReader pr;
+		private Lease(PooledReader pr) {
+			this.pr = pr;
+		}
+		private SamReader reader() {
+			if (pr == null) throw new IllegalStateException("Reader has been closed");
+			return pr.reader;
+		}
+		private SAMRecordIterator track(SAMRecordIterator it) {
+			LeaseIterator lit = new LeaseIterator(it);
+			open.add(lit);
+			return lit;
+		}
+		@Override
+		public void close() {
+			if (pr == null) return;
+			for (LeaseIterator it : new ArrayList<>(open)) {
+				try {
+					it.close();
+				} catch (Exception e) {
+					log.debug(e, "Error closing iterator of pooled reader");
+				}
+			}
+			open.clear();
+			release(pr);
+			pr = null;
+		}
+		private class LeaseIterator implements SAMRecordIterator {
+			private final SAMRecordIterator it;
+			private boolean closed = false;
+			private LeaseIterator(SAMRecordIterator it) {
+				this.it = it;
+			}
+			@Override
+			public SAMRecordIterator assertSorted(SAMFileHeader.SortOrder sortOrder) {
+				it.assertSorted(sortOrder);
+				return this;
+			}
+			@Override
+			public void close() {
+				if (!closed) {
+					closed = true;
+					open.remove(this);
+					it.close();
+				}
+			}
+			@Override
+			public boolean hasNext() {
+				return !closed && it.hasNext();
+			}
+			@Override
+			public SAMRecord next() {
+				return it.next();
+			}
+		}
+		@Override
+		public SAMFileHeader getFileHeader() {
+			return reader().getFileHeader();
+		}
+		@Override
+		public Type type() {
+			return reader().type();
+		}
+		@Override
+		public String getResourceDescription() {
+			return reader().getResourceDescription();
+		}
+		@Override
+		public boolean hasIndex() {
+			return reader().hasIndex();
+		}
+		@Override
+		public Indexing indexing() {
+			Indexing indexing = reader().indexing();
+			return new Indexing() {
+				@Override
+				public BAMIndex getIndex() {
+					return indexing.getIndex();
+				}
+				@Override
+				public boolean hasBrowseableIndex() {
+					return indexing.hasBrowseableIndex();
+				}
+				@Override
+				public BrowseableBAMIndex getBrowseableIndex() {
+					return indexing.getBrowseableIndex();
+				}
+				@Override
+				public SAMRecordIterator iterator(SAMFileSpan chunks) {
+					return track(indexing.iterator(chunks));
+				}
+				@Override
+				public SAMFileSpan getFilePointerSpanningReads() {
+					return indexing.getFilePointerSpanningReads();
+				}
+			};
+		}
+		@Override
+		public SAMRecordIterator iterator() {
+			return track(reader().iterator());
+		}
+		@Override
+		public SAMRecordIterator query(String sequence, int start, int end, boolean contained) {
+			return track(reader().query(sequence, start, end, contained));
+		}
+		@Override
+		public SAMRecordIterator queryOverlapping(String sequence, int start, int end) {
+			return track(reader().queryOverlapping(sequence, start, end));
+		}
+		@Override
+		public SAMRecordIterator queryContained(String sequence, int start, int end) {
+			return track(reader().queryContained(sequence, start, end));
+		}
+		@Override
+		public SAMRecordIterator query(QueryInterval[] intervals, boolean contained) {
+			return track(reader().query(intervals, contained));
+		}
+		@Override
+		public SAMRecordIterator queryOverlapping(QueryInterval[] intervals) {
+			return track(reader().queryOverlapping(intervals));
+		}
+		@Override
+		public SAMRecordIterator queryContained(QueryInterval[] intervals) {
+			return track(reader().queryContained(intervals));
+		}
+		@Override
+		public SAMRecordIterator queryUnmapped() {
+			return track(reader().queryUnmapped());
+		}
+		@Override
+		public SAMRecordIterator queryAlignmentStart(String sequence, int start) {
+			return track(reader().queryAlignmentStart(sequence, start));
+		}
+		@Override
+		public SAMRecord queryMate(SAMRecord rec) {
+			return reader().queryMate(rec);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package au.edu.wehi.idsv.sam;
+
+import htsjdk.samtools.SAMRecord;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Batch of SAM records grouped by read name.
+ *
+ * Records are stored contiguously with the records of template i in the
+ * range [getTemplateStart(i), getTemplateEnd(i)).
+ * The backing arrays are reused once the batch is released back to its pool.
+ */
+public class TemplateBatch {
+	private final TemplateBatchingIterator owner;
+	private SAMRecord[] records;
+	private int[] offsets;
+	private int recordCount = 0;
+	private int templateCount = 0;
+
+	TemplateBatch(TemplateBatchingIterator owner, int initialTemplateCapacity) {
+		this.owner = owner;
+		this.records = new SAMRecord[2 * initialTemplateCapacity];
+		this.offsets = new int[initialTemplateCapacity + 1];
+	}
+
+	void startTemplate() {
+		if (templateCount + 1 >= offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+		}
+		offsets[templateCount] = recordCount;
+		templateCount++;
+		offsets[templateCount] = recordCount;
+	}
+
+	void add(SAMRecord r) {
+		if (recordCount >= records.length) {
+			records = Arrays.copyOf(records, records.length * 2);
+		}
+		records[recordCount++] = r;
+		offsets[templateCount] = recordCount;
+	}
+
+	void clear() {
+		Arrays.fill(records, 0, recordCount, null);
+		recordCount = 0;
+		templateCount = 0;
+	}
+
+	public int getTemplateCount() {
+		return templateCount;
+	}
+
+	public int getRecordCount() {
+		return recordCount;
+	}
+
+	public int getTemplateStart(int template) {
+		return offsets[template];
+	}
+
+	public int getTemplateEnd(int template) {
+		return offsets[template + 1];
+	}
+
+	public SAMRecord getRecord(int index) {
+		return records[index];
+	}
+
+	/**
+	 * Gets the records of the given template.
+	 * The returned list is a view of the underlying batch and is only valid until the batch is released.
+	 */
+	public List<SAMRecord> getTemplate(int template) {
+		return Arrays.asList(records).subList(offsets[template], offsets[template + 1]);
+	}
+
+	/**
+	 * Returns this batch to the pool for reuse.
+	 * No references to the batch, or any template views, should be retained after the batch is released.
+	 */
+	public void release() {
+		clear();
+		owner.release(this);
+	}
+}
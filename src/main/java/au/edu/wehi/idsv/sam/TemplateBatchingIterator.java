@@ -0,0 +1,59 @@
+package au.edu.wehi.idsv.sam;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import htsjdk.samtools.SAMRecord;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Groups records with the same read name into batches of templates.
+ *
+ * Input records must be grouped by read name. Records without a read name are
+ * treated as single record templates.
+ *
+ * Batches are pooled and reused once released by the consumer.
+ * Batches can be released from any thread.
+ */
+public class TemplateBatchingIterator implements Iterator<TemplateBatch> {
+	private final PeekingIterator<SAMRecord> it;
+	private final int templatesPerBatch;
+	private final Queue<TemplateBatch> pool = new ConcurrentLinkedQueue<>();
+
+	public TemplateBatchingIterator(Iterator<SAMRecord> it, int templatesPerBatch) {
+		if (templatesPerBatch < 1) throw new IllegalArgumentException("templatesPerBatch must be positive");
+		this.it = Iterators.peekingIterator(it);
+		this.templatesPerBatch = templatesPerBatch;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return it.hasNext();
+	}
+
+	@Override
+	public TemplateBatch next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		TemplateBatch batch = pool.poll();
+		if (batch == null) {
+			batch = new TemplateBatch(this, templatesPerBatch);
+		}
+		while (batch.getTemplateCount() < templatesPerBatch && it.hasNext()) {
+			SAMRecord r = it.next();
+			String readName = r.getReadName();
+			batch.startTemplate();
+			batch.add(r);
+			while (readName != null && it.hasNext() && readName.equals(it.peek().getReadName())) {
+				batch.add(it.next());
+			}
+		}
+		return batch;
+	}
+
+	void release(TemplateBatch batch) {
+		pool.add(batch);
+	}
+}
@@ -1,14 +1,22 @@
 package au.edu.wehi.idsv.util;
 
-import gnu.trove.map.TIntDoubleMap;
-import gnu.trove.map.hash.TIntDoubleHashMap;
 import org.apache.commons.math3.distribution.EnumeratedIntegerDistribution;
 import org.apache.commons.math3.exception.*;
 import org.apache.commons.math3.random.RandomGenerator;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
- * Caches results so the underlying distribution is not converted
- * to/from an array for every function call
+ * Precomputes the probability mass and cumulative probability of each
+ * singleton so the underlying distribution is not converted
+ * to/from an array for every function call.
+ * 
+ * Lookups are lock-free binary searches over immutable arrays
+ * so can be safely shared between threads.
  * @author Daniel Cameron
  *
  */
@@ -21,25 +29,76 @@ public class CachedEnumeratedIntegerDistribution extends EnumeratedIntegerDistri
     throws DimensionMismatchException, NotPositiveException, MathArithmeticException,
            NotFiniteNumberException, NotANumberException{
         super(singletons, probabilities);
+        initLookup();
     }
     public CachedEnumeratedIntegerDistribution(final RandomGenerator rng, final int[] singletons, final double[] probabilities)
         throws DimensionMismatchException, NotPositiveException, MathArithmeticException,
                 NotFiniteNumberException, NotANumberException {
     	super(rng, singletons, probabilities);
+    	initLookup();
     }
-    private TIntDoubleMap cacheProbability = new TIntDoubleHashMap();
-    public synchronized double probability(final int x) {
-    	if (!cacheProbability.containsKey(x) && x >= getSupportLowerBound() && x <= getSupportUpperBound()) {
-    		cacheProbability.put(x, super.probability(x));
+    /**
+     * Distinct singletons in ascending order
+     */
+    private int[] lookupSingletons;
+    /**
+     * Probability mass of each distinct singleton
+     */
+    private double[] lookupProbability;
+    /**
+     * Cumulative probability up to and including each distinct singleton
+     */
+    private double[] lookupCumulativeProbability;
+    private void initLookup() {
+    	List<Pair<Integer, Double>> pmf = innerDistribution.getPmf();
+    	int[] order = IntStream.range(0, pmf.size())
+    			.boxed()
+    			.sorted(Comparator.comparing(i -> pmf.get(i).getKey()))
+    			.mapToInt(i -> i)
+    			.toArray();
+    	int[] singletons = new int[pmf.size()];
+    	double[] probability = new double[pmf.size()];
+    	int n = 0;
+    	for (int i : order) {
+    		int x = pmf.get(i).getKey();
+    		double pr = pmf.get(i).getValue();
+    		if (n > 0 && singletons[n - 1] == x) {
+    			probability[n - 1] += pr;
+    		} else {
+    			singletons[n] = x;
+    			probability[n] = pr;
+    			n++;
+    		}
     	}
-		return cacheProbability.get(x);
+    	double[] cumulative = new double[n];
+    	double sum = 0;
+    	for (int i = 0; i < n; i++) {
+    		sum += probability[i];
+    		cumulative[i] = sum;
+    	}
+    	this.lookupSingletons = Arrays.copyOf(singletons, n);
+    	this.lookupProbability = Arrays.copyOf(probability, n);
+    	this.lookupCumulativeProbability = cumulative;
+    }
+    @Override
+    public double probability(final int x) {
+    	int offset = Arrays.binarySearch(lookupSingletons, x);
+    	if (offset < 0) return 0;
+    	return lookupProbability[offset];
     }
-    private TIntDoubleMap cacheCumulativeProbability = new TIntDoubleHashMap();
-    public synchronized double cumulativeProbability(final int x) {
-    	if (!cacheCumulativeProbability.containsKey(x) && x >= getSupportLowerBound() && x <= getSupportUpperBound()) {
-    		cacheCumulativeProbability.put(x, super.cumulativeProbability(x));
+    /**
+     * Cumulative probability of the given value.
+     * Note: values outside the support of the distribution have a cumulative probability of 0.
+     */
+    @Override
+    public double cumulativeProbability(final int x) {
+    	if (x < getSupportLowerBound() || x > getSupportUpperBound()) return 0;
+    	int offset = Arrays.binarySearch(lookupSingletons, x);
+    	if (offset < 0) {
+    		// insertion point is the first singleton greater than x
+    		offset = -offset - 2;
     	}
-		return cacheCumulativeProbability.get(x);
+    	return lookupCumulativeProbability[offset];
     }
     private Double cacheNumericalMean;
     public double getNumericalMean() {
@@ -1,5 +1,6 @@
 package au.edu.wehi.idsv.util;
 
+import au.edu.wehi.idsv.sam.SamReaderPool;
 import com.google.common.io.Files;
 
 import java.io.*;
@@ -32,12 +33,14 @@ public abstract class FileHelper {
 		if (to.exists()) {
 			FileHelper.delete(to, moveIndexes);
 		}
+		SamReaderPool.evictFromAllPools(from);
 		if (!from.renameTo(to)) {
 			throw new IOException("Could not rename " + from + " to " + to);
 		}
 		moveIndex(from, to, GENOMIC_INDEX_FILES);
 	}
 	public static void delete(File file, boolean deleteIndexes) throws IOException {
+		SamReaderPool.evictFromAllPools(file);
 		file.delete();
 		for (File f : getIndexFilesFor(file)) {
 			f.delete();
@@ -1,14 +1,13 @@
 package au.edu.wehi.idsv.vcf;
 
 import au.edu.wehi.idsv.alignment.StreamingAligner;
-import au.edu.wehi.idsv.alignment.StreamingAlignerIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
@@ -18,43 +17,101 @@ import joptsimple.internal.Strings;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Annotates VCF records with the alignments of their inserted sequences.
+ *
+ * The VCF is traversed once. Inserted sequences are sent to the aligner in batches
+ * while records are held in an ordered completion buffer until their alignments
+ * have been returned. Since aligners return alignments in submission order, a record
+ * is complete once an alignment for a later record has been returned.
+ * Records without inserted sequences long enough to align are not sent to the aligner.
+ *
+ * Memory usage is bounded by the maximum number of buffered records, independently of the
+ * aligner batch size. When the buffer is full, the aligner is flushed asynchronously and
+ * records are returned as soon as the record at the head of the buffer is complete.
+ */
 public class InsertedSequenceAnnotator implements CloseableIterator<VariantContext> {
 	public static final byte DEFAULT_QUAL_SCORE = 20;
+	public static final int DEFAULT_BATCH_SIZE = 4096;
+	public static final int DEFAULT_CONCURRENT_BATCHES = 4;
+	public static final int DEFAULT_MAX_BUFFERED_RECORDS = 65536;
+	private static final int POLL_INTERVAL = 10;
 	private static final Log log = Log.getInstance(InsertedSequenceAnnotator.class);
 	private static final Pattern breakendRegex = Pattern.compile("^(.(?<leftins>.*))?[\\[\\]].*[\\[\\]]((?<rightins>.*).)?$");
-	private final File vcf;
 	private final int minRealignmentLength;
 	private final boolean stripExistingBEALN;
 	private final boolean skipExistingBEALN;
-	private CloseableIterator<VariantContext> vcfStream;
-	private PeekingIterator<SAMRecord> alignerStream;
-	private Thread feedingAligner;
-	private VariantContext nextRecord = null;
+	private final StreamingAligner aligner;
+	private final int batchSize;
+	private final int maxOutstandingRecords;
+	private final int maxBufferedRecords;
+	private final CloseableIterator<VariantContext> vcfStream;
+	/**
+	 * Sends batches to the aligner so the aligner input is never blocked on the aligner output being consumed
+	 */
+	private final ExecutorService submitter = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("feedAligner").build());
+	private final ArrayDeque<Future<?>> submissions = new ArrayDeque<>();
+	private Future<?> lastSubmission = null;
+	/**
+	 * Flush requested because the buffer was full
+	 */
+	private Future<?> pendingFlush = null;
+	/**
+	 * Records read from the VCF but not yet returned, in VCF order
+	 */
+	private final ArrayDeque<PendingRecord> buffer = new ArrayDeque<>();
+	/**
+	 * Records sent to the aligner that could still receive alignments, in submission order
+	 */
+	private final ArrayDeque<PendingRecord> outstanding = new ArrayDeque<>();
+	private List<FastqRecord> batch = new ArrayList<>();
+	private long recordCount = 0;
+	private boolean alignerClosed = false;
+	private static class PendingRecord {
+		private final long index;
+		private final VariantContext vc;
+		private final boolean annotate;
+		private final List<SAMRecord> alignments = new ArrayList<>();
+		private boolean complete;
+		public PendingRecord(long index, VariantContext vc, boolean annotate, boolean complete) {
+			this.index = index;
+			this.vc = vc;
+			this.annotate = annotate;
+			this.complete = complete;
+		}
+	}
 	public InsertedSequenceAnnotator(File vcf, StreamingAligner aligner, int minRealignmentLength, boolean stripExistingBEALN, boolean skipExistingBEALN) {
-		this.vcf = vcf;
+		this(vcf, aligner, minRealignmentLength, stripExistingBEALN, skipExistingBEALN, DEFAULT_BATCH_SIZE, DEFAULT_CONCURRENT_BATCHES, DEFAULT_MAX_BUFFERED_RECORDS);
+	}
+	/**
+	 * @param batchSize number of sequences sent to the aligner in each batch
+	 * @param concurrentBatches maximum number of batches awaiting alignment
+	 * @param maxBufferedRecords maximum number of VCF records held in memory
+	 */
+	public InsertedSequenceAnnotator(File vcf, StreamingAligner aligner, int minRealignmentLength, boolean stripExistingBEALN, boolean skipExistingBEALN, int batchSize, int concurrentBatches, int maxBufferedRecords) {
+		this.aligner = aligner;
 		this.minRealignmentLength = minRealignmentLength;
 		this.stripExistingBEALN = stripExistingBEALN;
 		this.skipExistingBEALN = skipExistingBEALN;
-		this.vcfStream = getVcf();
-		StreamingAlignerIterator sai = new StreamingAlignerIterator(aligner);
-		this.alignerStream = Iterators.peekingIterator(sai);
-		this.feedingAligner = new Thread(() -> feedStreamingAligner(sai, aligner));
-		this.feedingAligner.setName("feedAligner");
-		this.feedingAligner.start();
-	}
-
-	private CloseableIterator<VariantContext> getVcf() {
+		this.batchSize = Math.max(1, batchSize);
+		this.maxOutstandingRecords = this.batchSize * Math.max(1, concurrentBatches);
+		this.maxBufferedRecords = Math.max(1, maxBufferedRecords);
 		VCFFileReader vcfReader = new VCFFileReader(vcf, false);
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
-		return new AutoClosingIterator<VariantContext>(it, vcfReader);
+		this.vcfStream = new AutoClosingIterator<VariantContext>(vcfReader.iterator(), vcfReader);
 	}
+
 	private static String getBreakendSequence(VariantContext seq) {
 		if (seq.getAlternateAlleles().size() != 1) return null;
 		Allele allele = seq.getAlternateAllele(0);
@@ -85,85 +142,197 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 	private boolean shouldSkipRecord(VariantContext vc) {
 		return skipExistingBEALN && vc.hasAttribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute());
 	}
-	private void feedStreamingAligner(StreamingAlignerIterator wrapper, StreamingAligner aligner) {
-		try {
-			try (CloseableIterator<VariantContext> it = getVcf()) {
-				while (it.hasNext()) {
-					VariantContext vc = stripIfNeeded(it.next());
-					if (shouldSkipRecord(vc)) {
-						// skip this record
-					} else {
-						String seqstr = getBreakendSequence(vc);
-						if (!Strings.isNullOrEmpty(seqstr) && seqstr.length() >= minRealignmentLength) {
-							byte[] seq = seqstr.getBytes(StandardCharsets.UTF_8);
-							byte[] qual = new byte[seq.length];
-							Arrays.fill(qual, DEFAULT_QUAL_SCORE);
-							FastqRecord fq = new FastqRecord(vc.getID(), seq, null, qual);
-							aligner.asyncAlign(fq);
-						}
-					}
+	private void readRecord() {
+		VariantContext vc = stripIfNeeded(vcfStream.next());
+		long index = recordCount++;
+		if (shouldSkipRecord(vc)) {
+			buffer.add(new PendingRecord(index, vc, false, true));
+			return;
+		}
+		String seqstr = getBreakendSequence(vc);
+		if (Strings.isNullOrEmpty(seqstr) || seqstr.length() < minRealignmentLength) {
+			buffer.add(new PendingRecord(index, vc, true, true));
+			return;
+		}
+		PendingRecord pr = new PendingRecord(index, vc, true, false);
+		buffer.add(pr);
+		outstanding.add(pr);
+		byte[] seq = seqstr.getBytes(StandardCharsets.UTF_8);
+		byte[] qual = new byte[seq.length];
+		Arrays.fill(qual, DEFAULT_QUAL_SCORE);
+		// VCF identifiers are not guaranteed to be unique so the record index is used as the read name
+		batch.add(new FastqRecord(Long.toString(index), seq, null, qual));
+		if (batch.size() >= batchSize) {
+			submitBatch();
+		}
+	}
+	private void submitBatch() {
+		if (batch.isEmpty()) return;
+		List<FastqRecord> toAlign = batch;
+		batch = new ArrayList<>();
+		submit(submitter.submit(() -> {
+			for (FastqRecord fq : toAlign) {
+				aligner.asyncAlign(fq);
+			}
+			return null;
+		}));
+	}
+	private void submit(Future<?> submission) {
+		submissions.add(submission);
+		lastSubmission = submission;
+	}
+	/**
+	 * Ensures every record read so far will be aligned without requiring further aligner input.
+	 * Does not wait for the alignments to be returned.
+	 */
+	private void requestFlush() {
+		submitBatch();
+		if (lastSubmission != null && lastSubmission != pendingFlush) {
+			pendingFlush = submitter.submit(() -> {
+				aligner.flush();
+				return null;
+			});
+			submit(pendingFlush);
+		}
+	}
+	/**
+	 * Once a flush has completed with no further submissions, every outstanding
+	 * record has had all its alignments returned.
+	 */
+	private void completeIfFlushed() {
+		if (batch.isEmpty() && pendingFlush != null && lastSubmission == pendingFlush && pendingFlush.isDone() && aligner.processedAlignmentRecords() == 0) {
+			for (PendingRecord pr : outstanding) {
+				pr.complete = true;
+			}
+			outstanding.clear();
+		}
+	}
+	/**
+	 * Assigns alignments returned by the aligner to their records.
+	 * @return true if any alignments were returned
+	 */
+	private boolean drainAligner() {
+		boolean drained = false;
+		while (aligner.processedAlignmentRecords() > 0) {
+			SAMRecord r = aligner.getAlignment();
+			long index = Long.parseLong(r.getReadName());
+			// alignments are returned in submission order so all earlier records are complete
+			while (!outstanding.isEmpty() && outstanding.peekFirst().index < index) {
+				outstanding.pollFirst().complete = true;
+			}
+			PendingRecord pr = outstanding.peekFirst();
+			if (pr == null || pr.index != index) {
+				throw new IllegalStateException(String.format("Aligner returned unexpected alignment for read %s", r.getReadName()));
+			}
+			if (!r.getReadUnmappedFlag()) {
+				pr.alignments.add(r);
+			}
+			drained = true;
+		}
+		return drained;
+	}
+	/**
+	 * Propagates any errors encountered sending records to the aligner
+	 */
+	private void checkSubmissions() {
+		while (!submissions.isEmpty() && submissions.peekFirst().isDone()) {
+			try {
+				submissions.pollFirst().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw new RuntimeIOException(e.getCause());
 				}
-			} catch (IOException e) {
-				log.warn(e);
-			} finally {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+	/**
+	 * Waits for all outstanding alignments to be returned by the aligner.
+	 * The aligner output is consumed whilst waiting as aligners can block when their output is not consumed.
+	 */
+	private void flushAligner(boolean close) {
+		submitBatch();
+		submit(submitter.submit(() -> {
+			if (close) {
+				aligner.close();
+			} else {
+				aligner.flush();
+			}
+			return null;
+		}));
+		while (!submissions.isEmpty()) {
+			checkSubmissions();
+			if (!drainAligner() && !submissions.isEmpty()) {
 				try {
-					wrapper.flush();
-					wrapper.close();
-					aligner.close();
-				} catch (IOException e) {
-					log.warn(e);
+					Thread.sleep(POLL_INTERVAL);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		drainAligner();
+		for (PendingRecord pr : outstanding) {
+			pr.complete = true;
+		}
+		outstanding.clear();
+	}
+	private PendingRecord ensureHead() {
+		while (true) {
+			boolean drained = drainAligner();
+			checkSubmissions();
+			completeIfFlushed();
+			PendingRecord head = buffer.peekFirst();
+			if (head != null && head.complete) {
+				return head;
+			}
+			if (vcfStream.hasNext()) {
+				if (outstanding.size() < maxOutstandingRecords && buffer.size() < maxBufferedRecords) {
+					readRecord();
+					continue;
+				}
+				// Buffer full: only wait until the head record is complete, not for every outstanding alignment
+				requestFlush();
+				if (!drained) {
+					try {
+						Thread.sleep(POLL_INTERVAL);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new RuntimeException(e);
+					}
+				}
+			} else {
+				if (!alignerClosed) {
+					alignerClosed = true;
+					log.debug("Closing aligner.");
+					flushAligner(true);
+				}
+				if (head == null) {
+					return null;
 				}
 			}
-			log.debug("Completed async external alignment feeder thread.");
-		} catch (OutOfMemoryError oom) {
-			log.error(oom);
-			System.exit(1);
 		}
 	}
-
 	@Override
 	public boolean hasNext() {
-		ensureNext();
-		return nextRecord != null;
+		return ensureHead() != null;
 	}
 	@Override
 	public VariantContext next() {
-		ensureNext();
-		if (!hasNext()) throw new NoSuchElementException();
-		VariantContext result = nextRecord;
-		nextRecord = null;
-		return result;
-	}
-	private void ensureNext() {
-		if (nextRecord != null) {
-			return;
-		}
-		if (!vcfStream.hasNext()) {
-			nextRecord = null;
-			if (alignerStream.hasNext()) {
-				log.debug("Traversing aligner stream to enable graceful termination.");
-				while(alignerStream.hasNext()) {
-					// consume the aligner output so everything closes gracefully
-				}
-			}
-			return;
-		}
-		nextRecord = stripIfNeeded(vcfStream.next());
-		if (!shouldSkipRecord(nextRecord)) {
-			annotateNextRecord();
+		PendingRecord pr = ensureHead();
+		if (pr == null) throw new NoSuchElementException();
+		buffer.pollFirst();
+		if (!pr.annotate) {
+			return pr.vc;
 		}
+		return annotate(pr.vc, pr.alignments);
 	}
-	private void annotateNextRecord() {
-		String readName = nextRecord.getID();
-		List<SAMRecord> alignments = new ArrayList<>();
-		while (alignerStream.hasNext() && alignerStream.peek().getReadName().equals(readName)) {
-			SAMRecord r = alignerStream.next();
-			if (!r.getReadUnmappedFlag()) {
-				alignments.add(r);
-			}
-		}
-		VariantContextBuilder builder = new VariantContextBuilder(nextRecord);
-		List<String> existingAlignments = nextRecord.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null);
+	private static VariantContext annotate(VariantContext vc, List<SAMRecord> alignments) {
+		VariantContextBuilder builder = new VariantContextBuilder(vc);
+		List<String> existingAlignments = vc.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null);
 		List<String> newAlignments = writeAlignmentAnnotation(alignments);
 		List<String> mergedAlignments = new ArrayList<>();
 		if (existingAlignments != null && existingAlignments.size() > 0) {
@@ -175,7 +344,7 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 		} else {
 			builder.attribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), mergedAlignments);
 		}
-		nextRecord = builder.make();
+		return builder.make();
 	}
 	public static List<String> writeAlignmentAnnotation(List<SAMRecord> alignments) {
 		List<String> aln = new ArrayList<>(alignments.size());
@@ -213,9 +382,16 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 	}
 	@Override
 	public void close() {
-		log.debug("Closing UntemplatedSequenceAnnotator");
-		// TODO: close feeding thread more cleanly than just shutting down the process
+		log.debug("Closing InsertedSequenceAnnotator");
+		submitter.shutdownNow();
 		vcfStream.close();
-		//alignerStream.close();
+		if (!alignerClosed) {
+			alignerClosed = true;
+			try {
+				aligner.close();
+			} catch (IOException e) {
+				log.warn(e);
+			}
+		}
 	}
 }
@@ -22,7 +22,8 @@ public enum VcfFilter {
 	NO_RP ("NO_RP", "Variant does not have any direct read pair support."),
 	NO_SR ("NO_SR", "Variant does not have any direct split read support."),
 	LOW_QUAL ("LOW_QUAL", "Low quality call as specified by 'variantcalling.lowQuality'"),
-	LOW_MAPQ ("LOW_MAPQ", "Mapping location may be ambiguous.");
+	LOW_MAPQ ("LOW_MAPQ", "Mapping location may be ambiguous."),
+	PANEL_OF_NORMALS ("PON", "Variant found in panel of normals.");
 
     private final VCFFilterHeaderLine filterheader;
 	VcfFilter(String name, String description) {
@@ -74,6 +74,7 @@ public enum VcfInfoAttributes {
 	BREAKEND_MEAN_SUPPORTING_MAPQ ("BMQ", 1, VCFHeaderLineType.Float, "Mean MAPQ of breakend supporting reads."),
 	BREAKEND_MAX_SUPPORTING_MAPQ ("BMQX", 1, VCFHeaderLineType.Float, "Maximum MAPQ of breakend supporting reads."),
 	BREAKEND_MIN_SUPPORTING_MAPQ ("BMQN", 1, VCFHeaderLineType.Float, "Minimum MAPQ of breakend supporting reads."),
+	PANEL_OF_NORMALS_COUNT("PONCOUNT", 1, VCFHeaderLineType.Integer, "Number of normals in the panel of normals supporting the variant."),
 	INSERTED_SEQUENCE_REPEATMASKER_REPEAT_TYPE("INSRMRT", 1, VCFHeaderLineType.String, "Inserted sequence repeatmasker repeat type."),
 	INSERTED_SEQUENCE_REPEATMASKER_REPEAT_CLASS("INSRMRC", 1, VCFHeaderLineType.String, "Inserted sequence repeatmasker repeat class."),
 	INSERTED_SEQUENCE_REPEATMASKER_ORIENTATION("INSRMRO", 1, VCFHeaderLineType.String, "Inserted sequence repeatmasker repeat orientation."),
@@ -15,6 +15,7 @@ import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.ProgressLogger;
@@ -52,15 +53,17 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
             + "Java argument formatting is used with %1$s being the fastq file to align, "
             + "%2$s the reference genome, and %3$d the number of threads to use.", optional = true)
     public List<String> ALIGNER_COMMAND_LINE = Lists.newArrayList(BWA_COMMAND_LINE);
-    @Argument(doc = "Number of records to buffer when performing in-process or streaming alignment. Not applicable when performing external alignment.", optional = true)
+    @Argument(doc = "Maximum number of VCF records to buffer whilst waiting for the alignments of their inserted sequences.", optional = true)
     public int ALIGNER_BATCH_SIZE = MAX_RECORDS_IN_RAM;
+    @Argument(doc = "Number of inserted sequences sent to the aligner in each batch.", optional = true)
+    public int ALIGNER_SUBMISSION_BATCH_SIZE = InsertedSequenceAnnotator.DEFAULT_BATCH_SIZE;
     @Argument(doc = "Whether to align inserted sequences to REFERENCE_GENOME. Valid values are:" +
             "APPEND (Append alignments to REFERENCE_GENOME to the BEALN field), " +
             "REPLACE (Replace all BEALN fields)  (default)," +
             "ADD_MISSING (Add alignments to records missing a BEALN field, and" +
             "SKIP (do not align).", optional = true)
     public AlignmentStatus ALIGNMENT = AlignmentStatus.REPLACE;
-    @Argument(doc = "Annotate inserted sequences with RepeatMasker annotations. Use bedops rmsk2bed to generate the bed file from the RepeatMasker .fa.out file.", optional = true)
+    @Argument(doc = "Annotate inserted sequences with RepeatMasker annotations. Use bedops rmsk2bed to generate the bed file from the RepeatMasker .fa.out file. A RepeatMasker store generated by CreateRepeatMaskerStore can be used instead of the bed file to reduce memory usage and load time.", optional = true)
     public File REPEAT_MASKER_BED = null;
 
     public static void main(String[] argv) {
@@ -103,11 +106,12 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
         try {
             SAMSequenceDictionary dict = new IndexedFastaSequenceFile(REFERENCE_SEQUENCE).getSequenceDictionary();
             Iterator<VariantContext> it;
+            VariantContextRepeatMaskerAnnotator rma = null;
             if (ALIGNMENT != AlignmentStatus.SKIP) {
                 StreamingAligner sa;
                 if (ALIGNER_COMMAND_LINE == null || ALIGNER_COMMAND_LINE.size() == 0) {
                     log.info("Using in-process bwa alignment");
-                    sa = new BwaStreamingAligner(REFERENCE_SEQUENCE, dict, WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
+                    sa = new BwaStreamingAligner(REFERENCE_SEQUENCE, dict, WORKER_THREADS, ALIGNER_SUBMISSION_BATCH_SIZE * 150);
                 } else {
                     log.info("Using external process alignment");
                     sa = new ExternalProcessStreamingAligner(SamReaderFactory.make(), ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, dict);
@@ -117,7 +121,10 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
                         sa,
                         MIN_SEQUENCE_LENGTH,
                         ALIGNMENT == AlignmentStatus.REPLACE,
-                        ALIGNMENT == AlignmentStatus.ADD_MISSING);
+                        ALIGNMENT == AlignmentStatus.ADD_MISSING,
+                        ALIGNER_SUBMISSION_BATCH_SIZE,
+                        InsertedSequenceAnnotator.DEFAULT_CONCURRENT_BATCHES,
+                        ALIGNER_BATCH_SIZE);
                 it = ann;
             } else {
                 VCFFileReader vcfReader = new VCFFileReader(INPUT, false);
@@ -125,7 +132,7 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
             }
             if (REPEAT_MASKER_BED != null) {
                 log.info("Loading RepeatMasker bed file from " + REPEAT_MASKER_BED);
-                VariantContextRepeatMaskerAnnotator rma = new VariantContextRepeatMaskerAnnotator(REPEAT_MASKER_BED);
+                rma = new VariantContextRepeatMaskerAnnotator(REPEAT_MASKER_BED);
                 log.info("RepeatMasker bed file loaded from " + REPEAT_MASKER_BED);
                 Set<String> commonContigs = Sets.intersection(Sets.newHashSet(rma.getRepeatMaskerContigs()), dict.getSequences().stream().map(s -> s.getContig()).collect(Collectors.toSet()));
                 if (commonContigs.size() < Math.min(rma.getRepeatMaskerContigs().size(), dict.size()) * 0.5) {
@@ -134,7 +141,11 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
                 VariantContextRepeatMaskerAnnotator finalRma = rma;
                 it = Iterators.transform(it, (vc) -> finalRma.apply(vc));
             }
-            saveVcf(INPUT, OUTPUT, it);
+            try {
+                saveVcf(INPUT, OUTPUT, it);
+            } finally {
+                CloserUtil.close(rma);
+            }
             log.info("Annotated variants written to " + OUTPUT);
         } catch (IOException e) {
             log.error(e);
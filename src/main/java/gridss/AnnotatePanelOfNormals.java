@@ -0,0 +1,111 @@
+package gridss;
+
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.IdsvVariantContextBuilder;
+import au.edu.wehi.idsv.VariantContextDirectedEvidence;
+import au.edu.wehi.idsv.bed.PanelOfNormalsIndex;
+import au.edu.wehi.idsv.bed.PonStore;
+import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.vcf.VcfFilter;
+import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
+import com.google.common.collect.Iterators;
+import gridss.cmdline.VcfTransformCommandLineProgram;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.vcf.VCFHeader;
+import org.apache.commons.math3.util.Pair;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+@CommandLineProgramProperties(
+		summary = "Annotates breakpoint and single breakend calls with the number of normals in the panel of normals containing the call.",
+		oneLineSummary = "Annotates calls with panel of normals counts",
+		programGroup = gridss.cmdline.programgroups.VariantCalling.class)
+public class AnnotatePanelOfNormals extends VcfTransformCommandLineProgram {
+	private static final Log log = Log.getInstance(AnnotatePanelOfNormals.class);
+	@Argument(doc="GRIDSS binary PON store generated by GeneratePonBedpe", optional=true)
+	public File PON = null;
+	@Argument(doc="GRIDSS breakpoint PON BEDPE generated by GeneratePonBedpe", optional=true)
+	public File PON_BEDPE = null;
+	@Argument(doc="GRIDSS single breakend PON BED generated by GeneratePonBedpe", optional=true)
+	public File PON_BED = null;
+	@Argument(doc="Maximum distance between a call and the PON call for the call to be considered in the PON.", optional=true)
+	public int MARGIN = 4;
+	@Argument(doc="Minimum PON count for the PON filter to be applied. Set to 0 to annotate PON counts without filtering.", optional=true)
+	public int MIN_FILTER_COUNT = 1;
+	@Override
+	protected String[] customCommandLineValidation() {
+		if (PON_BED != null ^ PON_BEDPE != null) {
+			return new String[] {"PON_BED and PON_BEDPE must be specified together."};
+		}
+		if (PON == null && PON_BEDPE == null) {
+			return new String[] {"Either PON or PON_BEDPE/PON_BED must be specified."};
+		}
+		if (PON != null && PON_BEDPE != null) {
+			return new String[] {"PON and PON_BEDPE/PON_BED cannot both be specified."};
+		}
+		if (MARGIN < 0) {
+			return new String[] {"MARGIN must be non-negative."};
+		}
+		return super.customCommandLineValidation();
+	}
+	@Override
+	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool) {
+		SAMSequenceDictionary dict = getContext().getDictionary();
+		try {
+			if (PON != null) {
+				IOUtil.assertFileIsReadable(PON);
+				log.info("Loading ", PON);
+				PonStore store = new PonStore(PON, dict);
+				PanelOfNormalsIndex index = PanelOfNormalsIndex.load(store, dict.size(), threadpool);
+				return new AutoClosingIterator<>(annotate(calls, index), calls, store);
+			}
+			IOUtil.assertFileIsReadable(PON_BEDPE);
+			IOUtil.assertFileIsReadable(PON_BED);
+			log.info("Loading ", PON_BEDPE, " and ", PON_BED);
+			Iterator<Pair<BreakendSummary, Integer>> it = GeneratePonBedpe.getExistingPON(dict, PON_BEDPE, PON_BED);
+			PanelOfNormalsIndex index;
+			try {
+				index = PanelOfNormalsIndex.create(it, dict.size());
+			} finally {
+				CloserUtil.close(it);
+			}
+			return new AutoClosingIterator<>(annotate(calls, index), calls);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+	private Iterator<VariantContextDirectedEvidence> annotate(Iterator<VariantContextDirectedEvidence> calls, PanelOfNormalsIndex index) {
+		return Iterators.transform(calls, call -> annotate(call, index));
+	}
+	private VariantContextDirectedEvidence annotate(VariantContextDirectedEvidence call, PanelOfNormalsIndex index) {
+		int count = index.count(call.getBreakendSummary(), MARGIN);
+		IdsvVariantContextBuilder builder = new IdsvVariantContextBuilder(getContext(), call);
+		builder.attribute(VcfInfoAttributes.PANEL_OF_NORMALS_COUNT, count);
+		if (MIN_FILTER_COUNT > 0 && count >= MIN_FILTER_COUNT) {
+			builder.filter(VcfFilter.PANEL_OF_NORMALS.filter());
+		}
+		return (VariantContextDirectedEvidence)builder.make();
+	}
+	@Override
+	protected VCFHeader getOutputHeader() {
+		VCFHeader header = super.getOutputHeader();
+		header.addMetaDataLine(VcfInfoAttributes.PANEL_OF_NORMALS_COUNT.infoHeader());
+		if (MIN_FILTER_COUNT > 0) {
+			header.addMetaDataLine(VcfFilter.PANEL_OF_NORMALS.header());
+		}
+		return header;
+	}
+	public static void main(String[] argv) {
+		System.exit(new AnnotatePanelOfNormals().instanceMain(argv));
+	}
+}
@@ -4,6 +4,8 @@ import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.SAMRecordChangeTracker;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
+import au.edu.wehi.idsv.sam.TemplateBatch;
+import au.edu.wehi.idsv.sam.TemplateBatchingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.util.ParallelTransformIterator;
 import au.edu.wehi.idsv.util.UngroupingIterator;
@@ -124,7 +126,7 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 				ProgressLogger progress = new ProgressLogger(log);
 				ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(false).setNameFormat("ComputeSamTags-%d").build());
     			try (SAMRecordIterator it = reader.iterator()) {
-					Iterator<SAMRecord> asyncIt = transform(threadpool, Defaults.ASYNC_BUFFER_SIZE, it, tracker);
+					Iterator<SAMRecord> asyncIt = transform(threadpool, 2 * WORKER_THREADS, it, tracker);
     				File tmpoutput = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.ComputeSamTags.") : OUTPUT;
     				try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput)) {
 						while (asyncIt.hasNext()) {
@@ -150,7 +152,15 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 		}
     	return 0;
 	}
-	public Iterator<SAMRecord> transform(Executor threadpool, int batchSize, Iterator<SAMRecord> it, SAMRecordChangeTracker tracker) {
+	/**
+	 * Transforms the given records.
+	 * @param threadpool thread pool to perform transformation on
+	 * @param lookahead number of batches of Defaults.TEMPLATE_BATCH_SIZE read name grouped templates to process in parallel
+	 * @param it input records grouped by read name
+	 * @param tracker optional change tracker
+	 * @return transformed records
+	 */
+	public Iterator<SAMRecord> transform(Executor threadpool, int lookahead, Iterator<SAMRecord> it, SAMRecordChangeTracker tracker) {
 		final Set<String> tags = TAGS;
 		final boolean softenHardClips = SOFTEN_HARD_CLIPS;
 		final boolean fixMates = FIX_MATE_INFORMATION;
@@ -160,21 +170,28 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 		final int supplementaryOverlap = SUPPLEMENTARY_ALIGNMENT_OVERLAP_THRESHOLD;
 		final boolean fixTerminalCigar = FIX_TERMINAL_CIGAR_INDEL;
 		final ReferenceLookup reference = isReferenceRequired() ? getReference() : null;
-		ParallelTransformIterator<List<SAMRecord>, List<SAMRecord>> parallelIt = new ParallelTransformIterator<>(
-				SAMRecordUtil.groupedByReadName(it),
-				r -> trackedTransform(
-					tracker,
-					r,
-					tags,
-					softenHardClips,
-					fixMates,
-					fixDuplicates,
-					fixTruncated,
-					recalculateSupplementary,
-					supplementaryOverlap,
-					fixTerminalCigar,
-					reference),
-				batchSize,
+		ParallelTransformIterator<TemplateBatch, List<SAMRecord>> parallelIt = new ParallelTransformIterator<>(
+				new TemplateBatchingIterator(it, Defaults.TEMPLATE_BATCH_SIZE),
+				batch -> {
+					List<SAMRecord> out = new ArrayList<>(batch.getRecordCount());
+					for (int i = 0; i < batch.getTemplateCount(); i++) {
+						out.addAll(trackedTransform(
+								tracker,
+								batch.getTemplate(i),
+								tags,
+								softenHardClips,
+								fixMates,
+								fixDuplicates,
+								fixTruncated,
+								recalculateSupplementary,
+								supplementaryOverlap,
+								fixTerminalCigar,
+								reference));
+					}
+					batch.release();
+					return out;
+				},
+				lookahead,
 				threadpool);
 		return new UngroupingIterator(parallelIt);
 	}
@@ -6,6 +6,10 @@ public class Defaults {
 	public static final boolean IGNORE_FILE_TIMESTAMPS;
 	public static final int ASYNC_BUFFERS;
 	public static final int ASYNC_BUFFER_SIZE;
+	/**
+	 * Number of read name grouped templates processed by each parallel task
+	 */
+	public static final int TEMPLATE_BATCH_SIZE;
 	public static final boolean DELETE_TEMPORARY_FILES;
 	public static final int SUPPRESS_DATA_ERROR_MESSAGES_AFTER;
 	public static final boolean WRITE_ZERO_OR_EMTPY_VCF_FIELDS;
@@ -18,18 +22,23 @@ public class Defaults {
 	 */
 	public static final boolean OUTPUT_TO_TEMP_FILE;
 	/**
-	 * Perform defensive garbage collection to reduce the chance of running out of file handles.
-	 * See http://stackoverflow.com/questions/2972986/how-to-unmap-a-file-from-memory-mapped-using-filechannel-in-java
+	 * Maximum number of idle SAM/BAM readers retained for reuse
+	 */
+	public static final int SAM_READER_POOL_SIZE;
+	/**
+	 * Idle SAM/BAM readers unused for this many milliseconds are closed
 	 */
-	public static final boolean DEFENSIVE_GC;
+	public static final long SAM_READER_POOL_IDLE_MILLISECONDS;
 	static {
 		IGNORE_FILE_TIMESTAMPS = Boolean.valueOf(System.getProperty("gridss.ignoreTimestamps", "true"));
 		ASYNC_BUFFERS = Integer.parseInt(System.getProperty("gridss.async.buffers", "2"));
 		ASYNC_BUFFER_SIZE = Integer.parseInt(System.getProperty("gridss.async.buffersize", "300"));
+		TEMPLATE_BATCH_SIZE = Integer.parseInt(System.getProperty("gridss.template.batchsize", "1024"));
 		DELETE_TEMPORARY_FILES = !Boolean.valueOf(System.getProperty("gridss.keepTempFiles", "false"));
 		SUPPRESS_DATA_ERROR_MESSAGES_AFTER = Integer.parseInt(System.getProperty("gridss.logSpamLimit", "100"));
 		WRITE_ZERO_OR_EMTPY_VCF_FIELDS = Boolean.valueOf(System.getProperty("gridss.writeZeroOrEmptyVcfFields", "true"));
-		DEFENSIVE_GC = Boolean.valueOf(System.getProperty("gridss.defensiveGC", "false"));
+		SAM_READER_POOL_SIZE = Integer.parseInt(System.getProperty("gridss.samReaderPool.size", "64"));
+		SAM_READER_POOL_IDLE_MILLISECONDS = Long.parseLong(System.getProperty("gridss.samReaderPool.idleMilliseconds", "60000"));
 		OUTPUT_TO_TEMP_FILE = Boolean.valueOf(System.getProperty("gridss.output_to_temp_file", "false"));
 	}
 }
@@ -4,18 +4,22 @@ import au.edu.wehi.idsv.*;
 import au.edu.wehi.idsv.bed.BedpeIterator;
 import au.edu.wehi.idsv.bed.BedpeRecord;
 import au.edu.wehi.idsv.bed.BedpeWriter;
+import au.edu.wehi.idsv.bed.PonStore;
 import au.edu.wehi.idsv.configuration.GridssConfiguration;
-import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.DeterministicIterators;
+import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.util.WindowedSortingIterator;
 import au.edu.wehi.idsv.vcf.VcfFormatAttributes;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.tribble.AbstractFeatureReader;
@@ -42,8 +46,11 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 
 @CommandLineProgramProperties(
@@ -52,16 +59,20 @@ import java.util.stream.Collectors;
         programGroup = gridss.cmdline.programgroups.DataConversion.class)
 public class GeneratePonBedpe extends CommandLineProgram {
 	private static final Log log = Log.getInstance(GeneratePonBedpe.class);
-    @Argument(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Input GRIDSS VCFs", optional=false)
-    public List<File> INPUT;
+    @Argument(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Input GRIDSS VCFs", optional=true)
+    public List<File> INPUT = new ArrayList<>();
+	@Argument(doc="Existing GRIDSS binary PON store. New normals are merged into this store.", optional=true)
+	public File INPUT_PON = null;
     @Argument(doc="Existing GRIDSS breakpoint PON", optional=true)
 	public File INPUT_BEDPE = null;
 	@Argument(doc="Existing GRIDSS single breakend PON", optional=true)
 	public File INPUT_BED = null;
-    @Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Output BEDPE", optional=true)
+	@Argument(doc="Output GRIDSS binary PON store. Storing the PON in binary form allows additional normals to be incrementally added.", optional=true)
+	public File OUTPUT_PON = null;
+    @Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Output BEDPE. Set to null to skip BEDPE export.", optional=true)
     public File OUTPUT_BEDPE = new File("gridss_pon_breakpoint.bedpe");
-	@Argument(shortName="SBO", doc="Output BED", optional=false)
-	public File OUTPUT_BED = new File("gridss_pon_single_breakend.bed");;
+	@Argument(shortName="SBO", doc="Output BED. Set to null to skip BED export.", optional=true)
+	public File OUTPUT_BED = new File("gridss_pon_single_breakend.bed");
 	@Argument(shortName="NO", doc="0-based ordinals of the normal samples in the VCF.", optional=false)
     public List<Integer> NORMAL_ORDINAL = new ArrayList<>();
 	@Argument(shortName="Q", doc="Minimum variant quality score for a breakpoint variant to be considered part of the normal.", optional=true)
@@ -73,6 +84,9 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	private int MAX_BREAKPOINT_HOMOLOGY_LENGTH = 2000;
 	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available with a maximum of one 1 per input file.", shortName="THREADS")
 	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+	@Argument(doc="Maximum number of input files to merge at once. "
+			+ "Larger inputs sets are merged hierarchically through intermediate PON stores.", optional=true)
+	public int MAX_OPEN_FILES = 256;
 
 	@Override
 	protected String[] customCommandLineValidation() {
@@ -85,9 +99,21 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		if (OUTPUT_BEDPE != null && OUTPUT_BEDPE.equals(INPUT_BEDPE)) {
 			return new String[] {"INPUT_BEDPE and OUTPUT_BEDPE must be different files."};
 		}
-		if (NORMAL_ORDINAL == null || NORMAL_ORDINAL.size() == 0) {
+		if (INPUT_PON != null && INPUT_PON.equals(OUTPUT_PON)) {
+			return new String[] {"INPUT_PON and OUTPUT_PON must be different files."};
+		}
+		if (INPUT.size() > 0 && (NORMAL_ORDINAL == null || NORMAL_ORDINAL.size() == 0)) {
 			return new String[] {"NORMAL_ORDINAL must be specified"};
 		}
+		if (INPUT.size() == 0 && INPUT_PON == null && INPUT_BEDPE == null) {
+			return new String[] {"At least one of INPUT, INPUT_PON, or INPUT_BEDPE/INPUT_BED must be specified."};
+		}
+		if (OUTPUT_PON == null && OUTPUT_BEDPE == null && OUTPUT_BED == null) {
+			return new String[] {"At least one of OUTPUT_PON, OUTPUT_BEDPE, or OUTPUT_BED must be specified."};
+		}
+		if (MAX_OPEN_FILES < 2) {
+			return new String[] {"MAX_OPEN_FILES must be at least 2."};
+		}
 		return super.customCommandLineValidation();
 	}
 
@@ -105,8 +131,18 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			if (INPUT_BEDPE != null) {
 				IOUtil.assertFileIsReadable(INPUT_BEDPE);
 			}
-			IOUtil.assertFileIsWritable(OUTPUT_BEDPE);
-			IOUtil.assertFileIsWritable(OUTPUT_BED);
+			if (INPUT_PON != null) {
+				IOUtil.assertFileIsReadable(INPUT_PON);
+			}
+			if (OUTPUT_PON != null) {
+				IOUtil.assertFileIsWritable(OUTPUT_PON);
+			}
+			if (OUTPUT_BEDPE != null) {
+				IOUtil.assertFileIsWritable(OUTPUT_BEDPE);
+			}
+			if (OUTPUT_BED != null) {
+				IOUtil.assertFileIsWritable(OUTPUT_BED);
+			}
 			for (File f : INPUT) {
 				IOUtil.assertFileIsReadable(f);
 			}
@@ -124,26 +160,44 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			}
 			GenomicProcessingContext pc = new GenomicProcessingContext(new FileSystemContext(TMP_DIR.get(0), TMP_DIR.get(0), MAX_RECORDS_IN_RAM), REFERENCE_SEQUENCE, null);
 			pc.setCommandLineProgram(this);
-			Iterator<Pair<BreakendSummary, Integer>> mergedIt = DeterministicIterators.mergeSorted(ImmutableList.of(
-					filteredMerge(pc, INPUT, NORMAL_ORDINAL),
-					getExistingPON(pc.getDictionary(), INPUT_BEDPE, INPUT_BED)), ByBreakendStartEnd);
-			BedpeMergingCounter pe = new BedpeMergingCounter();
-			BedMergingCounter se = new BedMergingCounter(true);
-			BedpeWriter writer = new BedpeWriter(pc.getDictionary(), OUTPUT_BEDPE);
-			BufferedWriter seWriter = Files.newBufferedWriter(OUTPUT_BED.toPath(), StandardCharsets.US_ASCII);
-			while(mergedIt.hasNext()) {
-				Pair<BreakendSummary, Integer> record = mergedIt.next();
-				if (record.getFirst() instanceof BreakpointSummary) {
-					Pair<BreakpointSummary, Integer> bpRecord = Pair.create((BreakpointSummary)record.getFirst(), record.getSecond());
-					writeBedpe(pe.process(bpRecord), writer);
-				} else {
-					writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.process(record));
+			SAMSequenceDictionary dict = pc.getDictionary();
+			List<File> tempFiles = new ArrayList<>();
+			ExecutorService threadpool = Executors.newFixedThreadPool(Math.max(1, WORKER_THREADS), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GeneratePonBedpe-%d").build());
+			try {
+				// Leave file handles available for the existing PON
+				int openFileBudget = Math.max(3, MAX_OPEN_FILES - 3);
+				// Merges run concurrently so share the open file budget between them
+				Semaphore openFiles = new Semaphore(openFileBudget, true);
+				// Each merge also has its output store open
+				int maxMergeSize = openFileBudget - 1;
+				List<File> stores = createStores(pc, threadpool, openFiles, Lists.partition(INPUT, maxMergeSize), tempFiles);
+				while (stores.size() > maxMergeSize) {
+					log.info(String.format("Merging %d intermediate PON stores", stores.size()));
+					stores = mergeStores(dict, threadpool, openFiles, Lists.partition(stores, maxMergeSize), tempFiles);
+				}
+				if (INPUT_PON != null) {
+					stores = new ArrayList<>(stores);
+					stores.add(INPUT_PON);
+				}
+				File pon = OUTPUT_PON;
+				if (pon == null) {
+					pon = createTempStore(tempFiles);
+				}
+				Iterator<Pair<BreakendSummary, Integer>> existingIt = getExistingPON(dict, INPUT_BEDPE, INPUT_BED);
+				try {
+					PonStore.merge(pon, dict, stores, existingIt);
+				} finally {
+					CloserUtil.close(existingIt);
+				}
+				if (OUTPUT_BEDPE != null || OUTPUT_BED != null) {
+					export(pc, pon);
+				}
+			} finally {
+				threadpool.shutdownNow();
+				for (File f : tempFiles) {
+					FileHelper.delete(f, false);
 				}
 			}
-			writeBedpe(pe.finish(), writer);
-			writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.finish());
-			writer.close();
-			seWriter.close();
 		} catch (IOException e) {
 			log.error(e);
 			return 1;
@@ -154,6 +208,109 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		}
 		return 0;
  	}
+	private File createTempStore(List<File> tempFiles) throws IOException {
+		File f = File.createTempFile("gridss.pon.", ".ponstore", TMP_DIR.get(0));
+		synchronized (tempFiles) {
+			tempFiles.add(f);
+		}
+		return f;
+	}
+	/**
+	 * Converts each group of VCFs into an intermediate PON store
+	 * @param openFiles open file handle budget shared by all concurrent conversions.
+	 * A permit is required for each input VCF and the output store.
+	 */
+	private List<File> createStores(GenomicProcessingContext pc, ExecutorService threadpool, Semaphore openFiles, List<List<File>> groups, List<File> tempFiles) throws IOException, InterruptedException {
+		List<Future<File>> futures = new ArrayList<>();
+		for (List<File> group : groups) {
+			futures.add(threadpool.submit(() -> {
+				File store = createTempStore(tempFiles);
+				List<CloseableIterator<Pair<BreakendSummary, Integer>>> fileIt = new ArrayList<>();
+				openFiles.acquire(group.size() + 1);
+				try {
+					for (File f : group) {
+						fileIt.add(getFilteredIterator(pc, f, NORMAL_ORDINAL));
+					}
+					PonStore.write(store, pc.getDictionary(), DeterministicIterators.mergeSorted(fileIt, ByBreakendStartEnd));
+				} finally {
+					for (CloseableIterator<Pair<BreakendSummary, Integer>> it : fileIt) {
+						CloserUtil.close(it);
+					}
+					openFiles.release(group.size() + 1);
+				}
+				log.info(String.format("Processed %d VCFs", group.size()));
+				return store;
+			}));
+		}
+		return waitFor(futures);
+	}
+	/**
+	 * Merges each group of intermediate PON stores
+	 * @param openFiles open file handle budget shared by all concurrent merges
+	 */
+	private List<File> mergeStores(SAMSequenceDictionary dict, ExecutorService threadpool, Semaphore openFiles, List<List<File>> groups, List<File> tempFiles) throws IOException, InterruptedException {
+		List<Future<File>> futures = new ArrayList<>();
+		for (List<File> group : groups) {
+			futures.add(threadpool.submit(() -> {
+				if (group.size() == 1) return group.get(0);
+				File store = createTempStore(tempFiles);
+				openFiles.acquire(group.size() + 1);
+				try {
+					PonStore.merge(store, dict, group, null);
+				} finally {
+					openFiles.release(group.size() + 1);
+				}
+				for (File f : group) {
+					FileHelper.delete(f, false);
+				}
+				return store;
+			}));
+		}
+		return waitFor(futures);
+	}
+	private static List<File> waitFor(List<Future<File>> futures) throws IOException, InterruptedException {
+		List<File> result = new ArrayList<>();
+		for (Future<File> f : futures) {
+			try {
+				result.add(f.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException)e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return result;
+	}
+	/**
+	 * Exports the given PON store to BEDPE and BED
+	 */
+	private void export(GenomicProcessingContext pc, File ponFile) throws IOException {
+		BedpeMergingCounter pe = new BedpeMergingCounter();
+		BedMergingCounter se = new BedMergingCounter(true);
+		try (PonStore pon = new PonStore(ponFile, pc.getDictionary());
+				CloseableIterator<Pair<BreakendSummary, Integer>> it = pon.iterator();
+				BedpeWriter writer = OUTPUT_BEDPE == null ? null : new BedpeWriter(pc.getDictionary(), OUTPUT_BEDPE);
+				BufferedWriter seWriter = OUTPUT_BED == null ? null : Files.newBufferedWriter(OUTPUT_BED.toPath(), StandardCharsets.US_ASCII)) {
+			while (it.hasNext()) {
+				Pair<BreakendSummary, Integer> record = it.next();
+				if (record.getFirst() instanceof BreakpointSummary) {
+					if (writer != null) {
+						Pair<BreakpointSummary, Integer> bpRecord = Pair.create((BreakpointSummary)record.getFirst(), record.getSecond());
+						writeBedpe(pe.process(bpRecord), writer);
+					}
+				} else if (seWriter != null) {
+					writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.process(record));
+				}
+			}
+			if (writer != null) {
+				writeBedpe(pe.finish(), writer);
+			}
+			if (seWriter != null) {
+				writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.finish());
+			}
+		}
+	}
  	private static Pair<BreakendSummary, Integer> toPair(SAMSequenceDictionary dictionary, BEDFeature feat) {
 		String chr = feat.getContig();
 		int start = feat.getStart();
@@ -164,7 +321,7 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		return Pair.create(new BreakendSummary(referenceIndex, strand == Strand.FORWARD ? BreakendDirection.Forward : BreakendDirection.Backward, start, start, end), (int)score);
 	}
 
-	private Iterator<Pair<BreakendSummary, Integer>> getExistingPON(SAMSequenceDictionary dictionary, File bedpeFile, File bedFile) throws IOException {
+	static Iterator<Pair<BreakendSummary, Integer>> getExistingPON(SAMSequenceDictionary dictionary, File bedpeFile, File bedFile) throws IOException {
 		if (bedpeFile == null || bedFile == null) {
 			return ImmutableList.<Pair<BreakendSummary, Integer>>of().iterator();
 		}
@@ -201,24 +358,6 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		}
 	}
 
-	private Iterator<Pair<BreakendSummary, Integer>> filteredMerge(GenomicProcessingContext pc, List<File> file, List<Integer> ordinals) {
-    	List<CloseableIterator<Pair<BreakendSummary, Integer>>> fileIt = new ArrayList<>();
-    	for (File f : file) {
-    		fileIt.add(getFilteredIterator(pc, f, ordinals));
-		}
-		// allocate VCF files to worker threads
-		final AtomicInteger counter = new AtomicInteger(0);
-		final int size = WORKER_THREADS;
-		final List<Iterator<Pair<BreakendSummary, Integer>>> partitioned = fileIt.stream()
-				.collect(Collectors.groupingBy(it -> counter.getAndIncrement() % size))
-				.values()
-				.stream()
-				.map(list -> list.size() == 1 ? list.get(0) : DeterministicIterators.mergeSorted(list, ByBreakendStartEnd))
-				.map(it -> new AsyncBufferedIterator<>(it,"AsyncVCF"))
-				.collect(Collectors.toList());
-		Iterator<Pair<BreakendSummary, Integer>> mergedIt = new AsyncBufferedIterator<>(DeterministicIterators.mergeSorted(partitioned, ByBreakendStartEnd), "Merged VCF reader");
-		return mergedIt;
-	}
 	private CloseableIterator<Pair<BreakendSummary, Integer>> getFilteredIterator(GenomicProcessingContext pc, File file, List<Integer> ordinals) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
 		CloseableIterator<VariantContext> it = vcfReader.iterator();
@@ -265,5 +404,5 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			super(it, x -> lgc.getLinearCoordinate(x.getFirst().referenceIndex, x.getFirst().start), windowSize);
 		}
 	}
-	public static Ordering<Pair<BreakendSummary, Integer>> ByBreakendStartEnd = BreakendSummary.ByStartEnd.onResultOf(p -> p.getFirst());
+	public static Ordering<Pair<BreakendSummary, Integer>> ByBreakendStartEnd = PonStore.ByBreakendStartEnd;
 }
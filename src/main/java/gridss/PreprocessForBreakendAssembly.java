@@ -3,8 +3,11 @@ package gridss;
 import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.SAMRecordChangeTracker;
+import au.edu.wehi.idsv.SoftClipRealignmentFilter;
 import au.edu.wehi.idsv.StreamingSplitReadRealigner;
 import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
+import au.edu.wehi.idsv.alignment.CachingStreamingAligner;
+import au.edu.wehi.idsv.alignment.RealignmentCache;
 import au.edu.wehi.idsv.alignment.StreamingAligner;
 import au.edu.wehi.idsv.sam.SamTags;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
@@ -46,8 +49,11 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 	public int ALIGNER_BATCH_SIZE = 100000;
 	@Argument(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Input BAM file grouped by read name.")
 	public File INPUT;
-	@Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Unsorted BAM file with tags corrected and split reads identified.")
+	@Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="BAM file with tags corrected and split reads identified. Coordinate sorted when COORDINATE_SORT_OUTPUT is set, otherwise unsorted.")
 	public File OUTPUT;
+	@Argument(doc="Coordinate sorts OUTPUT in-process by spilling sorted runs of at most MAX_RECORDS_IN_RAM records to TMP_DIR and merging them. " +
+			"This removes the need to separately sort the output.", optional=true)
+	public boolean COORDINATE_SORT_OUTPUT = false;
 	@Argument(shortName=StandardOptionDefinitions.ASSUME_SORTED_SHORT_NAME, doc="Assume that all records with the same read name are consecutive. "
 			+ "Incorrect tags will be written if this is not the case.", optional=true)
 	public boolean ASSUME_SORTED = false;
@@ -59,6 +65,13 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 	@Argument(doc="Base quality score to sent to aligner if quality scores are missing.", optional=true)
 	public byte FALLBACK_BASE_QUALITY = new SoftClipsToSplitReads().FALLBACK_BASE_QUALITY;
+	@Argument(doc="Persistent cache of previously computed alignments. " +
+			"Sequences already present in the cache for the same reference genome and aligner settings are not realigned. " +
+			"The cache can be shared across samples and reruns.", optional=true)
+	public File REALIGNMENT_CACHE = null;
+	@Argument(doc="Excludes soft clips unlikely to produce split reads before they are sent to the aligner. " +
+			"Soft clips consisting of ambiguous bases, low entropy sequence, short tandem repeats, or starting with adapter sequence are not realigned.", optional=true)
+	public boolean PREFILTER_SOFT_CLIPS = new SoftClipsToSplitReads().PREFILTER_SOFT_CLIPS;
 	public static void main(String[] argv) {
         System.exit(new PreprocessForBreakendAssembly().instanceMain(argv));
     }
@@ -93,22 +106,24 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 				// which will halve our throughput.
 				// 25bp per read ensures we're unlikely to be forced to flush.
 				int bwaBufferSizeInBases = ALIGNER_BATCH_SIZE * 25;
-				sa = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, bwaBufferSizeInBases);
+				BwaStreamingAligner bwa = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, bwaBufferSizeInBases);
+				sa = bwa;
+				if (REALIGNMENT_CACHE != null) {
+					try {
+						sa = new CachingStreamingAligner(sa, new RealignmentCache(REALIGNMENT_CACHE, getReference().getSequenceDictionary(), bwa.getAligner().getSettings(), MAX_RECORDS_IN_RAM));
+					} catch (IOException e) {
+						log.error(e);
+						return -1;
+					}
+				}
 				break;
 			case EXTERNAL:
 			default:
 				throw new IllegalArgumentException("Aligner not supported by PreprocessForBreakendAssembly");
 		}
 		realigner = new StreamingSplitReadRealigner(pc, sa, ALIGNER_BATCH_SIZE);
-		realigner.setFallbackBaseQuality(FALLBACK_BASE_QUALITY);
-		realigner.setMinSoftClipLength(MIN_CLIP_LENGTH);
-		realigner.setMinSoftClipQuality(MIN_CLIP_QUAL);
-		realigner.setWorkerThreads(WORKER_THREADS);
-		realigner.setProcessSecondaryAlignments(false);
-		realigner.setRealignExistingSplitReads(false);
-		realigner.setAdjustPrimaryAlignment(false);
-		realigner.setRealignEntireRecord(false);
-		realigner.setRealignExistingSplitReads(false);
+		SoftClipsToSplitReads splitReadProgram = getSplitReadProgram();
+		SoftClipRealignmentFilter filter = splitReadProgram.configureRealigner(realigner);
 		ComputeSamTags tags = new ComputeSamTags();
 		tags.setReference(this.getReference());
 		tags.WORKER_THREADS = -1; // don't use ComputeSamTags workers - we're handling this ourselves
@@ -131,18 +146,25 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 						return -1;
 					}
 				}
-				// strip header because our output is unordered
-				header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+				if (COORDINATE_SORT_OUTPUT) {
+					header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+					writerFactory
+							.setMaxRecordsInRam(pc.getFileSystemContext().getMaxBufferedRecordsPerFile())
+							.setTempDirectory(pc.getFileSystemContext().getTemporaryDirectory());
+				} else {
+					// strip header because our output is unordered
+					header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+				}
 				SAMRecordChangeTracker tracker = null;
 				if (MODIFICATION_SUMMARY_FILE != null) {
 					tracker = new SAMRecordChangeTracker();
 				}
 				try (SAMRecordIterator it = reader.iterator()) {
 					File tmpOutput = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.PreprocessForBReakendAssembly.") : OUTPUT;
-					try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpOutput)) {
+					try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, !COORDINATE_SORT_OUTPUT, tmpOutput)) {
 						CloseableIterator<SAMRecord> asyncIn = new AsyncBufferedIterator<>(it, threadPrefix + "raw");
 						// We can reuse the non-blocking task thread pool since the transforms aren't blocking operations
-						Iterator<SAMRecord> tagFixedIt = tags.transform(AsyncReadTaskRunner.getNonBlockingThreadpool(), Defaults.ASYNC_BUFFER_SIZE, asyncIn, tracker);
+						Iterator<SAMRecord> tagFixedIt = tags.transform(AsyncReadTaskRunner.getNonBlockingThreadpool(), 2 * WORKER_THREADS, asyncIn, tracker);
 						realigner.process(tagFixedIt, writer, writer);
 					}
 					if (tmpOutput != OUTPUT) {
@@ -153,6 +175,9 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 					tracker.writeSummary(MODIFICATION_SUMMARY_FILE);
 				}
 			}
+			if (filter != null) {
+				splitReadProgram.writeFilterMetrics(filter.getMetrics());
+			}
 			sa.close();
 		} catch (IOException e) {
 			log.error(e);
@@ -160,4 +185,20 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 		}
 		return 0;
 	}
+	/**
+	 * Split read identification parameters consistent with GRIDSS assembler input requirements
+	 */
+	private SoftClipsToSplitReads getSplitReadProgram() {
+		SoftClipsToSplitReads program = new SoftClipsToSplitReads();
+		program.MIN_CLIP_LENGTH = MIN_CLIP_LENGTH;
+		program.MIN_CLIP_QUAL = MIN_CLIP_QUAL;
+		program.FALLBACK_BASE_QUALITY = FALLBACK_BASE_QUALITY;
+		program.WORKER_THREADS = WORKER_THREADS;
+		program.PROCESS_SECONDARY_ALIGNMENTS = false;
+		program.REALIGN_EXISTING_SPLIT_READS = false;
+		program.READJUST_PRIMARY_ALIGNMENT_POSITION = false;
+		program.REALIGN_ENTIRE_READ = false;
+		program.PREFILTER_SOFT_CLIPS = PREFILTER_SOFT_CLIPS;
+		return program;
+	}
 }
@@ -2,16 +2,17 @@ package gridss;
 
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.IterativeSplitReadRealigner;
+import au.edu.wehi.idsv.SoftClipRealignmentFilter;
 import au.edu.wehi.idsv.SplitReadRealigner;
 import au.edu.wehi.idsv.StreamingSplitReadRealigner;
-import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
-import au.edu.wehi.idsv.alignment.ExternalProcessFastqAligner;
-import au.edu.wehi.idsv.alignment.ExternalProcessStreamingAligner;
+import au.edu.wehi.idsv.alignment.*;
 import com.google.common.collect.Lists;
+import gridss.analysis.SoftClipRealignmentFilterMetrics;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.SAMFileWriterFactory;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import org.broadinstitute.barclay.argparser.Argument;
@@ -42,6 +43,10 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 			"If this parameter is omitted, modified records are coordinate sorted and merged into the OUTPUT file. " +
 			"This parameter is useful for off-loading the sort and merge steps to an external tool with better sorting performance than htsjdk (e.g. samtools)", optional=true)
 	public File OUTPUT_UNORDERED_RECORDS = null;
+	@Argument(doc="Coordinate sorts OUTPUT in-process by spilling sorted runs of at most MAX_RECORDS_IN_RAM records to TMP_DIR and merging them. " +
+			"This removes the need to separately sort the output but requires a streaming aligner (ALIGNER=BWAMEM or ALIGNER_STREAMING=true). " +
+			"Cannot be used in conjunction with OUTPUT_UNORDERED_RECORDS.", optional=true)
+	public boolean COORDINATE_SORT_OUTPUT = false;
     @Argument(doc="Minimum bases clipped. Generally, short read aligners are not able to uniquely align sequences shorter than 18-20 bases.", optional=true)
     public int MIN_CLIP_LENGTH = 20;
     @Argument(doc="Minimum average base quality score of clipped bases. Low quality clipped bases are indicative of sequencing errors.", optional=true)
@@ -75,6 +80,24 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 	public List<String> ALIGNER_COMMAND_LINE = Lists.newArrayList(BWA_COMMAND_LINE);
 	@Argument(doc="Base quality score to sent to aligner if quality scores are missing.", optional=true)
 	public byte FALLBACK_BASE_QUALITY = 20;
+	@Argument(doc="Persistent cache of previously computed alignments. " +
+			"Sequences already present in the cache for the same reference genome and aligner settings are not realigned. " +
+			"The cache can be shared across samples and reruns. Requires a streaming aligner (ALIGNER=BWAMEM or ALIGNER_STREAMING=true).", optional=true)
+	public File REALIGNMENT_CACHE = null;
+	@Argument(doc="Excludes soft clips unlikely to produce split reads before they are sent to the aligner. " +
+			"Soft clips consisting of ambiguous bases, low entropy sequence, short tandem repeats, or starting with ADAPTER sequence are not realigned. " +
+			"Also applies to the realignment of assembly contigs.", optional=true)
+	public boolean PREFILTER_SOFT_CLIPS = false;
+	@Argument(doc="Adapter sequences. Soft clips starting with these sequences, or with a prefix of at least 8 bases of these sequences, are assumed to be caused by adapter read-through. Only used when PREFILTER_SOFT_CLIPS is true.", optional=true)
+	public List<String> ADAPTER = Lists.newArrayList("AGATCGGAAGAG", "ATGGAATTCTCG", "CTGTCTCTTATA");
+	@Argument(doc="Minimum Shannon entropy (in bits) of soft clipped bases. Only used when PREFILTER_SOFT_CLIPS is true.", optional=true)
+	public double MIN_CLIP_ENTROPY = 0.5;
+	@Argument(doc="Maximum portion of ambiguous soft clipped bases. Only used when PREFILTER_SOFT_CLIPS is true.", optional=true)
+	public double MAX_CLIP_AMBIGUOUS_BASE_PORTION = 0.5;
+	@Argument(doc="Maximum portion of soft clip minimisers matching short tandem repeats. Only used when PREFILTER_SOFT_CLIPS is true.", optional=true)
+	public double MAX_CLIP_LOW_COMPLEXITY_PORTION = 0.8;
+	@Argument(doc="Soft clip prefilter metrics output file. Only used when PREFILTER_SOFT_CLIPS is true.", optional=true)
+	public File METRICS_OUTPUT = null;
 	/**
 	 * Which aligner to perform the alignment with
 	 */
@@ -100,32 +123,33 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
         	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
         	switch (ALIGNER) {
 				case BWAMEM:
-					BwaStreamingAligner bwaAligner = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
-					realigner = new StreamingSplitReadRealigner(pc, bwaAligner, ALIGNER_BATCH_SIZE);
+					BwaStreamingAligner bwaStreamingAligner = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
+					StreamingAligner bwaAligner = withRealignmentCache(bwaStreamingAligner, bwaStreamingAligner.getAligner().getSettings());
+					StreamingSplitReadRealigner bwaRealigner = new StreamingSplitReadRealigner(pc, bwaAligner, ALIGNER_BATCH_SIZE);
+					bwaRealigner.setCoordinateSortOutput(COORDINATE_SORT_OUTPUT);
+					realigner = bwaRealigner;
 					toClose.add(bwaAligner);
 					break;
 				case EXTERNAL:
 				default:
 					if (ALIGNER_STREAMING) {
-						ExternalProcessStreamingAligner streamingAligner = new ExternalProcessStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, getReference().getSequenceDictionary());
+						StreamingAligner streamingAligner = new ExternalProcessStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, getReference().getSequenceDictionary());
+						streamingAligner = withRealignmentCache(streamingAligner, String.join(" ", ALIGNER_COMMAND_LINE));
 						toClose.add(streamingAligner);
-						realigner = new StreamingSplitReadRealigner(pc, streamingAligner, ALIGNER_BATCH_SIZE);
+						StreamingSplitReadRealigner streamingRealigner = new StreamingSplitReadRealigner(pc, streamingAligner, ALIGNER_BATCH_SIZE);
+						streamingRealigner.setCoordinateSortOutput(COORDINATE_SORT_OUTPUT);
+						realigner = streamingRealigner;
 					} else {
 						ExternalProcessFastqAligner externalAligner = new ExternalProcessFastqAligner(readerFactory, writerFactory, ALIGNER_COMMAND_LINE);
 						realigner = new IterativeSplitReadRealigner(pc, externalAligner);
 					}
 					break;
 			}
-			realigner.setFallbackBaseQuality(FALLBACK_BASE_QUALITY);
-			realigner.setMinSoftClipLength(MIN_CLIP_LENGTH);
-			realigner.setMinSoftClipQuality(MIN_CLIP_QUAL);
-			realigner.setProcessSecondaryAlignments(PROCESS_SECONDARY_ALIGNMENTS);
-			realigner.setRealignExistingSplitReads(REALIGN_EXISTING_SPLIT_READS);
-			realigner.setRealignEntireRecord(REALIGN_ENTIRE_READ);
-			realigner.setWorkerThreads(WORKER_THREADS);
-			realigner.setAdjustPrimaryAlignment(READJUST_PRIMARY_ALIGNMENT_POSITION);
-			realigner.setWriteOATag(WRITE_OA);
+			SoftClipRealignmentFilter filter = configureRealigner(realigner);
 			realigner.createSupplementaryAlignments(INPUT, OUTPUT, OUTPUT_UNORDERED_RECORDS);
+			if (filter != null) {
+				writeFilterMetrics(filter.getMetrics());
+			}
 
 			for (Closeable c : toClose) {
 				c.close();
@@ -137,12 +161,71 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
     	return 0;
 	}
     
+	/**
+	 * Applies the split read identification parameters of this program to the given realigner.
+	 * @return soft clip prefilter applied to the realigner, null if soft clips are not prefiltered
+	 */
+	public SoftClipRealignmentFilter configureRealigner(SplitReadRealigner realigner) {
+		realigner.setFallbackBaseQuality(FALLBACK_BASE_QUALITY);
+		realigner.setMinSoftClipLength(MIN_CLIP_LENGTH);
+		realigner.setMinSoftClipQuality(MIN_CLIP_QUAL);
+		realigner.setProcessSecondaryAlignments(PROCESS_SECONDARY_ALIGNMENTS);
+		realigner.setRealignExistingSplitReads(REALIGN_EXISTING_SPLIT_READS);
+		realigner.setRealignEntireRecord(REALIGN_ENTIRE_READ);
+		realigner.setWorkerThreads(WORKER_THREADS);
+		realigner.setAdjustPrimaryAlignment(READJUST_PRIMARY_ALIGNMENT_POSITION);
+		realigner.setWriteOATag(WRITE_OA);
+		SoftClipRealignmentFilter filter = null;
+		if (PREFILTER_SOFT_CLIPS) {
+			filter = new SoftClipRealignmentFilter(ADAPTER.toArray(new String[0]), MIN_CLIP_ENTROPY, MAX_CLIP_AMBIGUOUS_BASE_PORTION, MAX_CLIP_LOW_COMPLEXITY_PORTION);
+			realigner.setRealignmentFilter(filter);
+		}
+		return filter;
+	}
+
+	void writeFilterMetrics(SoftClipRealignmentFilterMetrics metrics) {
+		log.info(String.format("Soft clip prefilter: %d of %d soft clips realigned. Excluded %d ambiguous, %d low entropy, %d adapter, %d low complexity.",
+				metrics.PASSED, metrics.SOFT_CLIPS, metrics.AMBIGUOUS, metrics.LOW_ENTROPY, metrics.ADAPTER, metrics.LOW_COMPLEXITY));
+		if (METRICS_OUTPUT != null) {
+			MetricsFile<SoftClipRealignmentFilterMetrics, Integer> file = getMetricsFile();
+			file.addMetric(metrics);
+			file.write(METRICS_OUTPUT);
+		}
+	}
+
+	private StreamingAligner withRealignmentCache(StreamingAligner aligner, String alignerSettings) throws IOException {
+		if (REALIGNMENT_CACHE == null) {
+			return aligner;
+		}
+		RealignmentCache cache = new RealignmentCache(REALIGNMENT_CACHE, getReference().getSequenceDictionary(), alignerSettings, MAX_RECORDS_IN_RAM);
+		return new CachingStreamingAligner(aligner, cache);
+	}
+
+	@Override
+	protected String[] customCommandLineValidation() {
+		if (REALIGNMENT_CACHE != null && ALIGNER == Aligner.EXTERNAL && !ALIGNER_STREAMING) {
+			return new String[]{"REALIGNMENT_CACHE requires a streaming aligner. Use ALIGNER=BWAMEM or ALIGNER_STREAMING=true."};
+		}
+		if (COORDINATE_SORT_OUTPUT) {
+			if (OUTPUT_UNORDERED_RECORDS != null) {
+				return new String[]{"COORDINATE_SORT_OUTPUT cannot be used in conjunction with OUTPUT_UNORDERED_RECORDS."};
+			}
+			if (ALIGNER == Aligner.EXTERNAL && !ALIGNER_STREAMING) {
+				return new String[]{"COORDINATE_SORT_OUTPUT requires a streaming aligner. Use ALIGNER=BWAMEM or ALIGNER_STREAMING=true."};
+			}
+		}
+		return super.customCommandLineValidation();
+	}
+
 	private void validateParameters() {
     	IOUtil.assertFileIsReadable(INPUT);
     	IOUtil.assertFileIsWritable(OUTPUT);
     	if (OUTPUT_UNORDERED_RECORDS != null) {
 			IOUtil.assertFileIsWritable(OUTPUT_UNORDERED_RECORDS);
 		}
+		if (METRICS_OUTPUT != null) {
+			IOUtil.assertFileIsWritable(METRICS_OUTPUT);
+		}
 	}
 
 	public static void main(String[] argv) {
@@ -0,0 +1,30 @@
+package gridss.analysis;
+
+import htsjdk.samtools.metrics.MetricBase;
+
+public class SoftClipRealignmentFilterMetrics extends MetricBase {
+	/**
+	 * Number of soft clips considered for realignment
+	 */
+	public long SOFT_CLIPS;
+	/**
+	 * Number of soft clips sent to the aligner
+	 */
+	public long PASSED;
+	/**
+	 * Number of soft clips not realigned due to excessive ambiguous bases
+	 */
+	public long AMBIGUOUS;
+	/**
+	 * Number of soft clips not realigned due to low Shannon entropy
+	 */
+	public long LOW_ENTROPY;
+	/**
+	 * Number of soft clips not realigned as they start with adapter sequence
+	 */
+	public long ADAPTER;
+	/**
+	 * Number of soft clips not realigned as they consist of short tandem repeats
+	 */
+	public long LOW_COMPLEXITY;
+}
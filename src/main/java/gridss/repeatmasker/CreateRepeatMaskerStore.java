@@ -0,0 +1,52 @@
+package gridss.repeatmasker;
+
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerBEDCodec;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerCodec;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerStore;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import picard.cmdline.CommandLineProgram;
+import picard.cmdline.StandardOptionDefinitions;
+
+import java.io.File;
+import java.io.IOException;
+
+@CommandLineProgramProperties(
+		summary = "Converts RepeatMasker annotations to a compressed, indexed binary store."
+				+ " The store can be used in place of the RepeatMasker BED file for inserted sequence annotation."
+				+ " The input can be either a RepeatMasker .fa.out file or a bedops rmsk2bed BED file.",
+		oneLineSummary = "Converts RepeatMasker annotations to a compressed, indexed binary store.",
+		programGroup = gridss.cmdline.programgroups.DataConversion.class
+)
+public class CreateRepeatMaskerStore extends CommandLineProgram {
+	private static final Log log = Log.getInstance(CreateRepeatMaskerStore.class);
+	@Argument(shortName=StandardOptionDefinitions.INPUT_SHORT_NAME, doc="RepeatMasker .fa.out file or bedops rmsk2bed BED file. Files ending in .bed or .bed.gz are parsed as BED.")
+	public File INPUT;
+	@Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Output RepeatMasker store")
+	public File OUTPUT;
+	@Override
+	protected int doWork() {
+		IOUtil.assertFileIsReadable(INPUT);
+		IOUtil.assertFileIsWritable(OUTPUT);
+		try {
+			log.info("Converting ", INPUT);
+			long count;
+			if (INPUT.getName().endsWith(".bed") || INPUT.getName().endsWith(".bed.gz")) {
+				count = RepeatMaskerStore.convert(INPUT, new RepeatMaskerBEDCodec(), OUTPUT);
+			} else {
+				count = RepeatMaskerStore.convert(INPUT, new RepeatMaskerCodec(), OUTPUT);
+			}
+			log.info(String.format("Wrote %d RepeatMasker features to %s", count, OUTPUT));
+		} catch (IOException e) {
+			log.error(e);
+			throw new RuntimeIOException(e);
+		}
+		return 0;
+	}
+	public static void main(String[] argv) {
+		System.exit(new CreateRepeatMaskerStore().instanceMain(argv));
+	}
+}
@@ -56,6 +56,8 @@ public class BAMFileReader extends SamReader.ReaderImplementation {
     private SeekableStream mIndexStream = null;
 
     private BAMIndex mIndex = null;
+    // If true, mIndex is shared with other readers of the same index file
+    private boolean mIndexShared = false;
     private long mFirstRecordPointer = 0;
     // If non-null, there is an unclosed iterator extant.
     private CloseableIterator<SAMRecord> mCurrentIterator = null;
@@ -414,7 +416,10 @@ public class BAMFileReader extends SamReader.ReaderImplementation {
             throw new SAMException("No index is available for this BAM file.");
         if(mIndex == null) {
             SamIndexes samIndex = getIndexType();
-            if (samIndex == null) {
+            if (samIndex != null && mEnableIndexCaching) {
+                mIndex = SharedBAMFileIndex.acquire(mIndexFile, samIndex, getFileHeader().getSequenceDictionary(), mEnableIndexMemoryMapping);
+                mIndexShared = true;
+            } else if (samIndex == null) {
                 mIndex = mEnableIndexCaching ? new CachingBAMFileIndex(mIndexStream, getFileHeader().getSequenceDictionary())
                         : new DiskBasedBAMFileIndex(mIndexStream, getFileHeader().getSequenceDictionary());
             } else if (samIndex.equals(SamIndexes.BAI)) {
@@ -463,11 +468,16 @@ public class BAMFileReader extends SamReader.ReaderImplementation {
             mStream.close();
         }
         if (mIndex != null) {
-            mIndex.close();
+            if (mIndexShared) {
+                SharedBAMFileIndex.release(mIndex);
+            } else {
+                mIndex.close();
+            }
         }
         mStream = null;
         mFileHeader = null;
         mIndex = null;
+        mIndexShared = false;
     }
 
     @Override
@@ -0,0 +1,258 @@
+package htsjdk.samtools;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Parsed BAM indexes shared by all readers of the same index file.
+ *
+ * The htsjdk caching index only retains the bins of the most recently queried reference
+ * sequence, and each reader parses its own copy. Readers that have index caching enabled
+ * instead share a single index per index file in which the bins of each reference sequence
+ * are parsed at most once and retained until memory is needed elsewhere.
+ *
+ * Indexes are reference counted: each {@link #acquire} must be matched by a {@link #release}.
+ * The underlying index file is closed when the last reader releases it.
+ */
+final class SharedBAMFileIndex {
+    private static final Map<Key, SharedIndex> cache = new HashMap<>();
+
+    private SharedBAMFileIndex() { }
+
+    /**
+     * Returns the shared index for the given index file, parsing the index header if this is
+     * the first reader of the file.
+     */
+    static synchronized BAMIndex acquire(final File indexFile, final SamIndexes type, final SAMSequenceDictionary dictionary, final boolean enableMemoryMapping) {
+        final Key key = new Key(indexFile, enableMemoryMapping);
+        SharedIndex index = cache.get(key);
+        if (index == null) {
+            if (type == SamIndexes.BAI) {
+                index = new SharedBAIIndex(key, indexFile, dictionary, enableMemoryMapping);
+            } else if (type == SamIndexes.CSI) {
+                index = new SharedCSIIndex(key, indexFile, dictionary, enableMemoryMapping);
+            } else {
+                throw new SAMFormatException("Unsupported BAM index file: " + indexFile.getName());
+            }
+            cache.put(key, index);
+        }
+        index.references().acquired++;
+        return (BAMIndex)index;
+    }
+
+    /**
+     * Releases an index obtained from {@link #acquire}
+     */
+    static synchronized void release(final BAMIndex index) {
+        final SharedIndex shared = (SharedIndex)index;
+        final ReferenceCache references = shared.references();
+        if (--references.acquired == 0) {
+            if (cache.get(references.key) == shared) {
+                cache.remove(references.key);
+            }
+            shared.closeShared();
+        }
+    }
+
+    /**
+     * Index file identity. Rewriting the index file results in a new shared index.
+     */
+    private static final class Key {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final boolean memoryMapped;
+
+        private Key(final File file, final boolean memoryMapped) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.memoryMapped = memoryMapped;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) return false;
+            final Key other = (Key)obj;
+            return path.equals(other.path)
+                    && length == other.length
+                    && lastModified == other.lastModified
+                    && memoryMapped == other.memoryMapped;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, length, lastModified, memoryMapped);
+        }
+    }
+
+    private interface SharedIndex {
+        ReferenceCache references();
+        void closeShared();
+    }
+
+    /**
+     * Parsed bins of each reference sequence. Guarded by the owning index.
+     */
+    private static final class ReferenceCache {
+        private final Key key;
+        private final Map<Integer, SoftReference<BAMIndexContent>> content = new HashMap<>();
+        private int acquired = 0;
+
+        private ReferenceCache(final Key key) {
+            this.key = key;
+        }
+
+        private BAMIndexContent get(final int referenceIndex) {
+            final SoftReference<BAMIndexContent> ref = content.get(referenceIndex);
+            return ref == null ? null : ref.get();
+        }
+
+        private void put(final int referenceIndex, final BAMIndexContent referenceContent) {
+            content.put(referenceIndex, new SoftReference<>(referenceContent));
+        }
+    }
+
+    /**
+     * BAI index caching the bins of every queried reference sequence.
+     * All access to the underlying index file buffer is synchronized as the index is shared between threads.
+     */
+    private static final class SharedBAIIndex extends CachingBAMFileIndex implements SharedIndex {
+        private final ReferenceCache references;
+
+        private SharedBAIIndex(final Key key, final File file, final SAMSequenceDictionary dictionary, final boolean enableMemoryMapping) {
+            super(file, dictionary, enableMemoryMapping);
+            this.references = new ReferenceCache(key);
+        }
+
+        @Override
+        protected synchronized BAMIndexContent getQueryResults(final int referenceIndex) {
+            BAMIndexContent result = references.get(referenceIndex);
+            if (result == null) {
+                result = query(referenceIndex, 1, -1);
+                if (result != null) {
+                    references.put(referenceIndex, result);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized long getStartOfLastLinearBin() {
+            return super.getStartOfLastLinearBin();
+        }
+
+        @Override
+        public synchronized BAMIndexMetaData getMetaData(final int reference) {
+            return super.getMetaData(reference);
+        }
+
+        @Override
+        public synchronized Long getNoCoordinateCount() {
+            return super.getNoCoordinateCount();
+        }
+
+        /**
+         * Shared indexes are closed when released by their last reader
+         */
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public ReferenceCache references() {
+            return references;
+        }
+
+        @Override
+        public synchronized void closeShared() {
+            super.close();
+        }
+    }
+
+    /**
+     * CSI index caching the bins of every queried reference sequence.
+     *
+     * CSI region queries only parse the chunks of the bins overlapping the region. The bins of
+     * the entire reference sequence are parsed once, and region queries are answered by
+     * filtering the parsed bins down to those overlapping the region.
+     */
+    private static final class SharedCSIIndex extends CSIIndex implements SharedIndex {
+        private final ReferenceCache references;
+
+        private SharedCSIIndex(final Key key, final File file, final SAMSequenceDictionary dictionary, final boolean enableMemoryMapping) {
+            super(file, enableMemoryMapping, dictionary);
+            this.references = new ReferenceCache(key);
+        }
+
+        @Override
+        protected synchronized BAMIndexContent query(final int referenceSequence, final int startPos, final int endPos) {
+            BAMIndexContent content = references.get(referenceSequence);
+            if (content == null) {
+                content = super.query(referenceSequence, 0, -1);
+                if (content == null) {
+                    return null;
+                }
+                references.put(referenceSequence, content);
+            }
+            if (startPos <= 0 && endPos <= 0) {
+                return content;
+            }
+            final BitSet regionBins = GenomicIndexUtil.regionToBins(startPos, endPos, getMinShift(), getBinDepth());
+            if (regionBins == null) {
+                return null;
+            }
+            final BinningIndexContent.BinList bins = content.getBins();
+            final Bin[] regionBinArray = new Bin[bins.maxBinNumber + 1];
+            for (final Bin bin : bins) {
+                final int binNumber = bin.getBinNumber();
+                if (regionBins.get(binNumber)) {
+                    regionBinArray[binNumber] = bin;
+                } else {
+                    // bins outside the region are retained without chunks as their offsets are used to find the start of the region
+                    final BinWithOffset empty = new BinWithOffset(referenceSequence, binNumber, ((BinWithOffset)bin).getlOffset());
+                    empty.setChunkList(Collections.emptyList());
+                    regionBinArray[binNumber] = empty;
+                }
+            }
+            return new BAMIndexContent(referenceSequence, regionBinArray, bins.numberOfNonNullBins, content.getMetaData(), content.getLinearIndex());
+        }
+
+        @Override
+        public synchronized long getStartOfLastLinearBin() {
+            return super.getStartOfLastLinearBin();
+        }
+
+        @Override
+        public synchronized BAMIndexMetaData getMetaData(final int reference) {
+            return super.getMetaData(reference);
+        }
+
+        @Override
+        public synchronized Long getNoCoordinateCount() {
+            return super.getNoCoordinateCount();
+        }
+
+        /**
+         * Shared indexes are closed when released by their last reader
+         */
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public ReferenceCache references() {
+            return references;
+        }
+
+        @Override
+        public synchronized void closeShared() {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,510 @@
+package scambler;
+
+import au.edu.wehi.idsv.debruijn.PackedSequence;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read overlap string graph stored in primitive arrays.
+ *
+ * Each read is a node and each edge v->w indicates that read w starts
+ * within read v and extends past the end of v. Reads contained within
+ * another read are not part of the graph but are tracked so they can
+ * be reported as support for the contig containing their container.
+ *
+ * Candidate overlaps are found by indexing the first maxMismatches + 1
+ * non-overlapping seed kmers of each read. Since every overlap of at least
+ * minOverlap bases spans all of these seeds, any overlap with at most
+ * maxMismatches mismatches contains at least one exactly matching seed.
+ * Seeds are capped at 32 bases so this guarantee only holds when
+ * minOverlap >= maxMismatches + 1.
+ *
+ * Nodes and edges are identified by integer ids which are recycled once the
+ * node has been released. Edges are stored in parallel arrays with the in and out
+ * edges of each node stored as linked lists threaded through those arrays.
+ *
+ * The graph has no knowledge of genomic position: callers are responsible for
+ * ensuring that successors are only calculated once all overlapping reads have
+ * been added, that nodes are only reduced once all successors have calculated
+ * their successors, and that unitigs are only extracted once all nodes involved
+ * have been reduced.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class CompactStringGraph<T> {
+	private static final int INITIAL_CAPACITY = 64;
+	private static final int NONE = -1;
+	private static final int MARK_VACANT = 0;
+	private static final int MARK_IN_PLAY = 1;
+	private static final int MARK_ELIMINATED = 2;
+	private final int seedSize;
+	private final int seedCount;
+	private final int minOverlap;
+	private final int maxMismatches;
+	private final int fuzz;
+	// node arrays
+	private PackedSequence[] seq = new PackedSequence[INITIAL_CAPACITY];
+	private Object[] payload = new Object[INITIAL_CAPACITY];
+	private int[] firstOut = new int[INITIAL_CAPACITY];
+	private int[] firstIn = new int[INITIAL_CAPACITY];
+	private int[] outDegree = new int[INITIAL_CAPACITY];
+	private int[] inDegree = new int[INITIAL_CAPACITY];
+	private int[] containedBy = new int[INITIAL_CAPACITY];
+	private int[] containedOffset = new int[INITIAL_CAPACITY];
+	private int[] firstContained = new int[INITIAL_CAPACITY];
+	private int[] nextContained = new int[INITIAL_CAPACITY];
+	/**
+	 * Seed lookup chains indexed by node * seedCount + seed index
+	 */
+	private int[] nextWithSameSeed;
+	private int[] mark = new int[INITIAL_CAPACITY];
+	private int[] markEdge = new int[INITIAL_CAPACITY];
+	private int nodeCapacityUsed = 0;
+	private final IntArrayList freeNodes = new IntArrayList();
+	private int nodeCount = 0;
+	// edge arrays
+	private int[] edgeFrom = new int[INITIAL_CAPACITY];
+	private int[] edgeTo = new int[INITIAL_CAPACITY];
+	private int[] edgeOffset = new int[INITIAL_CAPACITY];
+	private int[] edgeNextOut = new int[INITIAL_CAPACITY];
+	private int[] edgeNextIn = new int[INITIAL_CAPACITY];
+	private int edgeCapacityUsed = 0;
+	private final IntArrayList freeEdges = new IntArrayList();
+	private int edgeCount = 0;
+	/**
+	 * Lookup of seed entries (node * seedCount + seed index) by seed kmer
+	 */
+	private final Long2IntOpenHashMap firstSeed = new Long2IntOpenHashMap();
+	/**
+	 * Unbranching path of nodes in the string graph.
+	 */
+	public static class Unitig<T> {
+		/**
+		 * Contig base calls
+		 */
+		public final byte[] bases;
+		/**
+		 * Reads (including contained reads) in the unitig.
+		 */
+		public final List<T> reads;
+		/**
+		 * Offset of the start of each read in the contig.
+		 */
+		public final int[] readOffsets;
+		/**
+		 * Length of each read
+		 */
+		public final int[] readLengths;
+		private Unitig(byte[] bases, List<T> reads, int[] readOffsets, int[] readLengths) {
+			this.bases = bases;
+			this.reads = reads;
+			this.readOffsets = readOffsets;
+			this.readLengths = readLengths;
+		}
+	}
+	/**
+	 * @param minOverlap minimum number of bases of overlap between reads
+	 * @param maxMismatches maximum number of mismatches in a read overlap
+	 * @param fuzz edge length tolerance used during transitive reduction
+	 */
+	public CompactStringGraph(int minOverlap, int maxMismatches, int fuzz) {
+		if (minOverlap <= 0) throw new IllegalArgumentException("minOverlap must be positive");
+		this.seedSize = Math.max(1, Math.min(32, minOverlap / (Math.max(0, maxMismatches) + 1)));
+		this.seedCount = Math.min(Math.max(0, maxMismatches) + 1, minOverlap / seedSize);
+		this.nextWithSameSeed = new int[INITIAL_CAPACITY * seedCount];
+		this.minOverlap = minOverlap;
+		this.maxMismatches = maxMismatches;
+		this.fuzz = fuzz;
+		this.firstSeed.defaultReturnValue(NONE);
+	}
+	private void ensureNodeCapacity(int capacity) {
+		if (capacity <= seq.length) return;
+		int newCapacity = Math.max(capacity, 2 * seq.length);
+		seq = Arrays.copyOf(seq, newCapacity);
+		payload = Arrays.copyOf(payload, newCapacity);
+		firstOut = Arrays.copyOf(firstOut, newCapacity);
+		firstIn = Arrays.copyOf(firstIn, newCapacity);
+		outDegree = Arrays.copyOf(outDegree, newCapacity);
+		inDegree = Arrays.copyOf(inDegree, newCapacity);
+		containedBy = Arrays.copyOf(containedBy, newCapacity);
+		containedOffset = Arrays.copyOf(containedOffset, newCapacity);
+		firstContained = Arrays.copyOf(firstContained, newCapacity);
+		nextContained = Arrays.copyOf(nextContained, newCapacity);
+		nextWithSameSeed = Arrays.copyOf(nextWithSameSeed, newCapacity * seedCount);
+		mark = Arrays.copyOf(mark, newCapacity);
+		markEdge = Arrays.copyOf(markEdge, newCapacity);
+	}
+	private void ensureEdgeCapacity(int capacity) {
+		if (capacity <= edgeFrom.length) return;
+		int newCapacity = Math.max(capacity, 2 * edgeFrom.length);
+		edgeFrom = Arrays.copyOf(edgeFrom, newCapacity);
+		edgeTo = Arrays.copyOf(edgeTo, newCapacity);
+		edgeOffset = Arrays.copyOf(edgeOffset, newCapacity);
+		edgeNextOut = Arrays.copyOf(edgeNextOut, newCapacity);
+		edgeNextIn = Arrays.copyOf(edgeNextIn, newCapacity);
+	}
+	/**
+	 * Adds a read to the graph.
+	 * Reads shorter than the minimum overlap are not added.
+	 * @param read read sequence
+	 * @param value read payload
+	 * @return node id of the read, or -1 if the read could not be added
+	 */
+	public int add(PackedSequence read, T value) {
+		if (read.length() < minOverlap) return NONE;
+		int node;
+		if (freeNodes.isEmpty()) {
+			node = nodeCapacityUsed++;
+			ensureNodeCapacity(nodeCapacityUsed);
+		} else {
+			node = freeNodes.popInt();
+		}
+		seq[node] = read;
+		payload[node] = value;
+		firstOut[node] = NONE;
+		firstIn[node] = NONE;
+		outDegree[node] = 0;
+		inDegree[node] = 0;
+		containedBy[node] = NONE;
+		containedOffset[node] = 0;
+		firstContained[node] = NONE;
+		nextContained[node] = NONE;
+		mark[node] = MARK_VACANT;
+		for (int s = 0; s < seedCount; s++) {
+			long key = read.getKmer(s * seedSize, seedSize);
+			int entry = node * seedCount + s;
+			nextWithSameSeed[entry] = firstSeed.get(key);
+			firstSeed.put(key, entry);
+		}
+		nodeCount++;
+		return node;
+	}
+	private int addEdge(int from, int to, int offset) {
+		int edge;
+		if (freeEdges.isEmpty()) {
+			edge = edgeCapacityUsed++;
+			ensureEdgeCapacity(edgeCapacityUsed);
+		} else {
+			edge = freeEdges.popInt();
+		}
+		edgeFrom[edge] = from;
+		edgeTo[edge] = to;
+		edgeOffset[edge] = offset;
+		edgeNextOut[edge] = firstOut[from];
+		firstOut[from] = edge;
+		edgeNextIn[edge] = firstIn[to];
+		firstIn[to] = edge;
+		outDegree[from]++;
+		inDegree[to]++;
+		edgeCount++;
+		return edge;
+	}
+	private void unlinkOut(int edge) {
+		int from = edgeFrom[edge];
+		if (firstOut[from] == edge) {
+			firstOut[from] = edgeNextOut[edge];
+		} else {
+			int e = firstOut[from];
+			while (edgeNextOut[e] != edge) e = edgeNextOut[e];
+			edgeNextOut[e] = edgeNextOut[edge];
+		}
+	}
+	private void unlinkIn(int edge) {
+		int to = edgeTo[edge];
+		if (firstIn[to] == edge) {
+			firstIn[to] = edgeNextIn[edge];
+		} else {
+			int e = firstIn[to];
+			while (edgeNextIn[e] != edge) e = edgeNextIn[e];
+			edgeNextIn[e] = edgeNextIn[edge];
+		}
+	}
+	private void removeEdge(int edge) {
+		unlinkOut(edge);
+		unlinkIn(edge);
+		outDegree[edgeFrom[edge]]--;
+		inDegree[edgeTo[edge]]--;
+		freeEdges.add(edge);
+		edgeCount--;
+	}
+	private void removeAllEdges(int node) {
+		while (firstOut[node] != NONE) {
+			removeEdge(firstOut[node]);
+		}
+		while (firstIn[node] != NONE) {
+			removeEdge(firstIn[node]);
+		}
+	}
+	private int findEdge(int from, int to) {
+		for (int e = firstOut[from]; e != NONE; e = edgeNextOut[e]) {
+			if (edgeTo[e] == to) return e;
+		}
+		return NONE;
+	}
+	/**
+	 * Number of bases w extends past the end of v
+	 */
+	private int edgeLength(int edge) {
+		return edgeOffset[edge] + seq[edgeTo[edge]].length() - seq[edgeFrom[edge]].length();
+	}
+	private void contain(int container, int node, int offset) {
+		containedBy[node] = container;
+		containedOffset[node] = offset;
+		nextContained[node] = firstContained[container];
+		firstContained[container] = node;
+		removeAllEdges(node);
+	}
+	/**
+	 * Adds edges to all reads starting within the given read.
+	 * Reads fully contained within the given read are marked as contained.
+	 * @param node node to calculate successors of
+	 */
+	public void calculateSuccessors(int node) {
+		if (containedBy[node] != NONE) return;
+		PackedSequence v = seq[node];
+		// Offsets are processed in increasing order so only the largest overlap is retained
+		for (int i = 0; i <= v.length() - minOverlap; i++) {
+			for (int s = 0; s < seedCount; s++) {
+				for (int entry = firstSeed.get(v.getKmer(i + s * seedSize, seedSize)); entry != NONE; entry = nextWithSameSeed[entry]) {
+					if (entry % seedCount != s) continue;
+					int w = entry / seedCount;
+					if (w == node || containedBy[w] != NONE) continue;
+					if (matchesEarlierSeed(v, seq[w], i, s)) continue;
+					addOverlap(node, w, i);
+				}
+			}
+		}
+	}
+	/**
+	 * Determines whether an overlap at the given offset has already been
+	 * considered through an exact match of a lower-indexed seed.
+	 */
+	private boolean matchesEarlierSeed(PackedSequence v, PackedSequence ws, int offset, int seed) {
+		for (int s = 0; s < seed; s++) {
+			if (v.getKmer(offset + s * seedSize, seedSize) == ws.getKmer(s * seedSize, seedSize)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	private void addOverlap(int node, int w, int offset) {
+		PackedSequence v = seq[node];
+		PackedSequence ws = seq[w];
+		int overlap = PackedSequence.overlapLength(v, ws, offset);
+		if (overlap < minOverlap) return;
+		if (overlap - PackedSequence.overlapMatches(v, ws, offset) > maxMismatches) return;
+		if (offset + ws.length() < v.length() || (offset + ws.length() == v.length() && (offset > 0 || w > node))) {
+			contain(node, w, offset);
+		} else if (offset + ws.length() > v.length() && findEdge(node, w) == NONE) {
+			addEdge(node, w, offset);
+		}
+	}
+	/**
+	 * Performs Myers 2005 transitive reduction of the out edges of the given node.
+	 *
+	 * An edge v->x is removed if a path v->w->x of consistent length exists.
+	 * @param node node to reduce
+	 */
+	public void reduce(int node) {
+		if (outDegree[node] <= 1) return;
+		int longest = 0;
+		for (int e = firstOut[node]; e != NONE; e = edgeNextOut[e]) {
+			mark[edgeTo[e]] = MARK_IN_PLAY;
+			markEdge[edgeTo[e]] = e;
+			longest = Math.max(longest, edgeLength(e));
+		}
+		longest += fuzz;
+		for (int vw = firstOut[node]; vw != NONE; vw = edgeNextOut[vw]) {
+			int w = edgeTo[vw];
+			if (mark[w] != MARK_IN_PLAY) continue;
+			int vwLength = edgeLength(vw);
+			for (int wx = firstOut[w]; wx != NONE; wx = edgeNextOut[wx]) {
+				int x = edgeTo[wx];
+				int length = vwLength + edgeLength(wx);
+				if (length <= longest && mark[x] == MARK_IN_PLAY && Math.abs(length - edgeLength(markEdge[x])) <= fuzz) {
+					mark[x] = MARK_ELIMINATED;
+				}
+			}
+		}
+		int e = firstOut[node];
+		while (e != NONE) {
+			int next = edgeNextOut[e];
+			int x = edgeTo[e];
+			if (mark[x] == MARK_ELIMINATED) {
+				removeEdge(e);
+			}
+			mark[x] = MARK_VACANT;
+			e = next;
+		}
+	}
+	/**
+	 * Determines whether the given node is contained within another read
+	 */
+	public boolean isContained(int node) {
+		return containedBy[node] != NONE;
+	}
+	/**
+	 * Gets the outermost read containing the given node
+	 */
+	public int getContainer(int node) {
+		while (containedBy[node] != NONE) {
+			node = containedBy[node];
+		}
+		return node;
+	}
+	public int getOutDegree(int node) {
+		return outDegree[node];
+	}
+	public int getInDegree(int node) {
+		return inDegree[node];
+	}
+	@SuppressWarnings("unchecked")
+	public T getPayload(int node) {
+		return (T)payload[node];
+	}
+	private int successor(int node) {
+		return edgeTo[firstOut[node]];
+	}
+	private int predecessor(int node) {
+		return edgeFrom[firstIn[node]];
+	}
+	/**
+	 * Determines whether the unitig continues past the given node.
+	 * Edges to released nodes are not followed.
+	 */
+	private boolean continuesUnitig(int from) {
+		return outDegree[from] == 1 && firstOut[from] != NONE && inDegree[successor(from)] == 1;
+	}
+	/**
+	 * Finds the first node of the unitig containing the given node
+	 * @param node non-contained node
+	 * @return first node of the unitig
+	 */
+	public int unitigStart(int node) {
+		int start = node;
+		while (inDegree[start] == 1 && firstIn[start] != NONE && continuesUnitig(predecessor(start)) && predecessor(start) != node) {
+			start = predecessor(start);
+		}
+		return start;
+	}
+	/**
+	 * Gets the nodes of the unitig starting at the given node
+	 * @param start first node of unitig
+	 * @return unitig nodes in path order
+	 */
+	public IntArrayList unitigNodes(int start) {
+		IntArrayList nodes = new IntArrayList();
+		nodes.add(start);
+		int node = start;
+		while (continuesUnitig(node) && successor(node) != start) {
+			node = successor(node);
+			nodes.add(node);
+		}
+		return nodes;
+	}
+	/**
+	 * Assembles the given unitig and releases all nodes in the unitig, and all reads
+	 * contained within them, from the graph.
+	 * @param nodes unitig path
+	 * @return assembled unitig
+	 */
+	public Unitig<T> assembleAndRelease(IntArrayList nodes) {
+		int[] offsets = new int[nodes.size()];
+		for (int i = 1; i < nodes.size(); i++) {
+			int edge = findEdge(nodes.getInt(i - 1), nodes.getInt(i));
+			offsets[i] = offsets[i - 1] + edgeOffset[edge];
+		}
+		int last = nodes.getInt(nodes.size() - 1);
+		byte[] bases = new byte[offsets[offsets.length - 1] + seq[last].length()];
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			PackedSequence s = seq[nodes.getInt(i)];
+			int end = i == nodes.size() - 1 ? s.length() : Math.min(s.length(), offsets[i + 1] - offsets[i]);
+			for (int j = 0; j < end; j++) {
+				bases[offsets[i] + j] = s.get(j);
+			}
+		}
+		List<T> reads = new ArrayList<>();
+		IntArrayList readOffsets = new IntArrayList();
+		IntArrayList readLengths = new IntArrayList();
+		for (int i = 0; i < nodes.size(); i++) {
+			addReads(nodes.getInt(i), offsets[i], reads, readOffsets, readLengths);
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			release(nodes.getInt(i));
+		}
+		return new Unitig<>(bases, reads, readOffsets.toIntArray(), readLengths.toIntArray());
+	}
+	@SuppressWarnings("unchecked")
+	private void addReads(int node, int offset, List<T> reads, IntArrayList readOffsets, IntArrayList readLengths) {
+		reads.add((T)payload[node]);
+		readOffsets.add(offset);
+		readLengths.add(seq[node].length());
+		for (int c = firstContained[node]; c != NONE; c = nextContained[c]) {
+			addReads(c, offset + containedOffset[c], reads, readOffsets, readLengths);
+		}
+	}
+	/**
+	 * Removes the given node, and all nodes contained within it, from the graph.
+	 *
+	 * The degree of adjacent nodes is not changed so the unitig structure of the
+	 * remaining nodes is preserved.
+	 */
+	private void release(int node) {
+		for (int c = firstContained[node]; c != NONE; ) {
+			int next = nextContained[c];
+			release(c);
+			c = next;
+		}
+		while (firstOut[node] != NONE) {
+			int edge = firstOut[node];
+			unlinkOut(edge);
+			unlinkIn(edge);
+			freeEdges.add(edge);
+			edgeCount--;
+		}
+		while (firstIn[node] != NONE) {
+			int edge = firstIn[node];
+			unlinkOut(edge);
+			unlinkIn(edge);
+			freeEdges.add(edge);
+			edgeCount--;
+		}
+		for (int s = 0; s < seedCount; s++) {
+			long key = seq[node].getKmer(s * seedSize, seedSize);
+			int entry = node * seedCount + s;
+			int head = firstSeed.get(key);
+			if (head == entry) {
+				if (nextWithSameSeed[entry] == NONE) {
+					firstSeed.remove(key);
+				} else {
+					firstSeed.put(key, nextWithSameSeed[entry]);
+				}
+			} else {
+				int n = head;
+				while (nextWithSameSeed[n] != entry) n = nextWithSameSeed[n];
+				nextWithSameSeed[n] = nextWithSameSeed[entry];
+			}
+		}
+		seq[node] = null;
+		payload[node] = null;
+		freeNodes.add(node);
+		nodeCount--;
+	}
+	/**
+	 * Number of reads in the graph
+	 */
+	public int size() {
+		return nodeCount;
+	}
+	/**
+	 * Number of edges in the graph
+	 */
+	public int edgeCount() {
+		return edgeCount;
+	}
+}
@@ -0,0 +1,268 @@
+package scambler;
+
+import au.edu.wehi.idsv.AssemblyEvidenceSource;
+import au.edu.wehi.idsv.AssemblyEvidenceSupport;
+import au.edu.wehi.idsv.AssemblyFactory;
+import au.edu.wehi.idsv.AssemblyIdGenerator;
+import au.edu.wehi.idsv.BreakendDirection;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.DirectedEvidence;
+import au.edu.wehi.idsv.NonReferenceReadPair;
+import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.SingleReadEvidence;
+import au.edu.wehi.idsv.debruijn.DeBruijnGraphBase;
+import au.edu.wehi.idsv.debruijn.PackedSequence;
+import au.edu.wehi.idsv.model.Models;
+import au.edu.wehi.idsv.sam.SamTags;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Range;
+import htsjdk.samtools.SAMRecord;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Streaming string graph breakend assembler.
+ *
+ * Evidence supporting a breakend in the given direction is added to a {@link CompactStringGraph}
+ * in genomic order. As the genomic position advances, each read progresses through successor
+ * calculation, transitive reduction, and finally unitig assembly. Reads are released from the
+ * graph once their unitig has been assembled so the graph size is bounded by the evidence
+ * density over a small multiple of the window size, not by the chunk size.
+ *
+ * Reads overlapping in sequence are assumed to be within windowSize of each other
+ * in the input evidence sort order.
+ *
+ * Contigs are output in the same format as {@link au.edu.wehi.idsv.debruijn.positional.PositionalAssembler}
+ * but are not in any particular order.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class StringGraphAssembler implements Iterator<SAMRecord> {
+	private final ProcessingContext context;
+	private final AssemblyEvidenceSource source;
+	private final AssemblyIdGenerator assemblyNameGenerator;
+	private final Iterator<DirectedEvidence> it;
+	private final BreakendDirection direction;
+	private final CompactStringGraph<StringGraphRead> graph;
+	private final long windowSize;
+	private final ArrayDeque<StringGraphRead> toCalculateSuccessors = new ArrayDeque<>();
+	private final ArrayDeque<StringGraphRead> toReduce = new ArrayDeque<>();
+	private final ArrayDeque<StringGraphRead> toAssemble = new ArrayDeque<>();
+	private final ArrayDeque<SAMRecord> output = new ArrayDeque<>();
+	private long currentPosition = Long.MIN_VALUE;
+	/**
+	 * Position that must be reached before the unitig blocking assembly can be assembled
+	 */
+	private long assembleBlockedUntil = Long.MIN_VALUE;
+	private static class StringGraphRead {
+		private final DirectedEvidence evidence;
+		private final long position;
+		private final int length;
+		/**
+		 * Number of reference-anchored bases at the start (forward) or end (backward) of the read
+		 */
+		private final int anchoredBases;
+		private int node;
+		private boolean released = false;
+		private StringGraphRead(DirectedEvidence evidence, long position, int length, int anchoredBases) {
+			this.evidence = evidence;
+			this.position = position;
+			this.length = length;
+			this.anchoredBases = anchoredBases;
+		}
+	}
+	/**
+	 * @param minOverlap minimum read overlap
+	 * @param maxMismatches maximum number of mismatches in a read overlap
+	 */
+	public StringGraphAssembler(ProcessingContext context, AssemblyEvidenceSource source, AssemblyIdGenerator assemblyNameGenerator, Iterator<DirectedEvidence> it, BreakendDirection direction, int minOverlap, int maxMismatches) {
+		this.context = context;
+		this.source = source;
+		this.assemblyNameGenerator = assemblyNameGenerator;
+		this.direction = direction;
+		this.it = Iterators.filter(it, x -> x.getBreakendSummary() != null && x.getBreakendSummary().direction == direction);
+		this.graph = new CompactStringGraph<>(minOverlap, maxMismatches, maxMismatches);
+		this.windowSize = source.getMaxConcordantFragmentSize() + source.getMaxReadLength() + 1;
+	}
+	private StringGraphRead load(DirectedEvidence e) {
+		byte[] bases;
+		int anchoredBases = 0;
+		if (e instanceof SingleReadEvidence) {
+			SingleReadEvidence sre = (SingleReadEvidence)e;
+			if (!sre.isBreakendExact()) return null;
+			byte[] anchor = sre.getAnchorSequence();
+			byte[] breakend = sre.getBreakendSequence();
+			bases = direction == BreakendDirection.Forward ? ArrayUtils.addAll(anchor, breakend) : ArrayUtils.addAll(breakend, anchor);
+			anchoredBases = anchor.length;
+		} else if (e instanceof NonReferenceReadPair) {
+			NonReferenceReadPair nrrp = (NonReferenceReadPair)e;
+			bases = nrrp.getNonReferenceRead().getReadBases();
+			if (bases == null || bases.length == 0) return null;
+			if (!nrrp.onExpectedStrand()) {
+				PackedSequence rc = new PackedSequence(bases, true, true);
+				bases = rc.getBytes(0, rc.length());
+			}
+		} else {
+			return null;
+		}
+		StringGraphRead read = new StringGraphRead(e, context.getLinear().getStartLinearCoordinate(e.getUnderlyingSAMRecord()), bases.length, anchoredBases);
+		read.node = graph.add(new PackedSequence(bases, false, false), read);
+		if (read.node < 0) return null;
+		return read;
+	}
+	private boolean isSuccessorCalculationReady(StringGraphRead r) {
+		return r.position + windowSize < currentPosition;
+	}
+	private boolean isReductionReady(StringGraphRead r) {
+		return r.position + 2 * windowSize < currentPosition;
+	}
+	/**
+	 * All nodes which could be parents of this node have been reduced
+	 */
+	private boolean isFinal(StringGraphRead r) {
+		return r.position + 3 * windowSize < currentPosition;
+	}
+	private void advance() {
+		while (!toCalculateSuccessors.isEmpty() && isSuccessorCalculationReady(toCalculateSuccessors.peekFirst())) {
+			StringGraphRead r = toCalculateSuccessors.pollFirst();
+			if (!r.released) {
+				graph.calculateSuccessors(r.node);
+			}
+		}
+		while (!toReduce.isEmpty() && isReductionReady(toReduce.peekFirst())) {
+			StringGraphRead r = toReduce.pollFirst();
+			if (!r.released) {
+				graph.reduce(r.node);
+			}
+		}
+		if (currentPosition - 3 * windowSize <= assembleBlockedUntil) return;
+		while (!toAssemble.isEmpty() && isFinal(toAssemble.peekFirst())) {
+			StringGraphRead r = toAssemble.peekFirst();
+			if (!r.released && !tryAssemble(r)) {
+				return;
+			}
+			toAssemble.pollFirst();
+		}
+	}
+	/**
+	 * Attempts to assemble the unitig containing the given read
+	 * @return true if the unitig was assembled, false if assembly must wait for further reads to be loaded
+	 */
+	private boolean tryAssemble(StringGraphRead r) {
+		int node = graph.getContainer(r.node);
+		IntArrayList nodes = graph.unitigNodes(graph.unitigStart(node));
+		long lastPosition = Long.MIN_VALUE;
+		for (int i = 0; i < nodes.size(); i++) {
+			lastPosition = Math.max(lastPosition, graph.getPayload(nodes.getInt(i)).position);
+		}
+		if (lastPosition + 3 * windowSize >= currentPosition) {
+			assembleBlockedUntil = lastPosition;
+			return false;
+		}
+		SAMRecord contig = toContig(graph.assembleAndRelease(nodes));
+		if (contig != null) {
+			output.add(contig);
+		}
+		return true;
+	}
+	private SAMRecord toContig(CompactStringGraph.Unitig<StringGraphRead> unitig) {
+		for (StringGraphRead read : unitig.reads) {
+			read.released = true;
+		}
+		if (unitig.reads.size() < 2) return null;
+		int length = unitig.bases.length;
+		byte[] quals = new byte[length];
+		int[] depth = new int[length];
+		StringGraphRead anchor = null;
+		int anchoredBases = 0;
+		for (int i = 0; i < unitig.reads.size(); i++) {
+			StringGraphRead read = unitig.reads.get(i);
+			int offset = unitig.readOffsets[i];
+			for (int j = offset; j < offset + read.length; j++) {
+				depth[j]++;
+			}
+			if (read.anchoredBases > 0) {
+				int readAnchoredBases = direction == BreakendDirection.Forward ? offset + read.anchoredBases : length - (offset + read.length - read.anchoredBases);
+				if (readAnchoredBases > anchoredBases) {
+					anchor = read;
+					anchoredBases = readAnchoredBases;
+				}
+			}
+		}
+		for (int i = 0; i < length; i++) {
+			quals[i] = DeBruijnGraphBase.toPicardFastqBaseQuality(depth[i]);
+		}
+		if (anchoredBases >= length) {
+			// reference assembly
+			return null;
+		}
+		int targetAnchorLength = Math.max(length - anchoredBases, context.getAssemblyParameters().anchorLength);
+		int basesToTrim = Math.max(0, anchoredBases - targetAnchorLength);
+		int startBasesToTrim = direction == BreakendDirection.Forward ? basesToTrim : 0;
+		int endBasesToTrim = direction == BreakendDirection.Forward ? 0 : basesToTrim;
+		byte[] bases = Arrays.copyOfRange(unitig.bases, startBasesToTrim, length - endBasesToTrim);
+		quals = Arrays.copyOfRange(quals, startBasesToTrim, length - endBasesToTrim);
+		List<DirectedEvidence> evidence = new ArrayList<>(unitig.reads.size());
+		List<AssemblyEvidenceSupport> support = new ArrayList<>(unitig.reads.size());
+		for (int i = 0; i < unitig.reads.size(); i++) {
+			StringGraphRead read = unitig.reads.get(i);
+			int offset = unitig.readOffsets[i];
+			evidence.add(read.evidence);
+			support.add(new AssemblyEvidenceSupport(read.evidence, Range.closed(offset, offset + read.length - 1)).adjustForAssemblyTruncation(startBasesToTrim));
+		}
+		SAMRecord contig;
+		if (anchor == null) {
+			BreakendSummary be = Models.calculateBreakend(context.getLinear(), evidence);
+			contig = AssemblyFactory.createUnanchoredBreakend(context, source, assemblyNameGenerator, be, evidence, support, bases, quals);
+		} else {
+			BreakendSummary be = anchor.evidence.getBreakendSummary();
+			contig = AssemblyFactory.createAnchoredBreakend(context, source, assemblyNameGenerator, direction, evidence, support,
+					be.referenceIndex, be.nominal, anchoredBases - basesToTrim, bases, quals);
+		}
+		if (contig != null) {
+			contig.setAttribute(SamTags.ASSEMBLY_DIRECTION, direction.toChar());
+		}
+		return contig;
+	}
+	private void ensureNext() {
+		while (output.isEmpty() && it.hasNext()) {
+			DirectedEvidence e = it.next();
+			StringGraphRead read = load(e);
+			if (read != null) {
+				toCalculateSuccessors.add(read);
+				toReduce.add(read);
+				toAssemble.add(read);
+				currentPosition = Math.max(currentPosition, read.position);
+				advance();
+			}
+		}
+		if (output.isEmpty() && !it.hasNext() && !toAssemble.isEmpty()) {
+			currentPosition = Long.MAX_VALUE;
+			assembleBlockedUntil = Long.MIN_VALUE;
+			advance();
+			assert(toAssemble.isEmpty());
+			assert(graph.size() == 0);
+		}
+	}
+	@Override
+	public boolean hasNext() {
+		ensureNext();
+		return !output.isEmpty();
+	}
+	@Override
+	public SAMRecord next() {
+		ensureNext();
+		if (output.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return output.poll();
+	}
+}
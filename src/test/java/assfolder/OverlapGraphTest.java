@@ -37,4 +37,16 @@ public class OverlapGraphTest extends TestHelper {
         assertEquals(r, og.add(r2));
         assertEquals(r3, og.add(r3));
     }
-}
\ No newline at end of file
+    @Test
+    public void minimiser_index_should_find_read_overlaps() {
+        List<SAMRecord> records = overlapping(1, 3, 100, 30);
+        List<Read> reads = records.stream().map(r -> new Read(r)).collect(Collectors.toList());
+        OverlapGraph og = new OverlapGraph(10, 5, 2, 20, 0);
+        og.add(reads.get(1));
+        og.add(reads.get(2));
+        og.add(reads.get(0));
+        assertEquals(2, reads.get(0).overlapSuccessors.size());
+        assertEquals(1, reads.get(1).overlapSuccessors.size());
+        assertEquals(0, reads.get(2).overlapSuccessors.size());
+    }
+}
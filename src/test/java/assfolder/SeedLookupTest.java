@@ -2,12 +2,16 @@ package assfolder;
 
 import au.edu.wehi.idsv.TestHelper;
 import com.google.common.collect.Lists;
+import htsjdk.samtools.SAMRecord;
 import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SeedLookupTest extends TestHelper {
@@ -64,4 +68,99 @@ public class SeedLookupTest extends TestHelper {
         assertEquals(-1, list.get(0).offset);
         assertEquals(r1, list.get(0).read);
     }
+    @Test
+    public void minimisers_should_sample_seeds() {
+        Read r = new Read(withSequence(S(RANDOM).substring(0, 1000), Read(0, 1, "1000M"))[0]);
+        SeedLookup all = new SeedLookup(15);
+        SeedLookup sampled = new SeedLookup(15, 10, 1);
+        all.add(r);
+        sampled.add(r);
+        assertEquals(1000 - 15 + 1, all.size());
+        assertTrue(sampled.size() < all.size() / 3);
+    }
+    @Test
+    public void minimiser_index_should_find_overlaps_sharing_a_window() {
+        String seq = S(RANDOM).substring(0, 500);
+        Read r1 = new Read(withSequence(seq.substring(0, 300), Read(0, 1, "300M"))[0]);
+        Read r2 = new Read(withSequence(seq.substring(200, 500), Read(0, 201, "300M"))[0]);
+        SeedLookup sl = new SeedLookup(15, 10, 3);
+        sl.add(r1);
+        List<ReadOffset> list = Lists.newArrayList(sl.findOverlaps(r2));
+        assertEquals(1, list.size());
+        assertEquals(r1, list.get(0).read);
+        assertEquals(-200, list.get(0).offset);
+    }
+    @Test
+    public void should_require_min_chain_seeds() {
+        Read r1 = new Read(withSequence("ACGTTGCAAAAAAAAA", Read(0, 1, "16M"))[0]);
+        Read r2 = new Read(withSequence("CCCCCCCCACGTTGCA", Read(0, 1, "16M"))[0]);
+        SeedLookup sl = new SeedLookup(8, 1, 2);
+        sl.add(r1);
+        assertEquals(0, sl.findOverlaps(r2).size());
+        sl = new SeedLookup(6, 1, 2);
+        sl.add(r1);
+        List<ReadOffset> list = Lists.newArrayList(sl.findOverlaps(r2));
+        assertEquals(1, list.size());
+        assertEquals(8, list.get(0).offset);
+    }
+    @Test
+    public void should_not_report_removed_reads() {
+        List<Read> reads = new ArrayList<>();
+        SeedLookup sl = new SeedLookup(10, 5, 1);
+        for (SAMRecord r : overlapping(1, 20, 100, 10)) {
+            Read read = new Read(r);
+            reads.add(read);
+            sl.add(read);
+        }
+        long seeds = sl.size();
+        for (int i = 0; i < 15; i++) {
+            sl.remove(reads.get(i));
+            assertNull(sl.getRead(reads.get(i)));
+        }
+        assertTrue(sl.size() < seeds);
+        for (int i = 15; i < 20; i++) {
+            assertEquals(reads.get(i), sl.getRead(reads.get(i)));
+        }
+        for (ReadOffset ro : sl.findOverlaps(reads.get(14))) {
+            assertTrue(reads.indexOf(ro.read) >= 15);
+        }
+        assertTrue(sl.findOverlaps(reads.get(14)).stream().anyMatch(ro -> ro.read == reads.get(15) && ro.offset == 10));
+    }
+    @Test
+    public void should_chain_seed_hits_within_diagonal_band() {
+        String seq = S(RANDOM).substring(0, 400);
+        Read r1 = new Read(withSequence(seq.substring(0, 300), Read(0, 1, "300M"))[0]);
+        // 1bp deletion 50bp into the overlap
+        Read r2 = new Read(withSequence(seq.substring(100, 150) + seq.substring(151, 400), Read(0, 101, "299M"))[0]);
+        SeedLookup exact = new SeedLookup(15, 1, 10);
+        exact.add(r1);
+        assertEquals(2, exact.findOverlaps(r2).size());
+        SeedLookup banded = new SeedLookup(15, 1, 10, 2);
+        banded.add(r1);
+        List<ReadOffset> list = Lists.newArrayList(banded.findOverlaps(r2));
+        assertEquals(1, list.size());
+        assertEquals(r1, list.get(0).read);
+        // diagonal after the deletion has more seed hits
+        assertEquals(-101, list.get(0).offset);
+    }
+    @Test
+    public void should_find_overlaps_of_buffered_and_merged_seeds() {
+        List<Read> reads = new ArrayList<>();
+        SeedLookup sl = new SeedLookup(10);
+        for (SAMRecord r : overlapping(1, 500, 100, 10)) {
+            Read read = new Read(r);
+            reads.add(read);
+            sl.add(read);
+            assertTrue(sl.findOverlaps(read).stream().allMatch(ro -> ro.read != read));
+        }
+        for (int i = 0; i < reads.size() - 1; i++) {
+            Read next = reads.get(i + 1);
+            assertTrue(sl.findOverlaps(reads.get(i)).stream().anyMatch(ro -> ro.read == next && ro.offset == 10));
+        }
+    }
+    @Test(expected=NoSuchElementException.class)
+    public void should_not_remove_missing_read() {
+        SeedLookup sl = new SeedLookup(4);
+        sl.remove(new Read(withSequence("AAAAAAAA", Read(0, 1, "8M"))[0]));
+    }
 }
@@ -1,5 +1,7 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.alignment.JniAlignerTests;
+import au.edu.wehi.idsv.configuration.AssemblyConfiguration;
 import au.edu.wehi.idsv.picard.InMemoryReferenceSequenceFile;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
@@ -18,6 +20,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
 
 import java.io.File;
 import java.io.IOException;
@@ -72,6 +75,46 @@ public class AssemblyEvidenceSourceTest extends IntermediateFilesTest {
 		assertEquals("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGAT", S(getRecords(assemblyFile).get(0).getReadBases()));
 	}
 	@Test
+	public void should_assemble_using_configured_algorithm() throws IOException {
+		createInput(
+				withSequence("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGA", Read(0, 1, "41M58S")),
+				withSequence("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGAT", Read(0, 1, "41M59S"))
+				);
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().getAssembly().minReads = 1;
+		pc.getConfig().getAssembly().algorithm = AssemblyConfiguration.AssemblyAlgorithm.StringGraph;
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), assemblyFile);
+		aes.assembleBreakends(null);
+
+		assertEquals(1, getRecords(assemblyFile).size());
+		assertEquals("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGAT", S(getRecords(assemblyFile).get(0).getReadBases()));
+	}
+	@Test
+	@Category(JniAlignerTests.class)
+	public void should_realign_contigs_in_process() throws IOException {
+		String seq = S(RANDOM).substring(0, 50) + S(RANDOM).substring(200, 250);
+		createInput(
+				withSequence(seq.substring(0, 99), Read(2, 1, "50M49S")),
+				withSequence(seq, Read(2, 1, "50M50S")));
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().getAssembly().minReads = 1;
+		pc.getConfig().getAssembly().realignInProcess = true;
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(pc, ImmutableList.of(ses), assemblyFile);
+		aes.assembleBreakends(null);
+		aes.ensureExtracted();
+		List<SAMRecord> contigs = getRecords(aes.getSVFile());
+		assertEquals(2, contigs.size());
+		SAMRecord primary = contigs.stream().filter(r -> !r.getSupplementaryAlignmentFlag()).findFirst().get();
+		SAMRecord supp = contigs.stream().filter(r -> r.getSupplementaryAlignmentFlag()).findFirst().get();
+		assertEquals(1, primary.getAlignmentStart());
+		assertEquals(201, supp.getAlignmentStart());
+		assertNotNull(primary.getAttribute("SA"));
+	}
+	@Test
 	public void iterator_should_return_in_chr_order() throws IOException {
 		createInput(
 				withSequence("AATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGGA", Read(0, 93, "41M58S")),
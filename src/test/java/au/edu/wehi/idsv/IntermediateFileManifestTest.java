@@ -0,0 +1,157 @@
+package au.edu.wehi.idsv;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class IntermediateFileManifestTest extends IntermediateFilesTest {
+	private File write(String name, String content) throws IOException {
+		File f = new File(testFolder.getRoot(), name);
+		Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return f;
+	}
+	@Test
+	public void should_reuse_recorded_file() throws IOException {
+		File in = write("in.txt", "input");
+		File f = write("chunk1.txt", "chunk");
+		List<File> inputs = ImmutableList.of(in);
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		assertFalse(manifest.isComplete(f, "p", inputs));
+		manifest.record(f, "test", "p", inputs, 1000);
+		assertTrue(manifest.isComplete(f, "p", inputs));
+	}
+	@Test
+	public void should_not_reuse_truncated_file() throws IOException {
+		File f = write("chunk2.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+			raf.setLength(2);
+		}
+		assertFalse(manifest.isComplete(f, "p", null));
+		assertFalse(IntermediateFileUtil.checkIntermediate(f));
+	}
+	@Test
+	public void should_not_reuse_corrupted_file() throws IOException {
+		File f = write("chunk3.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		write("chunk3.txt", "CHUNK");
+		assertFalse(manifest.isComplete(f, "p", null));
+	}
+	@Test
+	public void should_not_reuse_if_parameters_changed() throws IOException {
+		File f = write("chunk4.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		assertFalse(manifest.isComplete(f, "q", null));
+	}
+	@Test
+	public void should_not_reuse_if_inputs_changed() throws IOException {
+		File in = write("in5.txt", "input");
+		File f = write("chunk5.txt", "chunk");
+		List<File> inputs = ImmutableList.of(in);
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", inputs, 1000);
+		write("in5.txt", "longer input");
+		assertFalse(manifest.isComplete(f, "p", inputs));
+	}
+	@Test
+	public void isReusable_should_allow_files_without_entries() throws IOException {
+		File f = write("external.txt", "external");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		assertFalse(manifest.isComplete(f, "p", null));
+		assertTrue(manifest.isReusable(f, "p", null));
+		assertTrue(IntermediateFileUtil.checkIntermediate(f));
+		assertFalse(manifest.isReusable(new File(testFolder.getRoot(), "missing.txt"), "p", null));
+	}
+	@Test
+	public void should_persist_manifest_in_working_directory() throws IOException {
+		File f = write("chunk6.txt", "chunk");
+		IntermediateFileManifest.forFile(f).record(f, "test", "p", null, 1000);
+		File manifestFile = new File(testFolder.getRoot(), IntermediateFileManifest.MANIFEST_FILENAME);
+		assertTrue(manifestFile.exists());
+		List<String> lines = Files.readAllLines(manifestFile.toPath());
+		assertEquals(2, lines.size());
+		assertTrue(lines.get(1).startsWith("chunk6.txt\ttest\tp\t"));
+		assertEquals(ImmutableList.of("chunk6.txt"), IntermediateFileManifest.forFile(f).getFiles());
+	}
+	@Test
+	public void should_append_entries_with_later_entries_replacing_earlier() throws IOException {
+		File f1 = write("chunk7.txt", "chunk");
+		File f2 = write("chunk8.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f1);
+		manifest.record(f1, "test", "p", null, 1000);
+		manifest.record(f2, "test", "p", null, 1000);
+		manifest.record(f1, "test", "q", null, 1000);
+		File manifestFile = new File(testFolder.getRoot(), IntermediateFileManifest.MANIFEST_FILENAME);
+		List<String> lines = Files.readAllLines(manifestFile.toPath());
+		assertEquals(4, lines.size());
+		assertTrue(lines.get(3).startsWith("chunk7.txt\ttest\tq\t"));
+		assertTrue(manifest.isComplete(f1, "q", null));
+		assertFalse(manifest.isComplete(f1, "p", null));
+		assertTrue(manifest.isComplete(f2, "p", null));
+	}
+	@Test
+	public void should_detect_modification_after_verification() throws IOException {
+		File f = write("chunk9.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		assertTrue(manifest.isComplete(f, "p", null));
+		assertTrue(manifest.isComplete(f, "p", null));
+		write("chunk9.txt", "CHUNK");
+		assertTrue(f.setLastModified(f.lastModified() + 2000));
+		assertFalse(manifest.isComplete(f, "p", null));
+	}
+	@Test
+	public void should_not_recalculate_checksum_when_modification_time_unchanged() throws IOException {
+		File f = write("chunk10.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		FileTime recorded = Files.getLastModifiedTime(f.toPath());
+		// content changes that preserve size and modification time are not detected
+		write("chunk10.txt", "CHUNK");
+		Files.setLastModifiedTime(f.toPath(), recorded);
+		assertTrue(manifest.isComplete(f, "p", null));
+	}
+	@Test
+	public void should_record_new_modification_time_of_unchanged_file() throws IOException {
+		File f = write("chunk11.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		assertTrue(f.setLastModified(f.lastModified() + 2000));
+		assertTrue(manifest.isComplete(f, "p", null));
+		File manifestFile = new File(testFolder.getRoot(), IntermediateFileManifest.MANIFEST_FILENAME);
+		List<String> lines = Files.readAllLines(manifestFile.toPath());
+		assertEquals(3, lines.size());
+		assertTrue(lines.get(2).endsWith("\t" + Files.getLastModifiedTime(f.toPath()).to(TimeUnit.NANOSECONDS)));
+		assertTrue(manifest.isComplete(f, "p", null));
+		assertEquals(3, Files.readAllLines(manifestFile.toPath()).size());
+	}
+	@Test
+	public void should_count_reused_file_once() throws IOException {
+		File f = write("chunk12.txt", "chunk");
+		IntermediateFileManifest manifest = IntermediateFileManifest.forFile(f);
+		manifest.record(f, "test", "p", null, 1000);
+		long reused = IntermediateFileManifest.getReusedCount();
+		long saved = IntermediateFileManifest.getRecomputationSavedMs();
+		assertTrue(manifest.isComplete(f, "p", null));
+		assertTrue(manifest.isReusable(f, "p", null));
+		assertTrue(manifest.isConsistent(f));
+		assertEquals(reused + 1, IntermediateFileManifest.getReusedCount());
+		assertEquals(saved + 1000, IntermediateFileManifest.getRecomputationSavedMs());
+	}
+}
@@ -114,4 +114,30 @@ public class SequentialEvidenceAllocatorTest extends TestHelper {
 		VariantEvidenceSupport ves = allocator.next();
 		Assert.assertTrue(ves.support.stream().allMatch(e -> ves.variant.getBreakendSummary().overlaps(e.getBreakendSummary())));
 	}
+	@Test
+	public void should_assign_to_all_overlapping_calls_of_differing_widths() {
+		final ProcessingContext pc = getContext();
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		ArrayList<VariantContextDirectedEvidence> calls = new ArrayList<>();
+		for (int i = 1; i < 100; i++) {
+			int width = (i * 7) % 13;
+			calls.add((VariantContextDirectedEvidence)minimalBreakend()
+					.breakend(new BreakendSummary(0, FWD, i + width / 2, i, i + width), "")
+					.phredScore(i % 5 + 1)
+					.id("call" + i)
+					.make());
+		}
+		calls.sort(VariantContextDirectedEvidence.ByBreakendStartEnd);
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, null, 0, 0, 100);
+		for (int i = 1; i < 120; i++) {
+			ses.evidence.add(SCE(FWD, withReadName("r" + i, Read(0, i, "1M10S"))[0]));
+		}
+		SequentialEvidenceAllocator allocator = new SequentialEvidenceAllocator(pc, calls.iterator(), ses.evidence.iterator(), ImmutableList.<DirectedEvidence>of().iterator(), 20, false);
+		ArrayList<VariantEvidenceSupport> result = Lists.newArrayList(allocator);
+		assertEquals(calls.size(), result.size());
+		for (VariantEvidenceSupport ves : result) {
+			long expected = ses.evidence.stream().filter(e -> ves.variant.getBreakendSummary().overlaps(e.getBreakendSummary())).count();
+			assertEquals(expected, ves.support.size());
+		}
+	}
 }
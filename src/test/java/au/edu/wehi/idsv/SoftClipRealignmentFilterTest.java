@@ -0,0 +1,83 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.SoftClipRealignmentFilter.Classification;
+import gridss.analysis.SoftClipRealignmentFilterMetrics;
+import htsjdk.samtools.fastq.FastqRecord;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class SoftClipRealignmentFilterTest extends TestHelper {
+	private static final String[] ADAPTERS = new String[] { "AGATCGGAAGAG", "ATGGAATTCTCG", "CTGTCTCTTATA" };
+	private static final String UNIQUE = "CATGCCTGGCGTCCACTTTCTTGACTATTTCCTGAAGACCAGCG";
+	private SoftClipRealignmentFilter filter() {
+		return new SoftClipRealignmentFilter(ADAPTERS, 0.5, 0.5, 0.8);
+	}
+	@Test
+	public void should_pass_unique_sequence() {
+		assertEquals(Classification.PASS, filter().classify(B(UNIQUE)));
+	}
+	@Test
+	public void should_filter_ambiguous_bases() {
+		assertEquals(Classification.AMBIGUOUS, filter().classify(B("NNNNNNNNNNNNNNNNNNNNNNNNNACGTA")));
+		assertEquals(Classification.PASS, filter().classify(B("NN" + UNIQUE)));
+	}
+	@Test
+	public void should_filter_low_entropy() {
+		assertEquals(Classification.LOW_ENTROPY, filter().classify(B("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA")));
+		assertEquals(Classification.LOW_ENTROPY, filter().classify(B("GGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGGT")));
+	}
+	@Test
+	public void should_filter_short_tandem_repeats() {
+		assertEquals(Classification.LOW_COMPLEXITY, filter().classify(B("ACACACACACACACACACACACACACACACACACACAC")));
+		assertEquals(Classification.LOW_COMPLEXITY, filter().classify(B("TTGTTGTTGTTGTTGTTGTTGTTGTTGTTGTTGTTGTTG")));
+		// repeat is only a small portion of the soft clip
+		assertEquals(Classification.PASS, filter().classify(B("ACACACACACACAC" + UNIQUE)));
+	}
+	@Test
+	public void should_filter_adapter_at_start_of_soft_clip() {
+		assertEquals(Classification.ADAPTER, filter().classify(B("AGATCGGAAGAG" + UNIQUE)));
+		assertEquals(Classification.ADAPTER, filter().classify(B("CTGTCTCTTATA" + UNIQUE)));
+	}
+	@Test
+	public void should_allow_adapter_microhomology_with_anchor() {
+		assertEquals(Classification.ADAPTER, filter().classify(B("TCGGAAGAG" + UNIQUE)));
+	}
+	@Test
+	public void should_filter_partial_adapter_match() {
+		// read ends before the full adapter is sequenced
+		assertEquals(Classification.ADAPTER, filter().classify(B("AGATCGGAA")));
+		assertEquals(Classification.ADAPTER, filter().classify(B("AGATCGGA" + UNIQUE)));
+		assertEquals(Classification.ADAPTER, filter().classify(B("TCGGAAGA" + UNIQUE)));
+	}
+	@Test
+	public void should_require_minimum_adapter_match_length() {
+		assertEquals(Classification.PASS, filter().classify(B("AGATCGG" + UNIQUE)));
+	}
+	@Test
+	public void should_not_filter_adapter_not_at_start_of_soft_clip() {
+		assertEquals(Classification.PASS, filter().classify(B(UNIQUE + "AGATCGGAAGAG")));
+		assertEquals(Classification.PASS, filter().classify(B("GATTACAAGATCGGAAGAG" + UNIQUE)));
+	}
+	@Test
+	public void should_not_filter_without_adapters() {
+		assertEquals(Classification.PASS, new SoftClipRealignmentFilter(null, 0.5, 0.5, 0.8).classify(B("AGATCGGAAGAG" + UNIQUE)));
+	}
+	@Test
+	public void should_report_metrics() {
+		SoftClipRealignmentFilter f = filter();
+		assertTrue(f.shouldRealign(new FastqRecord("r1", UNIQUE, "", UNIQUE.replaceAll(".", "5"))));
+		assertFalse(f.shouldRealign(new FastqRecord("r2", "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA", "", "55555555555555555555555555555555555555")));
+		assertFalse(f.shouldRealign(new FastqRecord("r3", "AGATCGGAAGAG" + UNIQUE, "", ("AGATCGGAAGAG" + UNIQUE).replaceAll(".", "5"))));
+		SoftClipRealignmentFilterMetrics metrics = f.getMetrics();
+		assertEquals(3, metrics.SOFT_CLIPS);
+		assertEquals(1, metrics.PASSED);
+		assertEquals(1, metrics.LOW_ENTROPY);
+		assertEquals(1, metrics.ADAPTER);
+		assertEquals(0, metrics.AMBIGUOUS);
+		assertEquals(0, metrics.LOW_COMPLEXITY);
+	}
+}
@@ -5,6 +5,7 @@ import au.edu.wehi.idsv.picard.BufferedReferenceSequenceFile;
 import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
@@ -17,6 +18,7 @@ import java.io.IOException;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class StreamingSplitReadRealignerTest extends SplitReadRealignerTest {
     private static final SmithWatermanStreamingAligner aligner = new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, 2);
@@ -85,6 +87,27 @@ public class StreamingSplitReadRealignerTest extends SplitReadRealignerTest {
         assertEquals(4, list.size());
     }
 
+    @Test
+    public void coordinateSortOutput_should_write_coordinate_sorted_output() throws IOException {
+        SAMRecord r0 = Read(0, 100, "10M30S");
+        r0.setReadName("r");
+        SAMRecord r1 = Read(0, 50, "10M20S");
+        SAMRecord r2 = Read(0, 20, "10M10S");
+        SAMRecord r3 = Read(0, 10, "10M");
+        createBAM(input, SAMFileHeader.SortOrder.coordinate, r0);
+        StreamingSplitReadRealigner srr = new StreamingSplitReadRealigner(getContext(), new StubStreamingAligner(r1, r2, r3), 10);
+        srr.setCoordinateSortOutput(true);
+        srr.createSupplementaryAlignments(input, output, output);
+        List<SAMRecord> list = getRecords(output);
+        assertEquals(4, list.size());
+        for (int i = 1; i < list.size(); i++) {
+            assertTrue(list.get(i - 1).getAlignmentStart() <= list.get(i).getAlignmentStart());
+        }
+        try (SamReader reader = SamReaderFactory.makeDefault().open(output)) {
+            assertEquals(SAMFileHeader.SortOrder.coordinate, reader.getFileHeader().getSortOrder());
+        }
+    }
+
     @Test
     @Category(ExternalAlignerTests.class)
     @Ignore("Working 2018-04-08. Currently need to manual check # restarts of external aligner to actually test this functionality. Needs a delayed return stub to test properly.")
@@ -1,5 +1,7 @@
 package au.edu.wehi.idsv;
 
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerBEDCodec;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerStore;
 import com.google.common.collect.ImmutableList;
 import htsjdk.variant.variantcontext.VariantContext;
 import org.junit.Assert;
@@ -44,4 +46,20 @@ public class VariantContextRepeatMaskerAnnotatorTest extends TestHelper {
         Assert.assertEquals("MER5B", vc.getAttributeAsString("INSRMRT", null));
         Assert.assertEquals("+", vc.getAttributeAsString("INSRMRO", null));
     }
-}
\ No newline at end of file
+    @Test
+    public void should_match_using_repeat_masker_store() throws IOException {
+        File store = File.createTempFile("repeatmasker", ".rmstore");
+        try {
+            RepeatMaskerStore.convert(new File("src/test/resources/hg19.rm.bedops.bed"), new RepeatMaskerBEDCodec(), store);
+            try (VariantContextRepeatMaskerAnnotator rma = new VariantContextRepeatMaskerAnnotator(store)) {
+                VariantContext vc = rma.apply(minimalVariant().attribute("BEALN", ImmutableList.of("chr1:10465|-|10M|60", "chr1:11678|-|100M|60")).make());
+                Assert.assertEquals("MER5B", vc.getAttributeAsString("INSRMRT", null));
+                Assert.assertEquals("+", vc.getAttributeAsString("INSRMRO", null));
+                Assert.assertFalse(rma.apply(minimalVariant().attribute("BEALN", "chr1:10000|-|1M|60").make()).hasAttribute("INSRMRT"));
+                Assert.assertTrue(rma.apply(minimalVariant().attribute("BEALN", "chr1:10001|-|1M|60").make()).hasAttribute("INSRMRT"));
+            }
+        } finally {
+            store.delete();
+        }
+    }
+}
@@ -135,6 +135,23 @@ public class BwaAlignerTest extends TestHelper {
     }
     @Test
     @Category(JniAlignerTests.class)
+    public void settings_should_include_bwa_version_and_mem_options() throws IOException {
+        try (BwaAligner ba = new BwaAligner(new File("src/test/resources/small.fa"), SMALL_FA.getSequenceDictionary(), 2)) {
+            String settings = ba.getSettings();
+            assertTrue(settings.startsWith("bwa " + org.broadinstitute.hellbender.utils.bwa.BwaMemIndex.getBWAVersion() + " mem "));
+            assertTrue(settings.contains(" -L 0,0 "));
+            assertTrue(settings.contains(" -K 10000000 "));
+            ba.getAligner().setMatchScoreOption(2);
+            assertTrue(ba.getSettings().contains(" -A 2 "));
+        }
+        try (BwaAligner ba1 = new BwaAligner(new File("src/test/resources/small.fa"), SMALL_FA.getSequenceDictionary(), 1);
+             BwaAligner ba2 = new BwaAligner(new File("src/test/resources/small.fa"), SMALL_FA.getSequenceDictionary(), 2)) {
+            // thread count does not change alignments
+            assertEquals(ba1.getSettings(), ba2.getSettings());
+        }
+    }
+    @Test
+    @Category(JniAlignerTests.class)
     public void sanity_check_can_create_temp_file() throws IOException {
         File dir = Files.createTempDirectory("sanity_check_can_create_temp_file").toFile();
         File f = Files.createTempFile("sanity_check_can_create_temp_file", "").toFile();
@@ -0,0 +1,177 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.SequenceUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class RealignmentCacheTest extends TestHelper {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private SAMRecord alignment(String cigar, boolean negativeStrand) {
+        SAMRecord r = Read(1, 10, cigar);
+        r.setReadName("r");
+        r.setReadNegativeStrandFlag(negativeStrand);
+        r.setMappingQuality(40);
+        r.setAttribute("NM", 1);
+        return r;
+    }
+    private static byte[] alignedBases(SAMRecord r) {
+        byte[] bases = r.getReadBases().clone();
+        if (r.getReadNegativeStrandFlag()) {
+            SequenceUtil.reverseComplement(bases);
+        }
+        return bases;
+    }
+
+    @Test
+    public void should_return_cached_alignment() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            SAMRecord r = alignment("5M5S", false);
+            assertNull(cache.get(alignedBases(r)));
+            cache.put(alignedBases(r), r);
+            SAMRecord cached = cache.get(alignedBases(r));
+            assertNotNull(cached);
+            assertEquals("5M5S", cached.getCigarString());
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void should_persist_alignments() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r = alignment("4S6M", true);
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            cache.put(alignedBases(r), r);
+        }
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            SAMRecord cached = cache.get(alignedBases(r));
+            assertNotNull(cached);
+            assertEquals(r.getReferenceIndex(), cached.getReferenceIndex());
+            assertEquals(r.getAlignmentStart(), cached.getAlignmentStart());
+            assertEquals("4S6M", cached.getCigarString());
+            assertTrue(cached.getReadNegativeStrandFlag());
+            assertEquals(40, cached.getMappingQuality());
+            assertEquals(1, (int)cached.getIntegerAttribute("NM"));
+        }
+    }
+
+    @Test
+    public void should_not_persist_duplicate_alignments() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r = alignment("10M", false);
+        long length;
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            cache.put(alignedBases(r), r);
+        }
+        length = file.length();
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            cache.put(alignedBases(r), r);
+            cache.put(alignedBases(r), r);
+        }
+        assertEquals(length, file.length());
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            assertNotNull(cache.get(alignedBases(r)));
+        }
+    }
+
+    @Test
+    public void should_read_alignments_not_yet_written_to_file() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r1 = alignment("10M", false);
+        SAMRecord r2 = alignment("10M", false);
+        r2.setReadBases(B("TTTTTTTTTT"));
+        // in-memory LRU of size 1 forces r1 to be read back from the append buffer
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 1)) {
+            cache.put(alignedBases(r1), r1);
+            cache.put(alignedBases(r2), r2);
+            SAMRecord cached = cache.get(alignedBases(r1));
+            assertNotNull(cached);
+            assertEquals("10M", cached.getCigarString());
+            assertEquals(1, cache.getHits());
+        }
+    }
+
+    @Test
+    public void should_not_index_more_than_max_alignments() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r1 = alignment("10M", false);
+        SAMRecord r2 = alignment("10M", false);
+        r2.setReadBases(B("TTTTTTTTTT"));
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10, 1)) {
+            cache.put(alignedBases(r1), r1);
+            cache.put(alignedBases(r2), r2);
+        }
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10, 2)) {
+            assertNotNull(cache.get(alignedBases(r1)));
+            assertNull(cache.get(alignedBases(r2)));
+            cache.put(alignedBases(r2), r2);
+        }
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10, 1)) {
+            assertNotNull(cache.get(alignedBases(r1)));
+            assertNull(cache.get(alignedBases(r2)));
+        }
+    }
+
+    @Test
+    public void should_not_return_alignments_from_different_aligner_settings() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r = alignment("10M", false);
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            cache.put(alignedBases(r), r);
+        }
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "different", 10)) {
+            assertNull(cache.get(alignedBases(r)));
+        }
+    }
+
+    @Test
+    public void should_ignore_truncated_record() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r1 = alignment("10M", false);
+        SAMRecord r2 = alignment("10M", false);
+        r2.setReadBases(B("TTTTTTTTTT"));
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            cache.put(alignedBases(r1), r1);
+            cache.put(alignedBases(r2), r2);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            assertNotNull(cache.get(alignedBases(r1)));
+            assertNull(cache.get(alignedBases(r2)));
+        }
+    }
+
+    @Test
+    public void caching_aligner_should_not_realign_cached_sequences() throws IOException {
+        File file = new File(testFolder.getRoot(), "cache.bin");
+        SAMRecord r = alignment("10M", false);
+        try (RealignmentCache cache = new RealignmentCache(file, SMALL_FA.getSequenceDictionary(), "test", 10)) {
+            cache.put(alignedBases(r), r);
+            // the cache is closed by the outer try block so only the underlying aligner is closed here
+            try (SmithWatermanStreamingAligner sw = new SmithWatermanStreamingAligner(AlignerFactory.create(), SMALL_FA, 1)) {
+                CachingStreamingAligner aligner = new CachingStreamingAligner(sw, cache);
+                aligner.asyncAlign(new FastqRecord("newname", r.getReadString(), "", r.getBaseQualityString()));
+                assertEquals(1, aligner.processedAlignmentRecords());
+                SAMRecord result = aligner.getAlignment();
+                assertEquals("newname", result.getReadName());
+                assertEquals(r.getAlignmentStart(), result.getAlignmentStart());
+                assertEquals("10M", result.getCigarString());
+            }
+        }
+    }
+}
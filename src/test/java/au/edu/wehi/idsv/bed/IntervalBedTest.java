@@ -116,4 +116,28 @@ public class IntervalBedTest extends TestHelper {
 			assertEquals(qi[i].end, result[i].end);
 		}
 	}
+	@Test
+	public void overlap_should_reflect_intervals_added_after_lookup() {
+		IntervalBed bed = new IntervalBed(getContext().getLinear());
+		assertFalse(bed.overlaps(1, 3, 5));
+		bed.addInterval(1, 3, 5);
+		assertTrue(bed.overlaps(1, 3, 5));
+		IntervalBed toRemove = new IntervalBed(getContext().getLinear());
+		toRemove.addInterval(1, 1, 10);
+		bed.remove(toRemove);
+		assertFalse(bed.overlaps(1, 3, 5));
+	}
+	@Test
+	public void addAll_should_merge_intervals() {
+		IntervalBed bed = new IntervalBed(getContext().getLinear());
+		bed.addInterval(1, 3, 5);
+		IntervalBed other = new IntervalBed(getContext().getLinear());
+		other.addInterval(1, 6, 9);
+		other.addInterval(2, 1, 1);
+		bed.addAll(other);
+		assertEquals(2, bed.size());
+		assertTrue(bed.overlaps(1, 9, 9));
+		assertTrue(bed.overlaps(2, 1, 1));
+		assertFalse(bed.overlaps(1, 10, 10));
+	}
 }
@@ -0,0 +1,74 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class PanelOfNormalsIndexTest extends IntermediateFilesTest {
+	private static final List<Pair<BreakendSummary, Integer>> PON = ImmutableList.of(
+			Pair.create(new BreakendSummary(0, FWD, 100, 100, 105), 3),
+			Pair.create(new BreakpointSummary(0, FWD, 200, 1, BWD, 500), 2),
+			Pair.create(new BreakpointSummary(0, FWD, 202, 1, BWD, 502), 4),
+			Pair.create(new BreakpointSummary(1, BWD, 300, 2, FWD, 1000), 1));
+	@Test
+	public void should_match_breakpoint_on_both_breakends() {
+		PanelOfNormalsIndex index = PanelOfNormalsIndex.create(PON.iterator(), getSequenceDictionary().size());
+		assertEquals(2, index.count(new BreakpointSummary(0, FWD, 200, 1, BWD, 500), 0));
+		assertEquals(4, index.count(new BreakpointSummary(0, FWD, 200, 1, BWD, 500), 2));
+		assertEquals(0, index.count(new BreakpointSummary(0, FWD, 200, 1, BWD, 510), 4));
+		assertEquals(0, index.count(new BreakpointSummary(0, FWD, 200, 1, FWD, 500), 4));
+		assertEquals(0, index.count(new BreakpointSummary(0, FWD, 200, 2, BWD, 500), 4));
+	}
+	@Test
+	public void should_match_high_breakend() {
+		PanelOfNormalsIndex index = PanelOfNormalsIndex.create(PON.iterator(), getSequenceDictionary().size());
+		assertEquals(1, index.count(new BreakpointSummary(2, FWD, 1000, 1, BWD, 300), 0));
+	}
+	@Test
+	public void should_match_breakends_only_to_breakends() {
+		PanelOfNormalsIndex index = PanelOfNormalsIndex.create(PON.iterator(), getSequenceDictionary().size());
+		assertEquals(3, index.count(new BreakendSummary(0, FWD, 103), 0));
+		assertEquals(3, index.count(new BreakendSummary(0, FWD, 109), 4));
+		assertEquals(0, index.count(new BreakendSummary(0, FWD, 110), 4));
+		assertEquals(0, index.count(new BreakendSummary(0, BWD, 103), 4));
+		assertEquals(0, index.count(new BreakendSummary(0, FWD, 200), 0));
+	}
+	@Test
+	public void load_should_merge_overlapping_store_calls() throws IOException {
+		PonStore.write(output, getSequenceDictionary(), ImmutableList.of(
+				Pair.<BreakendSummary, Integer>create(new BreakpointSummary(0, FWD, 200, 1, BWD, 500), 2),
+				Pair.<BreakendSummary, Integer>create(new BreakpointSummary(0, FWD, 201, 1, BWD, 501), 3),
+				Pair.<BreakendSummary, Integer>create(new BreakpointSummary(0, FWD, 300, 1, BWD, 500), 1)).iterator());
+		ExecutorService threadpool = Executors.newFixedThreadPool(2);
+		try (PonStore store = new PonStore(output, getSequenceDictionary())) {
+			PanelOfNormalsIndex index = PanelOfNormalsIndex.load(store, getSequenceDictionary().size(), threadpool);
+			assertEquals(5, index.count(new BreakpointSummary(0, FWD, 200, 1, BWD, 500), 0));
+			assertEquals(1, index.count(new BreakpointSummary(0, FWD, 300, 1, BWD, 500), 0));
+			assertEquals(0, index.count(new BreakpointSummary(1, FWD, 300, 1, BWD, 500), 0));
+		} finally {
+			threadpool.shutdown();
+		}
+	}
+	@Test
+	public void should_skip_blocks_not_overlapping_remote_breakend() {
+		ImmutableList.Builder<Pair<BreakendSummary, Integer>> builder = ImmutableList.builder();
+		for (int i = 1; i < 1000; i++) {
+			builder.add(Pair.create(new BreakpointSummary(0, FWD, i, i, i + 20, 1, BWD, 10000 - i, 10000 - i, 10000 - i), i));
+		}
+		PanelOfNormalsIndex index = PanelOfNormalsIndex.create(builder.build().iterator(), getSequenceDictionary().size());
+		for (int i = 1; i < 1000; i += 37) {
+			assertEquals(i, index.count(new BreakpointSummary(0, FWD, i + 10, 1, BWD, 10000 - i), 0));
+		}
+	}
+}
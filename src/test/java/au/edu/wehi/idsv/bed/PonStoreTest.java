@@ -0,0 +1,128 @@
+package au.edu.wehi.idsv.bed;
+
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.BreakpointSummary;
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class PonStoreTest extends IntermediateFilesTest {
+	private List<Pair<BreakendSummary, Integer>> records(int count, int offset) {
+		List<Pair<BreakendSummary, Integer>> list = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			int pos = offset + 3 * i;
+			if (i % 3 == 0) {
+				list.add(Pair.create(new BreakendSummary(i % 2, FWD, pos, pos, pos + i % 5), 1 + i % 4));
+			} else {
+				list.add(Pair.create(new BreakpointSummary(i % 2, BWD, pos, pos, pos + 2, 1, FWD, 1000 + pos, 1000 + pos, 1001 + pos), 1 + i % 3));
+			}
+		}
+		list.sort(PonStore.ByBreakendStartEnd);
+		return list;
+	}
+	private List<Pair<BreakendSummary, Integer>> read(File file) throws IOException {
+		try (PonStore store = new PonStore(file, getSequenceDictionary())) {
+			try (CloseableIterator<Pair<BreakendSummary, Integer>> it = store.iterator()) {
+				return Lists.newArrayList(it);
+			}
+		}
+	}
+	@Test
+	public void should_round_trip() throws IOException {
+		List<Pair<BreakendSummary, Integer>> in = records(1000, 1);
+		try (PonStore.Writer writer = new PonStore.Writer(output, getSequenceDictionary(), 16)) {
+			for (Pair<BreakendSummary, Integer> p : in) {
+				writer.add(p);
+			}
+		}
+		List<Pair<BreakendSummary, Integer>> out = read(output);
+		assertEquals(in.size(), out.size());
+		for (int i = 0; i < in.size(); i++) {
+			assertEquals(in.get(i).getFirst(), out.get(i).getFirst());
+			assertEquals(in.get(i).getFirst().getClass(), out.get(i).getFirst().getClass());
+			assertEquals(in.get(i).getSecond(), out.get(i).getSecond());
+		}
+	}
+	@Test
+	public void should_combine_identical_records() throws IOException {
+		BreakendSummary be = new BreakendSummary(0, FWD, 10, 10, 12);
+		PonStore.write(output, getSequenceDictionary(), ImmutableList.of(Pair.create(be, 1), Pair.create(be, 2)).iterator());
+		List<Pair<BreakendSummary, Integer>> out = read(output);
+		assertEquals(1, out.size());
+		assertEquals(3, (int)out.get(0).getSecond());
+	}
+	@Test
+	public void should_store_only_lower_breakend() throws IOException {
+		BreakpointSummary bp = new BreakpointSummary(0, FWD, 10, 1, BWD, 20);
+		PonStore.write(output, getSequenceDictionary(), ImmutableList.of(
+				Pair.<BreakendSummary, Integer>create(bp, 1),
+				Pair.<BreakendSummary, Integer>create(bp.remoteBreakpoint(), 1)).iterator());
+		List<Pair<BreakendSummary, Integer>> out = read(output);
+		assertEquals(1, out.size());
+		assertEquals(bp, out.get(0).getFirst());
+	}
+	@Test
+	public void merge_should_combine_stores_and_additional_records() throws IOException {
+		File f1 = new File(testFolder.getRoot(), "1.ponstore");
+		File f2 = new File(testFolder.getRoot(), "2.ponstore");
+		List<Pair<BreakendSummary, Integer>> r1 = records(500, 1);
+		List<Pair<BreakendSummary, Integer>> r2 = records(500, 2);
+		List<Pair<BreakendSummary, Integer>> r3 = records(100, 1);
+		PonStore.write(f1, getSequenceDictionary(), r1.iterator());
+		PonStore.write(f2, getSequenceDictionary(), r2.iterator());
+		PonStore.merge(output, getSequenceDictionary(), ImmutableList.of(f1, f2), r3.iterator());
+		List<Pair<BreakendSummary, Integer>> out = read(output);
+		assertTrue(PonStore.ByBreakendStartEnd.isOrdered(out));
+		int expectedTotal = 0;
+		for (Pair<BreakendSummary, Integer> p : Iterables_concat(r1, r2, r3)) {
+			expectedTotal += p.getSecond();
+		}
+		assertEquals(expectedTotal, out.stream().mapToInt(p -> p.getSecond()).sum());
+		// records in r3 are identical to the first records of r1 thus combined
+		assertEquals(1000, out.size());
+	}
+	@Test
+	public void query_should_return_overlapping_records() throws IOException {
+		List<Pair<BreakendSummary, Integer>> in = records(1000, 1);
+		try (PonStore.Writer writer = new PonStore.Writer(output, getSequenceDictionary(), 8)) {
+			for (Pair<BreakendSummary, Integer> p : in) {
+				writer.add(p);
+			}
+		}
+		try (PonStore store = new PonStore(output, getSequenceDictionary())) {
+			for (int start = 0; start < 3100; start += 97) {
+				int end = start + 10;
+				List<BreakendSummary> expected = new ArrayList<>();
+				for (Pair<BreakendSummary, Integer> p : in) {
+					BreakendSummary be = p.getFirst();
+					if (be.referenceIndex == 1 && be.start <= end && be.end >= start) {
+						expected.add(be);
+					}
+				}
+				List<BreakendSummary> actual = new ArrayList<>();
+				try (CloseableIterator<Pair<BreakendSummary, Integer>> it = store.query(1, start, end)) {
+					it.forEachRemaining(p -> actual.add(p.getFirst()));
+				}
+				assertEquals(expected, actual);
+			}
+		}
+	}
+	private static <T> List<T> Iterables_concat(List<T> a, List<T> b, List<T> c) {
+		List<T> list = new ArrayList<>(a);
+		list.addAll(b);
+		list.addAll(c);
+		return list;
+	}
+}
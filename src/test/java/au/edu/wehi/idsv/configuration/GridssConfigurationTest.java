@@ -0,0 +1,41 @@
+package au.edu.wehi.idsv.configuration;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class GridssConfigurationTest {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	private GridssConfiguration load(String override) throws IOException, ConfigurationException {
+		File file = testFolder.newFile();
+		Files.write(file.toPath(), override.getBytes(StandardCharsets.UTF_8));
+		return new GridssConfiguration(file, testFolder.getRoot());
+	}
+	@Test
+	public void parameter_hash_should_only_depend_on_included_sections() throws IOException, ConfigurationException {
+		GridssConfiguration base = new GridssConfiguration();
+		GridssConfiguration vc = load("variantcalling.minReads = 7\n");
+		assertEquals(base.getParameterHash("softclip"), vc.getParameterHash("softclip"));
+		assertEquals(base.getParameterHash(GridssConfiguration.TOP_LEVEL_SECTION, "assembly"), vc.getParameterHash(GridssConfiguration.TOP_LEVEL_SECTION, "assembly"));
+		assertNotEquals(base.getParameterHash("variantcalling"), vc.getParameterHash("variantcalling"));
+		assertNotEquals(base.getParameterHash("variantcalling.minReads"), vc.getParameterHash("variantcalling.minReads"));
+		assertEquals(base.getParameterHash("variantcalling.minScore"), vc.getParameterHash("variantcalling.minScore"));
+	}
+	@Test
+	public void top_level_section_should_match_settings_not_in_any_section() throws IOException, ConfigurationException {
+		GridssConfiguration base = new GridssConfiguration();
+		GridssConfiguration top = load("minMapq = 7\n");
+		assertNotEquals(base.getParameterHash(GridssConfiguration.TOP_LEVEL_SECTION), top.getParameterHash(GridssConfiguration.TOP_LEVEL_SECTION));
+		assertEquals(base.getParameterHash("softclip", "assembly"), top.getParameterHash("softclip", "assembly"));
+	}
+}
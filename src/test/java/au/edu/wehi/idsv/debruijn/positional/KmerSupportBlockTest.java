@@ -0,0 +1,71 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KmerSupportBlockTest extends TestHelper {
+	@Test
+	public void sortByStart_should_retain_order_within_position() {
+		KmerSupportBlock block = new KmerSupportBlock(1);
+		block.add(new ImmutableKmerNode(1, 5, 6, false, 1));
+		block.add(new ImmutableKmerNode(2, -3, 6, true, 2));
+		block.add(new ImmutableKmerNode(3, 5, 5, false, 3));
+		block.add(new ImmutableKmerNode(4, -3, -2, false, 4));
+		block.sortByStart();
+		assertEquals(4, block.size());
+		assertEquals(2, block.kmer(0));
+		assertEquals(4, block.kmer(1));
+		assertEquals(1, block.kmer(2));
+		assertEquals(3, block.kmer(3));
+		assertEquals(-3, block.start(0));
+		assertEquals(6, block.end(0));
+		assertEquals(2, block.weight(0));
+		assertTrue(block.isReference(0));
+		assertFalse(block.isReference(1));
+	}
+	@Test
+	public void addAll_should_append_range() {
+		KmerSupportBlock src = new KmerSupportBlock();
+		for (int i = 0; i < 10; i++) {
+			src.add(new ImmutableKmerNode(i, i, i + 1, false, 1));
+		}
+		KmerSupportBlock dst = new KmerSupportBlock(1);
+		dst.addAll(src, 3, 7);
+		assertEquals(4, dst.size());
+		assertEquals(3, dst.kmer(0));
+		assertEquals(6, dst.kmer(3));
+		dst.clear();
+		assertTrue(dst.isEmpty());
+	}
+	@Test
+	public void block_aggregation_should_match_node_aggregation() {
+		List<KmerNode> input = new ArrayList<>();
+		for (int start = 0; start < 200; start++) {
+			for (int kmer = 0; kmer < 3; kmer++) {
+				input.add(new ImmutableKmerNode(kmer, start, start + (start * 7 + kmer) % 13, (start + kmer) % 5 == 0, 1 + kmer));
+			}
+		}
+		List<KmerSupportBlock> blocks = new ArrayList<>();
+		for (int i = 0; i < input.size(); i += 64) {
+			KmerSupportBlock block = new KmerSupportBlock();
+			for (KmerNode n : input.subList(i, Math.min(input.size(), i + 64))) {
+				block.add(n);
+			}
+			blocks.add(block);
+		}
+		List<KmerNode> expected = Lists.newArrayList(new AggregateNodeIterator(input.iterator()));
+		List<KmerNode> result = Lists.newArrayList(AggregateNodeIterator.fromSupportBlocks(blocks.iterator()));
+		assertEquals(expected.size(), result.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(new ImmutableKmerNode(expected.get(i)).toString(), new ImmutableKmerNode(result.get(i)).toString());
+		}
+	}
+}
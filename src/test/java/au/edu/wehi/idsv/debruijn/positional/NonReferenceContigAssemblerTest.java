@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -49,6 +50,7 @@ public class NonReferenceContigAssemblerTest extends TestHelper {
 		AggregateNodeIterator agIt = new AggregateNodeIterator(supportIt);
 		Iterator<KmerPathNode> pnIt = new PathNodeIterator(agIt, maxPathLength, k);
 		caller = new NonReferenceContigAssembler(pnIt, 0, maxEvidenceWidth + maxReadLength + 2, maxReadLength, k, aes, new SequentialIdGenerator("asm"), tracker, "test", direction, null, null);
+		caller.setMemoryBudget(pc.getAssemblyParameters().positional.maximumMemoryUsage, supportIt::estimatedMemoryUsage);
 		return caller;
 	}
 	@Test
@@ -363,6 +365,52 @@ public class NonReferenceContigAssemblerTest extends TestHelper {
 		output = go(pc, e.toArray(new DirectedEvidence[0]));
 		assertEquals(2 * 100, output.size());
 	}
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+		}
+		return used;
+	}
+	/**
+	 * MemoryUsageEstimates should be within a factor of 2 of the actual heap usage.
+	 * Measured at 0.98-1.14 for dense soft clip assembly.
+	 */
+	@Test
+	public void estimated_memory_usage_should_track_heap_usage() {
+		ProcessingContext pc = getContext();
+		MockSAMEvidenceSource ses = SES();
+		pc.getAssemblyParameters().positional.maximumMemoryUsage = 64 * 1024 * 1024;
+		pc.getAssemblyParameters().positional.maximumNodeDensity = Float.MAX_VALUE;
+		Random rng = new Random(0);
+		long baseline = usedHeap();
+		List<DirectedEvidence> e = new ArrayList<>();
+		for (int i = 0; i < 20000; i++) {
+			byte[] seq = new byte[100];
+			for (int j = 0; j < seq.length; j++) {
+				seq[j] = (byte)"ACGT".charAt(rng.nextInt(4));
+			}
+			e.add(SCE(FWD, ses, withReadName("r" + i, withSequence(seq, Read(0, 1 + i / 10, "50M50S")))[0]));
+		}
+		DirectedEvidence[] input = e.toArray(new DirectedEvidence[0]);
+		e = null;
+		caller = create(pc, input);
+		AssemblyMemoryBudgetExceededException exceeded = null;
+		try {
+			Lists.newArrayList(caller);
+		} catch (AssemblyMemoryBudgetExceededException ex) {
+			exceeded = ex;
+		}
+		long used = usedHeap() - baseline;
+		assertNotNull(exceeded);
+		// all input reads are loaded into the graph so the heap usage includes the reads
+		// which are accounted for in the per-evidence estimate
+		double ratio = used / (double)exceeded.getEstimatedMemoryUsage();
+		assertTrue(String.format("Heap usage of %d bytes for estimate of %d bytes", used, exceeded.getEstimatedMemoryUsage()), ratio > 0.5 && ratio < 2);
+		assertEquals(20000, input.length);
+	}
 	@Test
 	public void should_remove_misassembled_partial_paths() {
 		ProcessingContext pc = getContext();
@@ -174,4 +174,50 @@ public class PositionalAssemblerTest extends TestHelper {
 				.collect(Collectors.toList());
 		Assert.assertNotEquals(sequences.stream().distinct().count(), assembledReads.size()); // make sure we assembled fewer reads
 	}
+	@Test
+	public void should_downsample_then_exclude_region_when_memory_budget_exceeded() {
+		ProcessingContext pc = getContext();
+		pc.getAssemblyParameters().positional.maximumMemoryUsage = 4 * 1024 * 1024;
+		String seq = S(RANDOM).substring(1, 51) + S(RANDOM).substring(100, 150);
+		List<String> sequences = allSequencesWithinEditDistance(seq, 2);
+		AtomicInteger index = new AtomicInteger();
+		MockSAMEvidenceSource ses = SES();
+		List<DirectedEvidence> e = Lists.newArrayList(sequences.stream()
+				.map(s -> (DirectedEvidence)SCE(FWD, ses, withName(s + index.incrementAndGet(), withSequence(s, Read(2, 1, "50M50S")))[0]))
+				.collect(Collectors.toList()));
+		for (int i = 10; i < 200; i++) {
+			e.add(SCE(FWD, ses, Read(2, i * 100, "50M50S")));
+		}
+		IntervalBed excluded = new IntervalBed(pc.getLinear());
+		AssemblyEvidenceSource aes = AES(pc);
+		ArrayList<SAMRecord> output = Lists.newArrayList(new PositionalAssembler(pc, aes, new SequentialIdGenerator("asm"), e.iterator(), BreakendDirection.Forward, excluded, null));
+		assertTrue(excluded.overlaps(2, 1, 100));
+		assertFalse(excluded.overlaps(2, 5000, 20000));
+		// assembly continues after the excluded region
+		assertTrue(output.stream().anyMatch(r -> r.getAlignmentStart() > 5000));
+	}
+	private List<String> assemble(boolean pipelined, int pipelineBatchSize) {
+		ProcessingContext pc = getContext();
+		pc.getAssemblyParameters().positional.pipelined = pipelined;
+		pc.getAssemblyParameters().positional.pipelineBatchSize = pipelineBatchSize;
+		MockSAMEvidenceSource ses = SES();
+		List<DirectedEvidence> e = new ArrayList<>();
+		for (int i = 1; i < 200; i++) {
+			e.add(SCE(FWD, ses, withName("sc" + i, Read(2, i * 30, "50M50S"))[0]));
+			e.add(SCE(FWD, ses, withName("sc2_" + i, Read(2, i * 30 + 5, "45M30S"))[0]));
+		}
+		e.sort(DirectedEvidenceOrder.ByStartEndStart2End2);
+		AssemblyEvidenceSource aes = AES(pc);
+		return Lists.newArrayList(new PositionalAssembler(pc, aes, new SequentialIdGenerator("asm"), e.iterator(), BreakendDirection.Forward, null, null)).stream()
+				.map(r -> r.getSAMString())
+				.collect(Collectors.toList());
+	}
+	@Test
+	public void pipelined_assembly_should_match_single_threaded_assembly() {
+		List<String> expected = assemble(false, 1);
+		Assert.assertNotEquals(0, expected.size());
+		assertEquals(expected, assemble(true, 1));
+		assertEquals(expected, assemble(true, 7));
+		assertEquals(expected, assemble(true, 4096));
+	}
 }
@@ -0,0 +1,77 @@
+package au.edu.wehi.idsv.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RectangleGraphNodeWindowedSorterTest {
+	private RectangleGraphNodeStore store = new RectangleGraphNodeStore(1);
+	private List<String> drain(RectangleGraphNodeWindowedSorter sorter) {
+		List<String> result = new ArrayList<>();
+		while (sorter.hasNext()) {
+			int node = sorter.next();
+			result.add(store.toString(node));
+			store.release(node);
+		}
+		return result;
+	}
+	@Test
+	public void should_sort_within_window() {
+		RectangleGraphNodeWindowedSorter sorter = new RectangleGraphNodeWindowedSorter(store, 2);
+		sorter.add(store.add(2, 2, 5, 5, 1, 1));
+		sorter.add(store.add(1, 1, 5, 5, 1, 1));
+		sorter.add(store.add(1, 1, 4, 4, 1, 1));
+		assertFalse(sorter.hasNext());
+		sorter.add(store.add(4, 4, 5, 5, 1, 1));
+		List<String> result = drain(sorter);
+		assertEquals(2, result.size());
+		assertEquals(new RectangleGraphNode(1, 1, 4, 4, 1, 1).toString(), result.get(0));
+		assertEquals(new RectangleGraphNode(1, 1, 5, 5, 1, 1).toString(), result.get(1));
+		sorter.complete();
+		result = drain(sorter);
+		assertEquals(2, result.size());
+		assertEquals(new RectangleGraphNode(2, 2, 5, 5, 1, 1).toString(), result.get(0));
+		assertEquals(new RectangleGraphNode(4, 4, 5, 5, 1, 1).toString(), result.get(1));
+		assertEquals(0, store.size());
+	}
+	@Test
+	public void should_merge_same_coordinates() {
+		RectangleGraphNodeWindowedSorter sorter = new RectangleGraphNodeWindowedSorter(store, 1);
+		sorter.add(store.add(1, 2, 3, 4, 1, 1));
+		sorter.add(store.add(1, 2, 3, 5, 1, 1));
+		sorter.add(store.add(1, 2, 3, 4, 2, 0));
+		sorter.complete();
+		List<String> result = drain(sorter);
+		assertEquals(2, result.size());
+		assertEquals(new RectangleGraphNode(1, 2, 3, 4, 3, 1).toString(), result.get(0));
+		assertEquals(new RectangleGraphNode(1, 2, 3, 5, 1, 1).toString(), result.get(1));
+		assertEquals(0, store.size());
+	}
+	@Test
+	public void store_should_reuse_released_handles() {
+		int a = store.add(1, 1, 1, 1, 1, 1);
+		int b = store.add(2, 2, 2, 2, 2, 2);
+		store.release(a);
+		int c = store.add(3, 3, 3, 3, 3, 3);
+		assertEquals(a, c);
+		assertEquals(2, store.size());
+		assertEquals(3, store.startX(c));
+		assertEquals(2, store.endY(b));
+	}
+	@Test(expected = IllegalStateException.class)
+	public void should_throw_if_window_too_small() {
+		RectangleGraphNodeWindowedSorter sorter = new RectangleGraphNodeWindowedSorter(store, 1);
+		sorter.add(store.add(5, 5, 5, 5, 1, 1));
+		sorter.add(store.add(10, 10, 10, 10, 1, 1));
+		assertTrue(sorter.hasNext());
+		sorter.next();
+		sorter.add(store.add(1, 1, 1, 1, 1, 1));
+		sorter.complete();
+		drain(sorter);
+	}
+}
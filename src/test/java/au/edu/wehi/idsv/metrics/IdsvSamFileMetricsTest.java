@@ -35,6 +35,23 @@ public class IdsvSamFileMetricsTest extends TestHelper {
 		InsertSizeMetrics metrics = IdsvSamFileMetrics.getInsertSizeMetrics(new File("src/test/resources/multiple.idsv.metrics.insertsize.txt"), false);
 		assertEquals(PairOrientation.FR, metrics.PAIR_ORIENTATION);
 	}
+	@Test
+	public void readPairFoldedCumulativeDistribution_should_use_folded_fragment_size_distribution() {
+		IdsvMetrics im = new IdsvMetrics();
+		im.READ_PAIRS_BOTH_MAPPED = 200;
+		InsertSizeDistribution isd = new InsertSizeDistribution(new int[] { 10, 20, 30, 40 }, new double[] { 10, 40, 40, 10 });
+		IdsvSamFileMetrics metrics = new IdsvSamFileMetrics(new InsertSizeMetrics(), im, new MapqMetrics(), isd, new ArrayList<CigarDetailMetrics>());
+		// 100 pairs not in the insert size distribution
+		assertEquals(100.0 / 200, metrics.readPairFoldedCumulativeDistribution(0), 0.000001);
+		assertEquals(100.0 / 200, metrics.readPairFoldedCumulativeDistribution(5), 0.000001);
+		assertEquals(110.0 / 200, metrics.readPairFoldedCumulativeDistribution(10), 0.000001);
+		assertEquals(110.0 / 200, metrics.readPairFoldedCumulativeDistribution(15), 0.000001);
+		assertEquals(150.0 / 200, metrics.readPairFoldedCumulativeDistribution(20), 0.000001);
+		assertEquals(150.0 / 200, metrics.readPairFoldedCumulativeDistribution(30), 0.000001);
+		assertEquals(110.0 / 200, metrics.readPairFoldedCumulativeDistribution(40), 0.000001);
+		assertEquals(100.0 / 200, metrics.readPairFoldedCumulativeDistribution(41), 0.000001);
+		assertEquals(-10 * Math.log10(110.0 / 200), metrics.getReadPairPhred(10), 0.000001);
+	}
 	/*
 	@Test
 	public void shouldUseMADforStdDev() {
@@ -0,0 +1,75 @@
+package au.edu.wehi.idsv.picard;
+
+import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.QueryInterval;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class PagedReferenceSequenceFileTest extends TestHelper {
+	@Test
+	public void getSequenceShouldMatchUpperCaseUnderlying() throws IOException {
+		PagedReferenceSequenceFile b = new PagedReferenceSequenceFile(SMALL_FA, 16, 4);
+		for (String contig : SMALL_FA.getSequenceDictionary().getSequences().stream().map(ssr -> ssr.getSequenceName()).collect(Collectors.toList())) {
+			assertEquals(S(SMALL_FA.getSequence(contig).getBases()).toUpperCase(), S(b.getSequence(contig).getBases()));
+		}
+	}
+	@Test
+	public void getSubsequenceAtShouldMatchUpperCaseUnderlying() throws IOException {
+		PagedReferenceSequenceFile b = new PagedReferenceSequenceFile(SMALL_FA, 16, 4);
+		for (String contig : SMALL_FA.getSequenceDictionary().getSequences().stream().map(ssr -> ssr.getSequenceName()).collect(Collectors.toList())) {
+			for (int i = 1; i < 100; i++) {
+				for (int j = i; j < 100; j++) {
+					assertEquals(S(SMALL_FA.getSubsequenceAt(contig, i, j).getBases()).toUpperCase(), S(b.getSubsequenceAt(contig, i, j).getBases()));
+					assertEquals(SMALL_FA.getSubsequenceAt(contig, i, j).getName(), b.getSubsequenceAt(contig, i, j).getName());
+					assertEquals(SMALL_FA.getSubsequenceAt(contig, i, j).getContigIndex(), b.getSubsequenceAt(contig, i, j).getContigIndex());
+				}
+			}
+		}
+	}
+	@Test
+	public void getBaseShouldMatchUnderlying() {
+		PagedReferenceSequenceFile b = new PagedReferenceSequenceFile(SMALL_FA, 7, 2);
+		assertEquals(8, b.getPageSize());
+		byte[] expected = SMALL_FA.getSequence("polyACGT").getBases();
+		for (int i = 1; i <= expected.length; i++) {
+			assertEquals(expected[i - 1], b.getBase(1, i));
+		}
+	}
+	@Test
+	public void should_match_two_bit_encoding_of_ambiguous_and_lower_case_bases() throws IOException {
+		InMemoryReferenceSequenceFile underlying = new InMemoryReferenceSequenceFile(new String[] { "test" }, new byte[][] { B("NANNTacgtnRYSWKMBDHVN.-") });
+		PagedReferenceSequenceFile b = new PagedReferenceSequenceFile(underlying, 4, 2);
+		assertEquals(S(new TwoBitBufferedReferenceSequenceFile(underlying).getSequence("test").getBases()), S(b.getSequence("test").getBases()));
+		assertEquals('N', b.getBase(0, 1));
+		assertEquals('A', b.getBase(0, 2));
+		assertEquals('C', b.getBase(0, 7));
+	}
+	@Test
+	public void should_evict_pages_over_cap() {
+		PagedReferenceSequenceFile b = new PagedReferenceSequenceFile(SMALL_FA, 16, 3);
+		b.getBase(0, 1);
+		b.getBase(0, 17);
+		b.getBase(0, 33);
+		assertEquals(3, b.getLoadedPageCount());
+		b.getBase(0, 49);
+		assertEquals(3, b.getLoadedPageCount());
+		b.getSubsequenceAt(SMALL_FA.getSequenceDictionary().getSequence(0).getSequenceName(), 1, 1000);
+		assertEquals(3, b.getLoadedPageCount());
+	}
+	@Test
+	public void prefetch_should_load_pages() throws InterruptedException {
+		PagedReferenceSequenceFile b = new PagedReferenceSequenceFile(SMALL_FA, 16, 100);
+		b.prefetch(new QueryInterval[] { new QueryInterval(0, 1, 64), new QueryInterval(1, 10, 20) });
+		for (int i = 0; i < 100 && b.getLoadedPageCount() < 6; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(6, b.getLoadedPageCount());
+		assertTrue(b.getBase(0, 1) != 0);
+	}
+}
@@ -0,0 +1,76 @@
+package au.edu.wehi.idsv.repeatmasker;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import com.google.common.collect.Lists;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.annotation.Strand;
+import htsjdk.tribble.bed.BEDFeature;
+import htsjdk.tribble.readers.LineIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class RepeatMaskerStoreTest extends IntermediateFilesTest {
+    private static final File BED = new File("src/test/resources/hg19.rm.bedops.bed");
+    @Test
+    public void should_round_trip_bed() throws IOException {
+        Assert.assertEquals(10, RepeatMaskerStore.convert(BED, new RepeatMaskerBEDCodec(), output));
+        Assert.assertTrue(RepeatMaskerStore.isStore(output));
+        Assert.assertFalse(RepeatMaskerStore.isStore(BED));
+        List<BEDFeature> expected;
+        try (AbstractFeatureReader<BEDFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(BED.getPath(), new RepeatMaskerBEDCodec(), false)) {
+            expected = Lists.newArrayList((Iterable<BEDFeature>)reader.iterator());
+        }
+        try (RepeatMaskerStore store = new RepeatMaskerStore(output)) {
+            Assert.assertEquals(1, store.getContigs().size());
+            List<RepeatMaskerFeature> actual = store.query("chr1", 1, Integer.MAX_VALUE);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                RepeatMaskerFeature e = (RepeatMaskerFeature)expected.get(i);
+                RepeatMaskerFeature a = actual.get(i);
+                Assert.assertEquals(e.getContig(), a.getContig());
+                Assert.assertEquals(e.getStart(), a.getStart());
+                Assert.assertEquals(e.getEnd(), a.getEnd());
+                Assert.assertEquals(e.getStrand(), a.getStrand());
+                Assert.assertEquals(e.getScore(), a.getScore(), 0);
+                Assert.assertEquals(e.getRepeatType(), a.getRepeatType());
+                Assert.assertEquals(e.getRepeatClass(), a.getRepeatClass());
+            }
+        }
+    }
+    @Test
+    public void query_should_return_overlapping_features() throws IOException {
+        try (RepeatMaskerStore.Writer writer = new RepeatMaskerStore.Writer(output, 4)) {
+            for (int i = 0; i < 100; i++) {
+                writer.add("chr2", 10 * i + 1, 10 * i + 1 + (i % 7) * 5, Strand.POSITIVE, i, "type" + (i % 3), null);
+            }
+            writer.add("chr1", 5, 10, Strand.NEGATIVE, 0, "type", "class");
+        }
+        try (RepeatMaskerStore store = new RepeatMaskerStore(output, 2)) {
+            for (int start = 1; start < 1100; start += 13) {
+                int end = start + 4;
+                List<Float> expected = Lists.newArrayList();
+                for (int i = 0; i < 100; i++) {
+                    if (10 * i + 1 <= end && 10 * i + 1 + (i % 7) * 5 >= start) {
+                        expected.add((float)i);
+                    }
+                }
+                Assert.assertEquals(expected, store.query("chr2", start, end).stream().map(f -> f.getScore()).collect(Collectors.toList()));
+            }
+            Assert.assertEquals(1, store.query("chr1", 10, 10).size());
+            Assert.assertEquals(0, store.query("chr1", 11, 20).size());
+            Assert.assertEquals(0, store.query("chr3", 1, 20).size());
+        }
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void writer_should_require_sorted_input() throws IOException {
+        try (RepeatMaskerStore.Writer writer = new RepeatMaskerStore.Writer(output)) {
+            writer.add("chr1", 10, 20, Strand.POSITIVE, 0, "type", "class");
+            writer.add("chr1", 5, 20, Strand.POSITIVE, 0, "type", "class");
+        }
+    }
+}
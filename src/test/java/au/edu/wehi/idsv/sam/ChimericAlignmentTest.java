@@ -4,6 +4,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
 import com.google.common.collect.TreeRangeSet;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTag;
 import htsjdk.samtools.TextCigarCodec;
 import org.junit.Assert;
 import org.junit.Test;
@@ -151,4 +153,55 @@ public class ChimericAlignmentTest {
 				Range.closedOpen(0, 5))),
 				ChimericAlignment.getUnalignedIntervals(list));
 	}
+	@Test
+	public void should_round_trip_toString() {
+		for (String sa : new String[] { "chr1,100,+,10M5S,60,2", "chr1,100,-,5S10M,0,", "chrUn_gl000216,1,+,1H2M,255," }) {
+			assertEquals(sa, new ChimericAlignment(sa).toString());
+		}
+	}
+	@Test
+	public void should_default_missing_mapq() {
+		ChimericAlignment ca = new ChimericAlignment("chr1,100,+,10M5S");
+		assertEquals(SAMRecord.UNKNOWN_MAPPING_QUALITY, ca.mapq);
+		assertNull(ca.nm);
+	}
+	@Test
+	public void should_ignore_empty_alignments() {
+		List<ChimericAlignment> list = ChimericAlignment.getChimericAlignments("chr1,100,+,10M5S,60,2;;chr2,200,-,5S10M,30,0; ");
+		assertEquals(2, list.size());
+		assertEquals("chr1", list.get(0).rname);
+		assertEquals("chr2", list.get(1).rname);
+		assertEquals(200, list.get(1).pos);
+		assertTrue(list.get(1).isNegativeStrand);
+	}
+	@Test(expected=NumberFormatException.class)
+	public void should_reject_invalid_position() {
+		new ChimericAlignment("chr1,1x0,+,10M5S,60,2");
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void should_reject_missing_cigar() {
+		new ChimericAlignment("chr1,100,+");
+	}
+	@Test
+	public void should_cache_parsed_SA_tag_on_record() {
+		SAMRecord r = new SAMRecord(null);
+		r.setAttribute(SAMTag.SA.name(), "chr1,100,+,10M5S,60,2");
+		List<ChimericAlignment> first = ChimericAlignment.getChimericAlignments(r);
+		List<ChimericAlignment> second = ChimericAlignment.getChimericAlignments(r);
+		assertEquals(first, second);
+		assertSame(first.get(0), second.get(0));
+		// callers can modify the returned list
+		first.clear();
+		assertEquals(1, ChimericAlignment.getChimericAlignments(r).size());
+		r.setAttribute(SAMTag.SA.name(), "chr2,200,-,5S10M,30,0;chr3,300,+,10M5S,30,0");
+		List<ChimericAlignment> updated = ChimericAlignment.getChimericAlignments(r);
+		assertEquals(2, updated.size());
+		assertEquals("chr2", updated.get(0).rname);
+		r.setAttribute(SAMTag.SA.name(), null);
+		assertEquals(0, ChimericAlignment.getChimericAlignments(r).size());
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void should_reject_BEALN_without_position() {
+		ChimericAlignment.parseBEALNAlignment("chr1|+|10M|60");
+	}
 }
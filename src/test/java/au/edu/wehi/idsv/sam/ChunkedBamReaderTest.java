@@ -0,0 +1,103 @@
+package au.edu.wehi.idsv.sam;
+
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.util.CloseableIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ChunkedBamReaderTest extends TestHelper {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	private static final List<QueryInterval[]> CHUNKS = ImmutableList.of(
+			new QueryInterval[] { new QueryInterval(0, 1, 105000) },
+			new QueryInterval[] { new QueryInterval(0, 95000, 205000) },
+			new QueryInterval[] { new QueryInterval(0, 195000, 400000), new QueryInterval(1, 1, 5000) },
+			new QueryInterval[] { new QueryInterval(1, 1, 400000) });
+	private File createIndexedBam() {
+		SAMFileHeader header = new SAMFileHeader();
+		header.setSequenceDictionary(new SAMSequenceDictionary(ImmutableList.of(
+				new SAMSequenceRecord("big", 400000),
+				new SAMSequenceRecord("big2", 400000))));
+		header.setSortOrder(SortOrder.coordinate);
+		File file = new File(testFolder.getRoot(), "chunked.bam");
+		try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, file)) {
+			int n = 0;
+			for (int referenceIndex = 0; referenceIndex < 2; referenceIndex++) {
+				for (int position = 1; position < 300000; position += 10) {
+					SAMRecord r = new SAMRecord(header);
+					r.setReadName("r" + n++);
+					r.setReferenceIndex(referenceIndex);
+					r.setAlignmentStart(position);
+					r.setCigarString("100M");
+					r.setReadBases(B(Strings.repeat("ACGT", 25)));
+					r.setBaseQualities(new byte[100]);
+					writer.addAlignment(r);
+				}
+			}
+		}
+		return file;
+	}
+	private static List<String> names(Iterator<SAMRecord> it) {
+		List<String> list = new ArrayList<>();
+		while (it.hasNext()) {
+			list.add(it.next().getReadName());
+		}
+		return list;
+	}
+	private static List<String> queryOverlapping(File file, QueryInterval[] intervals) throws IOException {
+		try (SamReader reader = SamReaderFactory.makeDefault().open(file)) {
+			try (SAMRecordIterator it = reader.queryOverlapping(intervals)) {
+				return names(it);
+			}
+		}
+	}
+	@Test
+	public void should_return_same_records_as_overlapping_query() throws IOException {
+		File file = createIndexedBam();
+		try (ChunkedBamReader reader = new ChunkedBamReader(() -> SamReaderFactory.makeDefault().open(file), CHUNKS, 1)) {
+			for (int i = 0; i < CHUNKS.size(); i++) {
+				List<String> expected = queryOverlapping(file, CHUNKS.get(i));
+				assertFalse(expected.isEmpty());
+				try (CloseableIterator<SAMRecord> it = reader.iterator(i)) {
+					assertEquals(expected, names(it));
+				}
+			}
+		}
+	}
+	@Test
+	public void should_allow_additional_iterations_after_shared_records_released() throws IOException {
+		File file = createIndexedBam();
+		try (ChunkedBamReader reader = new ChunkedBamReader(() -> SamReaderFactory.makeDefault().open(file), CHUNKS, 1)) {
+			for (int pass = 0; pass < 3; pass++) {
+				for (int i = CHUNKS.size() - 1; i >= 0; i--) {
+					try (CloseableIterator<SAMRecord> it = reader.iterator(i)) {
+						assertEquals(queryOverlapping(file, CHUNKS.get(i)), names(it));
+					}
+				}
+			}
+		}
+	}
+}
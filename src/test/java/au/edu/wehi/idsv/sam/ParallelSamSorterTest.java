@@ -0,0 +1,91 @@
+package au.edu.wehi.idsv.sam;
+
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.collect.Lists;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordComparator;
+import htsjdk.samtools.util.CloseableIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelSamSorterTest extends TestHelper {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	private List<SAMRecord> randomRecords(int count) {
+		Random rng = new Random(0);
+		List<SAMRecord> list = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			SAMRecord r;
+			if (rng.nextInt(10) == 0) {
+				r = Unmapped(5);
+			} else {
+				r = Read(rng.nextInt(3), 1 + rng.nextInt(20), "5M");
+				r.setReadNegativeStrandFlag(rng.nextBoolean());
+			}
+			// short and long names sharing prefixes
+			r.setReadName(rng.nextBoolean() ? "r" + rng.nextInt(50) : "read" + rng.nextInt(50) + "/" + i);
+			r.setMappingQuality(rng.nextInt(60));
+			list.add(r);
+		}
+		return list;
+	}
+	private void assertSortedAsComparator(SAMRecordComparator comparator, int maxRecordsInRam) {
+		assertSortedAsComparator(comparator, maxRecordsInRam, ParallelSamSorter.DEFAULT_MAX_RUNS_PER_MERGE);
+	}
+	private void assertSortedAsComparator(SAMRecordComparator comparator, int maxRecordsInRam, int maxRunsPerMerge) {
+		List<SAMRecord> in = randomRecords(1000);
+		List<SAMRecord> expected = new ArrayList<>(in);
+		expected.sort(comparator);
+		List<SAMRecord> result;
+		try (ParallelSamSorter sorter = new ParallelSamSorter(getHeader(), comparator, maxRecordsInRam, testFolder.getRoot(), maxRunsPerMerge)) {
+			for (SAMRecord r : in) {
+				sorter.add(r);
+			}
+			try (CloseableIterator<SAMRecord> it = sorter.iterator()) {
+				result = Lists.newArrayList(it);
+			}
+		}
+		assertEquals(
+				expected.stream().map(SAMRecord::getSAMString).collect(Collectors.toList()),
+				result.stream().map(SAMRecord::getSAMString).collect(Collectors.toList()));
+	}
+	@Test
+	public void should_sort_in_memory() {
+		assertSortedAsComparator(SortOrder.coordinate.getComparatorInstance(), 100000);
+		assertSortedAsComparator(SortOrder.queryname.getComparatorInstance(), 100000);
+	}
+	@Test
+	public void should_merge_spilled_runs() {
+		assertSortedAsComparator(SortOrder.coordinate.getComparatorInstance(), 64);
+		assertSortedAsComparator(SortOrder.queryname.getComparatorInstance(), 64);
+	}
+	@Test
+	public void should_cascade_merge_when_runs_exceed_fan_in() {
+		assertSortedAsComparator(SortOrder.coordinate.getComparatorInstance(), 4, 3);
+		assertSortedAsComparator(SortOrder.queryname.getComparatorInstance(), 8, 2);
+		assertSortedAsComparator(new SAMRecordEndCoordinateComparator(), 16, 5);
+	}
+	@Test
+	public void should_sort_using_comparator_without_primitive_key() {
+		assertSortedAsComparator(new SAMRecordEndCoordinateComparator(), 64);
+	}
+	@Test
+	public void should_remove_temporary_runs() {
+		try (ParallelSamSorter sorter = new ParallelSamSorter(getHeader(), SortOrder.coordinate.getComparatorInstance(), 4, testFolder.getRoot(), 3)) {
+			for (SAMRecord r : randomRecords(100)) {
+				sorter.add(r);
+			}
+			sorter.iterator().close();
+		}
+		assertEquals(0, testFolder.getRoot().listFiles().length);
+	}
+}
@@ -0,0 +1,266 @@
+package au.edu.wehi.idsv.sam;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.collect.Lists;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class SamReaderPoolTest extends TestHelper {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	private File createIndexedBam(String name, int records) {
+		File file = new File(testFolder.getRoot(), name);
+		SAMFileHeader header = getHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, file)) {
+			for (int i = 1; i <= records; i++) {
+				writer.addAlignment(Read(0, i, "10M"));
+			}
+		}
+		return file;
+	}
+	private File createIndexedBamOnEachReference(String name, int recordsPerReference) {
+		File file = new File(testFolder.getRoot(), name);
+		SAMFileHeader header = getHeader();
+		header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+		try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, file)) {
+			for (int referenceIndex = 0; referenceIndex < 3; referenceIndex++) {
+				for (int i = 1; i <= recordsPerReference; i++) {
+					writer.addAlignment(Read(referenceIndex, i, "10M"));
+				}
+			}
+		}
+		return file;
+	}
+	/**
+	 * Rewrites the .bai index of the given file as a .csi index with the same binning scheme
+	 */
+	private void convertBaiToCsi(File bam) throws IOException {
+		File bai = new File(bam.getPath().replace(".bam", ".bai"));
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(bai.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer out = ByteBuffer.allocate(2 * in.capacity() + 64).order(ByteOrder.LITTLE_ENDIAN);
+		in.position(4);
+		out.put(new byte[] { 'C', 'S', 'I', 1 });
+		out.putInt(14); // min_shift
+		out.putInt(5); // depth
+		out.putInt(0); // l_aux
+		int nRef = in.getInt();
+		out.putInt(nRef);
+		for (int ref = 0; ref < nRef; ref++) {
+			int nBin = in.getInt();
+			int binStart = in.position();
+			// skip to linear index to determine bin offsets
+			for (int i = 0; i < nBin; i++) {
+				in.getInt();
+				int nChunk = in.getInt();
+				in.position(in.position() + 16 * nChunk);
+			}
+			long[] linear = new long[in.getInt()];
+			for (int i = 0; i < linear.length; i++) {
+				linear[i] = in.getLong();
+			}
+			int refEnd = in.position();
+			in.position(binStart);
+			out.putInt(nBin);
+			for (int i = 0; i < nBin; i++) {
+				int bin = in.getInt();
+				int level = bin >= 4681 ? 5 : bin >= 585 ? 4 : bin >= 73 ? 3 : bin >= 9 ? 2 : bin >= 1 ? 1 : 0;
+				int firstBinInLevel = ((1 << (3 * level)) - 1) / 7;
+				int linearIndex = (bin - firstBinInLevel) << (3 * (5 - level));
+				out.putInt(bin);
+				out.putLong(linearIndex < linear.length ? linear[linearIndex] : 0);
+				int nChunk = in.getInt();
+				out.putInt(nChunk);
+				for (int j = 0; j < 2 * nChunk; j++) {
+					out.putLong(in.getLong());
+				}
+			}
+			in.position(refEnd);
+		}
+		if (in.remaining() >= 8) {
+			out.putLong(in.getLong()); // n_no_coor
+		}
+		File csi = new File(bam.getPath() + ".csi");
+		Files.write(csi.toPath(), Arrays.copyOf(out.array(), out.position()));
+		csi.setLastModified(bam.lastModified() + 1000);
+		Files.delete(bai.toPath());
+	}
+	private void assertQueriesAlternatingReferences(File file, int recordsPerReference) throws IOException {
+		try (SamReaderPool pool = pool(4, 60000)) {
+			try (SamReader r1 = pool.open(file); SamReader r2 = pool.open(file)) {
+				BAMIndex index = r1.indexing().getIndex();
+				Assert.assertSame(index, r2.indexing().getIndex());
+				for (int i = 0; i < 3; i++) {
+					for (String contig : new String[] { "polyA", "polyACGT", "random" }) {
+						SamReader reader = i % 2 == 0 ? r1 : r2;
+						try (SAMRecordIterator it = reader.queryOverlapping(contig, 1, 5)) {
+							assertEquals(5, Lists.newArrayList(it).size());
+						}
+						try (SAMRecordIterator it = reader.queryOverlapping(contig, recordsPerReference - 5, recordsPerReference + 100)) {
+							assertEquals(15, Lists.newArrayList(it).size());
+						}
+					}
+				}
+			}
+		}
+	}
+	@Test
+	public void should_share_parsed_index_between_readers_of_same_file() throws IOException {
+		File a = createIndexedBamOnEachReference("a.bam", 100);
+		File b = createIndexedBamOnEachReference("b.bam", 100);
+		try (SamReaderPool pool = pool(4, 60000)) {
+			try (SamReader ra1 = pool.open(a); SamReader ra2 = pool.open(a); SamReader rb = pool.open(b)) {
+				Assert.assertSame(ra1.indexing().getIndex(), ra2.indexing().getIndex());
+				assertNotSame(ra1.indexing().getIndex(), rb.indexing().getIndex());
+			}
+		}
+	}
+	@Test
+	public void should_query_alternating_references_with_shared_bai_index() throws IOException {
+		File file = createIndexedBamOnEachReference("a.bam", 100);
+		assertQueriesAlternatingReferences(file, 100);
+	}
+	@Test
+	public void should_query_alternating_references_with_shared_csi_index() throws IOException {
+		File file = createIndexedBamOnEachReference("a.bam", 100);
+		convertBaiToCsi(file);
+		try (SamReader reader = SamReaderFactory.makeDefault().open(file)) {
+			assertEquals(SamReader.Type.BAM_CSI_TYPE, reader.type());
+		}
+		assertQueriesAlternatingReferences(file, 100);
+	}
+	@Test
+	public void should_not_share_index_of_rewritten_file() throws IOException {
+		File file = createIndexedBamOnEachReference("a.bam", 100);
+		try (SamReaderPool pool = pool(0, 60000)) {
+			try (SamReader r1 = pool.open(file)) {
+				r1.indexing().getIndex();
+				createIndexedBamOnEachReference("a.bam", 200);
+				try (SamReader r2 = pool.open(file)) {
+					try (SAMRecordIterator it = r2.queryOverlapping("random", 150, 160)) {
+						assertEquals(20, Lists.newArrayList(it).size());
+					}
+				}
+			}
+		}
+	}
+	private SamReaderPool pool(int size, long idleMillis) {
+		return new SamReaderPool(SamReaderFactory.makeDefault(), size, idleMillis);
+	}
+	@Test
+	public void should_reuse_reader_once_lease_closed() throws IOException {
+		File file = createIndexedBam("a.bam", 10);
+		try (SamReaderPool pool = pool(4, 60000)) {
+			SamReader reader = pool.open(file);
+			assertEquals(0, pool.getIdleCount());
+			assertEquals(10, Lists.newArrayList(reader.iterator()).size());
+			reader.close();
+			assertEquals(1, pool.getIdleCount());
+			try (SamReader reader2 = pool.open(file)) {
+				assertEquals(0, pool.getIdleCount());
+				assertEquals(10, Lists.newArrayList(reader2.iterator()).size());
+			}
+			assertEquals(1, pool.getIdleCount());
+		}
+	}
+	@Test
+	public void should_close_lease_iterators_when_lease_closed() throws IOException {
+		File file = createIndexedBam("a.bam", 10);
+		try (SamReaderPool pool = pool(4, 60000)) {
+			SamReader reader = pool.open(file);
+			SAMRecordIterator it = reader.queryOverlapping("polyA", 1, 5);
+			it.next();
+			reader.close();
+			try (SamReader reader2 = pool.open(file)) {
+				try (SAMRecordIterator it2 = reader2.queryOverlapping("polyA", 1, 5)) {
+					assertEquals(5, Lists.newArrayList(it2).size());
+				}
+				try (SAMRecordIterator it2 = reader2.iterator()) {
+					assertEquals(10, Lists.newArrayList(it2).size());
+				}
+			}
+		}
+	}
+	@Test
+	public void should_not_reuse_reader_of_rewritten_file() throws IOException {
+		File file = createIndexedBam("a.bam", 10);
+		try (SamReaderPool pool = pool(4, 60000)) {
+			try (SamReader reader = pool.open(file)) {
+				assertEquals(10, Lists.newArrayList(reader.iterator()).size());
+			}
+			createIndexedBam("a.bam", 20);
+			try (SamReader reader = pool.open(file)) {
+				assertEquals(20, Lists.newArrayList(reader.iterator()).size());
+			}
+			assertEquals(1, pool.getIdleCount());
+		}
+	}
+	@Test
+	public void should_limit_idle_readers() throws IOException {
+		File a = createIndexedBam("a.bam", 10);
+		File b = createIndexedBam("b.bam", 10);
+		try (SamReaderPool pool = pool(1, 60000)) {
+			SamReader ra = pool.open(a);
+			SamReader rb = pool.open(b);
+			ra.close();
+			rb.close();
+			assertEquals(1, pool.getIdleCount());
+		}
+	}
+	@Test
+	public void should_evict_expired_idle_readers() throws IOException, InterruptedException {
+		File a = createIndexedBam("a.bam", 10);
+		File b = createIndexedBam("b.bam", 10);
+		try (SamReaderPool pool = pool(4, 1)) {
+			pool.open(a).close();
+			assertEquals(1, pool.getIdleCount());
+			Thread.sleep(10);
+			try (SamReader reader = pool.open(b)) {
+				assertEquals(0, pool.getIdleCount());
+			}
+		}
+	}
+	@Test
+	public void should_not_pool_readers_when_size_zero() throws IOException {
+		File a = createIndexedBam("a.bam", 10);
+		try (SamReaderPool pool = pool(0, 60000)) {
+			pool.open(a).close();
+			assertEquals(0, pool.getIdleCount());
+		}
+	}
+	@Test
+	public void should_close_idle_readers_of_deleted_file() throws IOException {
+		File a = createIndexedBam("a.bam", 10);
+		File b = createIndexedBam("b.bam", 10);
+		try (SamReaderPool pool = pool(4, 60000)) {
+			pool.open(a).close();
+			pool.open(b).close();
+			assertEquals(2, pool.getIdleCount());
+			FileHelper.delete(a, true);
+			assertEquals(1, pool.getIdleCount());
+			FileHelper.move(b, a, true);
+			assertEquals(0, pool.getIdleCount());
+		}
+	}
+}
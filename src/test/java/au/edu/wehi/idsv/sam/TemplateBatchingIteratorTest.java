@@ -0,0 +1,61 @@
+package au.edu.wehi.idsv.sam;
+
+import au.edu.wehi.idsv.TestHelper;
+import com.google.common.collect.ImmutableList;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TemplateBatchingIteratorTest extends TestHelper {
+    private static SAMRecord named(SAMRecord r, String name) {
+        r.setReadName(name);
+        return r;
+    }
+    @Test
+    public void should_group_by_read_name_into_batches() {
+        List<SAMRecord> in = ImmutableList.of(
+                named(Read(0, 1, "1M"), "a"),
+                named(Read(0, 1, "1M"), "a"),
+                named(Read(0, 1, "1M"), "b"),
+                named(Read(0, 1, "1M"), "c"),
+                named(Read(0, 1, "1M"), "c"),
+                named(Read(0, 1, "1M"), "c"));
+        TemplateBatchingIterator it = new TemplateBatchingIterator(in.iterator(), 2);
+        TemplateBatch batch = it.next();
+        assertEquals(2, batch.getTemplateCount());
+        assertEquals(3, batch.getRecordCount());
+        assertEquals(ImmutableList.of(in.get(0), in.get(1)), batch.getTemplate(0));
+        assertEquals(ImmutableList.of(in.get(2)), batch.getTemplate(1));
+        assertEquals(2, batch.getTemplateStart(1));
+        assertEquals(3, batch.getTemplateEnd(1));
+        batch.release();
+        TemplateBatch batch2 = it.next();
+        assertTrue(batch == batch2);
+        assertEquals(1, batch2.getTemplateCount());
+        assertEquals(ImmutableList.of(in.get(3), in.get(4), in.get(5)), batch2.getTemplate(0));
+        assertFalse(it.hasNext());
+    }
+    @Test
+    public void should_grow_batch_arrays() {
+        List<SAMRecord> in = ImmutableList.of(
+                named(Read(0, 1, "1M"), "a"),
+                named(Read(0, 1, "1M"), "a"),
+                named(Read(0, 1, "1M"), "a"),
+                named(Read(0, 1, "1M"), "a"),
+                named(Read(0, 1, "1M"), "a"));
+        TemplateBatch batch = new TemplateBatchingIterator(in.iterator(), 1).next();
+        assertEquals(1, batch.getTemplateCount());
+        assertEquals(in, batch.getTemplate(0));
+    }
+    @Test
+    public void should_treat_unnamed_records_as_separate_templates() {
+        List<SAMRecord> in = ImmutableList.of(
+                named(Read(0, 1, "1M"), null),
+                named(Read(0, 1, "1M"), null));
+        TemplateBatch batch = new TemplateBatchingIterator(in.iterator(), 10).next();
+        assertEquals(2, batch.getTemplateCount());
+    }
+}
@@ -1,14 +1,29 @@
 package au.edu.wehi.idsv.vcf;
 
 import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.variant.variantcontext.VariantContext;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
 
 public class InsertedSequenceAnnotatorTest extends TestHelper {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
     @Test
     public void should_replace_pipes_with_underscores() {
         SAMRecord r = new SAMRecord(null);
@@ -22,4 +37,120 @@ public class InsertedSequenceAnnotatorTest extends TestHelper {
         Assert.assertEquals("with_pipe:1|+|50M|5", result.get(0));
         Assert.assertEquals("chr_piped:5|-|50M|", result.get(1));
     }
-}
\ No newline at end of file
+    /**
+     * Aligns each read to the position matching its length.
+     * Alignments are only made available once a batch is full or the aligner is flushed.
+     */
+    private static class BatchingAligner implements StreamingAligner {
+        private final int batchSize;
+        private final List<SAMRecord> pending = new ArrayList<>();
+        private final Queue<SAMRecord> done = new ArrayDeque<>();
+        private int flushCount = 0;
+        private int alignCount = 0;
+        private BatchingAligner(int batchSize) {
+            this.batchSize = batchSize;
+        }
+        @Override
+        public synchronized void asyncAlign(FastqRecord fq) {
+            SAMRecord r = new SAMRecord(null);
+            r.setReadName(fq.getReadName());
+            r.setReferenceName("polyA");
+            r.setAlignmentStart(fq.getReadLength());
+            r.setCigarString(fq.getReadLength() + "M");
+            r.setMappingQuality(60);
+            pending.add(r);
+            alignCount++;
+            if (pending.size() >= batchSize) {
+                done.addAll(pending);
+                pending.clear();
+            }
+        }
+        @Override
+        public synchronized void flush() {
+            flushCount++;
+            done.addAll(pending);
+            pending.clear();
+        }
+        @Override
+        public synchronized int processedAlignmentRecords() {
+            return done.size();
+        }
+        @Override
+        public synchronized int outstandingAlignmentRecord() {
+            return pending.size();
+        }
+        @Override
+        public synchronized SAMRecord getAlignment() {
+            return done.poll();
+        }
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+    private File writeVcf(int records) throws IOException {
+        File vcf = testFolder.newFile("in.vcf");
+        StringBuilder sb = new StringBuilder();
+        sb.append("##fileformat=VCFv4.2\n");
+        sb.append("##INFO=<ID=BEALN,Number=.,Type=String,Description=\"\">\n");
+        sb.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\n");
+        for (int i = 0; i < records; i++) {
+            // every third record has an insertion too short to align
+            int insLength = i % 3 == 0 ? 2 : 20 + i;
+            StringBuilder ins = new StringBuilder();
+            for (int j = 0; j < insLength; j++) {
+                ins.append('A');
+            }
+            // identifiers are deliberately not unique
+            sb.append(String.format("polyA\t%d\tid%d\tA\tA%s.\t.\t.\t.\n", i + 1, i / 2, ins));
+        }
+        Files.write(vcf.toPath(), sb.toString().getBytes(StandardCharsets.UTF_8));
+        return vcf;
+    }
+    @Test
+    public void should_annotate_records_in_vcf_order() throws IOException {
+        int n = 100;
+        File vcf = writeVcf(n);
+        BatchingAligner aligner = new BatchingAligner(5);
+        List<VariantContext> result;
+        try (InsertedSequenceAnnotator ann = new InsertedSequenceAnnotator(vcf, aligner, 10, true, false, 4, 2, 32)) {
+            result = Lists.newArrayList(ann);
+        }
+        Assert.assertEquals(n, result.size());
+        for (int i = 0; i < n; i++) {
+            VariantContext vc = result.get(i);
+            Assert.assertEquals(i + 1, vc.getStart());
+            List<String> aln = vc.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null);
+            if (i % 3 == 0) {
+                Assert.assertTrue(aln.isEmpty());
+            } else {
+                Assert.assertEquals(ImmutableList.of(String.format("polyA:%d|+|%dM|60", 20 + i, 20 + i)), aln);
+            }
+        }
+        // alignments should be returned without requiring a flush for every record
+        Assert.assertTrue(aligner.flushCount < n / 3);
+    }
+    @Test
+    public void should_submit_first_batch_before_vcf_fully_read() throws IOException {
+        int n = 300;
+        File vcf = writeVcf(n);
+        BatchingAligner aligner = new BatchingAligner(5);
+        try (InsertedSequenceAnnotator ann = new InsertedSequenceAnnotator(vcf, aligner, 10, true, false, 4, 2, 16)) {
+            int count = 0;
+            int alignedAtFirstAnnotation = -1;
+            while (ann.hasNext()) {
+                VariantContext vc = ann.next();
+                count++;
+                if (alignedAtFirstAnnotation < 0 && !vc.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null).isEmpty()) {
+                    synchronized (aligner) {
+                        alignedAtFirstAnnotation = aligner.alignCount;
+                    }
+                }
+            }
+            Assert.assertEquals(n, count);
+            // 200 records have sequences to align but only the first few batches have been read when the first alignment is returned
+            Assert.assertTrue(alignedAtFirstAnnotation > 0);
+            Assert.assertTrue(alignedAtFirstAnnotation <= 16);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package gridss;
+
+import au.edu.wehi.idsv.*;
+import au.edu.wehi.idsv.bed.PonStore;
+import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.vcf.VcfFilter;
+import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.apache.commons.math3.util.Pair;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotatePanelOfNormalsTest extends IntermediateFilesTest {
+	@Test
+	public void should_annotate_pon_count() throws IOException {
+		ProcessingContext pc = getContext();
+		PonStore.write(output, pc.getDictionary(), ImmutableList.of(
+				Pair.<BreakendSummary, Integer>create(new BreakendSummary(0, FWD, 10), 1),
+				Pair.<BreakendSummary, Integer>create(new BreakpointSummary(2, FWD, 78, 6, BWD, 79), 3)).iterator());
+		VariantContextDirectedEvidence bp = (VariantContextDirectedEvidence)new IdsvVariantContextBuilder(pc) {{
+			breakpoint(new BreakpointSummary(2, FWD, 78, 6, BWD, 79), "");
+			phredScore(50);
+		}}.make();
+		VariantContextDirectedEvidence be = (VariantContextDirectedEvidence)new IdsvVariantContextBuilder(pc) {{
+			breakend(new BreakendSummary(0, BWD, 10), "");
+			phredScore(50);
+		}}.make();
+		AnnotatePanelOfNormals apon = new AnnotatePanelOfNormals();
+		apon.setContext(pc);
+		apon.PON = output;
+		apon.MIN_FILTER_COUNT = 2;
+		ExecutorService threadpool = Executors.newSingleThreadExecutor();
+		try {
+			List<VariantContextDirectedEvidence> result = Lists.newArrayList(apon.iterator(new AutoClosingIterator<>(ImmutableList.of(bp, be).iterator()), threadpool));
+			assertEquals(3, result.get(0).getAttributeAsInt(VcfInfoAttributes.PANEL_OF_NORMALS_COUNT.attribute(), -1));
+			assertTrue(result.get(0).getFilters().contains(VcfFilter.PANEL_OF_NORMALS.filter()));
+			assertEquals(0, result.get(1).getAttributeAsInt(VcfInfoAttributes.PANEL_OF_NORMALS_COUNT.attribute(), -1));
+			assertFalse(result.get(1).getFilters().contains(VcfFilter.PANEL_OF_NORMALS.filter()));
+		} finally {
+			threadpool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package scambler;
+
+import au.edu.wehi.idsv.debruijn.PackedSequence;
+import htsjdk.samtools.SAMRecord;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactStringGraphTest extends StringGraphTestHelper {
+	private static int[] load(CompactStringGraph<Integer> g, List<SAMRecord> reads) {
+		int[] nodes = new int[reads.size()];
+		for (int i = 0; i < reads.size(); i++) {
+			nodes[i] = g.add(new PackedSequence(reads.get(i).getReadBases(), false, false), i);
+		}
+		for (int node : nodes) {
+			g.calculateSuccessors(node);
+		}
+		return nodes;
+	}
+	@Test
+	public void should_transitive_reduce_simple_three_read_overlap() {
+		// AAA
+		//  BBB
+		//   CCC
+		CompactStringGraph<Integer> g = new CompactStringGraph<>(3, 0, 0);
+		int[] nodes = load(g, overlapping(3, 9, 3));
+		assertEquals(3, g.edgeCount());
+		for (int node : nodes) {
+			g.reduce(node);
+		}
+		assertEquals(2, g.edgeCount());
+		assertEquals(1, g.getOutDegree(nodes[0]));
+		assertEquals(1, g.getInDegree(nodes[2]));
+	}
+	@Test
+	public void should_reduce_perfect_graph_to_single_unitig() {
+		for (int i = 3; i < 100; i++) {
+			CompactStringGraph<Integer> g = new CompactStringGraph<>(20, 0, 0);
+			int[] nodes = load(g, overlapping(i, 60, 20));
+			for (int node : nodes) {
+				g.reduce(node);
+			}
+			assertEquals(i - 1, g.edgeCount());
+			IntArrayList unitig = g.unitigNodes(g.unitigStart(nodes[i / 2]));
+			assertEquals(i, unitig.size());
+			CompactStringGraph.Unitig<Integer> contig = g.assembleAndRelease(unitig);
+			assertEquals(S(RANDOM).substring(0, 20 * (i - 1) + 60), S(contig.bases));
+			assertEquals(i, contig.reads.size());
+			for (int j = 0; j < i; j++) {
+				assertEquals(20 * (int)contig.reads.get(j), contig.readOffsets[j]);
+			}
+			assertEquals(0, g.size());
+			assertEquals(0, g.edgeCount());
+		}
+	}
+	@Test
+	public void should_report_contained_reads_as_unitig_support() {
+		CompactStringGraph<Integer> g = new CompactStringGraph<>(10, 0, 0);
+		int a = g.add(new PackedSequence(B(S(RANDOM).substring(0, 50)), false, false), 0);
+		int b = g.add(new PackedSequence(B(S(RANDOM).substring(10, 30)), false, false), 1);
+		int c = g.add(new PackedSequence(B(S(RANDOM).substring(0, 50)), false, false), 2);
+		int d = g.add(new PackedSequence(B(S(RANDOM).substring(40, 90)), false, false), 3);
+		for (int node : new int[] { a, b, c, d }) {
+			g.calculateSuccessors(node);
+		}
+		assertTrue(g.isContained(b));
+		// identical reads are contained by the first read added
+		assertTrue(g.isContained(c));
+		assertEquals(a, g.getContainer(c));
+		assertEquals(1, g.edgeCount());
+		CompactStringGraph.Unitig<Integer> contig = g.assembleAndRelease(g.unitigNodes(g.unitigStart(d)));
+		assertEquals(S(RANDOM).substring(0, 90), S(contig.bases));
+		assertEquals(4, contig.reads.size());
+		for (int i = 0; i < contig.reads.size(); i++) {
+			assertEquals(new int[] { 0, 10, 0, 40 }[contig.reads.get(i)], contig.readOffsets[i]);
+		}
+		assertEquals(0, g.size());
+	}
+	@Test
+	public void should_reuse_released_node_storage() {
+		CompactStringGraph<Integer> g = new CompactStringGraph<>(20, 0, 0);
+		for (int i = 0; i < 10; i++) {
+			int[] nodes = load(g, overlapping(3, 60, 20));
+			for (int node : nodes) {
+				g.reduce(node);
+			}
+			CompactStringGraph.Unitig<Integer> contig = g.assembleAndRelease(g.unitigNodes(g.unitigStart(nodes[0])));
+			assertEquals(3, contig.reads.size());
+			assertTrue(nodes[0] < 3 && nodes[1] < 3 && nodes[2] < 3);
+		}
+	}
+	@Test
+	public void should_find_overlap_with_mismatch_in_first_seed() {
+		CompactStringGraph<Integer> g = new CompactStringGraph<>(40, 1, 1);
+		String seq = S(RANDOM).substring(0, 100);
+		byte[] mismatch = B(seq.substring(30, 100));
+		mismatch[5] = (byte)(mismatch[5] == 'A' ? 'C' : 'A');
+		int a = g.add(new PackedSequence(B(seq.substring(0, 70)), false, false), 0);
+		int b = g.add(new PackedSequence(mismatch, false, false), 1);
+		g.calculateSuccessors(a);
+		g.calculateSuccessors(b);
+		assertEquals(1, g.edgeCount());
+		assertEquals(1, g.getOutDegree(a));
+		assertEquals(1, g.getInDegree(b));
+	}
+}
@@ -0,0 +1,61 @@
+package scambler;
+
+import au.edu.wehi.idsv.AssemblyEvidenceSource;
+import au.edu.wehi.idsv.BreakendSummary;
+import au.edu.wehi.idsv.DirectedEvidence;
+import au.edu.wehi.idsv.DirectedEvidenceOrder;
+import au.edu.wehi.idsv.ProcessingContext;
+import au.edu.wehi.idsv.SequentialIdGenerator;
+import au.edu.wehi.idsv.SingleReadEvidence;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class StringGraphAssemblerTest extends StringGraphTestHelper {
+	private List<DirectedEvidence> softClips(int position, String seq) {
+		// 16M4S, 12M8S, 8M12S all with breakend at position + 15
+		List<DirectedEvidence> list = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			list.add(SCE(FWD, withSequence(seq.substring(4 * i, 4 * i + 20), Read(0, position + 4 * i, String.format("%dM%dS", 16 - 4 * i, 4 + 4 * i)))[0]));
+		}
+		return list;
+	}
+	@Test
+	public void should_assemble_anchored_breakend() {
+		ProcessingContext pc = getContext();
+		pc.getAssemblyParameters().anchorLength = 1;
+		AssemblyEvidenceSource aes = AES(pc);
+		String seq = S(RANDOM).substring(0, 40);
+		List<DirectedEvidence> input = softClips(100, seq);
+		input.sort(DirectedEvidenceOrder.ByStartEndStart2End2);
+		List<SingleReadEvidence> r = asAssemblyEvidence(aes, Lists.newArrayList(new StringGraphAssembler(pc, aes, new SequentialIdGenerator("asm"), input.iterator(), FWD, 8, 0)));
+		assertEquals(1, r.size());
+		assertEquals(new BreakendSummary(0, FWD, 115), r.get(0).getBreakendSummary());
+		// anchor trimmed to breakend length
+		assertEquals(seq.substring(4, 16), S(r.get(0).getAnchorSequence()));
+		assertEquals(seq.substring(16, 28), S(r.get(0).getBreakendSequence()));
+	}
+	@Test
+	public void should_assemble_each_breakend_separately() {
+		ProcessingContext pc = getContext();
+		AssemblyEvidenceSource aes = AES(pc);
+		List<DirectedEvidence> input = softClips(100, S(RANDOM).substring(0, 40));
+		input.addAll(softClips(10000, S(RANDOM).substring(100, 140)));
+		input.addAll(softClips(10100, S(RANDOM).substring(200, 240)));
+		input.sort(DirectedEvidenceOrder.ByStartEndStart2End2);
+		List<SingleReadEvidence> r = asAssemblyEvidence(aes, Lists.newArrayList(new StringGraphAssembler(pc, aes, new SequentialIdGenerator("asm"), input.iterator(), FWD, 8, 0)));
+		assertEquals(3, r.size());
+	}
+	@Test
+	public void should_only_assemble_breakends_in_the_given_direction() {
+		ProcessingContext pc = getContext();
+		AssemblyEvidenceSource aes = AES(pc);
+		List<DirectedEvidence> input = softClips(100, S(RANDOM).substring(0, 40));
+		input.sort(DirectedEvidenceOrder.ByStartEndStart2End2);
+		assertEquals(0, Lists.newArrayList(new StringGraphAssembler(pc, aes, new SequentialIdGenerator("asm"), input.iterator(), BWD, 8, 0)).size());
+	}
+}